@@ -1,18 +1,42 @@
 package com.github.wangdong20.kotlinscriptcompiler;
 
 import com.github.wangdong20.kotlinscriptcompiler.codegen.CodeGenerator;
+import com.github.wangdong20.kotlinscriptcompiler.codegen.CodeGeneratorException;
+import com.github.wangdong20.kotlinscriptcompiler.optimizer.ConstantFolder;
+import com.github.wangdong20.kotlinscriptcompiler.optimizer.DeadCodeEliminator;
 import com.github.wangdong20.kotlinscriptcompiler.parser.Parser;
 import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.IncrementalParser;
+import com.github.wangdong20.kotlinscriptcompiler.parser.ParallelParser;
+import com.github.wangdong20.kotlinscriptcompiler.parser.ParseException;
+import com.github.wangdong20.kotlinscriptcompiler.token.ArrayTokenStream;
+import com.github.wangdong20.kotlinscriptcompiler.token.LazyTokenStream;
+import com.github.wangdong20.kotlinscriptcompiler.token.ParallelTokenizer;
 import com.github.wangdong20.kotlinscriptcompiler.token.Token;
+import com.github.wangdong20.kotlinscriptcompiler.token.TokenSource;
 import com.github.wangdong20.kotlinscriptcompiler.token.Tokenizer;
+import com.github.wangdong20.kotlinscriptcompiler.token.TokenizerException;
+import com.github.wangdong20.kotlinscriptcompiler.token.Utf8Tokenizer;
+import com.github.wangdong20.kotlinscriptcompiler.typechecker.ParallelTypechecker;
+import com.github.wangdong20.kotlinscriptcompiler.typechecker.TypecheckCache;
 import com.github.wangdong20.kotlinscriptcompiler.typechecker.Typechecker;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
 
 public class Dwks {
 
+    // With -Ddwks.incremental=true, the parser of every file compiled so far, by canonical path.
+    private static final Map<String, IncrementalParser> incrementalParsers = new HashMap<>();
+
     private static void welcome() {
         System.out.println("This is DwKotlinScriptCompiler written by Dong Wang. This compiler is based on JVM");
         System.out.println("Please use dwks path/src.ks to compile source code file with suffix .ks");
@@ -20,41 +44,102 @@ public class Dwks {
         System.out.println("Type quit to quit this compiler program\n");
     }
 
-    private static String readKsToString(String fileNameWithPath) throws IOException {
-        BufferedReader reader = new BufferedReader(new FileReader(fileNameWithPath));
-        StringBuilder stringBuilder = new StringBuilder();
-        String line = null;
-        while ((line = reader.readLine()) != null) {
-            stringBuilder.append(line);
-            stringBuilder.append("\n");
-        }
-        // 删除最后一个新行分隔符
-        stringBuilder.deleteCharAt(stringBuilder.length() - 1);
-        reader.close();
-
-        return stringBuilder.toString();
-    }
-
     private static void compileSourceCode(String fileNameWithPath) {
         try {
             File file = new File(fileNameWithPath.trim());
             String fileName = file.getName();
-            String input = readKsToString(fileNameWithPath);
-            Tokenizer tokenizer = new Tokenizer(input);
-            List<Token> tokenList = tokenizer.tokenize();
-            Token[] tokens = new Token[tokenList.size()];
-            tokenList.toArray(tokens);
-            Parser parser = new Parser(tokens);
-            Program program = parser.parseToplevelProgram();
-            Typechecker.typecheckProgram(program);
-            CodeGenerator codeGenerator = new CodeGenerator(fileName.substring(0, fileName.lastIndexOf('.')), "compiledProgram");
+            // With -Ddwks.parallel=true, the source is read as a whole and worked on by all cores.
+            boolean parallel = Boolean.getBoolean("dwks.parallel");
+            Program program;
+            if(Boolean.getBoolean("dwks.incremental")) {
+                program = parseIncrementally(file);
+            } else {
+                program = parallel ? parseInParallel(file) : parse(file);
+            }
+            // With -Ddwks.typecheckCache=path, function bodies which passed before are not checked again.
+            String cachePath = System.getProperty("dwks.typecheckCache");
+            TypecheckCache cache = cachePath == null ? null : new TypecheckCache(new File(cachePath));
+            ConstantFolder folder = new ConstantFolder(parallel ? new ParallelTypechecker(ForkJoinPool.commonPool(), cache).typecheck(program)
+                    : Typechecker.typecheckProgram(program, cache));
+            Program folded = folder.fold(program);
+            DeadCodeEliminator eliminator = new DeadCodeEliminator();
+            program = eliminator.eliminate(folded);
+            String className = fileName.substring(0, fileName.lastIndexOf('.'));
+            CodeGenerator codeGenerator = new CodeGenerator(className, "compiledProgram", folder.getExpTypes());
             codeGenerator.writeProgram(program);
+            // With -Ddwks.deadCodeReport=true, the program is generated again unpruned to tell what was saved.
+            if(Boolean.getBoolean("dwks.deadCodeReport") && program != folded) {
+                printBytesRemoved(eliminator, new CodeGenerator(className, "compiledProgram", folder.getExpTypes()), folded,
+                        codeGenerator.getMethodSizes());
+            }
+            if(cache != null) {
+                cache.save();
+                System.out.println("Typecheck cache: " + cache.getHits() + " hits, " + cache.getMisses() + " misses");
+            }
         } catch (Exception e) {
             e.printStackTrace();
 //            System.exit(0);
         }
     }
 
+    // Tokens are scanned straight from the file while parsing, so neither the source text nor the
+    // token list has to be held in memory as a whole. Files up to 2 GB are mapped and lexed as
+    // bytes, larger ones are decoded through a reader.
+    private static Program parse(File file) throws IOException, TokenizerException, ParseException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            TokenSource tokenizer = channel.size() <= Integer.MAX_VALUE
+                    ? new Utf8Tokenizer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()))
+                    : new Tokenizer(channel);
+            Parser parser = new Parser(new LazyTokenStream(tokenizer));
+            return parser.parseToplevelProgram();
+        }
+    }
+
+    private static Program parseInParallel(File file) throws IOException, TokenizerException, ParseException {
+        ParallelTokenizer tokenizer = new ParallelTokenizer(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        List<Token> tokens = tokenizer.tokenize();
+        return new ParallelParser(new ArrayTokenStream(tokens.toArray(new Token[0]), tokenizer.getSymbolTable())).parseToplevelProgram();
+    }
+
+    // Compiling a file again only parses the top level statements which changed since the last time.
+    private static Program parseIncrementally(File file) throws IOException, TokenizerException, ParseException {
+        String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        String path = file.getCanonicalPath();
+        IncrementalParser parser = incrementalParsers.get(path);
+        if(parser == null) {
+            parser = new IncrementalParser(text);
+            incrementalParsers.put(path, parser);
+            return parser.getProgram();
+        }
+        // The edit is what lies between the longest common prefix and suffix of the old and new text.
+        String old = parser.getText();
+        int start = 0;
+        while(start < old.length() && start < text.length() && old.charAt(start) == text.charAt(start)) {
+            start++;
+        }
+        int end = 0;
+        while(end < old.length() - start && end < text.length() - start &&
+                old.charAt(old.length() - 1 - end) == text.charAt(text.length() - 1 - end)) {
+            end++;
+        }
+        Program program = parser.edit(start, old.length() - start - end, text.substring(start, text.length() - end));
+        System.out.println("Parsed " + parser.getReparsedCount() + " of " + program.getStmtList().size() + " statements again");
+        return program;
+    }
+
+    // Generates the program as it was before dead code was taken out, only to compare the sizes.
+    private static void printBytesRemoved(DeadCodeEliminator eliminator, CodeGenerator unpruned, Program program, Map<String, Integer> sizes) {
+        try {
+            unpruned.generateClass(program);
+        } catch (CodeGeneratorException e) {
+            System.out.println("No dead code report, the unpruned program cannot be generated: " + e.getMessage());
+            return;
+        }
+        for(Map.Entry<String, Integer> removed : eliminator.bytesRemoved(unpruned.getMethodSizes(), sizes).entrySet()) {
+            System.out.println("Removed " + removed.getValue() + " bytes of dead code from " + removed.getKey());
+        }
+    }
+
     private static void runProgram(String currentClassName) {
         final ProcessBuilder builder = new ProcessBuilder("java", currentClassName);
         builder.redirectErrorStream(true);
@@ -7,6 +7,7 @@ import com.github.wangdong20.kotlinscriptcompiler.parser.type.BasicType;
 import com.github.wangdong20.kotlinscriptcompiler.parser.type.Type;
 import com.github.wangdong20.kotlinscriptcompiler.parser.type.TypeArray;
 import com.github.wangdong20.kotlinscriptcompiler.parser.type.TypeMutableList;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.Types;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
@@ -15,6 +16,8 @@ import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -27,21 +30,40 @@ public class CodeGenerator {
     private final String outputClassName;
     private final String outputFunctionName;
 
-    private final Map<String, FunctionDeclareStmt> functionTable;
+    private final Map<String, FunctionDeclareStmt> functionTable;     // by name and descriptor
+    private final Map<String, List<FunctionDeclareStmt>> functionsByName;
+    private final Map<Exp, Type> expTypes;
+    private final Map<String, Integer> methodSizes;
     private final ClassWriter classWriter;
-    private Map<Variable, VariableEntry> variables;
+    private VariableTable variables;
     private int nextIndex;
     private MethodVisitor methodVisitor;
+    private String methodName;      // and descriptor, of the method being written
 
     public CodeGenerator(final String outputClassName,
                          final String outputFunctionName) {
+        this(outputClassName, outputFunctionName, Collections.<Exp, Type>emptyMap());
+    }
+
+    /**
+     * Reads the types of expressions from expTypes, as given by the Typechecker for the program,
+     * and only works out those it does not have. Types are found by node, so they are only read
+     * for a program made of the nodes which were checked: give it the toProgram of a FlatProgram,
+     * never its getProgram.
+     */
+    public CodeGenerator(final String outputClassName,
+                         final String outputFunctionName,
+                         final Map<Exp, Type> expTypes) {
         this.outputClassName = outputClassName;
         this.outputFunctionName = outputFunctionName;
+        this.expTypes = expTypes;
+        methodSizes = new LinkedHashMap<>();
         classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
         variables = null;
         nextIndex = 0;
 
-        functionTable = new HashMap<>();
+        functionTable = new LinkedHashMap<>();
+        functionsByName = new HashMap<>();
         classWriter.visit(V1_8, // Java 1.8 in my laptop
                 ACC_PUBLIC, // public
                 outputClassName, // class name
@@ -99,7 +121,7 @@ public class CodeGenerator {
         assert(nextIndex == 0);
         assert(methodVisitor == null);
 
-        variables = new HashMap<>();
+        variables = new VariableTable();
         if(function.getParameterList() != null) {
             for (Map.Entry<Exp, Type> entry : function.getParameterList().entrySet()) {
                 addEntry((Variable) entry.getKey(), entry.getValue());
@@ -112,48 +134,68 @@ public class CodeGenerator {
                 null,
                 null);
         methodVisitor.visitCode();
+        methodName = function.getFuncName().getName() + descriptor;
     } // functionStart
 
     private void functionEnd() {
         assert(variables != null);
         assert(methodVisitor != null);
 
+        // The code ends where a label put after it is.
+        final Label end = new Label();
+        methodVisitor.visitLabel(end);
+        methodSizes.put(methodName, end.getOffset());
         methodVisitor.visitMaxs(0, 0);
         nextIndex = 0;
         variables = null;
         methodVisitor = null;
     } // functionEnd
 
+    /**
+     * The bytes of code in each method written so far, by name and descriptor, e.g. "f(I)I".
+     */
+    public Map<String, Integer> getMethodSizes() {
+        return methodSizes;
+    }
+
     private VariableEntry getEntryFor(final Variable variable) throws CodeGeneratorException {
-        final VariableEntry entry = variables.get(variable);
-        if (entry != null) {
-            return entry;
-        } else if(variable instanceof ArrayWithIndexExp) {
-            VariableEntry arrayEntry = variables.get(((ArrayWithIndexExp) variable).getVariableExp());
-            return new VariableEntry(variable, arrayEntry.type, arrayEntry.index);
+        if(variable instanceof ArrayWithIndexExp) {
+            final VariableEntry arrayEntry = variables.get(((ArrayWithIndexExp) variable).getVariableExp());
+            if(arrayEntry != null) {
+                return new VariableEntry(variable, arrayEntry.type, arrayEntry.index);
+            }
         } else {
-            // should be caught by typechecker
-            throw new CodeGeneratorException("no such variable declared: " + variable);
+            final VariableEntry entry = variables.get((VariableExp) variable);
+            if(entry != null) {
+                return entry;
+            }
         }
+        // should be caught by typechecker
+        throw new CodeGeneratorException("no such variable declared: " + variable);
     } // getEntryFor
 
     private VariableEntry addEntry(final Variable variable, final Type type) throws CodeGeneratorException {
-        if (variables.containsKey(variable)) {
-            // should be caught by typechecker
-            throw new CodeGeneratorException("Variable already in scope: " + variable);
-        } else if(variable instanceof ArrayWithIndexExp) {
-            if(variables.containsKey(((ArrayWithIndexExp) variable).getVariableExp())) {
+        if(variable instanceof ArrayWithIndexExp) {
+            if(variables.get(((ArrayWithIndexExp) variable).getVariableExp()) != null) {
                 throw new CodeGeneratorException("Should not add ArrayWithIndexExp into entry.");
             } else {
                 throw new CodeGeneratorException("Array is not in scope: " + ((ArrayWithIndexExp) variable).getVariableExp());
             }
+        } else if (variables.get((VariableExp) variable) != null) {
+            // should be caught by typechecker
+            throw new CodeGeneratorException("Variable already in scope: " + variable);
         } else {
             final VariableEntry entry = new VariableEntry(variable, type, nextIndex++);
-            variables.put(variable, entry);
+            variables.put((VariableExp) variable, entry);
             return entry;
         }
     } // addEntry
 
+    // A local for the generated code only, e.g. the index of a for loop over an array.
+    private VariableEntry addTemporary(final Type type) {
+        return new VariableEntry(null, type, nextIndex++);
+    } // addTemporary
+
     private void writeIntLiteral(final int value) {
         switch (value) {
             case -1:
@@ -225,118 +267,142 @@ public class CodeGenerator {
         methodVisitor.visitLabel(afterCondition);
     } // writeComparableOp
 
-    private void writeComparableExp(ComparableExp exp) throws CodeGeneratorException {
-        Exp left = exp.getLeft();
-        Exp right = exp.getRight();
-        writeExp(left);
-        writeExp(right);
-        writeComparableOp(exp.getOp());
+    private static boolean isOperator(final Exp exp) {
+        return exp instanceof BinaryIntExp || exp instanceof ComparableExp || exp instanceof NotExp ||
+                exp instanceof BiLogicalExp;
     }
 
-    private void writeNotExp(NotExp exp) throws CodeGeneratorException {
-        Exp e = exp.getValue();
-        writeExp(e);
-        Label ifTrue = new Label();
-        Label endIf = new Label();
-        methodVisitor.visitJumpInsn(IFEQ, ifTrue);
-        writeIntLiteral(0);
-        methodVisitor.visitJumpInsn(GOTO, endIf);
-        methodVisitor.visitLabel(ifTrue);
-        writeIntLiteral(1);
-        methodVisitor.visitLabel(endIf);
-    }
+    // An operator whose operands are being written by writeOperatorExp.
+    private static final class OperatorFrame {
+        private final Exp exp;
+        private int stage;                  // how far the operator is written
+        private boolean isStringAppend;     // BinaryIntExp
+        private Label ifFalse;              // BiLogicalExp
+        private Label endIf;
 
-    private VariableEntry loadVariable(Variable variable) throws CodeGeneratorException {
-        final VariableEntry entry = getEntryFor(variable);
-        entry.load(this, methodVisitor);
-        return entry;
+        private OperatorFrame(final Exp exp) {
+            this.exp = exp;
+        }
     }
 
-
-    private void writeBiLogicalExp(BiLogicalExp exp) throws CodeGeneratorException {
-        Exp left = exp.getLeft();
-        Exp right = exp.getRight();
-        Label ifFalse = new Label();
-        Label endIf = new Label();
-
-        switch (exp.getOp()) {
-            case OP_AND:
-                if(left instanceof BooleanExp) {
-                    writeIntLiteral(((BooleanExp) left).getValue() ? 1 : 0);
-                } else if(left instanceof ComparableExp) {
-                    writeComparableExp((ComparableExp) left);
-                } else if(left instanceof BiLogicalExp) {
-                    writeBiLogicalExp((BiLogicalExp) left);
-                } else if(left instanceof NotExp) {
-                    writeNotExp((NotExp) left);
-                } else if(left instanceof Variable) {
-                    loadVariable((Variable) left);
+    /**
+     * Writes a tree of operators. The tree of a chain like a + b + c + ... is as deep as the chain
+     * is long, so operands are not written by recursion: the operators are kept on a stack with
+     * how far each is written, and nesting is only limited by the heap.
+     * Returns whether root is a String append.
+     */
+    private boolean writeOperatorExp(final Exp root) throws CodeGeneratorException {
+        final List<OperatorFrame> frames = new ArrayList<>();
+        frames.add(new OperatorFrame(root));
+        while(true) {
+            final OperatorFrame frame = frames.get(frames.size() - 1);
+            final int stage = frame.stage++;
+            Exp operand = null;
+            boolean written = false;
+            if(frame.exp instanceof BinaryIntExp) {
+                final BinaryIntExp exp = (BinaryIntExp) frame.exp;
+                if(stage == 0) {
+                    if(exp.getLeft() instanceof BinaryIntExp) {
+                        operand = exp.getLeft();
+                    } else {
+                        frame.isStringAppend = writeLeftOperand(exp.getLeft());
+                    }
+                } else if(stage == 1) {
+                    if(exp.getRight() instanceof BinaryIntExp) {
+                        operand = exp.getRight();
+                    } else {
+                        writeRightOperand(exp.getRight(), frame.isStringAppend);
+                    }
                 } else {
-                    throw new CodeGeneratorException("Bilogical expression's left value should be boolean type");
+                    writeBinaryIntOp(exp, frame.isStringAppend);
+                    written = true;
                 }
-
-                methodVisitor.visitJumpInsn(IFEQ, ifFalse);
-
-                if(right instanceof BooleanExp) {
-                    writeIntLiteral(((BooleanExp) right).getValue() ? 1 : 0);
-                } else if(right instanceof ComparableExp) {
-                    writeComparableExp((ComparableExp) right);
-                } else if(right instanceof BiLogicalExp) {
-                    writeBiLogicalExp((BiLogicalExp) right);
-                } else if(right instanceof NotExp) {
-                    writeNotExp((NotExp) right);
-                } else if(right instanceof Variable) {
-                    loadVariable((Variable) right);
-                }else {
-                    throw new CodeGeneratorException("Bilogical expression's right value should be boolean type");
+            } else if(frame.exp instanceof ComparableExp) {
+                final ComparableExp exp = (ComparableExp) frame.exp;
+                if(stage == 0) {
+                    operand = exp.getLeft();
+                } else if(stage == 1) {
+                    operand = exp.getRight();
+                } else {
+                    writeComparableOp(exp.getOp());
+                    written = true;
                 }
-                methodVisitor.visitJumpInsn(IFEQ, ifFalse);
-                writeIntLiteral(1);
-                methodVisitor.visitJumpInsn(GOTO, endIf);
-                methodVisitor.visitLabel(ifFalse);
-                writeIntLiteral(0);
-                methodVisitor.visitLabel(endIf);
-                break;
-            case OP_OR:
-                if(left instanceof BooleanExp) {
-                    writeIntLiteral(((BooleanExp) left).getValue() ? 1 : 0);
-                } else if(left instanceof ComparableExp) {
-                    writeComparableExp((ComparableExp) left);
-                } else if(left instanceof BiLogicalExp) {
-                    writeBiLogicalExp((BiLogicalExp) left);
-                } else if(left instanceof NotExp) {
-                    writeNotExp((NotExp) left);
-                } else if(left instanceof Variable) {
-                    loadVariable((Variable) left);
+            } else if(frame.exp instanceof NotExp) {
+                if(stage == 0) {
+                    operand = ((NotExp) frame.exp).getValue();
+                } else {
+                    Label ifTrue = new Label();
+                    Label endIf = new Label();
+                    methodVisitor.visitJumpInsn(IFEQ, ifTrue);
+                    writeIntLiteral(0);
+                    methodVisitor.visitJumpInsn(GOTO, endIf);
+                    methodVisitor.visitLabel(ifTrue);
+                    writeIntLiteral(1);
+                    methodVisitor.visitLabel(endIf);
+                    written = true;
+                }
+            } else {
+                final BiLogicalExp exp = (BiLogicalExp) frame.exp;
+                if(stage == 0) {
+                    frame.ifFalse = new Label();
+                    frame.endIf = new Label();
+                    operand = logicalOperand(exp.getLeft(), "Bilogical expression's left value should be boolean type");
+                } else if(stage == 1) {
+                    methodVisitor.visitJumpInsn(exp.getOp() == BiLogicalOp.OP_AND ? IFEQ : IFNE, frame.ifFalse);
+                    operand = logicalOperand(exp.getRight(), "Bilogical expression's right value should be boolean type");
                 } else {
-                    throw new CodeGeneratorException("Bilogical expression's left value should be boolean type");
+                    // && is true when both are, || is false when both are
+                    final boolean isAnd = exp.getOp() == BiLogicalOp.OP_AND;
+                    methodVisitor.visitJumpInsn(isAnd ? IFEQ : IFNE, frame.ifFalse);
+                    writeIntLiteral(isAnd ? 1 : 0);
+                    methodVisitor.visitJumpInsn(GOTO, frame.endIf);
+                    methodVisitor.visitLabel(frame.ifFalse);
+                    writeIntLiteral(isAnd ? 0 : 1);
+                    methodVisitor.visitLabel(frame.endIf);
+                    written = true;
                 }
+            }
 
-                methodVisitor.visitJumpInsn(IFNE, ifFalse);
-
-                if(right instanceof BooleanExp) {
-                    writeIntLiteral(((BooleanExp) right).getValue() ? 1 : 0);
-                } else if(right instanceof ComparableExp) {
-                    writeComparableExp((ComparableExp) right);
-                } else if(right instanceof BiLogicalExp) {
-                    writeBiLogicalExp((BiLogicalExp) right);
-                } else if(right instanceof NotExp) {
-                    writeNotExp((NotExp) right);
-                } else if(right instanceof Variable) {
-                    loadVariable((Variable) right);
+            if(operand != null) {
+                if(isOperator(operand)) {
+                    frames.add(new OperatorFrame(operand));
                 } else {
-                    throw new CodeGeneratorException("Bilogical expression's right value should be boolean type");
+                    writeExp(operand);
                 }
-                methodVisitor.visitJumpInsn(IFNE, ifFalse);
-                writeIntLiteral(0);
-                methodVisitor.visitJumpInsn(GOTO, endIf);
-                methodVisitor.visitLabel(ifFalse);
-                writeIntLiteral(1);
-                methodVisitor.visitLabel(endIf);
-                break;
+            } else if(written) {
+                frames.remove(frames.size() - 1);
+                if(frames.isEmpty()) {
+                    return frame.isStringAppend;
+                }
+                final OperatorFrame parent = frames.get(frames.size() - 1);
+                if(frame.isStringAppend) {
+                    if(!(parent.exp instanceof BinaryIntExp)) {
+                        methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "toString", "()Ljava/lang/String;", false);
+                    } else if(parent.stage == 1) {  // the left operand of parent
+                        parent.isStringAppend = true;
+                    }
+                }
+            }
         }
     }
 
+    // The operand of && or || if it can be one.
+    private static Exp logicalOperand(final Exp operand, final String message) throws CodeGeneratorException {
+        if(operand instanceof BooleanExp || operand instanceof ComparableExp || operand instanceof BiLogicalExp ||
+                operand instanceof NotExp || operand instanceof Variable) {
+            return operand;
+        } else {
+            throw new CodeGeneratorException(message);
+        }
+    }
+
+    private VariableEntry loadVariable(Variable variable) throws CodeGeneratorException {
+        final VariableEntry entry = getEntryFor(variable);
+        entry.load(this, methodVisitor);
+        return entry;
+    }
+
+
     private void writeSelfOperationExp(SelfOperationExp exp, boolean needLoad) throws CodeGeneratorException {
         int index = getEntryFor(exp.getVariableExp()).index;
         if(exp.getPreOrder()) {
@@ -368,16 +434,17 @@ public class CodeGenerator {
         }
     }
 
-    private void writeForStatement(final ForStmt forStmt) throws CodeGeneratorException {
+    private BlockFrame writeForHead(final ForStmt forStmt) throws CodeGeneratorException {
         final Label head = new Label();
         final Label afterFor = new Label();
         final Label beforeInc = new Label();
 
-        Map<Variable, VariableEntry> gammaBefore = newCopy(variables);
+        final int scope = variables.enter();
+        final BlockFrame frame = new BlockFrame(forStmt, forStmt.getBlockStmt(), true, head, beforeInc, afterFor);
+        frame.loopScope = scope;
         VariableEntry entry;
         if(forStmt.getArrayExp() != null) {
             loadVariable(forStmt.getArrayExp());
-            String arrayLength = forStmt.hashCode() + forStmt.getArrayExp().getName() + ".length";
             Type type = typeOf(forStmt.getArrayExp());
             BasicType basicType;
             if(type instanceof TypeArray) {
@@ -387,19 +454,18 @@ public class CodeGenerator {
             } else {
                 throw new CodeGeneratorException("For in variable should be array or list");
             }
-            entry = addEntry(new VariableExp(arrayLength), BasicType.TYPE_INT);
+            final VariableEntry arrayLength = addTemporary(BasicType.TYPE_INT);
             methodVisitor.visitInsn(ARRAYLENGTH);
-            entry.store(this, methodVisitor);
-            String index = forStmt.hashCode() + forStmt.getArrayExp().getName() + ".index";
+            arrayLength.store(this, methodVisitor);
             writeIntLiteral(0);
-            entry = addEntry(new VariableExp(index), BasicType.TYPE_INT);
-            entry.store(this, methodVisitor);
+            final VariableEntry index = addTemporary(BasicType.TYPE_INT);
+            index.store(this, methodVisitor);
             methodVisitor.visitLabel(head);
-            loadVariable(new VariableExp(index));
-            loadVariable(new VariableExp(arrayLength));
+            index.load(this, methodVisitor);
+            arrayLength.load(this, methodVisitor);
             methodVisitor.visitJumpInsn(IF_ICMPGE, afterFor);
             loadVariable(forStmt.getArrayExp());
-            loadVariable(new VariableExp(index));
+            index.load(this, methodVisitor);
             int opcode = 0;
             switch (basicType) {
                 case TYPE_INT:
@@ -417,39 +483,40 @@ public class CodeGenerator {
             methodVisitor.visitInsn(opcode);
             entry = addEntry(forStmt.getIteratorExp(), basicType);
             entry.store(this, methodVisitor);
-
-            writeBlockStmtInLoop(forStmt.getBlockStmt(), head, beforeInc, afterFor);
-            methodVisitor.visitLabel(beforeInc);
-            entry = getEntryFor(new VariableExp(index));
-            methodVisitor.visitIincInsn(entry.index, 1);
-            methodVisitor.visitJumpInsn(GOTO, head);
-            methodVisitor.visitLabel(afterFor);
+            frame.counter = index;
         } else {    // for in range case
             RangeExp rangeExp = forStmt.getRangeExp();
             writeExp(rangeExp.getStart());
             entry = addEntry(forStmt.getIteratorExp(), BasicType.TYPE_INT);
             entry.store(this, methodVisitor);
-            String end = forStmt.hashCode() + rangeExp.getEnd().toString();
             writeExp(rangeExp.getEnd());
-            entry = addEntry(new VariableExp(end), BasicType.TYPE_INT);
-            entry.store(this, methodVisitor);
+            final VariableEntry end = addTemporary(BasicType.TYPE_INT);
+            end.store(this, methodVisitor);
 
-            String step = null;
+            VariableEntry step = null;
             if(forStmt.getStepExp() != null) {
-                step = forStmt.hashCode() + forStmt.getStepExp().toString();
                 writeExp(forStmt.getStepExp());
-                entry = addEntry(new VariableExp(step), BasicType.TYPE_INT);
-                entry.store(this, methodVisitor);
+                step = addTemporary(BasicType.TYPE_INT);
+                step.store(this, methodVisitor);
             }
             methodVisitor.visitLabel(head);
             loadVariable(forStmt.getIteratorExp());
-            loadVariable(new VariableExp(end));
+            end.load(this, methodVisitor);
             methodVisitor.visitJumpInsn(IF_ICMPGE, afterFor);
-            writeBlockStmtInLoop(forStmt.getBlockStmt(), head, beforeInc, afterFor);
-            methodVisitor.visitLabel(beforeInc);
+            frame.step = step;
+        }
+        return frame;
+    }
+
+    private void writeForTail(final ForStmt forStmt, final BlockFrame frame) throws CodeGeneratorException {
+        VariableEntry entry;
+        methodVisitor.visitLabel(frame.beforeInc);
+        if(forStmt.getArrayExp() != null) {
+            methodVisitor.visitIincInsn(frame.counter.index, 1);
+        } else {
             loadVariable(forStmt.getIteratorExp());
             if(forStmt.getStepExp() != null) {
-                loadVariable(new VariableExp(step));
+                frame.step.load(this, methodVisitor);
                 methodVisitor.visitInsn(IADD);
                 entry = getEntryFor(forStmt.getIteratorExp());
                 entry.store(this, methodVisitor);
@@ -459,124 +526,190 @@ public class CodeGenerator {
                 entry = getEntryFor(forStmt.getIteratorExp());
                 entry.store(this, methodVisitor);
             }
-            methodVisitor.visitJumpInsn(GOTO, head);
-            methodVisitor.visitLabel(afterFor);
         }
+        methodVisitor.visitJumpInsn(GOTO, frame.head);
+        methodVisitor.visitLabel(frame.afterLoop);
 
         // After for loop
-        variables = gammaBefore;
+        variables.leave(frame.loopScope);
+    }
+
+    private void writeStatements(final List<Stmt> stmts) throws CodeGeneratorException {
+        for (final Stmt statement : stmts) {
+            writeStatement(statement);
+        }
+    } // writeStatements
+
+    private static boolean hasBlock(final Stmt stmt) {
+        return stmt instanceof IfStmt || stmt instanceof WhileStmt || stmt instanceof ForStmt || stmt instanceof BlockStmt;
     }
 
-    private void writeBlockStmtInLoop(BlockStmt blockStmt, Label head, Label beforeInc, Label afterLoop) throws CodeGeneratorException {
-        if(blockStmt != null) {
-            for (Stmt s : blockStmt.getStmtList()) {
-                if (s instanceof ControlLoopStmt) {
+    // A block being written by writeStatement, with the statement it belongs to.
+    private static final class BlockFrame {
+        private final Stmt owner;
+        private List<Stmt> stmtList;
+        private int index;
+        // In a loop break and continue jump to these, and an if in the block jumps to them too.
+        private final boolean inLoop;
+        private final Label head;
+        private final Label beforeInc;
+        private final Label afterLoop;
+        private int blockScope = -1;    // entered by the block, outside loops
+        private int loopScope;          // for, while
+        private VariableEntry counter;  // for, the index into the array
+        private VariableEntry step;     // for
+        private Label falseLabel;       // if
+        private Label afterFalseLabel;
+        private boolean inFalseBranch;
+
+        private BlockFrame(final Stmt owner, final BlockStmt blockStmt, final boolean inLoop,
+                           final Label head, final Label beforeInc, final Label afterLoop) {
+            this.owner = owner;
+            this.stmtList = blockStmt == null || blockStmt.getStmtList() == null ?
+                    Collections.<Stmt>emptyList() : blockStmt.getStmtList();
+            this.inLoop = inLoop;
+            this.head = head;
+            this.beforeInc = beforeInc;
+            this.afterLoop = afterLoop;
+        }
+    }
+
+    /**
+     * Writes stmt with the statements in its blocks. Blocks are not written by recursion: an if,
+     * while, for or block statement writes what comes before its block and puts a frame for the
+     * block on a stack, statements are taken from the frame on top, and what comes after a block
+     * is written when its frame runs out. Blocks can so be nested as deep as the heap allows.
+     */
+    private void writeStatement(final Stmt stmt) throws CodeGeneratorException {
+        if(!hasBlock(stmt)) {
+            writeSimpleStatement(stmt);
+            return;
+        }
+        final List<BlockFrame> frames = new ArrayList<>();
+        frames.add(openBlock(stmt, null));
+        while(!frames.isEmpty()) {
+            final BlockFrame frame = frames.get(frames.size() - 1);
+            if(frame.index < frame.stmtList.size()) {
+                final Stmt s = frame.stmtList.get(frame.index++);
+                if(frame.inLoop && s instanceof ControlLoopStmt) {
                     if (s == ControlLoopStmt.STMT_BREAK) {
-                        methodVisitor.visitJumpInsn(GOTO, afterLoop);
+                        methodVisitor.visitJumpInsn(GOTO, frame.afterLoop);
                     } else {
-                        methodVisitor.visitJumpInsn(GOTO, beforeInc);
+                        methodVisitor.visitJumpInsn(GOTO, frame.beforeInc);
                     }
-                } else if (s instanceof IfStmt) {
-                    writeIfStatementInLoop((IfStmt) s, head, beforeInc, afterLoop);
+                } else if(hasBlock(s)) {
+                    frames.add(openBlock(s, frame.inLoop && (s instanceof IfStmt || s instanceof BlockStmt) ? frame : null));
                 } else {
-                    writeStatement(s);
+                    writeSimpleStatement(s);
+                }
+            } else {
+                frames.remove(frames.size() - 1);
+                final BlockFrame next = closeBlock(frame);
+                if(next != null) {
+                    frames.add(next);
                 }
             }
         }
-    }
+    } // writeStatement
 
-    private void writeBlockStmt(BlockStmt blockStmt) throws CodeGeneratorException {
-        if(blockStmt != null && blockStmt.getStmtList() != null) {
-            // Copy gamma before block
-            Map<Variable, VariableEntry> gammaBefore = newCopy(variables);
-            writeStatements(blockStmt.getStmtList());
-            // restore gamma after block
-            variables = gammaBefore;
+    // Writes what comes before the (first) block of stmt and gives the frame to write that block
+    // in. An if or block in a loop gets the frame of the loop block it is in, and jumps out of that loop.
+    private BlockFrame openBlock(final Stmt stmt, final BlockFrame loop) throws CodeGeneratorException {
+        if(stmt instanceof IfStmt) {
+            // if false, jump to the else branch.  If true, fall through to true branch.
+            // true branch needs to jump after the false.  Looks like this:
+            //
+            //   condition_expression
+            //   if !condition, jump to false
+            //   true stuff
+            //   goto after_false
+            // false:
+            //   false stuff
+            // after_false:
+
+            // condition is a boolean, which is represented with an integer which is either
+            // 0 or 1.  IFEQ jumps if the value on top of the operand stack is 0, so this naturally
+            // ends up giving us the if !condition (as odd as it looks)
+            final IfStmt ifStmt = (IfStmt) stmt;
+            final Label falseLabel = new Label();
+            final Label afterFalseLabel = new Label();
+            writeExp(ifStmt.getCondition());
+            methodVisitor.visitJumpInsn(IFEQ, falseLabel);
+            final BlockFrame frame = branchFrame(ifStmt, ifStmt.getTrueBranch(), loop);
+            frame.falseLabel = falseLabel;
+            frame.afterFalseLabel = afterFalseLabel;
+            return frame;
+        } else if(stmt instanceof WhileStmt) {
+            // head:
+            //   condition_expression
+            //   if !condition, jump to after_while
+            //   body
+            //   goto head
+            // after_while
+            final WhileStmt whileStmt = (WhileStmt) stmt;
+            final int scope = variables.enter();
+            final Label head = new Label();
+            final Label afterWhile = new Label();
+            methodVisitor.visitLabel(head);
+            writeExp(whileStmt.getCondition());
+            methodVisitor.visitJumpInsn(IFEQ, afterWhile);
+            // continue goes back to the condition.
+            final BlockFrame frame = new BlockFrame(stmt, whileStmt.getBlockStmt(), true, head, head, afterWhile);
+            frame.loopScope = scope;
+            return frame;
+        } else if(stmt instanceof ForStmt) {
+            return writeForHead((ForStmt) stmt);
+        } else {
+            final BlockFrame frame = loop == null ? new BlockFrame(stmt, (BlockStmt) stmt, false, null, null, null)
+                    : new BlockFrame(stmt, (BlockStmt) stmt, true, loop.head, loop.beforeInc, loop.afterLoop);
+            frame.blockScope = variables.enter();
+            return frame;
         }
     }
 
-    private Map<Variable, VariableEntry> newCopy(final Map<Variable, VariableEntry> table) {
-        return new HashMap<>(table);
+    private BlockFrame branchFrame(final IfStmt ifStmt, final BlockStmt branch, final BlockFrame loop) {
+        if(loop != null) {
+            return new BlockFrame(ifStmt, branch, true, loop.head, loop.beforeInc, loop.afterLoop);
+        }
+        final BlockFrame frame = new BlockFrame(ifStmt, branch, false, null, null, null);
+        frame.blockScope = variables.enter();
+        return frame;
     }
 
-    private void writeIfStatementInLoop(final IfStmt ifStmt, Label head, Label beforeInc, Label afterLoop) throws CodeGeneratorException {
-        // if false, jump to the else branch.  If true, fall through to true branch.
-        // true branch needs to jump after the false.  Looks like this:
-        //
-        //   condition_expression
-        //   if !condition, jump to false
-        //   true stuff
-        //   goto after_false
-        // false:
-        //   false stuff
-        // after_false:
-
-        // condition is a boolean, which is represented with an integer which is either
-        // 0 or 1.  IFEQ jumps if the value on top of the operand stack is 0, so this naturally
-        // ends up giving us the if !condition (as odd as it looks)
-        final Label falseLabel = new Label();
-        final Label afterFalseLabel = new Label();
-        writeExp(ifStmt.getCondition());
-        methodVisitor.visitJumpInsn(IFEQ, falseLabel);
-        writeBlockStmtInLoop(ifStmt.getTrueBranch(), head, beforeInc, afterLoop);
-        methodVisitor.visitJumpInsn(GOTO, afterFalseLabel);
-        methodVisitor.visitLabel(falseLabel);
-        writeBlockStmtInLoop(ifStmt.getFalseBranch(), head, beforeInc, afterLoop);
-        methodVisitor.visitLabel(afterFalseLabel);
-    } // writeIfStatementInLoop
-
-    private void writeIfStatement(final IfStmt ifStmt) throws CodeGeneratorException {
-        // if false, jump to the else branch.  If true, fall through to true branch.
-        // true branch needs to jump after the false.  Looks like this:
-        //
-        //   condition_expression
-        //   if !condition, jump to false
-        //   true stuff
-        //   goto after_false
-        // false:
-        //   false stuff
-        // after_false:
-
-        // condition is a boolean, which is represented with an integer which is either
-        // 0 or 1.  IFEQ jumps if the value on top of the operand stack is 0, so this naturally
-        // ends up giving us the if !condition (as odd as it looks)
-        final Label falseLabel = new Label();
-        final Label afterFalseLabel = new Label();
-        writeExp(ifStmt.getCondition());
-        methodVisitor.visitJumpInsn(IFEQ, falseLabel);
-        writeBlockStmt(ifStmt.getTrueBranch());
-        methodVisitor.visitJumpInsn(GOTO, afterFalseLabel);
-        methodVisitor.visitLabel(falseLabel);
-        writeBlockStmt(ifStmt.getFalseBranch());
-        methodVisitor.visitLabel(afterFalseLabel);
-    } // writeIfStatement
-
-    private void writeWhileStatement(final WhileStmt whileStmt) throws CodeGeneratorException {
-        // head:
-        //   condition_expression
-        //   if !condition, jump to after_while
-        //   body
-        //   goto head
-        // after_while
-        Map<Variable, VariableEntry> gammaBefore = newCopy(variables);
-        final Label head = new Label();
-        final Label afterWhile = new Label();
-        methodVisitor.visitLabel(head);
-        writeExp(whileStmt.getCondition());
-        methodVisitor.visitJumpInsn(IFEQ, afterWhile);
-        writeBlockStmtInLoop(whileStmt.getBlockStmt(), head, null, afterWhile);
-        methodVisitor.visitJumpInsn(GOTO, head);
-        methodVisitor.visitLabel(afterWhile);
-        variables = gammaBefore;
-    } // whileWhileStatement
-
-    private void writeStatements(final List<Stmt> stmts) throws CodeGeneratorException {
-        for (final Stmt statement : stmts) {
-            writeStatement(statement);
+    // Writes what comes after the block of frame, or gives the frame of the next block.
+    private BlockFrame closeBlock(final BlockFrame frame) throws CodeGeneratorException {
+        if(frame.blockScope >= 0) {
+            variables.leave(frame.blockScope);
         }
-    } // writeStatements
+        if(frame.owner instanceof IfStmt) {
+            final BlockStmt falseBranch = ((IfStmt) frame.owner).getFalseBranch();
+            if(frame.inFalseBranch) {
+                methodVisitor.visitLabel(frame.afterFalseLabel);
+                return null;
+            } else if(falseBranch == null || falseBranch.getStmtList() == null || falseBranch.getStmtList().isEmpty()) {
+                // Nothing to jump over.
+                methodVisitor.visitLabel(frame.falseLabel);
+                return null;
+            }
+            methodVisitor.visitJumpInsn(GOTO, frame.afterFalseLabel);
+            methodVisitor.visitLabel(frame.falseLabel);
+            final BlockFrame next = branchFrame((IfStmt) frame.owner, falseBranch,
+                    frame.inLoop ? frame : null);
+            next.falseLabel = frame.falseLabel;
+            next.afterFalseLabel = frame.afterFalseLabel;
+            next.inFalseBranch = true;
+            return next;
+        } else if(frame.owner instanceof WhileStmt) {
+            methodVisitor.visitJumpInsn(GOTO, frame.head);
+            methodVisitor.visitLabel(frame.afterLoop);
+            variables.leave(frame.loopScope);
+        } else if(frame.owner instanceof ForStmt) {
+            writeForTail((ForStmt) frame.owner, frame);
+        }
+        return null;
+    }
 
-    private void writeStatement(final Stmt stmt) throws CodeGeneratorException {
+    private void writeSimpleStatement(final Stmt stmt) throws CodeGeneratorException {
         if (stmt instanceof VariableDeclareStmt) {
             // Do nothing here until initialized in AssignStmt
         } else if (stmt instanceof AssignStmt) {
@@ -650,18 +783,10 @@ public class CodeGenerator {
             } else {
                 writePrint(((PrintlnStmt)stmt).getValue(), true);
             }
-        } else if (stmt instanceof IfStmt) {
-            writeIfStatement((IfStmt)stmt);
-        } else if (stmt instanceof WhileStmt) {
-            writeWhileStatement((WhileStmt)stmt);
         } else if(stmt instanceof ReturnStmt) {
             writeExp(((ReturnStmt) stmt).getReturnExp());
-        } else if(stmt instanceof BlockStmt) {
-            writeBlockStmt((BlockStmt) stmt);
         } else if(stmt instanceof FunctionInstanceStmt) {
             writeFunctionInstance(((FunctionInstanceStmt) stmt).getFunctionInstanceExp());
-        } else if(stmt instanceof ForStmt) {
-            writeForStatement((ForStmt) stmt);
         } else if(stmt instanceof SelfOperationStmt) {
             writeSelfOperationExp(((SelfOperationStmt) stmt).getSelfOperationExp(), false);
         }
@@ -669,7 +794,7 @@ public class CodeGenerator {
 //            assert(false);
             throw new CodeGeneratorException("Unrecognized statement so far: " + stmt);
         }
-    } // writeStatement
+    } // writeSimpleStatement
 
     private void writeReturnFor(final Type type) throws CodeGeneratorException {
         if(type == BasicType.TYPE_INT ||
@@ -706,17 +831,14 @@ public class CodeGenerator {
     } // writeEntryPoint
 
     private Type writeFunctionInstance(final FunctionInstanceExp call) throws CodeGeneratorException {
-        final FunctionDeclareStmt function = functionTable.get(call.getFuncName().getName());
-        if (function == null) {
-            throw new CodeGeneratorException("Call to nonexistent function.");
-        }
+        final FunctionDeclareStmt function = functionFor(call);
 
         for (final Exp param : call.getParameterList()) {
             writeExp(param);
         }
         methodVisitor.visitMethodInsn(INVOKESTATIC,
                 outputClassName,
-                call.getFuncName().getName(),
+                function.getFuncName().getName(),
                 Descriptor.toDescriptorString(function),
                 false);
         return function.getReturnType();
@@ -727,29 +849,46 @@ public class CodeGenerator {
     }
 
     private Type typeOfFunctionInstance(FunctionInstanceExp exp) throws CodeGeneratorException {
-        final FunctionDeclareStmt function = functionTable.get(exp.getFuncName().getName());
-        if (function == null) {
+        return functionFor(exp).getReturnType();
+    }
+
+    // The declaration the Typechecker resolved call to. A program which was not checked has no
+    // overloads the Typechecker accepted, its calls go to the only function with their name.
+    private FunctionDeclareStmt functionFor(final FunctionInstanceExp call) throws CodeGeneratorException {
+        if (call.getFunction() != null) {
+            return call.getFunction();
+        }
+        final List<FunctionDeclareStmt> named = functionsByName.get(call.getFuncName().getName());
+        if (named == null) {
             throw new CodeGeneratorException("Call to nonexistent function.");
+        } else if (named.size() > 1) {
+            throw new CodeGeneratorException("Call to overloaded function " + call.getFuncName().getName() +
+                    " was not resolved by the Typechecker.");
         }
-        return function.getReturnType();
+        return named.get(0);
     }
 
     private Type typeOf(Exp temp) throws CodeGeneratorException {
-        Type type;
+        Type type = expTypes.get(temp);
+        if(type != null) {
+            return type;
+        }
         if(temp instanceof IntExp || temp instanceof SelfOperationExp) {
             type = BasicType.TYPE_INT;
         } else if(temp instanceof BinaryIntExp) {
-            if(temp instanceof AdditiveExp) {
-                Type left = typeOf(((BinaryIntExp) temp).getLeft());
-                if(((AdditiveExp) temp).getOp() == AdditiveOp.EXP_PLUS) {
-                    if(left == BasicType.TYPE_STRING) {
-                        type = BasicType.TYPE_STRING;
-                    } else {
-                        type = BasicType.TYPE_INT;
-                    }
-                } else {
-                    type = BasicType.TYPE_INT;
-                }
+            // A chain of + is a String when the leftmost operand is, so only the left spine is walked.
+            boolean allPlus = true;
+            Exp left = temp;
+            while(left instanceof AdditiveExp) {
+                allPlus &= ((AdditiveExp) left).getOp() == AdditiveOp.EXP_PLUS;
+                left = ((AdditiveExp) left).getLeft();
+            }
+            Type leftType = left != temp && !(left instanceof BinaryIntExp) ? typeOf(left) : null;
+            if(left instanceof ArrayWithIndexExp && leftType instanceof TypeArray) {
+                leftType = ((TypeArray) leftType).getBasicType();     // the entry is the whole array
+            }
+            if(leftType == BasicType.TYPE_STRING && allPlus) {
+                type = BasicType.TYPE_STRING;
             } else {
                 type = BasicType.TYPE_INT;
             }
@@ -776,13 +915,13 @@ public class CodeGenerator {
                 if(isAny) {
                     basicType = BasicType.TYPE_ANY;
                 }
-                type = new TypeArray(basicType);
+                type = Types.arrayOf(basicType);
             } else {
                 throw new CodeGeneratorException("arrayOf(exp*) should has at least one parameter");
             }
         } else if(temp instanceof ArrayExp) {
             Type genericType = typeOf(((ArrayExp) temp).getLambdaExp().getReturnExp());
-            type = new TypeArray((BasicType) genericType);
+            type = Types.arrayOf((BasicType) genericType);
         } else if(temp == null) {
             type = null;
         }
@@ -795,58 +934,46 @@ public class CodeGenerator {
     private void writeStringExp(StringExp s) throws CodeGeneratorException {
         if(s.getStrWithoutInterpolation() == null) {
             throw new CodeGeneratorException("Null is StringExp!");
-        } else if(s.getInterpolationExp() == null || s.getInterpolationExp().size() == 0) {
+        } else if(s.getExps().length == 0) {
             methodVisitor.visitLdcInsn(s.getStrWithoutInterpolation());
         } else {
-            Integer[] indexs = new Integer[s.getInterpolationExp().size()];
-            Exp[] exps = new Exp[s.getInterpolationExp().size()];
-            s.getInterpolationExp().keySet().toArray(indexs);
-            s.getInterpolationExp().values().toArray(exps);
-            Type type;
+            // Each literal segment is a constant of its own, appended between the interpolations.
+            final String[] segments = s.getSegments();
+            final Exp[] exps = s.getExps();
             methodVisitor.visitTypeInsn(NEW, "java/lang/StringBuilder");
             methodVisitor.visitInsn(DUP);
             methodVisitor.visitMethodInsn(INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "()V", false);
-            for (int i = 0; i < indexs.length; i++) {
-                methodVisitor.visitLdcInsn(s.getStrWithoutInterpolation());
-                if (i == 0) {
-                    writeIntLiteral(0);
-                } else {
-                    writeIntLiteral(indexs[i - 1]);
+            for (int i = 0; i <= exps.length; i++) {
+                if(segments[i].length() > 0) {
+                    methodVisitor.visitLdcInsn(segments[i]);
+                    methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
+                }
+                if(i < exps.length) {
+                    writeExp(exps[i]);
+                    methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(" + Descriptor.toDescriptorString(typeOf(exps[i])) + ")Ljava/lang/StringBuilder;", false);
                 }
-                writeIntLiteral(indexs[i]);
-                methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "substring", "(II)Ljava/lang/String;", false);
-                methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
-                writeExp(exps[i]);
-                type = typeOf(exps[i]);
-                methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(" + Descriptor.toDescriptorString(type) + ")Ljava/lang/StringBuilder;", false);
             }
-            methodVisitor.visitLdcInsn(s.getStrWithoutInterpolation());
-            writeIntLiteral(indexs[indexs.length - 1]);
-            writeIntLiteral(s.getStrWithoutInterpolation().length());
-            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "substring", "(II)Ljava/lang/String;", false);
-            methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
             methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "toString", "()Ljava/lang/String;", false);
         }
     }
 
     // assume array is already created.
-    private void writeValueToInitArrayExp(int opcode, VariableExp iteratorExp, Exp initExp, String arrayPrefix, String sizeVar) throws CodeGeneratorException {
+    private void writeValueToInitArrayExp(int opcode, VariableExp iteratorExp, Exp initExp, VariableEntry size) throws CodeGeneratorException {
         final Label head = new Label();
         final Label afterFor = new Label();
         VariableEntry entry;
         writeIntLiteral(0);
-        entry = addEntry(new VariableExp(arrayPrefix + ".index"), BasicType.TYPE_INT);
-        entry.store(this, methodVisitor);
+        final VariableEntry index = addTemporary(BasicType.TYPE_INT);
+        index.store(this, methodVisitor);
         methodVisitor.visitLabel(head);
-        loadVariable(new VariableExp(arrayPrefix + ".index"));
-        loadVariable(new VariableExp(sizeVar));
+        index.load(this, methodVisitor);
+        size.load(this, methodVisitor);
         methodVisitor.visitJumpInsn(IF_ICMPGE, afterFor);
         methodVisitor.visitInsn(DUP);
-        loadVariable(new VariableExp(arrayPrefix + ".index"));
+        index.load(this, methodVisitor);
         writeExp(initExp);
         methodVisitor.visitInsn(opcode);
-        entry = getEntryFor(new VariableExp(arrayPrefix + ".index"));
-        methodVisitor.visitIincInsn(entry.index, 1);
+        methodVisitor.visitIincInsn(index.index, 1);
         if(iteratorExp != null) {
             entry = getEntryFor(iteratorExp);
             methodVisitor.visitIincInsn(entry.index, 1);
@@ -856,7 +983,7 @@ public class CodeGenerator {
     }
 
     private void writeArrayExp(ArrayExp arrayExp) throws CodeGeneratorException {
-        Map<Variable, VariableEntry> gammaBefore = newCopy(variables);
+        final int scope = variables.enter();
         VariableEntry entry;
         LinkedHashMap<VariableExp, Type> parameters = arrayExp.getLambdaExp().getParameterList();
         VariableExp[] variableExps = new VariableExp[1];
@@ -869,37 +996,35 @@ public class CodeGenerator {
         }
 
         Exp size = arrayExp.getSize();
-        String arrayPrefix = arrayExp.hashCode() + "";
-        String sizeVar = arrayExp.hashCode() + ".size";
         Exp returnExp = arrayExp.getLambdaExp().getReturnExp();
         writeExp(size);
-        entry = addEntry(new VariableExp(sizeVar), BasicType.TYPE_INT);
-        entry.store(this, methodVisitor);
+        final VariableEntry sizeEntry = addTemporary(BasicType.TYPE_INT);
+        sizeEntry.store(this, methodVisitor);
         Type type = typeOf(returnExp);
-        loadVariable(new VariableExp(sizeVar));
+        sizeEntry.load(this, methodVisitor);
 
         switch ((BasicType) type) {
             case TYPE_INT:
                 methodVisitor.visitIntInsn(NEWARRAY, T_INT);
-                writeValueToInitArrayExp(IASTORE, variableExps[0], returnExp, arrayPrefix, sizeVar);
+                writeValueToInitArrayExp(IASTORE, variableExps[0], returnExp, sizeEntry);
                 break;
             case TYPE_STRING:
                 methodVisitor.visitTypeInsn(ANEWARRAY, "java/lang/String");
-                writeValueToInitArrayExp(AASTORE, variableExps[0], returnExp, arrayPrefix, sizeVar);
+                writeValueToInitArrayExp(AASTORE, variableExps[0], returnExp, sizeEntry);
                 break;
             case TYPE_BOOLEAN:
                 methodVisitor.visitIntInsn(NEWARRAY, T_BOOLEAN);
-                writeValueToInitArrayExp(BASTORE, variableExps[0], returnExp, arrayPrefix, sizeVar);
+                writeValueToInitArrayExp(BASTORE, variableExps[0], returnExp, sizeEntry);
                 break;
             case TYPE_ANY:
                 methodVisitor.visitTypeInsn(ANEWARRAY, "java/lang/Object");
-                writeValueToInitArrayExp(AASTORE, variableExps[0], returnExp, arrayPrefix, sizeVar);
+                writeValueToInitArrayExp(AASTORE, variableExps[0], returnExp, sizeEntry);
                 break;
             case TYPE_UNIT:
                 throw new CodeGeneratorException("Void type only from return in function");
         }
 
-        variables = gammaBefore;
+        variables.leave(scope);
     }
 
     private void writeValueToArray(BasicType type, List<Exp> exps) throws CodeGeneratorException {
@@ -973,20 +1098,11 @@ public class CodeGenerator {
         } else if(exp instanceof SelfOperationExp) {
             writeSelfOperationExp((SelfOperationExp) exp, true);
             return BasicType.TYPE_INT;
-        } else if(exp instanceof BinaryIntExp) {
-            if(writeAdditiveExpOrMultplicativeExp((BinaryIntExp) exp)) {
+        } else if(isOperator(exp)) {
+            if(writeOperatorExp(exp)) {
                 methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "toString", "()Ljava/lang/String;", false);
             }
-            return typeOf(exp);
-        } else if(exp instanceof ComparableExp) {
-            writeComparableExp((ComparableExp) exp);
-            return BasicType.TYPE_BOOLEAN;
-        } else if(exp instanceof NotExp) {
-            writeNotExp((NotExp) exp);
-            return BasicType.TYPE_BOOLEAN;
-        } else if(exp instanceof BiLogicalExp) {
-            writeBiLogicalExp((BiLogicalExp) exp);
-            return BasicType.TYPE_BOOLEAN;
+            return exp instanceof BinaryIntExp ? typeOf(exp) : BasicType.TYPE_BOOLEAN;
         } else if(exp instanceof FunctionInstanceExp) {
             return writeFunctionInstance((FunctionInstanceExp) exp);
         } else if(exp instanceof ArrayOfExp) {
@@ -1005,24 +1121,22 @@ public class CodeGenerator {
                 }
 
                 writeValueToArray(type, ((ArrayOfExp) exp).getExpList());
-                return new TypeArray(type);
+                return Types.arrayOf(type);
             } else {
                 throw new CodeGeneratorException("arrayOf(exp*) should has at least one parameter");
             }
         } else if(exp instanceof ArrayExp) {
             Type returnGenericType = typeOf(((ArrayExp) exp).getLambdaExp().getReturnExp());
             writeArrayExp((ArrayExp) exp);
-            return new TypeArray((BasicType) returnGenericType);
+            return Types.arrayOf((BasicType) returnGenericType);
         }
         else {
             throw new CodeGeneratorException("Unsupported expression so far!");
         }
     }
 
-    // return whether is String append operation or not.
-    private boolean writeAdditiveExpOrMultplicativeExp(BinaryIntExp exp) throws CodeGeneratorException {
-        Exp left = exp.getLeft();
-        Exp right = exp.getRight();
+    // Left operand of + - * / % unless it is one of them, return whether is String append operation or not.
+    private boolean writeLeftOperand(final Exp left) throws CodeGeneratorException {
         boolean isStringAppend = false;
         if(left instanceof IntExp) {
             writeIntLiteral(((IntExp) left).getValue());
@@ -1049,8 +1163,6 @@ public class CodeGenerator {
             methodVisitor.visitMethodInsn(INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "()V", false);
             writeStringExp((StringExp) left);
             methodVisitor.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
-        } else if(left instanceof BinaryIntExp) {
-            isStringAppend = writeAdditiveExpOrMultplicativeExp((BinaryIntExp)left);
         } else if(left instanceof SelfOperationExp) {
             writeSelfOperationExp((SelfOperationExp) left, true);
         } else if(left instanceof ArrayWithIndexExp) {
@@ -1070,8 +1182,11 @@ public class CodeGenerator {
             assert (false);
             throw new CodeGeneratorException("IllTypedException should be handled in typechecker.");
         }
+        return isStringAppend;
+    }
 
-        // Do it again to load right Exp on stack
+    // Right operand of + - * / % unless it is one of them.
+    private void writeRightOperand(final Exp right, final boolean isStringAppend) throws CodeGeneratorException {
         if(right instanceof IntExp) {
             if(isStringAppend) {
                 writeIntLiteral(((IntExp) right).getValue());
@@ -1107,8 +1222,6 @@ public class CodeGenerator {
                 assert (false);
                 throw new CodeGeneratorException("Variable in AdditiveExp should be TYPE_INT or TYPE_STRING.");
             }
-        } else if(right instanceof BinaryIntExp) {
-            writeAdditiveExpOrMultplicativeExp((BinaryIntExp)right);
         } else if(right instanceof SelfOperationExp) {
             if(isStringAppend) {
                 writeSelfOperationExp((SelfOperationExp) right, true);
@@ -1160,7 +1273,9 @@ public class CodeGenerator {
             assert (false);
             throw new CodeGeneratorException("IllTypedException should be handled in typechecker.");
         }
+    }
 
+    private void writeBinaryIntOp(final BinaryIntExp exp, final boolean isStringAppend) throws CodeGeneratorException {
         if(exp instanceof AdditiveExp) {
             AdditiveOp op = ((AdditiveExp) exp).getOp();
             if(op == AdditiveOp.EXP_PLUS) {
@@ -1186,7 +1301,6 @@ public class CodeGenerator {
                 methodVisitor.visitInsn(IREM);
             }
         }
-        return isStringAppend;
     }
 
     private void writePrint(final Exp exp, boolean isNewLine) throws CodeGeneratorException {
@@ -1236,25 +1350,41 @@ public class CodeGenerator {
     private void loadFunctionTable(final Program program) throws CodeGeneratorException {
         for (final Stmt s : program.getStmtList()) {
             if(s instanceof FunctionDeclareStmt) {
-                if (functionTable.containsKey(((FunctionDeclareStmt)s).getFuncName().getName())) {
-                    throw new CodeGeneratorException("Duplicate function name: " + ((FunctionDeclareStmt)s).getFuncName().getName());
+                // Overloads are methods with the same name and another descriptor.
+                final FunctionDeclareStmt function = (FunctionDeclareStmt) s;
+                final String name = function.getFuncName().getName();
+                if (functionTable.containsKey(name + Descriptor.toDescriptorString(function))) {
+                    throw new CodeGeneratorException("Duplicate function: " + name + Descriptor.toDescriptorString(function));
                 }
-                functionTable.put(((FunctionDeclareStmt)s).getFuncName().getName(), (FunctionDeclareStmt)s);
+                functionTable.put(name + Descriptor.toDescriptorString(function), function);
+                List<FunctionDeclareStmt> named = functionsByName.get(name);
+                if (named == null) {
+                    named = new ArrayList<>(1);
+                    functionsByName.put(name, named);
+                }
+                named.add(function);
             }
         }
     } // loadFunctionTable
 
-    public void writeProgram(final Program program) throws CodeGeneratorException, IOException {
+    // Produces the class file in memory, so callers compiling several programs at once
+    // do not need to go through the file system.
+    public byte[] generateClass(final Program program) throws CodeGeneratorException {
         loadFunctionTable(program);
         for (final FunctionDeclareStmt function : functionTable.values()) {
             writeFunction(function);
         }
         writeEntryPoint(program);
         classWriter.visitEnd();
+        return classWriter.toByteArray();
+    } // generateClass
+
+    public void writeProgram(final Program program) throws CodeGeneratorException, IOException {
+        final byte[] classBytes = generateClass(program);
 
         final BufferedOutputStream output =
                 new BufferedOutputStream(new FileOutputStream(new File(outputClassName + ".class")));
-        output.write(classWriter.toByteArray());
+        output.write(classBytes);
         output.close();
     } // writeProgram
 
@@ -0,0 +1,87 @@
+package com.github.wangdong20.kotlinscriptcompiler.codegen;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.VariableExp;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The variables in scope while one method is written. The Parser binds every name to one
+ * VariableExp with a dense id, so the entry of a variable is found by indexing an array with that
+ * id. Entering a scope only remembers how many entries were made so far, and leaving it puts back
+ * the entries they replaced, so nothing is copied at blocks, loops or array initializers.
+ */
+class VariableTable {
+    private VariableEntry[] byId = new VariableEntry[64];
+    // VariableExps made without a Parser have no id, these are numbered by name.
+    private final Map<String, Integer> unnumbered = new HashMap<>();
+    private VariableEntry[] byName = new VariableEntry[16];
+    // Key and previous entry of every put, ids as they are and names as -1 - number.
+    private int[] undoKeys = new int[64];
+    private VariableEntry[] undoEntries = new VariableEntry[64];
+    private int undoSize;
+
+    VariableEntry get(final VariableExp variable) {
+        final int id = variable.getId();
+        if(id >= 0) {
+            return id < byId.length ? byId[id] : null;
+        }
+        final Integer number = unnumbered.get(variable.getName());
+        return number == null ? null : byName[number];
+    }
+
+    void put(final VariableExp variable, final VariableEntry entry) {
+        final int key;
+        final VariableEntry previous;
+        int id = variable.getId();
+        if(id >= 0) {
+            if(id >= byId.length) {
+                byId = Arrays.copyOf(byId, Math.max(byId.length * 2, id + 1));
+            }
+            key = id;
+            previous = byId[id];
+            byId[id] = entry;
+        } else {
+            Integer number = unnumbered.get(variable.getName());
+            if(number == null) {
+                number = unnumbered.size();
+                unnumbered.put(variable.getName(), number);
+                if(number == byName.length) {
+                    byName = Arrays.copyOf(byName, number * 2);
+                }
+            }
+            key = -1 - number;
+            previous = byName[number];
+            byName[number] = entry;
+        }
+        if(undoSize == undoKeys.length) {
+            undoKeys = Arrays.copyOf(undoKeys, undoSize * 2);
+            undoEntries = Arrays.copyOf(undoEntries, undoSize * 2);
+        }
+        undoKeys[undoSize] = key;
+        undoEntries[undoSize++] = previous;
+    }
+
+    /**
+     * Marks the start of a scope, give it to leave at the end of the scope.
+     */
+    int enter() {
+        return undoSize;
+    }
+
+    /**
+     * Removes the variables put since mark was entered.
+     */
+    void leave(final int mark) {
+        while(undoSize > mark) {
+            final int key = undoKeys[--undoSize];
+            if(key >= 0) {
+                byId[key] = undoEntries[undoSize];
+            } else {
+                byName[-1 - key] = undoEntries[undoSize];
+            }
+            undoEntries[undoSize] = null;
+        }
+    }
+}
@@ -0,0 +1,555 @@
+package com.github.wangdong20.kotlinscriptcompiler.optimizer;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.*;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.*;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.BasicType;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.Type;
+
+import java.util.*;
+
+/**
+ * Folds operators on Int, Boolean and String literals into one literal, and puts the literal a val
+ * is bound to where the val is read, so the CodeGenerator writes 2 * 3 + n as 6 + n and "a" + "b"
+ * as "ab". It runs on programs which passed the Typechecker, so only well typed operators are met.
+ *
+ * The AST can not be changed, so a statement or expression is built again when something in it
+ * was folded and is shared when nothing was. An expression built again takes the type the
+ * Typechecker gave the one it replaces, see getExpTypes.
+ *
+ * A val is only put in the function or top level it is declared in: a function declared after it
+ * may be called before it is assigned. A division by zero is not folded, it fails when it runs.
+ */
+public class ConstantFolder {
+    private final Map<Exp, Type> expTypes;
+    private Constants constants = new Constants();
+
+    public ConstantFolder() {
+        this(Collections.<Exp, Type>emptyMap());
+    }
+
+    /**
+     * A ConstantFolder for a program the Typechecker gave expTypes for.
+     */
+    public ConstantFolder(final Map<Exp, Type> expTypes) {
+        this.expTypes = new IdentityHashMap<>(expTypes);
+    }
+
+    /**
+     * The types the Typechecker gave, with the expressions built again by fold.
+     */
+    public Map<Exp, Type> getExpTypes() {
+        return expTypes;
+    }
+
+    // The vals bound to literals by name, with null for a name which hides one in a nested scope.
+    private static final class Constants {
+        private final Map<String, Exp> values = new HashMap<>();
+        private final List<String> undoNames = new ArrayList<>();
+        private final List<Exp> undoValues = new ArrayList<>();
+
+        private Exp get(final String name) {
+            return values.get(name);
+        }
+
+        private void put(final String name, final Exp literal) {
+            undoNames.add(name);
+            undoValues.add(values.put(name, literal));
+        }
+
+        private int enter() {
+            return undoNames.size();
+        }
+
+        private void leave(final int mark) {
+            for(int i = undoNames.size() - 1; i >= mark; i--) {
+                values.put(undoNames.remove(i), undoValues.remove(i));
+            }
+        }
+    }
+
+    // A block being folded, with the statement it belongs to, null for the top level.
+    private static final class BlockFrame {
+        private final Stmt owner;
+        private final int scope;
+        private BlockStmt block;
+        private List<Stmt> stmtList;
+        private int index;
+        private List<Stmt> folded = new ArrayList<>();
+        private boolean changed;
+        private Exp condition;          // if, while
+        private RangeExp rangeExp;      // for
+        private Exp stepExp;            // for
+        private BlockStmt trueBranch;   // if, once folded
+        private boolean inFalseBranch;  // if
+        private Constants outside;      // fun
+
+        private BlockFrame(final Stmt owner, final int scope, final BlockStmt block) {
+            this.owner = owner;
+            this.scope = scope;
+            this.block = block;
+            this.stmtList = block == null ? Collections.<Stmt>emptyList() : block.getStmtList();
+        }
+
+        private void add(final Stmt original, final Stmt stmt) {
+            folded.add(stmt);
+            changed |= stmt != original;
+        }
+
+        // The block as folded, the same block if nothing in it was.
+        private BlockStmt finish() {
+            return changed ? new BlockStmt(folded) : block;
+        }
+    }
+
+    private static boolean hasBlock(final Stmt s) {
+        return s instanceof ForStmt || s instanceof WhileStmt || s instanceof BlockStmt ||
+                s instanceof FunctionDeclareStmt || s instanceof IfStmt;
+    }
+
+    /**
+     * Folds program. Blocks are not folded by recursion but with a stack of the blocks being
+     * folded, so they can be nested as deep as the heap allows.
+     */
+    public Program fold(final Program program) {
+        constants = new Constants();
+        final List<BlockFrame> frames = new ArrayList<>();
+        frames.add(new BlockFrame(null, constants.enter(), new BlockStmt(program.getStmtList())));
+        while(true) {
+            final BlockFrame frame = frames.get(frames.size() - 1);
+            if(frame.index < frame.stmtList.size()) {
+                final Stmt next = frame.stmtList.get(frame.index++);
+                if(hasBlock(next)) {
+                    frames.add(openBlock(next));
+                } else {
+                    frame.add(next, foldSimpleStmt(next));
+                }
+            } else if(frame.owner instanceof IfStmt && !frame.inFalseBranch) {
+                constants.leave(frame.scope);
+                frame.trueBranch = frame.finish();
+                frame.inFalseBranch = true;
+                frame.block = ((IfStmt) frame.owner).getFalseBranch();
+                frame.stmtList = frame.block == null ? Collections.<Stmt>emptyList() : frame.block.getStmtList();
+                frame.index = 0;
+                frame.folded = new ArrayList<>();
+                frame.changed = false;
+            } else {
+                constants.leave(frame.scope);
+                frames.remove(frames.size() - 1);
+                if(frames.isEmpty()) {
+                    return frame.changed ? new Program(frame.folded) : program;
+                }
+                frames.get(frames.size() - 1).add(frame.owner, closeBlock(frame));
+            }
+        }
+    }
+
+    // Folds what comes before the (first) block of s, and gives the frame to fold that block in.
+    private BlockFrame openBlock(final Stmt s) {
+        final BlockFrame frame;
+        if(s instanceof ForStmt) {
+            final ForStmt asFor = (ForStmt) s;
+            final RangeExp rangeExp = asFor.getRangeExp() == null ? null : (RangeExp) fold(asFor.getRangeExp());
+            final Exp stepExp = fold(asFor.getStepExp());
+            frame = new BlockFrame(s, constants.enter(), asFor.getBlockStmt());
+            frame.rangeExp = rangeExp;
+            frame.stepExp = stepExp;
+            constants.put(asFor.getIteratorExp().getName(), null);
+        } else if(s instanceof WhileStmt) {
+            final Exp condition = fold(((WhileStmt) s).getCondition());
+            frame = new BlockFrame(s, constants.enter(), ((WhileStmt) s).getBlockStmt());
+            frame.condition = condition;
+        } else if(s instanceof BlockStmt) {
+            frame = new BlockFrame(s, constants.enter(), (BlockStmt) s);
+        } else if(s instanceof FunctionDeclareStmt) {
+            final Constants outside = constants;
+            constants = new Constants();
+            frame = new BlockFrame(s, constants.enter(), ((FunctionDeclareStmt) s).getBlockStmt());
+            frame.outside = outside;
+        } else {
+            final Exp condition = fold(((IfStmt) s).getCondition());
+            frame = new BlockFrame(s, constants.enter(), ((IfStmt) s).getTrueBranch());
+            frame.condition = condition;
+        }
+        return frame;
+    }
+
+    // The statement of a block which has been folded.
+    private Stmt closeBlock(final BlockFrame frame) {
+        final BlockStmt block = frame.finish();
+        if(frame.owner instanceof ForStmt) {
+            final ForStmt asFor = (ForStmt) frame.owner;
+            if(block == asFor.getBlockStmt() && frame.rangeExp == asFor.getRangeExp() && frame.stepExp == asFor.getStepExp()) {
+                return asFor;
+            } else if(asFor.getArrayExp() != null) {
+                return new ForStmt(asFor.getIteratorExp(), asFor.getArrayExp(), block);
+            } else if(frame.stepExp == null) {
+                return new ForStmt(asFor.getIteratorExp(), frame.rangeExp, block);
+            }
+            return new ForStmt(asFor.getIteratorExp(), frame.rangeExp, frame.stepExp, block);
+        } else if(frame.owner instanceof WhileStmt) {
+            final WhileStmt asWhile = (WhileStmt) frame.owner;
+            if(block == asWhile.getBlockStmt() && frame.condition == asWhile.getCondition()) {
+                return asWhile;
+            }
+            return new WhileStmt(frame.condition, block);
+        } else if(frame.owner instanceof BlockStmt) {
+            return block;
+        } else if(frame.owner instanceof FunctionDeclareStmt) {
+            constants = frame.outside;
+            final FunctionDeclareStmt function = (FunctionDeclareStmt) frame.owner;
+            if(block == function.getBlockStmt()) {
+                return function;
+            }
+            return new FunctionDeclareStmt(function.getFuncName(), function.getReturnType(), function.getParameterList(), block);
+        } else {
+            final IfStmt asIf = (IfStmt) frame.owner;
+            if(frame.condition == asIf.getCondition() && frame.trueBranch == asIf.getTrueBranch() && block == asIf.getFalseBranch()) {
+                return asIf;
+            }
+            return new IfStmt(frame.condition, frame.trueBranch, block);
+        }
+    }
+
+    private Stmt foldSimpleStmt(final Stmt s) {
+        if(s instanceof AssignStmt) {
+            final AssignStmt asAssign = (AssignStmt) s;
+            final Exp expression = fold(asAssign.getExpression());
+            final Variable variable = foldTarget(asAssign.getVariable());
+            if(asAssign.isNew()) {
+                final boolean isConstant = asAssign.isReadOnly() && isLiteral(expression) &&
+                        (asAssign.getType() == null || asAssign.getType() == literalType(expression));
+                constants.put(((VariableExp) asAssign.getVariable()).getName(), isConstant ? expression : null);
+            }
+            if(expression == asAssign.getExpression() && variable == asAssign.getVariable()) {
+                return s;
+            }
+            return new AssignStmt(expression, variable, asAssign.getType(), asAssign.isReadOnly(), asAssign.isNew());
+        } else if(s instanceof VariableDeclareStmt) {
+            constants.put(((VariableDeclareStmt) s).getVariableExp().getName(), null);
+            return s;
+        } else if(s instanceof CompoundAssignStmt) {
+            final CompoundAssignStmt asAssign = (CompoundAssignStmt) s;
+            final Exp expression = fold(asAssign.getExpression());
+            final Variable variable = foldTarget(asAssign.getVariable());
+            if(expression == asAssign.getExpression() && variable == asAssign.getVariable()) {
+                return s;
+            }
+            return new CompoundAssignStmt(expression, variable, asAssign.getOp());
+        } else if(s instanceof PrintStmt) {
+            final Exp value = fold(((PrintStmt) s).getValue());
+            return value == ((PrintStmt) s).getValue() ? s : new PrintStmt(value);
+        } else if(s instanceof PrintlnStmt) {
+            final Exp value = fold(((PrintlnStmt) s).getValue());
+            return value == ((PrintlnStmt) s).getValue() ? s : new PrintlnStmt(value);
+        } else if(s instanceof ReturnStmt) {
+            final Exp value = fold(((ReturnStmt) s).getReturnExp());
+            return value == ((ReturnStmt) s).getReturnExp() ? s : new ReturnStmt(value);
+        } else if(s instanceof FunctionInstanceStmt) {
+            final FunctionInstanceExp call = ((FunctionInstanceStmt) s).getFunctionInstanceExp();
+            final Exp folded = fold(call);
+            return folded == call ? s : new FunctionInstanceStmt((FunctionInstanceExp) folded);
+        }
+        return s;   // ++, --, break and continue
+    }
+
+    // A variable assigned to, only the index of an array element is read.
+    private Variable foldTarget(final Variable variable) {
+        if(variable instanceof ArrayWithIndexExp) {
+            return (Variable) fold((Exp) variable);
+        }
+        return variable;
+    }
+
+    static boolean isLiteral(final Exp e) {
+        return e instanceof IntExp || e instanceof BooleanExp || (e instanceof StringExp && ((StringExp) e).getExps().length == 0);
+    }
+
+    private static BasicType literalType(final Exp literal) {
+        if(literal instanceof IntExp) {
+            return BasicType.TYPE_INT;
+        }
+        return literal instanceof BooleanExp ? BasicType.TYPE_BOOLEAN : BasicType.TYPE_STRING;
+    }
+
+    private static StringExp stringLiteral(final String value) {
+        return new StringExp(new String[] { value }, new Exp[0]);
+    }
+
+    // The text of a literal as it is appended to a String.
+    private static String textOf(final Exp literal) {
+        if(literal instanceof IntExp) {
+            return String.valueOf(((IntExp) literal).getValue());
+        } else if(literal instanceof BooleanExp) {
+            return String.valueOf(((BooleanExp) literal).getValue());
+        }
+        return ((StringExp) literal).getStrWithoutInterpolation();
+    }
+
+    // folded stands for original, with the type the Typechecker gave original. Like the
+    // Typechecker, no type is kept for a variable, the CodeGenerator looks it up itself.
+    private Exp replace(final Exp original, final Exp folded) {
+        if(folded != original && !(folded instanceof Variable)) {
+            final Type type = expTypes.get(original);
+            if(type != null && !expTypes.containsKey(folded)) {
+                expTypes.put(folded, type);
+            }
+        }
+        return folded;
+    }
+
+    private Exp fold(final Exp e) {
+        return isOperator(e) ? foldOperators(e) : foldOperand(e);
+    }
+
+    private static boolean isOperator(final Exp e) {
+        return e instanceof BinaryIntExp || e instanceof ComparableExp || e instanceof NotExp || e instanceof BiLogicalExp;
+    }
+
+    // An operator whose operands are being folded.
+    private static final class OperatorFrame {
+        private final Exp exp;
+        private int stage;      // how many operands were taken
+        private Exp left;
+        private Exp right;      // the only operand of !
+
+        private OperatorFrame(final Exp exp) {
+            this.exp = exp;
+        }
+    }
+
+    /**
+     * Folds a tree of operators. A chain like a + b + c + ... is as deep as it is long, so the
+     * operators are kept on a stack with how many of their operands were folded, and nesting is
+     * only limited by the heap.
+     */
+    private Exp foldOperators(final Exp root) {
+        final List<OperatorFrame> frames = new ArrayList<>();
+        frames.add(new OperatorFrame(root));
+        while(true) {
+            OperatorFrame frame = frames.get(frames.size() - 1);
+            final Exp value;
+            if(frame.stage < (frame.exp instanceof NotExp ? 1 : 2)) {
+                final Exp operand = frame.stage == 0 ? leftOf(frame.exp) : rightOf(frame.exp);
+                frame.stage++;
+                if(isOperator(operand)) {
+                    frames.add(new OperatorFrame(operand));
+                    continue;
+                }
+                value = foldOperand(operand);
+            } else {
+                frames.remove(frames.size() - 1);
+                value = replace(frame.exp, foldOperator(frame));
+                if(frames.isEmpty()) {
+                    return value;
+                }
+                frame = frames.get(frames.size() - 1);
+            }
+            if(frame.stage == 1 && !(frame.exp instanceof NotExp)) {
+                frame.left = value;
+            } else {
+                frame.right = value;
+            }
+        }
+    }
+
+    private static Exp leftOf(final Exp operator) {
+        if(operator instanceof BinaryIntExp) {
+            return ((BinaryIntExp) operator).getLeft();
+        } else if(operator instanceof ComparableExp) {
+            return ((ComparableExp) operator).getLeft();
+        } else if(operator instanceof BiLogicalExp) {
+            return ((BiLogicalExp) operator).getLeft();
+        }
+        return ((NotExp) operator).getValue();
+    }
+
+    private static Exp rightOf(final Exp operator) {
+        if(operator instanceof BinaryIntExp) {
+            return ((BinaryIntExp) operator).getRight();
+        } else if(operator instanceof ComparableExp) {
+            return ((ComparableExp) operator).getRight();
+        }
+        return ((BiLogicalExp) operator).getRight();
+    }
+
+    // The operator of frame applied to its folded operands.
+    private static Exp foldOperator(final OperatorFrame frame) {
+        final Exp left = frame.left;
+        final Exp right = frame.right;
+        if(frame.exp instanceof AdditiveExp) {
+            final AdditiveExp exp = (AdditiveExp) frame.exp;
+            if(left instanceof IntExp && right instanceof IntExp) {
+                final int l = ((IntExp) left).getValue();
+                final int r = ((IntExp) right).getValue();
+                return new IntExp(exp.getOp() == AdditiveOp.EXP_PLUS ? l + r : l - r);
+            } else if(exp.getOp() == AdditiveOp.EXP_PLUS && left instanceof StringExp && isLiteral(left) &&
+                    (right instanceof IntExp || (right instanceof StringExp && isLiteral(right)))) {
+                return stringLiteral(textOf(left) + textOf(right));
+            }
+            return left == exp.getLeft() && right == exp.getRight() ? exp : new AdditiveExp(left, right, exp.getOp());
+        } else if(frame.exp instanceof MultiplicativeExp) {
+            final MultiplicativeExp exp = (MultiplicativeExp) frame.exp;
+            if(left instanceof IntExp && right instanceof IntExp) {
+                final int l = ((IntExp) left).getValue();
+                final int r = ((IntExp) right).getValue();
+                if(exp.getOp() == MultiplicativeOp.OP_MULTIPLY) {
+                    return new IntExp(l * r);
+                } else if(r != 0) {
+                    return new IntExp(exp.getOp() == MultiplicativeOp.OP_DIVIDE ? l / r : l % r);
+                }
+            }
+            return left == exp.getLeft() && right == exp.getRight() ? exp : new MultiplicativeExp(left, right, exp.getOp());
+        } else if(frame.exp instanceof ComparableExp) {
+            final ComparableExp exp = (ComparableExp) frame.exp;
+            if(left instanceof IntExp && right instanceof IntExp) {
+                return new BooleanExp(compare(exp.getOp(), ((IntExp) left).getValue(), ((IntExp) right).getValue()));
+            } else if(left instanceof BooleanExp && right instanceof BooleanExp) {
+                return new BooleanExp(compare(exp.getOp(), ((BooleanExp) left).getValue() ? 1 : 0, ((BooleanExp) right).getValue() ? 1 : 0));
+            }
+            return left == exp.getLeft() && right == exp.getRight() ? exp : new ComparableExp(left, right, exp.getOp());
+        } else if(frame.exp instanceof BiLogicalExp) {
+            final BiLogicalExp exp = (BiLogicalExp) frame.exp;
+            // && is decided by a false operand and || by a true one, the other value leaves the other operand.
+            final boolean decides = exp.getOp() == BiLogicalOp.OP_OR;
+            if(left instanceof BooleanExp) {
+                return ((BooleanExp) left).getValue() == decides ? left : right;
+            } else if(right instanceof BooleanExp) {
+                if(((BooleanExp) right).getValue() != decides) {
+                    return left;
+                } else if(left instanceof VariableExp) {    // nothing is lost by not reading it
+                    return right;
+                }
+            }
+            return left == exp.getLeft() && right == exp.getRight() ? exp : new BiLogicalExp(left, right, exp.getOp());
+        } else {
+            if(right instanceof BooleanExp) {
+                return new BooleanExp(!((BooleanExp) right).getValue());
+            }
+            return right == ((NotExp) frame.exp).getValue() ? frame.exp : new NotExp(right);
+        }
+    }
+
+    private static boolean compare(final ComparableOp op, final int left, final int right) {
+        switch (op) {
+            case OP_GREATER_THAN:
+                return left > right;
+            case OP_LESS_THAN:
+                return left < right;
+            case OP_GREATER_EQUAL:
+                return left >= right;
+            case OP_LESS_EQUAL:
+                return left <= right;
+            case OP_EQUAL_EQUAL:
+                return left == right;
+            default:
+                return left != right;
+        }
+    }
+
+    // Folds an expression which is not an operator, the operators in it are folded by foldOperators.
+    private Exp foldOperand(final Exp e) {
+        if(e instanceof VariableExp) {
+            final Exp literal = constants.get(((VariableExp) e).getName());
+            if(literal == null) {
+                return e;
+            } else if(literal instanceof IntExp) {
+                return new IntExp(((IntExp) literal).getValue());
+            } else if(literal instanceof BooleanExp) {
+                return new BooleanExp(((BooleanExp) literal).getValue());
+            }
+            return stringLiteral(textOf(literal));
+        } else if(e instanceof ArrayWithIndexExp) {
+            final ArrayWithIndexExp element = (ArrayWithIndexExp) e;
+            final Exp index = fold(element.getIndexExp());
+            return index == element.getIndexExp() ? e : replace(e, new ArrayWithIndexExp(element.getVariableExp(), index));
+        } else if(e instanceof StringExp) {
+            return foldStringExp((StringExp) e);
+        } else if(e instanceof FunctionInstanceExp) {
+            final FunctionInstanceExp call = (FunctionInstanceExp) e;
+            final List<Exp> parameters = foldAll(call.getParameterList());
+            if(parameters == call.getParameterList()) {
+                return e;
+            }
+            final FunctionInstanceExp folded = new FunctionInstanceExp(call.getFuncName(), parameters);
+            folded.setFunction(call.getFunction());
+            return replace(e, folded);
+        } else if(e instanceof ArrayOfExp) {
+            final List<Exp> exps = foldAll(((ArrayOfExp) e).getExpList());
+            return exps == ((ArrayOfExp) e).getExpList() ? e : replace(e, new ArrayOfExp(exps));
+        } else if(e instanceof MutableListOfExp) {
+            final List<Exp> exps = foldAll(((MutableListOfExp) e).getExpList());
+            return exps == ((MutableListOfExp) e).getExpList() ? e : replace(e, new MutableListOfExp(exps));
+        } else if(e instanceof ArrayExp) {
+            final ArrayExp array = (ArrayExp) e;
+            final Exp size = fold(array.getSize());
+            final LambdaExp lambda = (LambdaExp) fold(array.getLambdaExp());
+            return size == array.getSize() && lambda == array.getLambdaExp() ? e : replace(e, new ArrayExp(size, lambda));
+        } else if(e instanceof MutableListExp) {
+            final MutableListExp list = (MutableListExp) e;
+            final Exp size = fold(list.getSize());
+            final LambdaExp lambda = (LambdaExp) fold(list.getLambdaExp());
+            return size == list.getSize() && lambda == list.getLambdaExp() ? e : replace(e, new MutableListExp(size, lambda));
+        } else if(e instanceof LambdaExp) {
+            final LambdaExp lambda = (LambdaExp) e;
+            final int scope = constants.enter();
+            for(VariableExp parameter : lambda.getParameterList().keySet()) {
+                constants.put(parameter.getName(), null);
+            }
+            final Exp returnExp = fold(lambda.getReturnExp());
+            constants.leave(scope);
+            return returnExp == lambda.getReturnExp() ? e : replace(e, new LambdaExp(lambda.getParameterList(), returnExp));
+        } else if(e instanceof RangeExp) {
+            final RangeExp range = (RangeExp) e;
+            final Exp start = fold(range.getStart());
+            final Exp end = fold(range.getEnd());
+            return start == range.getStart() && end == range.getEnd() ? e : replace(e, new RangeExp(start, end));
+        }
+        return e;   // literals and ++, --
+    }
+
+    // The folded exps, the same list if none of them changed.
+    private List<Exp> foldAll(final List<Exp> exps) {
+        List<Exp> folded = null;
+        for(int i = 0; i < exps.size(); i++) {
+            final Exp exp = fold(exps.get(i));
+            if(exp != exps.get(i) && folded == null) {
+                folded = new ArrayList<>(exps.subList(0, i));
+            }
+            if(folded != null) {
+                folded.add(exp);
+            }
+        }
+        return folded == null ? exps : folded;
+    }
+
+    // Interpolated literals become part of the text around them.
+    private Exp foldStringExp(final StringExp s) {
+        final String[] segments = s.getSegments();
+        final Exp[] exps = s.getExps();
+        if(exps.length == 0) {
+            return s;
+        }
+        final List<String> foldedSegments = new ArrayList<>();
+        final List<Exp> foldedExps = new ArrayList<>();
+        StringBuilder segment = new StringBuilder(segments[0]);
+        boolean changed = false;
+        for(int i = 0; i < exps.length; i++) {
+            final Exp exp = fold(exps[i]);
+            changed |= exp != exps[i];
+            if(isLiteral(exp)) {
+                segment.append(textOf(exp));
+            } else {
+                foldedSegments.add(segment.toString());
+                foldedExps.add(exp);
+                segment = new StringBuilder();
+            }
+            segment.append(segments[i + 1]);
+        }
+        foldedSegments.add(segment.toString());
+        if(!changed) {
+            return s;
+        }
+        return replace(s, new StringExp(foldedSegments.toArray(new String[0]), foldedExps.toArray(new Exp[0])));
+    }
+}
@@ -0,0 +1,179 @@
+package com.github.wangdong20.kotlinscriptcompiler.optimizer;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.BooleanExp;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.*;
+
+import java.util.*;
+
+/**
+ * Takes out the code which can never run, best after ConstantFolder has made conditions literals:
+ * an if with a literal condition leaves only the branch taken, as a block, a while(false) goes,
+ * and so do the statements after a return, break or continue. A break or continue ends the block
+ * around it too when the block, or both branches of an if, end with one.
+ *
+ * A return only ends its own block: the CodeGenerator leaves its value for the return at the end
+ * of the function, so the code after a branch which returns still runs.
+ */
+public class DeadCodeEliminator {
+
+    // A block being pruned, with the statement it belongs to, null for the top level.
+    private static final class BlockFrame {
+        private final Stmt owner;
+        private final boolean taken;    // only this branch of the if owner is left
+        private BlockStmt block;
+        private List<Stmt> stmtList;
+        private int index;
+        private List<Stmt> kept = new ArrayList<>();
+        private boolean changed;
+        private boolean ended;          // by a return, break or continue
+        private boolean jumped;         // by a break or continue
+        private BlockStmt trueBranch;   // if, once pruned
+        private boolean trueJumped;     // if
+        private boolean inFalseBranch;  // if
+
+        private BlockFrame(final Stmt owner, final boolean taken, final BlockStmt block) {
+            this.owner = owner;
+            this.taken = taken;
+            start(block);
+        }
+
+        private void start(final BlockStmt block) {
+            this.block = block;
+            this.stmtList = block == null ? Collections.<Stmt>emptyList() : block.getStmtList();
+            index = 0;
+            kept = new ArrayList<>();
+            changed = false;
+            ended = false;
+            jumped = false;
+        }
+
+        private void add(final Stmt original, final Stmt stmt) {
+            kept.add(stmt);
+            changed |= stmt != original;
+        }
+
+        // The block as pruned, the same block if nothing in it was.
+        private BlockStmt finish() {
+            return changed ? new BlockStmt(kept) : block;
+        }
+    }
+
+    private static boolean hasBlock(final Stmt s) {
+        return s instanceof ForStmt || s instanceof WhileStmt || s instanceof BlockStmt ||
+                s instanceof FunctionDeclareStmt || s instanceof IfStmt;
+    }
+
+    private static boolean isEmpty(final BlockStmt block) {
+        return block == null || block.getStmtList() == null || block.getStmtList().isEmpty();
+    }
+
+    /**
+     * Prunes program, which has passed the Typechecker. Blocks are not pruned by recursion but
+     * with a stack of the blocks being pruned, so they can be nested as deep as the heap allows.
+     */
+    public Program eliminate(final Program program) {
+        final List<BlockFrame> frames = new ArrayList<>();
+        frames.add(new BlockFrame(null, false, new BlockStmt(program.getStmtList())));
+        while(true) {
+            final BlockFrame frame = frames.get(frames.size() - 1);
+            if(frame.index < frame.stmtList.size() && frame.ended) {
+                frame.index = frame.stmtList.size();
+                frame.changed = true;
+            } else if(frame.index < frame.stmtList.size()) {
+                final Stmt next = frame.stmtList.get(frame.index++);
+                if(next instanceof IfStmt && ((IfStmt) next).getCondition() instanceof BooleanExp) {
+                    final IfStmt asIf = (IfStmt) next;
+                    final BlockStmt branch = ((BooleanExp) asIf.getCondition()).getValue() ? asIf.getTrueBranch() : asIf.getFalseBranch();
+                    frame.changed = true;
+                    if(!isEmpty(branch)) {
+                        frames.add(new BlockFrame(next, true, branch));
+                    }
+                } else if(next instanceof WhileStmt && ((WhileStmt) next).getCondition() instanceof BooleanExp &&
+                        !((BooleanExp) ((WhileStmt) next).getCondition()).getValue()) {
+                    frame.changed = true;
+                } else if(hasBlock(next)) {
+                    frames.add(new BlockFrame(next, false, blockOf(next)));
+                } else {
+                    frame.add(next, next);
+                    frame.ended = next instanceof ReturnStmt || next instanceof ControlLoopStmt;
+                    frame.jumped = next instanceof ControlLoopStmt;
+                }
+            } else if(frame.owner instanceof IfStmt && !frame.taken && !frame.inFalseBranch) {
+                frame.trueBranch = frame.finish();
+                frame.trueJumped = frame.jumped;
+                frame.inFalseBranch = true;
+                frame.start(((IfStmt) frame.owner).getFalseBranch());
+            } else {
+                frames.remove(frames.size() - 1);
+                if(frames.isEmpty()) {
+                    return frame.changed ? new Program(frame.kept) : program;
+                }
+                final BlockFrame parent = frames.get(frames.size() - 1);
+                parent.add(frame.owner, closeBlock(frame));
+                // Both ways out of an if, or the way out of a block, jump.
+                if(frame.owner instanceof BlockStmt || frame.taken ||
+                        (frame.owner instanceof IfStmt && frame.trueJumped && frame.jumped)) {
+                    parent.ended = parent.jumped = frame.jumped;
+                }
+            }
+        }
+    }
+
+    private static BlockStmt blockOf(final Stmt s) {
+        if(s instanceof ForStmt) {
+            return ((ForStmt) s).getBlockStmt();
+        } else if(s instanceof WhileStmt) {
+            return ((WhileStmt) s).getBlockStmt();
+        } else if(s instanceof FunctionDeclareStmt) {
+            return ((FunctionDeclareStmt) s).getBlockStmt();
+        } else if(s instanceof IfStmt) {
+            return ((IfStmt) s).getTrueBranch();
+        }
+        return (BlockStmt) s;
+    }
+
+    // The statement of a block which has been pruned.
+    private static Stmt closeBlock(final BlockFrame frame) {
+        final BlockStmt block = frame.finish();
+        if(frame.taken || frame.owner instanceof BlockStmt) {
+            return block;
+        } else if(frame.owner instanceof IfStmt) {
+            final IfStmt asIf = (IfStmt) frame.owner;
+            if(frame.trueBranch == asIf.getTrueBranch() && block == asIf.getFalseBranch()) {
+                return asIf;
+            }
+            return new IfStmt(asIf.getCondition(), frame.trueBranch, block);
+        } else if(block == blockOf(frame.owner)) {
+            return frame.owner;
+        } else if(frame.owner instanceof ForStmt) {
+            final ForStmt asFor = (ForStmt) frame.owner;
+            if(asFor.getArrayExp() != null) {
+                return new ForStmt(asFor.getIteratorExp(), asFor.getArrayExp(), block);
+            } else if(asFor.getStepExp() == null) {
+                return new ForStmt(asFor.getIteratorExp(), asFor.getRangeExp(), block);
+            }
+            return new ForStmt(asFor.getIteratorExp(), asFor.getRangeExp(), asFor.getStepExp(), block);
+        } else if(frame.owner instanceof WhileStmt) {
+            return new WhileStmt(((WhileStmt) frame.owner).getCondition(), block);
+        }
+        final FunctionDeclareStmt function = (FunctionDeclareStmt) frame.owner;
+        return new FunctionDeclareStmt(function.getFuncName(), function.getReturnType(), function.getParameterList(), block);
+    }
+
+    /**
+     * The bytes of code taken out of each method, by name and descriptor, from the sizes the
+     * CodeGenerator gave for a program before and after it was pruned. Methods which did not get
+     * shorter are left out.
+     */
+    public Map<String, Integer> bytesRemoved(final Map<String, Integer> before, final Map<String, Integer> after) {
+        final Map<String, Integer> removed = new LinkedHashMap<>();
+        for(Map.Entry<String, Integer> entry : before.entrySet()) {
+            final Integer size = after.get(entry.getKey());
+            if(size != null && size < entry.getValue()) {
+                removed.put(entry.getKey(), entry.getValue() - size);
+            }
+        }
+        return removed;
+    }
+}
@@ -0,0 +1,558 @@
+package com.github.wangdong20.kotlinscriptcompiler.parser;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.*;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.*;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.Type;
+
+import java.util.*;
+
+/**
+ * A Program kept in one int array instead of one object per node, for programs with millions of
+ * nodes.
+ *
+ * Every node is its kind followed by its fields, and a node is referred to by the index of its
+ * kind. Children are such indices, lists are their length followed by the elements, and missing
+ * children are -1. Operators and booleans are stored as ints, while names, literal strings and
+ * types are indices into side tables. A name is stored once for each VariableExp, so decoded nodes
+ * share the VariableExps of the Program they were encoded from.
+ *
+ * getProgram gives a Program whose top level statements are decoded each time they are asked for,
+ * so the Typechecker can check it like a parsed Program while only the statement it is at is kept
+ * as objects. This is for checking only: the CodeGenerator must be given toProgram, see getProgram.
+ */
+public class FlatProgram {
+    // Expressions
+    private static final int INT = 0;               // value
+    private static final int BOOLEAN = 1;           // 0 or 1
+    private static final int VARIABLE = 2;          // variable
+    private static final int STRING = 3;            // n, n + 1 segment strings, n exps
+    private static final int ADDITIVE = 4;          // op, left, right
+    private static final int MULTIPLICATIVE = 5;    // op, left, right
+    private static final int COMPARABLE = 6;        // op, left, right
+    private static final int BI_LOGICAL = 7;        // op, left, right
+    private static final int NOT = 8;               // value
+    private static final int RANGE = 9;             // start, end
+    private static final int ARRAY = 10;            // size, lambda
+    private static final int MUTABLE_LIST = 11;     // size, lambda
+    private static final int ARRAY_OF = 12;         // n, n exps
+    private static final int MUTABLE_LIST_OF = 13;  // n, n exps
+    private static final int ARRAY_WITH_INDEX = 14; // variable, index
+    private static final int FUNCTION_INSTANCE = 15;// name, n, n exps
+    private static final int LAMBDA = 16;           // n or -1, n times variable and type, return
+    private static final int SELF_OPERATION = 17;   // variable, op, pre order
+    // Statements
+    private static final int ASSIGN = 18;           // exp, variable, type, read only, new
+    private static final int BLOCK = 19;            // n, n stmts
+    private static final int COMPOUND_ASSIGN = 20;  // exp, variable, op
+    private static final int BREAK = 21;
+    private static final int CONTINUE = 22;
+    private static final int FOR = 23;              // iterator, array, range, step, block
+    private static final int FUNCTION_DECLARE = 24; // name, return type, n or -1, n times exp and type, block
+    private static final int FUNCTION_STMT = 25;    // function instance
+    private static final int IF = 26;               // condition, true branch, false branch
+    private static final int PRINT = 27;            // value
+    private static final int PRINTLN = 28;          // value
+    private static final int RETURN = 29;           // return exp
+    private static final int SELF_OPERATION_STMT = 30;  // self operation
+    private static final int VARIABLE_DECLARE = 31; // variable, type, read only
+    private static final int WHILE = 32;            // condition, block
+
+    private static final AdditiveOp[] ADDITIVE_OPS = AdditiveOp.values();
+    private static final MultiplicativeOp[] MULTIPLICATIVE_OPS = MultiplicativeOp.values();
+    private static final ComparableOp[] COMPARABLE_OPS = ComparableOp.values();
+    private static final BiLogicalOp[] BI_LOGICAL_OPS = BiLogicalOp.values();
+    private static final SelfOp[] SELF_OPS = SelfOp.values();
+    private static final CompoundAssignOp[] COMPOUND_ASSIGN_OPS = CompoundAssignOp.values();
+
+    private final int[] nodes;
+    private final int[] stmts;
+    private final VariableExp[] variables;
+    private final String[] strings;
+    private final Type[] types;
+
+    private FlatProgram(final int[] nodes, final int[] stmts, final VariableExp[] variables, final String[] strings, final Type[] types) {
+        this.nodes = nodes;
+        this.stmts = stmts;
+        this.variables = variables;
+        this.strings = strings;
+        this.types = types;
+    }
+
+    public static FlatProgram encode(final Program program) {
+        return new Encoder().encode(program);
+    }
+
+    /**
+     * Number of ints taken by the nodes.
+     */
+    public int getNodesSize() {
+        return nodes.length;
+    }
+
+    public int getStmtCount() {
+        return stmts.length;
+    }
+
+    /**
+     * Decodes top level statement i.
+     */
+    public Stmt getStmt(final int i) {
+        return decodeStmt(stmts[i]);
+    }
+
+    /**
+     * A Program over this encoding, its statement list decodes a statement on every get, for the
+     * Typechecker to check with little heap. Every walk pays for decoding again.
+     *
+     * Do not give it to the CodeGenerator. Each walk sees new nodes, so the expression types and
+     * resolved calls the Typechecker keeps by node never reach the nodes the CodeGenerator gets,
+     * and a call to an overloaded function cannot be generated. Check and generate the Program of
+     * toProgram instead.
+     */
+    public Program getProgram() {
+        return new Program(new AbstractList<Stmt>() {
+            @Override
+            public Stmt get(final int index) {
+                return getStmt(index);
+            }
+
+            @Override
+            public int size() {
+                return stmts.length;
+            }
+        });
+    }
+
+    /**
+     * Decodes all statements at once into a parsed Program, which keeps the same nodes from the
+     * Typechecker to the CodeGenerator.
+     */
+    public Program toProgram() {
+        final List<Stmt> stmtList = new ArrayList<>(stmts.length);
+        for(int stmt : stmts) {
+            stmtList.add(decodeStmt(stmt));
+        }
+        return new Program(stmtList);
+    }
+
+    private static class Encoder {
+        private int[] nodes = new int[1024];
+        private int size;
+        private final Map<VariableExp, Integer> variables = new IdentityHashMap<>();
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Map<Type, Integer> types = new HashMap<>();
+
+        private FlatProgram encode(final Program program) {
+            final List<Stmt> stmtList = program.getStmtList();
+            final int[] stmts = new int[stmtList.size()];
+            for(int i = 0; i < stmts.length; i++) {
+                stmts[i] = encodeStmt(stmtList.get(i));
+            }
+            return new FlatProgram(Arrays.copyOf(nodes, size), stmts,
+                    table(variables, new VariableExp[variables.size()]),
+                    table(strings, new String[strings.size()]),
+                    table(types, new Type[types.size()]));
+        }
+
+        private static <T> T[] table(final Map<T, Integer> indices, final T[] table) {
+            for(Map.Entry<T, Integer> entry : indices.entrySet()) {
+                table[entry.getValue()] = entry.getKey();
+            }
+            return table;
+        }
+
+        private static <T> int index(final Map<T, Integer> indices, final T value) {
+            if(value == null) {
+                return -1;
+            }
+            Integer index = indices.get(value);
+            if(index == null) {
+                index = indices.size();
+                indices.put(value, index);
+            }
+            return index;
+        }
+
+        // Reserves a node of kind with length fields and gives its index.
+        private int reserve(final int kind, final int length) {
+            if(size + length + 1 > nodes.length) {
+                nodes = Arrays.copyOf(nodes, Math.max(nodes.length * 2, size + length + 1));
+            }
+            final int node = size;
+            nodes[node] = kind;
+            size += length + 1;
+            return node;
+        }
+
+        private int node(final int kind, final int first) {
+            final int node = reserve(kind, 1);
+            nodes[node + 1] = first;
+            return node;
+        }
+
+        private int node(final int kind, final int first, final int second) {
+            final int node = reserve(kind, 2);
+            nodes[node + 1] = first;
+            nodes[node + 2] = second;
+            return node;
+        }
+
+        private int node(final int kind, final int first, final int second, final int third) {
+            final int node = reserve(kind, 3);
+            nodes[node + 1] = first;
+            nodes[node + 2] = second;
+            nodes[node + 3] = third;
+            return node;
+        }
+
+        private int list(final int kind, final int[] items) {
+            final int node = reserve(kind, items.length + 1);
+            nodes[node + 1] = items.length;
+            System.arraycopy(items, 0, nodes, node + 2, items.length);
+            return node;
+        }
+
+        private int[] encodeExps(final List<Exp> exps) {
+            final int[] items = new int[exps.size()];
+            for(int i = 0; i < items.length; i++) {
+                items[i] = encodeExp(exps.get(i));
+            }
+            return items;
+        }
+
+        private int encodeExp(final Exp exp) {
+            if(exp == null) {
+                return -1;
+            } else if(exp instanceof IntExp) {
+                return node(INT, ((IntExp) exp).getValue());
+            } else if(exp instanceof BooleanExp) {
+                return node(BOOLEAN, ((BooleanExp) exp).getValue() ? 1 : 0);
+            } else if(exp instanceof VariableExp) {
+                return node(VARIABLE, index(variables, (VariableExp) exp));
+            } else if(exp instanceof StringExp) {
+                final String[] segments = ((StringExp) exp).getSegments();
+                final Exp[] exps = ((StringExp) exp).getExps();
+                final int[] items = new int[segments.length + exps.length];
+                for(int i = 0; i < segments.length; i++) {
+                    items[i] = index(strings, segments[i]);
+                }
+                for(int i = 0; i < exps.length; i++) {
+                    items[segments.length + i] = encodeExp(exps[i]);
+                }
+                final int node = reserve(STRING, items.length + 1);
+                nodes[node + 1] = exps.length;
+                System.arraycopy(items, 0, nodes, node + 2, items.length);
+                return node;
+            } else if(exp instanceof AdditiveExp) {
+                final AdditiveExp additive = (AdditiveExp) exp;
+                return binary(ADDITIVE, additive.getOp().ordinal(), additive.getLeft(), additive.getRight());
+            } else if(exp instanceof MultiplicativeExp) {
+                final MultiplicativeExp multiplicative = (MultiplicativeExp) exp;
+                return binary(MULTIPLICATIVE, multiplicative.getOp().ordinal(), multiplicative.getLeft(), multiplicative.getRight());
+            } else if(exp instanceof ComparableExp) {
+                final ComparableExp comparable = (ComparableExp) exp;
+                return binary(COMPARABLE, comparable.getOp().ordinal(), comparable.getLeft(), comparable.getRight());
+            } else if(exp instanceof BiLogicalExp) {
+                final BiLogicalExp biLogical = (BiLogicalExp) exp;
+                return binary(BI_LOGICAL, biLogical.getOp().ordinal(), biLogical.getLeft(), biLogical.getRight());
+            } else if(exp instanceof NotExp) {
+                return node(NOT, encodeExp(((NotExp) exp).getValue()));
+            } else if(exp instanceof RangeExp) {
+                final int start = encodeExp(((RangeExp) exp).getStart());
+                return node(RANGE, start, encodeExp(((RangeExp) exp).getEnd()));
+            } else if(exp instanceof ArrayExp) {
+                final int arraySize = encodeExp(((ArrayExp) exp).getSize());
+                return node(ARRAY, arraySize, encodeExp(((ArrayExp) exp).getLambdaExp()));
+            } else if(exp instanceof MutableListExp) {
+                final int listSize = encodeExp(((MutableListExp) exp).getSize());
+                return node(MUTABLE_LIST, listSize, encodeExp(((MutableListExp) exp).getLambdaExp()));
+            } else if(exp instanceof ArrayOfExp) {
+                return list(ARRAY_OF, encodeExps(((ArrayOfExp) exp).getExpList()));
+            } else if(exp instanceof MutableListOfExp) {
+                return list(MUTABLE_LIST_OF, encodeExps(((MutableListOfExp) exp).getExpList()));
+            } else if(exp instanceof ArrayWithIndexExp) {
+                final int variable = encodeExp(((ArrayWithIndexExp) exp).getVariableExp());
+                return node(ARRAY_WITH_INDEX, variable, encodeExp(((ArrayWithIndexExp) exp).getIndexExp()));
+            } else if(exp instanceof FunctionInstanceExp) {
+                final int name = encodeExp(((FunctionInstanceExp) exp).getFuncName());
+                final int[] items = encodeExps(((FunctionInstanceExp) exp).getParameterList());
+                final int node = reserve(FUNCTION_INSTANCE, items.length + 2);
+                nodes[node + 1] = name;
+                nodes[node + 2] = items.length;
+                System.arraycopy(items, 0, nodes, node + 3, items.length);
+                return node;
+            } else if(exp instanceof LambdaExp) {
+                final LambdaExp lambda = (LambdaExp) exp;
+                final int[] parameters = parameters(lambda.getParameterList());
+                final int returnExp = encodeExp(lambda.getReturnExp());
+                if(parameters == null) {
+                    return node(LAMBDA, -1, returnExp);
+                }
+                final int node = reserve(LAMBDA, parameters.length + 2);
+                nodes[node + 1] = parameters.length / 2;
+                System.arraycopy(parameters, 0, nodes, node + 2, parameters.length);
+                nodes[node + 2 + parameters.length] = returnExp;
+                return node;
+            } else if(exp instanceof SelfOperationExp) {
+                final SelfOperationExp self = (SelfOperationExp) exp;
+                return node(SELF_OPERATION, encodeExp((Exp) self.getVariableExp()), self.getOp().ordinal(), self.getPreOrder() ? 1 : 0);
+            }
+            throw new IllegalArgumentException("Unknown expression " + exp);
+        }
+
+        private int binary(final int kind, final int op, final Exp left, final Exp right) {
+            final int leftNode = encodeExp(left);
+            return node(kind, op, leftNode, encodeExp(right));
+        }
+
+        // Parameter and type pairs, null for no parameter list.
+        private int[] parameters(final Map<? extends Exp, Type> parameterList) {
+            if(parameterList == null) {
+                return null;
+            }
+            final int[] parameters = new int[parameterList.size() * 2];
+            int i = 0;
+            for(Map.Entry<? extends Exp, Type> entry : parameterList.entrySet()) {
+                parameters[i++] = encodeExp(entry.getKey());
+                parameters[i++] = index(types, entry.getValue());
+            }
+            return parameters;
+        }
+
+        private int encodeBlock(final BlockStmt block) {
+            if(block == null) {
+                return -1;
+            }
+            final List<Stmt> stmtList = block.getStmtList();
+            final int[] items = new int[stmtList.size()];
+            for(int i = 0; i < items.length; i++) {
+                items[i] = encodeStmt(stmtList.get(i));
+            }
+            return list(BLOCK, items);
+        }
+
+        private int encodeStmt(final Stmt stmt) {
+            if(stmt instanceof AssignStmt) {
+                final AssignStmt assign = (AssignStmt) stmt;
+                final int exp = encodeExp(assign.getExpression());
+                final int variable = encodeExp((Exp) assign.getVariable());
+                final int node = reserve(ASSIGN, 5);
+                nodes[node + 1] = exp;
+                nodes[node + 2] = variable;
+                nodes[node + 3] = index(types, assign.getType());
+                nodes[node + 4] = assign.isReadOnly() ? 1 : 0;
+                nodes[node + 5] = assign.isNew() ? 1 : 0;
+                return node;
+            } else if(stmt instanceof BlockStmt) {
+                return encodeBlock((BlockStmt) stmt);
+            } else if(stmt instanceof CompoundAssignStmt) {
+                final CompoundAssignStmt compound = (CompoundAssignStmt) stmt;
+                final int exp = encodeExp(compound.getExpression());
+                return node(COMPOUND_ASSIGN, exp, encodeExp((Exp) compound.getVariable()), compound.getOp().ordinal());
+            } else if(stmt == ControlLoopStmt.STMT_BREAK) {
+                return reserve(BREAK, 0);
+            } else if(stmt == ControlLoopStmt.STMT_CONTINUE) {
+                return reserve(CONTINUE, 0);
+            } else if(stmt instanceof ForStmt) {
+                final ForStmt forStmt = (ForStmt) stmt;
+                final int iterator = encodeExp(forStmt.getIteratorExp());
+                final int array = encodeExp(forStmt.getArrayExp());
+                final int range = encodeExp(forStmt.getRangeExp());
+                final int step = encodeExp(forStmt.getStepExp());
+                final int block = encodeBlock(forStmt.getBlockStmt());
+                final int node = reserve(FOR, 5);
+                nodes[node + 1] = iterator;
+                nodes[node + 2] = array;
+                nodes[node + 3] = range;
+                nodes[node + 4] = step;
+                nodes[node + 5] = block;
+                return node;
+            } else if(stmt instanceof FunctionDeclareStmt) {
+                final FunctionDeclareStmt function = (FunctionDeclareStmt) stmt;
+                final int name = encodeExp(function.getFuncName());
+                final int[] parameters = parameters(function.getParameterList());
+                final int block = encodeBlock(function.getBlockStmt());
+                final int length = parameters == null ? 0 : parameters.length;
+                final int node = reserve(FUNCTION_DECLARE, length + 4);
+                nodes[node + 1] = name;
+                nodes[node + 2] = index(types, function.getReturnType());
+                nodes[node + 3] = parameters == null ? -1 : length / 2;
+                if(parameters != null) {
+                    System.arraycopy(parameters, 0, nodes, node + 4, length);
+                }
+                nodes[node + 4 + length] = block;
+                return node;
+            } else if(stmt instanceof FunctionInstanceStmt) {
+                return node(FUNCTION_STMT, encodeExp(((FunctionInstanceStmt) stmt).getFunctionInstanceExp()));
+            } else if(stmt instanceof IfStmt) {
+                final IfStmt ifStmt = (IfStmt) stmt;
+                final int condition = encodeExp(ifStmt.getCondition());
+                final int trueBranch = encodeBlock(ifStmt.getTrueBranch());
+                return node(IF, condition, trueBranch, encodeBlock(ifStmt.getFalseBranch()));
+            } else if(stmt instanceof PrintStmt) {
+                return node(PRINT, encodeExp(((PrintStmt) stmt).getValue()));
+            } else if(stmt instanceof PrintlnStmt) {
+                return node(PRINTLN, encodeExp(((PrintlnStmt) stmt).getValue()));
+            } else if(stmt instanceof ReturnStmt) {
+                return node(RETURN, encodeExp(((ReturnStmt) stmt).getReturnExp()));
+            } else if(stmt instanceof SelfOperationStmt) {
+                return node(SELF_OPERATION_STMT, encodeExp(((SelfOperationStmt) stmt).getSelfOperationExp()));
+            } else if(stmt instanceof VariableDeclareStmt) {
+                final VariableDeclareStmt declare = (VariableDeclareStmt) stmt;
+                return node(VARIABLE_DECLARE, encodeExp(declare.getVariableExp()), index(types, declare.getType()), declare.isReadOnly() ? 1 : 0);
+            } else if(stmt instanceof WhileStmt) {
+                final int condition = encodeExp(((WhileStmt) stmt).getCondition());
+                return node(WHILE, condition, encodeBlock(((WhileStmt) stmt).getBlockStmt()));
+            }
+            throw new IllegalArgumentException("Unknown statement " + stmt);
+        }
+    }
+
+    private Type type(final int index) {
+        return index < 0 ? null : types[index];
+    }
+
+    private List<Exp> decodeExps(final int at) {
+        final int count = nodes[at];
+        final List<Exp> exps = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            exps.add(decodeExp(nodes[at + 1 + i]));
+        }
+        return exps;
+    }
+
+    private Exp decodeExp(final int node) {
+        if(node < 0) {
+            return null;
+        }
+        switch (nodes[node]) {
+            case INT:
+                return new IntExp(nodes[node + 1]);
+            case BOOLEAN:
+                return new BooleanExp(nodes[node + 1] != 0);
+            case VARIABLE:
+                return variables[nodes[node + 1]];
+            case STRING: {
+                final int count = nodes[node + 1];
+                if(count == 0) {
+                    return new StringExp(strings[nodes[node + 2]], null);
+                }
+                final String[] segments = new String[count + 1];
+                final Exp[] exps = new Exp[count];
+                for(int i = 0; i <= count; i++) {
+                    segments[i] = strings[nodes[node + 2 + i]];
+                }
+                for(int i = 0; i < count; i++) {
+                    exps[i] = decodeExp(nodes[node + 3 + count + i]);
+                }
+                return new StringExp(segments, exps);
+            }
+            case ADDITIVE:
+                return new AdditiveExp(decodeExp(nodes[node + 2]), decodeExp(nodes[node + 3]), ADDITIVE_OPS[nodes[node + 1]]);
+            case MULTIPLICATIVE:
+                return new MultiplicativeExp(decodeExp(nodes[node + 2]), decodeExp(nodes[node + 3]), MULTIPLICATIVE_OPS[nodes[node + 1]]);
+            case COMPARABLE:
+                return new ComparableExp(decodeExp(nodes[node + 2]), decodeExp(nodes[node + 3]), COMPARABLE_OPS[nodes[node + 1]]);
+            case BI_LOGICAL:
+                return new BiLogicalExp(decodeExp(nodes[node + 2]), decodeExp(nodes[node + 3]), BI_LOGICAL_OPS[nodes[node + 1]]);
+            case NOT:
+                return new NotExp(decodeExp(nodes[node + 1]));
+            case RANGE:
+                return new RangeExp(decodeExp(nodes[node + 1]), decodeExp(nodes[node + 2]));
+            case ARRAY:
+                return new ArrayExp(decodeExp(nodes[node + 1]), (LambdaExp) decodeExp(nodes[node + 2]));
+            case MUTABLE_LIST:
+                return new MutableListExp(decodeExp(nodes[node + 1]), (LambdaExp) decodeExp(nodes[node + 2]));
+            case ARRAY_OF:
+                return new ArrayOfExp(decodeExps(node + 1));
+            case MUTABLE_LIST_OF:
+                return new MutableListOfExp(decodeExps(node + 1));
+            case ARRAY_WITH_INDEX:
+                return new ArrayWithIndexExp((VariableExp) decodeExp(nodes[node + 1]), decodeExp(nodes[node + 2]));
+            case FUNCTION_INSTANCE:
+                return new FunctionInstanceExp((VariableExp) decodeExp(nodes[node + 1]), decodeExps(node + 2));
+            case LAMBDA: {
+                final int count = nodes[node + 1];
+                if(count < 0) {
+                    return new LambdaExp(null, decodeExp(nodes[node + 2]));
+                }
+                final LinkedHashMap<VariableExp, Type> parameterList = new LinkedHashMap<>();
+                for(int i = 0; i < count; i++) {
+                    parameterList.put((VariableExp) decodeExp(nodes[node + 2 + 2 * i]), type(nodes[node + 3 + 2 * i]));
+                }
+                return new LambdaExp(parameterList, decodeExp(nodes[node + 2 + 2 * count]));
+            }
+            case SELF_OPERATION:
+                return new SelfOperationExp((Variable) decodeExp(nodes[node + 1]), SELF_OPS[nodes[node + 2]], nodes[node + 3] != 0);
+            default:
+                throw new IllegalStateException("Not an expression at " + node);
+        }
+    }
+
+    private BlockStmt decodeBlock(final int node) {
+        if(node < 0) {
+            return null;
+        }
+        final int count = nodes[node + 1];
+        final List<Stmt> stmtList = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            stmtList.add(decodeStmt(nodes[node + 2 + i]));
+        }
+        return new BlockStmt(stmtList);
+    }
+
+    private Stmt decodeStmt(final int node) {
+        switch (nodes[node]) {
+            case ASSIGN:
+                return new AssignStmt(decodeExp(nodes[node + 1]), (Variable) decodeExp(nodes[node + 2]), type(nodes[node + 3]),
+                        nodes[node + 4] != 0, nodes[node + 5] != 0);
+            case BLOCK:
+                return decodeBlock(node);
+            case COMPOUND_ASSIGN:
+                return new CompoundAssignStmt(decodeExp(nodes[node + 1]), (Variable) decodeExp(nodes[node + 2]),
+                        COMPOUND_ASSIGN_OPS[nodes[node + 3]]);
+            case BREAK:
+                return ControlLoopStmt.STMT_BREAK;
+            case CONTINUE:
+                return ControlLoopStmt.STMT_CONTINUE;
+            case FOR: {
+                final VariableExp iterator = (VariableExp) decodeExp(nodes[node + 1]);
+                final BlockStmt block = decodeBlock(nodes[node + 5]);
+                if(nodes[node + 2] >= 0) {
+                    return new ForStmt(iterator, (VariableExp) decodeExp(nodes[node + 2]), block);
+                }
+                return new ForStmt(iterator, (RangeExp) decodeExp(nodes[node + 3]), decodeExp(nodes[node + 4]), block);
+            }
+            case FUNCTION_DECLARE: {
+                final int count = nodes[node + 3];
+                LinkedHashMap<Exp, Type> parameterList = null;
+                if(count >= 0) {
+                    parameterList = new LinkedHashMap<>();
+                    for(int i = 0; i < count; i++) {
+                        parameterList.put(decodeExp(nodes[node + 4 + 2 * i]), type(nodes[node + 5 + 2 * i]));
+                    }
+                }
+                return new FunctionDeclareStmt((VariableExp) decodeExp(nodes[node + 1]), type(nodes[node + 2]), parameterList,
+                        decodeBlock(nodes[node + 4 + 2 * Math.max(count, 0)]));
+            }
+            case FUNCTION_STMT:
+                return new FunctionInstanceStmt((FunctionInstanceExp) decodeExp(nodes[node + 1]));
+            case IF:
+                return new IfStmt(decodeExp(nodes[node + 1]), decodeBlock(nodes[node + 2]), decodeBlock(nodes[node + 3]));
+            case PRINT:
+                return new PrintStmt(decodeExp(nodes[node + 1]));
+            case PRINTLN:
+                return new PrintlnStmt(decodeExp(nodes[node + 1]));
+            case RETURN:
+                return new ReturnStmt(decodeExp(nodes[node + 1]));
+            case SELF_OPERATION_STMT:
+                return new SelfOperationStmt((SelfOperationExp) decodeExp(nodes[node + 1]));
+            case VARIABLE_DECLARE:
+                return new VariableDeclareStmt((VariableExp) decodeExp(nodes[node + 1]), type(nodes[node + 2]), nodes[node + 3] != 0);
+            case WHILE:
+                return new WhileStmt(decodeExp(nodes[node + 1]), decodeBlock(nodes[node + 2]));
+            default:
+                throw new IllegalStateException("Not a statement at " + node);
+        }
+    }
+}
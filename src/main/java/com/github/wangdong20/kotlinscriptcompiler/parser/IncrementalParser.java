@@ -0,0 +1,174 @@
+package com.github.wangdong20.kotlinscriptcompiler.parser;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.Stmt;
+import com.github.wangdong20.kotlinscriptcompiler.token.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the Program of a source which is edited over and over, e.g. by a watch loop or a REPL,
+ * and parses again only the top level statements whose tokens changed.
+ *
+ * Every top level statement is remembered with the position of its first token. The parser only
+ * reads forward, so a statement parses the same as long as its tokens and the token after them
+ * did not change, and the statements from a position on parse the same as long as all tokens from
+ * there on did not change. The IncrementalLexer tells which tokens an edit replaced, so after an
+ * edit the statements which end before the first replaced token are used again as they are.
+ * Parsing starts at the first statement after them and goes on until a statement ends right where
+ * an old statement after the last replaced token starts, and all statements from there on are used
+ * again too.
+ *
+ * All parses share one Parser, so a name has the same VariableExp in old and new statements.
+ *
+ * Dwks keeps one for every file it compiles when run with -Ddwks.incremental=true, and takes the
+ * edit to be the text between what did not change at the start and at the end of the file.
+ */
+public class IncrementalParser {
+    private final IncrementalLexer lexer;
+    private final CurrentTokens current;
+    private final Parser parser;
+    private Program program;
+    // Position of the first token of each statement of program, and how many tokens there were
+    private int[] starts;
+    private int parsedSize;
+    // Tokens at the start and at the end which did not change since program was parsed
+    private int unchangedHead;
+    private int unchangedTail;
+    private int reparsed;
+
+    public IncrementalParser(final String text) throws TokenizerException, ParseException {
+        this.lexer = new IncrementalLexer(text);
+        this.current = new CurrentTokens(lexer.getTokens());
+        this.parser = new Parser(current);
+        this.starts = new int[0];
+        parse();
+    }
+
+    // The Parser keeps its stream, this one follows the buffer of the lexer.
+    private static class CurrentTokens implements TokenStream {
+        private TokenBuffer tokens;
+
+        private CurrentTokens(final TokenBuffer tokens) {
+            this.tokens = tokens;
+        }
+
+        @Override
+        public Token get(final int position) {
+            return tokens.get(position);
+        }
+
+        @Override
+        public SymbolTable getSymbolTable() {
+            return tokens.getSymbolTable();
+        }
+
+        @Override
+        public int getLine(final int position) {
+            return tokens.getLine(position);
+        }
+    }
+
+    public String getText() {
+        return lexer.getText();
+    }
+
+    public Program getProgram() {
+        return program;
+    }
+
+    /**
+     * How many top level statements the last edit parsed, the others were used again.
+     */
+    public int getReparsedCount() {
+        return reparsed;
+    }
+
+    /**
+     * Replaces removed characters at offset with inserted, see IncrementalLexer.edit, and updates
+     * the program. If the new text does not tokenize or parse, the exception is thrown, the text
+     * is still edited, and getProgram keeps the last program which parsed.
+     */
+    public Program edit(final int offset, final int removed, final String inserted) throws TokenizerException, ParseException {
+        final int oldSize = lexer.getTokens() == null ? 0 : lexer.getTokens().size();
+        try {
+            lexer.edit(offset, removed, inserted);
+        } catch (TokenizerException e) {
+            // The next edit scans everything again, nothing is known to be unchanged.
+            unchangedHead = 0;
+            unchangedTail = 0;
+            throw e;
+        }
+        unchangedHead = Math.min(unchangedHead, lexer.getChangedFrom());
+        unchangedTail = Math.min(unchangedTail, oldSize - lexer.getChangedTo());
+        return parse();
+    }
+
+    private Program parse() throws ParseException {
+        final TokenBuffer tokens = lexer.getTokens();
+        current.tokens = tokens;
+        final int size = tokens.size();
+        final int shift = size - parsedSize;
+        final List<Stmt> oldStmtList = program == null ? new ArrayList<>() : program.getStmtList();
+        final List<Stmt> stmtList = new ArrayList<>(oldStmtList.size() + 16);
+        int[] newStarts = new int[oldStmtList.size() + 16];
+
+        // Statements whose tokens and the token after them did not change
+        int head = 0;
+        if(unchangedHead == parsedSize && parsedSize == size) {
+            head = oldStmtList.size();
+        }
+        while(head < oldStmtList.size() && end(head) < unchangedHead) {
+            head++;
+        }
+        stmtList.addAll(oldStmtList.subList(0, head));
+        System.arraycopy(starts, 0, newStarts, 0, head);
+        int count = head;
+        int pos = head < oldStmtList.size() ? starts[head] : (head > 0 ? size : 0);
+
+        // The first old statement whose tokens up to the end did not change
+        int tail = head;
+        while(tail < oldStmtList.size() && starts[tail] < parsedSize - unchangedTail) {
+            tail++;
+        }
+        reparsed = 0;
+        final List<Stmt> parsedStmt = new ArrayList<>(1);
+        while(pos < size) {
+            while(tail < oldStmtList.size() && starts[tail] + shift < pos) {
+                tail++;
+            }
+            if(tail < oldStmtList.size() && starts[tail] + shift == pos) {
+                break;
+            }
+            parsedStmt.clear();
+            final int next = parser.parseStatements(pos, pos + 1, parsedStmt);
+            if(count == newStarts.length) {
+                newStarts = Arrays.copyOf(newStarts, count * 2);
+            }
+            newStarts[count++] = pos;
+            stmtList.add(parsedStmt.get(0));
+            reparsed++;
+            pos = next;
+        }
+        if(pos < size) {
+            stmtList.addAll(oldStmtList.subList(tail, oldStmtList.size()));
+            newStarts = Arrays.copyOf(newStarts, Math.max(newStarts.length, count + oldStmtList.size() - tail));
+            for(int i = tail; i < oldStmtList.size(); i++) {
+                newStarts[count++] = starts[i] + shift;
+            }
+        }
+
+        program = new Program(stmtList);
+        starts = newStarts;
+        parsedSize = size;
+        unchangedHead = size;
+        unchangedTail = size;
+        return program;
+    }
+
+    // Position after the last token of the old statement i.
+    private int end(final int i) {
+        return i + 1 < program.getStmtList().size() ? starts[i + 1] : parsedSize;
+    }
+}
@@ -0,0 +1,176 @@
+package com.github.wangdong20.kotlinscriptcompiler.parser;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.VariableExp;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.Stmt;
+import com.github.wangdong20.kotlinscriptcompiler.token.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parses the top level statements of a long program on a ForkJoinPool and gives exactly the
+ * Program, VariableExps and errors of Parser.parseToplevelProgram.
+ *
+ * A scan over the tokens counts brackets and cuts the program into parts of about chunkSize
+ * tokens, each starting right after a line break or semicolon outside of all brackets, which is
+ * where a top level statement starts. Each part is parsed by its own Parser over the same tokens,
+ * so a part parses exactly like the serial parser would from the same position. The parts are
+ * checked in order while they are merged: a part which ends where the next one starts can be taken
+ * as is. Otherwise its last statement ran past the cut, and the statements after it are parsed
+ * serially until one ends where a later part starts.
+ *
+ * The token stream is read from several threads, so it has to hold all tokens like an
+ * ArrayTokenStream or a TokenBuffer, not a LazyTokenStream.
+ *
+ * Dwks parses with it when run with -Ddwks.parallel=true.
+ */
+public class ParallelParser {
+    private static final int MIN_CHUNK_SIZE = 16 * 1024;
+
+    private final TokenStream tokens;
+    private final Parser parser;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    public ParallelParser(final Token[] tokens) {
+        this(new ArrayTokenStream(tokens));
+    }
+
+    public ParallelParser(final TokenStream tokens) {
+        this(tokens, ForkJoinPool.commonPool(), MIN_CHUNK_SIZE);
+    }
+
+    /**
+     * Parts are about chunkSize tokens, programs with fewer than two parts are parsed serially.
+     */
+    public ParallelParser(final TokenStream tokens, final ForkJoinPool pool, final int chunkSize) {
+        this.tokens = tokens;
+        this.parser = new Parser(tokens);
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    public SymbolTable getSymbolTable() {
+        return parser.getSymbolTable();
+    }
+
+    // Top level statements from start, parsed until one ends at or after end.
+    private static class Chunk extends RecursiveAction {
+        private final Parser parser;
+        private final int start;
+        private final int end;
+        private final List<Stmt> stmtList = new ArrayList<>();
+        private int next;
+        private Exception error;
+
+        private Chunk(final Parser parser, final int start, final int end) {
+            this.parser = parser;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                next = parser.parseStatements(start, end, stmtList);
+            } catch (ParseException | RuntimeException e) {
+                // Might only be the cut, the merge throws it if the serial parser gets here too.
+                error = e;
+            }
+        }
+    }
+
+    // Where the parts start. Only the first part if there are names which are not interned yet,
+    // the serial parser numbers those in the order it gets to them.
+    private List<Integer> split() throws ParseException {
+        final SymbolTable symbols = parser.getSymbolTable();
+        final List<Integer> starts = new ArrayList<>();
+        starts.add(0);
+        int depth = 0;
+        int last = 0;
+        Token token;
+        try {
+            for(int pos = 0; (token = tokens.get(pos)) != null; pos++) {
+                if(token instanceof VariableToken) {
+                    if(!symbols.owns((VariableToken) token)) {
+                        starts.subList(1, starts.size()).clear();
+                        return starts;
+                    }
+                } else if(token instanceof StringToken) {
+                    final StringToken string = (StringToken) token;
+                    if(string.getSegments() == null && string.getValue().indexOf('$') >= 0) {
+                        starts.subList(1, starts.size()).clear();
+                        return starts;
+                    }
+                } else if(token == BracketsToken.TK_LPAREN || token == BracketsToken.TK_LCURLY || token == BracketsToken.TK_LBRACKET) {
+                    depth++;
+                } else if(token == BracketsToken.TK_RPAREN || token == BracketsToken.TK_RCURLY || token == BracketsToken.TK_RBRACKET) {
+                    depth--;
+                } else if(depth == 0 && pos - last >= chunkSize && (token == SymbolToken.TK_LINE_BREAK || token == SymbolToken.TK_SEMICOLON)) {
+                    final Token next = tokens.get(pos + 1);
+                    if(next != null && next != SymbolToken.TK_LINE_BREAK && next != SymbolToken.TK_SEMICOLON) {
+                        last = pos + 1;
+                        starts.add(last);
+                    }
+                }
+            }
+        } catch (TokenizerException e) {
+            throw new ParseException(e.getMessage(), e);
+        }
+        return starts;
+    }
+
+    public Program parseToplevelProgram() throws ParseException {
+        final List<Integer> starts = split();
+        if(starts.size() < 2) {
+            return parser.parseToplevelProgram();
+        }
+
+        // Every name in the tokens was interned by the tokenizer, so its variable can be made up
+        // front, and the parts look them up without locking.
+        final SymbolTable symbols = parser.getSymbolTable();
+        final VariableToken[] knownTokens = new VariableToken[symbols.size()];
+        final VariableExp[] knownVariables = new VariableExp[symbols.size()];
+        for(int id = 0; id < knownTokens.length; id++) {
+            knownTokens[id] = symbols.get(id);
+            knownVariables[id] = parser.variableFor(knownTokens[id]);
+        }
+        final List<Chunk> chunks = new ArrayList<>(starts.size());
+        for(int i = 0; i < starts.size(); i++) {
+            final int end = i + 1 < starts.size() ? starts.get(i + 1) : Integer.MAX_VALUE;
+            chunks.add(new Chunk(new Parser(parser, knownTokens, knownVariables), starts.get(i), end));
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(chunks);
+            }
+        });
+
+        final List<Stmt> stmtList = new ArrayList<>();
+        int pos = 0;
+        int index = 0;
+        while(index < chunks.size()) {
+            final Chunk chunk = chunks.get(index);
+            if(chunk.start < pos) {
+                // A statement ran over the start of this part.
+                index++;
+            } else if(chunk.start > pos) {
+                pos = parser.parseStatements(pos, chunk.start, stmtList);
+            } else if(chunk.error != null) {
+                if(chunk.error instanceof ParseException) {
+                    throw (ParseException) chunk.error;
+                }
+                throw (RuntimeException) chunk.error;
+            } else {
+                stmtList.addAll(chunk.stmtList);
+                pos = chunk.next;
+                index++;
+            }
+        }
+        parser.parseStatements(pos, Integer.MAX_VALUE, stmtList);
+        return new Program(stmtList);
+    }
+}
@@ -7,15 +7,91 @@ import com.github.wangdong20.kotlinscriptcompiler.token.*;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class Parser {
 
-    private final Token[] tokens;
+    private final TokenStream tokens;
+    private final SymbolTable symbols;
+    // The parser of the program when this one parses a string interpolation or a part of the
+    // program for a ParallelParser, it owns the variables.
+    private final Parser outer;
+    // Canonical VariableExp for each symbol id
+    private VariableExp[] variables;
+    // Set for a part of a ParallelParser: the variables the outer parser had before the parts were
+    // started, read without locking. Any other name is looked up in outer under its lock.
+    private final VariableToken[] knownTokens;
+    private final VariableExp[] knownVariables;
 
     public Parser(final Token[] tokens) {
+        this(new ArrayTokenStream(tokens));
+    }
+
+    /**
+     * The parser only looks a few tokens past the statement it is working on, so tokens can
+     * come from a LazyTokenStream instead of an array built up front.
+     */
+    public Parser(final TokenStream tokens) {
+        this.tokens = tokens;
+        this.symbols = tokens.getSymbolTable() != null ? tokens.getSymbolTable() : new SymbolTable();
+        this.outer = null;
+        this.variables = new VariableExp[32];
+        this.knownTokens = null;
+        this.knownVariables = null;
+    }
+
+    private Parser(final TokenStream tokens, final Parser outer) {
         this.tokens = tokens;
+        this.symbols = outer.symbols;
+        this.outer = outer;
+        this.knownTokens = null;
+        this.knownVariables = null;
+    }
+
+    /**
+     * A parser of the same tokens as outer which can run on another thread, see ParallelParser.
+     * knownVariables[id] is the variable of knownTokens[id].
+     */
+    Parser(final Parser outer, final VariableToken[] knownTokens, final VariableExp[] knownVariables) {
+        this.tokens = outer.tokens;
+        this.symbols = outer.symbols;
+        this.outer = outer;
+        this.knownTokens = knownTokens;
+        this.knownVariables = knownVariables;
+    }
+
+    public SymbolTable getSymbolTable() {
+        return symbols;
+    }
+
+    // Every occurrence of a name gets the same VariableExp, numbered like the symbol table.
+    VariableExp variableFor(final VariableToken token) {
+        if(knownTokens != null) {
+            final int id = token.getId();
+            if(id >= 0 && id < knownTokens.length && knownTokens[id] == token && knownVariables[id] != null) {
+                return knownVariables[id];
+            }
+            synchronized (outer) {
+                return outer.variableFor(token);
+            }
+        }
+        if(outer != null) {
+            return outer.variableFor(token);
+        }
+        final VariableToken symbol = symbols.owns(token) ? token : symbols.intern(token.getName());
+        final int id = symbol.getId();
+        if(id >= variables.length) {
+            variables = Arrays.copyOf(variables, Math.max(id + 1, variables.length * 2));
+        }
+        VariableExp variable = variables[id];
+        if(variable == null) {
+            variable = new VariableExp(symbol.getName(), id);
+            variables[id] = variable;
+        }
+        return variable;
     }
 
     private class ParseResult<A> {
@@ -32,7 +108,7 @@ public class Parser {
         final Token tokenHere = readToken(position);
         if (!tokenHere.equals(token)) {
             throw new ParseException("Expected: " + token.toString() +
-                    "\nReceived: " + tokens[position].toString());
+                    "\nReceived: " + tokenHere.toString() + atLine(position));
         }
     }
 
@@ -44,167 +120,222 @@ public class Parser {
             }
         }
         throw new ParseException("Expected: " + Arrays.toString(token) +
-                "\nReceived: " + tokens[position].toString());
+                "\nReceived: " + readToken(position).toString() + atLine(position));
+    }
+
+    // Location for error messages, empty if the token stream has no lines.
+    private String atLine(final int position) {
+        final int line = tokens.getLine(position);
+        return line > 0 ? " at line " + line : "";
     }
 
     private Token readToken(final int position) throws ParseException {
-        if (position < tokens.length) {
-            return tokens[position];
+        final Token token = peekToken(position);
+        if (token != null) {
+            return token;
         } else {
             throw new ParseException("Position out of bounds: " + position);
         }
     } // readToken
 
-    private ParseResult<Exp> parseAdditiveExpHelper(final int startPos, final Exp leftExp) {
-        int curPos = startPos;
-        Exp resultExp = leftExp;
-
-        while(curPos < tokens.length) {
-            try {
-                Token t = checkTokenIsOr(curPos, BinopToken.TK_PLUS, BinopToken.TK_MINUS);
-                final ParseResult<Exp> curPrimary = parseNotExp(curPos + 1);
-                curPos = curPrimary.nextPos;
-                resultExp = new AdditiveExp(resultExp, curPrimary.result, (t == BinopToken.TK_PLUS) ? AdditiveOp.EXP_PLUS :
-                        AdditiveOp.EXP_MINUS);
-            } catch (ParseException e) {
-                break;
-            }
+    private Token peekToken(final int position) throws ParseException {
+        try {
+            return tokens.get(position);
+        } catch (TokenizerException e) {
+            throw new ParseException(e.getMessage(), e);
         }
-        return new ParseResult<>(resultExp, curPos);
+    } // peekToken
+
+    private boolean hasToken(final int position) throws ParseException {
+        return peekToken(position) != null;
     }
 
-    private ParseResult<Exp> parseMultiplicativeExpHelper(final int startPos, final Exp leftExp) {
-        int curPos = startPos;
-        Exp resultExp = leftExp;
-        MultiplicativeOp op = null;
+    /**
+     * Binding strength of the operators of an expression, higher binds tighter. "!" is a prefix
+     * operator which sits between + and *: !a * b is !(a * b), but !a + b is (!a) + b. As in
+     * Kotlin && binds tighter than ||, a || b && c is a || (b && c).
+     */
+    private static final int PREC_PAREN = 0;
+    private static final int PREC_OR = 1;
+    private static final int PREC_AND = 2;
+    private static final int PREC_COMPARABLE = 3;
+    private static final int PREC_ADDITIVE = 4;
+    private static final int PREC_NOT = 5;
+    private static final int PREC_MULTIPLICATIVE = 6;
 
-        while(curPos < tokens.length) {
-            try {
-                Token t = checkTokenIsOr(curPos, BinopToken.TK_MULTIPLY, BinopToken.TK_DIVIDE, BinopToken.TK_MOD);
-                final ParseResult<Exp> curPrimary = parsePrimary(curPos + 1);
-                curPos = curPrimary.nextPos;
-                switch ((BinopToken)t) {
-                    case TK_MULTIPLY:
-                        op = MultiplicativeOp.OP_MULTIPLY;
-                        break;
-                    case TK_DIVIDE:
-                        op = MultiplicativeOp.OP_DIVIDE;
-                        break;
-                    case TK_MOD:
-                        op = MultiplicativeOp.OP_MOD;
-                        break;
-                }
-                resultExp = new MultiplicativeExp(resultExp, curPrimary.result, op);
-            } catch (ParseException e) {
-                break;
-            }
+    // An entry of the operator stack of parseOperatorExp.
+    private static final class Operator {
+        private final int precedence;
+        // AdditiveOp, MultiplicativeOp, ComparableOp or BiLogicalOp, null for "!" and "("
+        private final Enum<?> op;
+
+        private Operator(final int precedence, final Enum<?> op) {
+            this.precedence = precedence;
+            this.op = op;
         }
 
-        return new ParseResult<>(resultExp, curPos);
+        private Exp combine(final Exp left, final Exp right) {
+            if(op instanceof AdditiveOp) {
+                return new AdditiveExp(left, right, (AdditiveOp) op);
+            } else if(op instanceof MultiplicativeOp) {
+                return new MultiplicativeExp(left, right, (MultiplicativeOp) op);
+            } else if(op instanceof ComparableOp) {
+                return new ComparableExp(left, right, (ComparableOp) op);
+            } else {
+                return new BiLogicalExp(left, right, (BiLogicalOp) op);
+            }
+        }
     }
 
-    private ParseResult<Exp> parseAdditiveExp(final int startPos, Exp resultExp) {
-        return parseAdditiveExpHelper(startPos, resultExp);
-    }
+    private static final Operator NOT = new Operator(PREC_NOT, null);
+    private static final Operator PAREN = new Operator(PREC_PAREN, null);
+    private static final Map<BinopToken, Operator> infixOperators = new EnumMap<>(BinopToken.class);
 
-    private ParseResult<Exp> parseMultiplicative(final int startPos) throws ParseException {
-        final ParseResult<Exp> starting = parsePrimary(startPos);
-        Exp resultExp = starting.result;
-        return parseMultiplicativeExpHelper(starting.nextPos, resultExp);
+    static {
+        infixOperators.put(BinopToken.TK_OR, new Operator(PREC_OR, BiLogicalOp.OP_OR));
+        infixOperators.put(BinopToken.TK_AND, new Operator(PREC_AND, BiLogicalOp.OP_AND));
+        infixOperators.put(BinopToken.TK_GREATER_THAN, new Operator(PREC_COMPARABLE, ComparableOp.OP_GREATER_THAN));
+        infixOperators.put(BinopToken.TK_LESS_THAN, new Operator(PREC_COMPARABLE, ComparableOp.OP_LESS_THAN));
+        infixOperators.put(BinopToken.TK_GREATER_OR_EQUAL, new Operator(PREC_COMPARABLE, ComparableOp.OP_GREATER_EQUAL));
+        infixOperators.put(BinopToken.TK_LESS_OR_EQUAL, new Operator(PREC_COMPARABLE, ComparableOp.OP_LESS_EQUAL));
+        infixOperators.put(BinopToken.TK_EQUAL_EQUAL, new Operator(PREC_COMPARABLE, ComparableOp.OP_EQUAL_EQUAL));
+        infixOperators.put(BinopToken.TK_NOT_EQUAL, new Operator(PREC_COMPARABLE, ComparableOp.OP_NOT_EQUAL));
+        infixOperators.put(BinopToken.TK_PLUS, new Operator(PREC_ADDITIVE, AdditiveOp.EXP_PLUS));
+        infixOperators.put(BinopToken.TK_MINUS, new Operator(PREC_ADDITIVE, AdditiveOp.EXP_MINUS));
+        infixOperators.put(BinopToken.TK_MULTIPLY, new Operator(PREC_MULTIPLICATIVE, MultiplicativeOp.OP_MULTIPLY));
+        infixOperators.put(BinopToken.TK_DIVIDE, new Operator(PREC_MULTIPLICATIVE, MultiplicativeOp.OP_DIVIDE));
+        infixOperators.put(BinopToken.TK_MOD, new Operator(PREC_MULTIPLICATIVE, MultiplicativeOp.OP_MOD));
     }
 
-    private ParseResult<Exp> parseNotExp(final int startPos) throws ParseException {
-        Token t = readToken(startPos);
-        if(t == UnopToken.TK_NOT) {
-            ParseResult<Exp> result = parseMultiplicative(startPos + 1);
-            Exp resultExp = new NotExp(result.result);
-            return new ParseResult<>(resultExp, result.nextPos);
-        } else {
-            return parseMultiplicative(startPos);
-        }
+    // Tokens which start an expression that parseExp handles before operators, they are parsed
+    // recursively when they follow a "(".
+    private static boolean startsNonOperatorExp(final Token token) {
+        return token == KeywordToken.TK_ARRAY_OF || token == KeywordToken.TK_MUTABLE_LIST_OF
+                || token == TypeToken.TK_ARRAY || token == TypeToken.TK_MUTABLE_LIST || token == BracketsToken.TK_LCURLY;
     }
 
-    private ParseResult<Exp> parseComparableExp(final int startPos, Exp leftExp) throws ParseException{
-//        int curPos = startPos;
-        ParseResult<Exp> result = null;
-        ComparableOp op = null;
-
-        if(startPos < tokens.length) {
-            try {
-                Token t = checkTokenIsOr(startPos, BinopToken.TK_GREATER_THAN, BinopToken.TK_LESS_THAN,
-                        BinopToken.TK_GREATER_OR_EQUAL, BinopToken.TK_LESS_OR_EQUAL, BinopToken.TK_EQUAL_EQUAL,
-                        BinopToken.TK_NOT_EQUAL);
+    /**
+     * Parses operators and their operands with precedence climbing on explicit stacks, so each
+     * token is looked at once and neither long chains nor deep parentheses recurse.
+     *
+     * Binary operators are left associative. A comparison cannot be followed by another one
+     * before the next && or ||, so a > b > c stops in front of the second >. The operand right
+     * after *, / or % or "!" cannot start with "!". Operands are parsed by parsePrimary, which
+     * gives a null expression without moving when there is none; if that happens at the very
+     * start, before any "!" and not followed by *, / or %, the expression is empty.
+     */
+    private ParseResult<Exp> parseOperatorExp(final int startPos) throws ParseException {
+        Exp[] operands = new Exp[8];
+        int operandCount = 0;
+        Operator[] operators = new Operator[8];
+        // For each "(" on the operators stack, whether its enclosing expression had a comparison
+        boolean[] outerCompared = new boolean[8];
+        int operatorCount = 0;
+        int openParens = 0;
+        int pos = startPos;
+        boolean compared = false;
+        boolean notAllowed = false;
+        boolean levelStart = true;
 
-                switch ((BinopToken)t) {
-                    case TK_GREATER_THAN:
-                        op = ComparableOp.OP_GREATER_THAN;
-                        break;
-                    case TK_LESS_THAN:
-                        op = ComparableOp.OP_LESS_THAN;
-                        break;
-                    case TK_GREATER_OR_EQUAL:
-                        op = ComparableOp.OP_GREATER_EQUAL;
-                        break;
-                    case TK_LESS_OR_EQUAL:
-                        op = ComparableOp.OP_LESS_EQUAL;
-                        break;
-                    case TK_EQUAL_EQUAL:
-                        op = ComparableOp.OP_EQUAL_EQUAL;
-                        break;
-                    case TK_NOT_EQUAL:
-                        op = ComparableOp.OP_NOT_EQUAL;
-                        break;
-                }
-                result =  parseNotExp(startPos + 1);
-                if(result.nextPos - startPos >= 1) {    // at least parse primary
-                    result = parseAdditiveExp(result.nextPos, result.result);
+        while(true) {
+            // Operand: any number of "(" and "!", then a primary.
+            final Token tokenHere = readToken(pos);
+            if(operatorCount == operators.length) {
+                operators = Arrays.copyOf(operators, operatorCount * 2);
+                outerCompared = Arrays.copyOf(outerCompared, operatorCount * 2);
+            }
+            if(tokenHere == UnopToken.TK_NOT && !notAllowed) {
+                operators[operatorCount++] = NOT;
+                notAllowed = true;
+                levelStart = false;
+                pos++;
+                continue;
+            }
+            if(tokenHere == BracketsToken.TK_LPAREN && !startsNonOperatorExp(peekToken(pos + 1))) {
+                outerCompared[operatorCount] = compared;
+                operators[operatorCount++] = PAREN;
+                openParens++;
+                compared = false;
+                notAllowed = false;
+                levelStart = true;
+                pos++;
+                continue;
+            }
+            final ParseResult<Exp> primary = parsePrimary(pos);
+            if(operandCount == operands.length) {
+                operands = Arrays.copyOf(operands, operandCount * 2);
+            }
+            if(primary.nextPos == pos && levelStart && !isMultiplicative(peekToken(pos))) {
+                if(operatorCount == 0) {
+                    return primary;     // nothing to parse
                 }
+                // () has a null value
+                checkTokenIs(pos, BracketsToken.TK_RPAREN);
+                compared = outerCompared[--operatorCount];
+                openParens--;
+                operands[operandCount++] = null;
+                pos++;
+            } else {
+                operands[operandCount++] = primary.result;
+                pos = primary.nextPos;
+            }
 
-            } catch (ParseException e) {
-                if(op != null) {
-                    throw new ParseException("Unable to parse right value in comparable expression!");
+            // Operator: any number of ")", then a binary operator or the end of the expression.
+            Token t;
+            Operator operator;
+            while(true) {
+                t = peekToken(pos);
+                if(t == BracketsToken.TK_RPAREN && openParens > 0) {
+                    while(operators[operatorCount - 1] != PAREN) {
+                        operandCount = reduce(operators[--operatorCount], operands, operandCount);
+                    }
+                    compared = outerCompared[--operatorCount];
+                    openParens--;
+                    pos++;
+                    continue;
                 }
+                operator = t instanceof BinopToken ? infixOperators.get(t) : null;
+                break;
+            }
+            if(operator == null || (operator.precedence == PREC_COMPARABLE && compared)) {
+                break;
             }
+            while(operatorCount > 0 && operators[operatorCount - 1].precedence >= operator.precedence) {
+                operandCount = reduce(operators[--operatorCount], operands, operandCount);
+            }
+            if(operator.precedence == PREC_COMPARABLE) {
+                compared = true;
+            } else if(operator.precedence < PREC_COMPARABLE) {
+                compared = false;
+            }
+            operators[operatorCount++] = operator;
+            notAllowed = operator.precedence == PREC_MULTIPLICATIVE;
+            levelStart = false;
+            pos++;
         }
-        if(result == null || result.nextPos - startPos < 1) {    // at least parse primary
-            return new ParseResult<>(leftExp, startPos);
-        } else {
-            return new ParseResult<>(new ComparableExp(leftExp, result.result, op), result.nextPos);
+
+        if(openParens > 0) {
+            checkTokenIs(pos, BracketsToken.TK_RPAREN);
+        }
+        while(operatorCount > 0) {
+            operandCount = reduce(operators[--operatorCount], operands, operandCount);
         }
+        return new ParseResult<>(operands[0], pos);
     }
 
-    private ParseResult<Exp> parseBilogicalExp(final int startPos, Exp leftExp) throws ParseException{
-        int curPos = startPos;
-        ParseResult<Exp> result = null;
-        BiLogicalOp op = null;
-
-        while(curPos < tokens.length) {
-            try {
-                Token t = checkTokenIsOr(curPos, BinopToken.TK_AND, BinopToken.TK_OR);
+    private static boolean isMultiplicative(final Token token) {
+        final Operator operator = token instanceof BinopToken ? infixOperators.get(token) : null;
+        return operator != null && operator.precedence == PREC_MULTIPLICATIVE;
+    }
 
-                switch ((BinopToken)t) {
-                    case TK_AND:
-                        op = BiLogicalOp.OP_AND;
-                        break;
-                    case TK_OR:
-                        op = BiLogicalOp.OP_OR;
-                        break;
-                }
-                result =  parseNotExp(curPos + 1);
-                if(result.nextPos - startPos >= 1) {    // at least parse primary
-                    result = parseAdditiveExp(result.nextPos, result.result);
-                    result = parseComparableExp(result.nextPos, result.result);
-                }
-                curPos = result.nextPos;
-            } catch (ParseException e) {
-                break;
-            }
-        }
-        if(result == null || result.nextPos - startPos < 1) {    // at least parse primary
-            return new ParseResult<>(leftExp, startPos);
-        } else {
-            return new ParseResult<>(new BiLogicalExp(leftExp, result.result, op), result.nextPos);
+    // Applies operator to the operands on top of the stack, returns the new operand count.
+    private static int reduce(final Operator operator, final Exp[] operands, final int operandCount) {
+        if(operator == NOT) {
+            operands[operandCount - 1] = new NotExp(operands[operandCount - 1]);
+            return operandCount;
         }
+        operands[operandCount - 2] = operator.combine(operands[operandCount - 2], operands[operandCount - 1]);
+        return operandCount - 1;
     }
 
     private ParseResult<Exp> parsePrimary(final int startPos) throws ParseException {
@@ -212,9 +343,9 @@ public class Parser {
         // We will consider variable or function variable instance as primary
         if (tokenHere instanceof VariableToken) {
             final VariableToken asVar = (VariableToken)tokenHere;
-            if(startPos + 1 < tokens.length) {  // we dont want throw exception now.
+            if(hasToken(startPos + 1)) {  // we dont want throw exception now.
                 Token next = readToken(startPos + 1);
-                VariableExp name = new VariableExp(asVar.getName());
+                VariableExp name = variableFor(asVar);
 
                 if(next == BracketsToken.TK_LPAREN) {
                     Token temp;
@@ -222,7 +353,7 @@ public class Parser {
                     List<Exp> parameterList = new ArrayList<>();
                     while((temp = readToken(pos)) != BracketsToken.TK_RPAREN) {
                         if(temp instanceof VariableToken) {
-                            parameterList.add(new VariableExp(((VariableToken) temp).getName()));
+                            parameterList.add(variableFor((VariableToken) temp));
                         } else if(temp instanceof IntToken) {
                             parameterList.add(new IntExp(((IntToken) temp).getValue()));
                         } else if(temp instanceof StringToken) {
@@ -251,7 +382,7 @@ public class Parser {
                     pos = result.nextPos;
                     checkTokenIs(pos, BracketsToken.TK_RBRACKET);
                     pos++;
-                    if(pos < tokens.length) {
+                    if(hasToken(pos)) {
                         Token temp = readToken(pos);
                         if (temp == UnopToken.TK_PLUS_PLUS || temp == UnopToken.TK_MINUS_MINUS) {
                             pos++;
@@ -265,10 +396,10 @@ public class Parser {
                     return new ParseResult<>(new ArrayWithIndexExp(name, result.result), pos);
                 }
                 else {
-                    return new ParseResult<>(new VariableExp(asVar.getName()), startPos + 1);
+                    return new ParseResult<>(variableFor(asVar), startPos + 1);
                 }
             }
-            return new ParseResult<>(new VariableExp(asVar.getName()), startPos + 1);
+            return new ParseResult<>(variableFor(asVar), startPos + 1);
         } else if(tokenHere instanceof IntToken) {
             final IntToken asInt = (IntToken) tokenHere;
             return new ParseResult<>(new IntExp(asInt.getValue()), startPos + 1);
@@ -281,10 +412,10 @@ public class Parser {
                 return new ParseResult<>(new BooleanExp(false), startPos + 1);
             }
         } else if(tokenHere == UnopToken.TK_PLUS_PLUS || tokenHere == UnopToken.TK_MINUS_MINUS) {
-            if(startPos + 1 < tokens.length) {
+            if(hasToken(startPos + 1)) {
                 Token next = readToken(startPos + 1);
                 if(next instanceof VariableToken) {
-                    if(startPos + 2 < tokens.length) {
+                    if(hasToken(startPos + 2)) {
                         int pos = startPos + 2;
                         if(readToken(pos) == BracketsToken.TK_LBRACKET) {   // array with index case
                             pos++;
@@ -292,12 +423,12 @@ public class Parser {
                             pos = result.nextPos;
                             checkTokenIs(pos, BracketsToken.TK_RBRACKET);
                             pos++;
-                            return new ParseResult<>(new SelfOperationExp(new ArrayWithIndexExp(new VariableExp(((VariableToken) next).getName()), result.result),
+                            return new ParseResult<>(new SelfOperationExp(new ArrayWithIndexExp(variableFor((VariableToken) next), result.result),
                                     tokenHere == UnopToken.TK_PLUS_PLUS ? SelfOp.OP_SELF_INCREASE : SelfOp.OP_SELF_DECREASE,
                                     true), pos);
                         }
                     }
-                    return new ParseResult<>(new SelfOperationExp(new VariableExp(((VariableToken) next).getName()),
+                    return new ParseResult<>(new SelfOperationExp(variableFor((VariableToken) next),
                             tokenHere == UnopToken.TK_PLUS_PLUS ? SelfOp.OP_SELF_INCREASE : SelfOp.OP_SELF_DECREASE,
                             true), startPos + 2);
                 } else {
@@ -316,70 +447,51 @@ public class Parser {
         }
     }
 
+    // The tokenizer has already split the string at its interpolations, the tokens of all of them
+    // are parsed by one Parser, each ends with a null which ends its expression.
     private ParseResult<Exp> parseString(final Token token, final int startPos) throws ParseException {
-        String value = ((StringToken)token).getValue();
-        String temp = value;
-        int index = 0;
-        int location = 0;
-        LinkedHashMap<Integer, Exp> map = new LinkedHashMap<>();
-        int length = value.length();
-        String interpolation = "";
-        boolean isBlockInterpolation = false;
+        StringToken string = (StringToken) token;
+        if(string.getSegments() == null && string.getValue().indexOf('$') >= 0) {
+            try {
+                string = splitString(string.getValue());
+            } catch (TokenizerException e) {
+                throw new ParseException(e.getMessage(), e);
+            }
+        }
+        if(string.getSegments() == null) {
+            return new ParseResult<>(new StringExp(string.getValue(), null), startPos + 1);
+        }
 
-        while(index < value.length()) {
-            if(value.charAt(index) == '$') {
-                if(index + 1 < length && value.charAt(index + 1) == '{') {
-                    index += 2;
-                    for(int i = index; i < length; i++) {
-                        if(value.charAt(i) == '}') {
-                            isBlockInterpolation = true;
-                            break;
-                        }
-                    }
-                    if(isBlockInterpolation) {
-                        while (index < value.length() && value.charAt(index) != '}') {
-                            interpolation += value.charAt(index);
-                            index++;
-                        }
-                        index++;
-//                        location++;
-                    } else {
-                        throw new ParseException("Invalid string interpolation! Expect }");
-                    }
-                } else if(index + 1 < length && Character.isLetter(value.charAt(index + 1))) {
-                    index++;
-                    interpolation += value.charAt(index);
-                    index++;
-                    StringBuilder buffer = new StringBuilder(interpolation);
-                    while(index < length && Character.isLetterOrDigit(value.charAt(index))) {
-                        buffer.append(value.charAt(index));
-                        index++;
-                    }
-                    interpolation = buffer.toString();
-                } else if(index + 1 < length && Character.isWhitespace(value.charAt(index + 1))){
-                    index++;
-                    location += 2;   // Now $ count
-                }
-                if(interpolation.length() > 0) {
-                    try {
-                        Tokenizer tokenizer = new Tokenizer(interpolation);
-                        Token[] tokens = tokenizer.tokenize().stream().toArray(Token[]::new);
-                        Parser parser = new Parser(tokens);
-                        ParseResult<Exp> result = parser.parseExp(0);
-                        map.put(location, result.result);
-                        temp = temp.replace(isBlockInterpolation ? "${" + interpolation + "}" : "$" + interpolation, "");
-                        isBlockInterpolation = false;
-                        interpolation = "";
-                    } catch (TokenizerException e) {
-                        e.printStackTrace();
-                    }
-                }
-            } else {
-                index++;
-                location++;
+        final String[] segments = string.getSegments();
+        final Exp[] exps = new Exp[segments.length - 1];
+        final Parser parser = new Parser(new ArrayTokenStream(string.getInterpolations()), this);
+        int pos = 0;
+        for(int i = 0; i < exps.length; i++) {
+            if(parser.peekToken(pos) == null) {
+                throw new ParseException("Empty string interpolation!" + atLine(startPos));
             }
+            final ParseResult<Exp> result = parser.parseExp(pos);
+            if(parser.peekToken(result.nextPos) != null) {
+                throw new ParseException("Invalid string interpolation! Unexpected " +
+                        parser.peekToken(result.nextPos) + atLine(startPos));
+            }
+            exps[i] = result.result;
+            pos = result.nextPos + 1;
+        }
+        return new ParseResult<>(new StringExp(segments, exps), startPos + 1);
+    }
+
+    // Interns the names of the string into symbols, which only the outermost parser may touch.
+    private StringToken splitString(final String value) throws TokenizerException {
+        if(outer == null) {
+            return Tokenizer.stringToken(value, symbols);
+        } else if(knownTokens != null) {
+            synchronized (outer) {
+                return outer.splitString(value);
+            }
+        } else {
+            return outer.splitString(value);
         }
-        return new ParseResult<>(map.size() > 0 ? new StringExp(temp, map) : new StringExp(temp, null), startPos + 1);
     }
 
     private ParseResult<Exp> parseLambdaExp(final int startPos) throws ParseException {
@@ -391,7 +503,7 @@ public class Parser {
         LinkedHashMap<VariableExp, Type> parameterList = new LinkedHashMap<>();
         while((tokenHere = readToken(pos)) != SymbolToken.TK_ARROW) {
             if (tokenHere instanceof VariableToken) {
-                variableExp = new VariableExp(((VariableToken)tokenHere).getName());
+                variableExp = variableFor((VariableToken) tokenHere);
                 pos++;
                 tokenHere = readToken(pos);
                 if(tokenHere == SymbolToken.TK_COLON) {
@@ -421,8 +533,8 @@ public class Parser {
                         case TK_ARRAY: case TK_MUTABLE_LIST:
                             pos++;
                             ParseResult<BasicType> genericType = parseGenericType(pos);
-                            type = tokenHere == TypeToken.TK_ARRAY ? new TypeArray(genericType.result) :
-                                    new TypeMutableList(genericType.result);
+                            type = tokenHere == TypeToken.TK_ARRAY ? Types.arrayOf(genericType.result) :
+                                    Types.mutableListOf(genericType.result);
                             pos = genericType.nextPos;
                             break;
                     }
@@ -486,22 +598,14 @@ public class Parser {
             return parseLambdaExp(startPos);    // Include TK_LCURLY
         }
         else {
-            ParseResult<Exp> result =  parseNotExp(startPos);
-            if(result.nextPos - startPos >= 1) {    // at least parse primary
-                result = parseAdditiveExp(result.nextPos, result.result);
-                result = parseComparableExp(result.nextPos, result.result);
-                result = parseBilogicalExp(result.nextPos, result.result);
-                return result;
-            } else {
-                return result;
-            }
+            return parseOperatorExp(startPos);
         }
     }
 
     public Exp parseToplevelExp() throws ParseException {
         final ParseResult<Exp> result = parseExp(0);
 
-        if(result.nextPos == tokens.length) {
+        if(!hasToken(result.nextPos)) {
             return result.result;
         } else {
             throw new ParseException("Extra tokens at end");
@@ -566,8 +670,8 @@ public class Parser {
                 case TK_ARRAY: case TK_MUTABLE_LIST:
                     pos++;
                     ParseResult<BasicType> genericType = parseGenericType(pos);
-                    parameterTypes.add(temp == TypeToken.TK_ARRAY ? new TypeArray(genericType.result) :
-                            new TypeMutableList(genericType.result));
+                    parameterTypes.add(temp == TypeToken.TK_ARRAY ? Types.arrayOf(genericType.result) :
+                            Types.mutableListOf(genericType.result));
                     pos = genericType.nextPos;
                     break;
             }
@@ -604,12 +708,12 @@ public class Parser {
             case TK_ARRAY: case TK_MUTABLE_LIST:
                 pos++;
                 ParseResult<BasicType> genericType = parseGenericType(pos);
-                retureType = temp == TypeToken.TK_ARRAY ? new TypeArray(genericType.result) :
-                        new TypeMutableList(genericType.result);
+                retureType = temp == TypeToken.TK_ARRAY ? Types.arrayOf(genericType.result) :
+                        Types.mutableListOf(genericType.result);
                 pos = genericType.nextPos;
                 break;
         }
-        return new ParseResult<>(new TypeHighOrderFunction(parameterTypes, retureType), pos);
+        return new ParseResult<>(Types.functionOf(parameterTypes, retureType), pos);
     }
 
     private ParseResult<Stmt> parsePrimaryStmt(final int startPos) throws ParseException {
@@ -617,15 +721,15 @@ public class Parser {
         ParseResult<Stmt> stmtResult = null;
         if(tokenHere instanceof VariableToken) {
             final VariableToken asVar = (VariableToken)tokenHere;
-            if(startPos + 1 < tokens.length) {
+            if(hasToken(startPos + 1)) {
                 Token next = readToken(startPos + 1);
                 if(next == BinopToken.TK_EQUAL) {
                     ParseResult<Exp> expParseResult = parseExp(startPos + 2);
-                    if(expParseResult.nextPos == tokens.length) {
-                        stmtResult = new ParseResult<>(new AssignStmt(expParseResult.result, new VariableExp(asVar.getName()), false, false), expParseResult.nextPos);
+                    if(!hasToken(expParseResult.nextPos)) {
+                        stmtResult = new ParseResult<>(new AssignStmt(expParseResult.result, variableFor(asVar), false, false), expParseResult.nextPos);
                     } else {
                         checkTokenIsOr(expParseResult.nextPos, SymbolToken.TK_LINE_BREAK, SymbolToken.TK_SEMICOLON);
-                        stmtResult = new ParseResult<>(new AssignStmt(expParseResult.result, new VariableExp(asVar.getName()), false, false), expParseResult.nextPos + 1);
+                        stmtResult = new ParseResult<>(new AssignStmt(expParseResult.result, variableFor(asVar), false, false), expParseResult.nextPos + 1);
                     }
                 } else if(next == BinopToken.TK_PLUS_EQUAL || next == BinopToken.TK_MULTIPLY_EQUAL
                     || next == BinopToken.TK_MINUS_EQUAL || next == BinopToken.TK_DIVIDE_EQUAL) {
@@ -644,21 +748,21 @@ public class Parser {
                         case TK_DIVIDE_EQUAL:
                             op = CompoundAssignOp.EXP_DIVIDE_EQUAL;
                     }
-                    if(expParseResult.nextPos == tokens.length) {
+                    if(!hasToken(expParseResult.nextPos)) {
                         stmtResult = new ParseResult<>(new CompoundAssignStmt(expParseResult.result,
-                                new VariableExp(asVar.getName()), op), expParseResult.nextPos);
+                                variableFor(asVar), op), expParseResult.nextPos);
                     } else {
                         checkTokenIsOr(expParseResult.nextPos, SymbolToken.TK_LINE_BREAK, SymbolToken.TK_SEMICOLON);
                         stmtResult = new ParseResult<>(new CompoundAssignStmt(expParseResult.result,
-                                new VariableExp(asVar.getName()), op), expParseResult.nextPos + 1);
+                                variableFor(asVar), op), expParseResult.nextPos + 1);
                     }
                 } else if(next == UnopToken.TK_PLUS_PLUS || next == UnopToken.TK_MINUS_MINUS) {
-                    if(startPos + 2 == tokens.length) {
-                        stmtResult = new ParseResult<>(new SelfOperationStmt(new SelfOperationExp(new VariableExp(asVar.getName()),
+                    if(!hasToken(startPos + 2)) {
+                        stmtResult = new ParseResult<>(new SelfOperationStmt(new SelfOperationExp(variableFor(asVar),
                                 next == UnopToken.TK_PLUS_PLUS ? SelfOp.OP_SELF_INCREASE : SelfOp.OP_SELF_DECREASE, false)), startPos + 2);
                     } else {
                         checkTokenIsOr(startPos + 2, SymbolToken.TK_LINE_BREAK, SymbolToken.TK_SEMICOLON);
-                        stmtResult = new ParseResult<>(new SelfOperationStmt(new SelfOperationExp(new VariableExp(asVar.getName()),
+                        stmtResult = new ParseResult<>(new SelfOperationStmt(new SelfOperationExp(variableFor(asVar),
                                 next == UnopToken.TK_PLUS_PLUS ? SelfOp.OP_SELF_INCREASE : SelfOp.OP_SELF_DECREASE, false)), startPos + 3);
                     }
                 } else if(next == BracketsToken.TK_LPAREN) {
@@ -667,7 +771,7 @@ public class Parser {
                     List<Exp> parameterList = new ArrayList<>();
                     while((temp = readToken(pos)) != BracketsToken.TK_RPAREN) {
                         if(temp instanceof VariableToken) {
-                            parameterList.add(new VariableExp(((VariableToken) temp).getName()));
+                            parameterList.add(variableFor((VariableToken) temp));
                         } else if(temp instanceof IntToken) {
                             parameterList.add(new IntExp(((IntToken) temp).getValue()));
                         } else if(temp instanceof StringToken) {
@@ -685,11 +789,11 @@ public class Parser {
                         }
                     }
                     checkTokenIs(pos, BracketsToken.TK_RPAREN);
-                    if(pos + 1 == tokens.length) {
-                        stmtResult = new ParseResult<>(new FunctionInstanceStmt(new FunctionInstanceExp(new VariableExp(asVar.getName()), parameterList)), pos + 1);
+                    if(!hasToken(pos + 1)) {
+                        stmtResult = new ParseResult<>(new FunctionInstanceStmt(new FunctionInstanceExp(variableFor(asVar), parameterList)), pos + 1);
                     } else {
                         checkTokenIsOr(pos + 1, SymbolToken.TK_LINE_BREAK, SymbolToken.TK_SEMICOLON);
-                        stmtResult = new ParseResult<>(new FunctionInstanceStmt(new FunctionInstanceExp(new VariableExp(asVar.getName()), parameterList)), pos + 2);
+                        stmtResult = new ParseResult<>(new FunctionInstanceStmt(new FunctionInstanceExp(variableFor(asVar), parameterList)), pos + 2);
                     }
                 } else if(next == BracketsToken.TK_LBRACKET) {  // Array with index case
                     int pos = startPos + 2;
@@ -697,18 +801,18 @@ public class Parser {
                     pos = result.nextPos;
                     checkTokenIs(pos, BracketsToken.TK_RBRACKET);
                     pos++;
-                    if(pos < tokens.length) {
+                    if(hasToken(pos)) {
                         Token temp = readToken(pos);
                         pos++;
                         if (temp == UnopToken.TK_PLUS_PLUS || temp == UnopToken.TK_MINUS_MINUS) {
-                            if(pos == tokens.length) {
-                                stmtResult = new ParseResult<>(new SelfOperationStmt(new SelfOperationExp(new ArrayWithIndexExp(new VariableExp(asVar.getName()), result.result),
+                            if(!hasToken(pos)) {
+                                stmtResult = new ParseResult<>(new SelfOperationStmt(new SelfOperationExp(new ArrayWithIndexExp(variableFor(asVar), result.result),
                                         temp == UnopToken.TK_PLUS_PLUS ? SelfOp.OP_SELF_INCREASE : SelfOp.OP_SELF_DECREASE,
                                         false)), pos);
                             } else {
                                 checkTokenIsOr(pos, SymbolToken.TK_LINE_BREAK, SymbolToken.TK_SEMICOLON);
                                 pos++;
-                                stmtResult = new ParseResult<>(new SelfOperationStmt(new SelfOperationExp(new ArrayWithIndexExp(new VariableExp(asVar.getName()), result.result),
+                                stmtResult = new ParseResult<>(new SelfOperationStmt(new SelfOperationExp(new ArrayWithIndexExp(variableFor(asVar), result.result),
                                         temp == UnopToken.TK_PLUS_PLUS ? SelfOp.OP_SELF_INCREASE : SelfOp.OP_SELF_DECREASE,
                                         false)), pos);
                             }
@@ -729,21 +833,21 @@ public class Parser {
                                 case TK_DIVIDE_EQUAL:
                                     op = CompoundAssignOp.EXP_DIVIDE_EQUAL;
                             }
-                            if(expParseResult.nextPos == tokens.length) {
+                            if(!hasToken(expParseResult.nextPos)) {
                                 stmtResult = new ParseResult<>(new CompoundAssignStmt(expParseResult.result,
-                                        new VariableExp(asVar.getName()), op), expParseResult.nextPos);
+                                        variableFor(asVar), op), expParseResult.nextPos);
                             } else {
                                 checkTokenIsOr(expParseResult.nextPos, SymbolToken.TK_LINE_BREAK, SymbolToken.TK_SEMICOLON);
                                 stmtResult = new ParseResult<>(new CompoundAssignStmt(expParseResult.result,
-                                        new ArrayWithIndexExp(new VariableExp(asVar.getName()), result.result), op), expParseResult.nextPos + 1);
+                                        new ArrayWithIndexExp(variableFor(asVar), result.result), op), expParseResult.nextPos + 1);
                             }
                         } else if(temp == BinopToken.TK_EQUAL) {
                             ParseResult<Exp> expParseResult = parseExp(pos);
-                            if(expParseResult.nextPos == tokens.length) {
-                                stmtResult = new ParseResult<>(new AssignStmt(expParseResult.result, new ArrayWithIndexExp(new VariableExp(asVar.getName()), result.result), false, false), expParseResult.nextPos);
+                            if(!hasToken(expParseResult.nextPos)) {
+                                stmtResult = new ParseResult<>(new AssignStmt(expParseResult.result, new ArrayWithIndexExp(variableFor(asVar), result.result), false, false), expParseResult.nextPos);
                             } else {
                                 checkTokenIsOr(expParseResult.nextPos, SymbolToken.TK_LINE_BREAK, SymbolToken.TK_SEMICOLON);
-                                stmtResult = new ParseResult<>(new AssignStmt(expParseResult.result, new ArrayWithIndexExp(new VariableExp(asVar.getName()), result.result), false, false), expParseResult.nextPos + 1);
+                                stmtResult = new ParseResult<>(new AssignStmt(expParseResult.result, new ArrayWithIndexExp(variableFor(asVar), result.result), false, false), expParseResult.nextPos + 1);
                             }
                         } else {
                             throw new ParseException("Token expected after array[] expression!");
@@ -756,11 +860,11 @@ public class Parser {
                 throw new ParseException("Token expected after variable!");
             }
         } else if(tokenHere == UnopToken.TK_PLUS_PLUS || tokenHere == UnopToken.TK_MINUS_MINUS) {
-            if(startPos + 1 < tokens.length) {
+            if(hasToken(startPos + 1)) {
                 Token next = readToken(startPos + 1);
                 if(next instanceof VariableToken) {
-                    if(startPos + 2 == tokens.length) {
-                        stmtResult = new ParseResult<>(new SelfOperationStmt(new SelfOperationExp(new VariableExp(((VariableToken) next).getName()),
+                    if(!hasToken(startPos + 2)) {
+                        stmtResult = new ParseResult<>(new SelfOperationStmt(new SelfOperationExp(variableFor((VariableToken) next),
                                 tokenHere == UnopToken.TK_PLUS_PLUS ? SelfOp.OP_SELF_INCREASE : SelfOp.OP_SELF_DECREASE, true)), startPos + 2);
                     } else {
                         int pos = startPos + 2;
@@ -771,20 +875,20 @@ public class Parser {
                             pos = result.nextPos;
                             checkTokenIs(pos, BracketsToken.TK_RBRACKET);
                             pos++;
-                            if(pos == tokens.length) {
-                                stmtResult = new ParseResult<>(new SelfOperationStmt(new SelfOperationExp(new ArrayWithIndexExp(new VariableExp(((VariableToken) next).getName()), result.result),
+                            if(!hasToken(pos)) {
+                                stmtResult = new ParseResult<>(new SelfOperationStmt(new SelfOperationExp(new ArrayWithIndexExp(variableFor((VariableToken) next), result.result),
                                         tokenHere == UnopToken.TK_PLUS_PLUS ? SelfOp.OP_SELF_INCREASE : SelfOp.OP_SELF_DECREASE,
                                         true)), pos);
                             } else {
                                 checkTokenIsOr(pos, SymbolToken.TK_LINE_BREAK, SymbolToken.TK_SEMICOLON);
                                 pos++;
-                                stmtResult = new ParseResult<>(new SelfOperationStmt(new SelfOperationExp(new ArrayWithIndexExp(new VariableExp(((VariableToken) next).getName()), result.result),
+                                stmtResult = new ParseResult<>(new SelfOperationStmt(new SelfOperationExp(new ArrayWithIndexExp(variableFor((VariableToken) next), result.result),
                                         tokenHere == UnopToken.TK_PLUS_PLUS ? SelfOp.OP_SELF_INCREASE : SelfOp.OP_SELF_DECREASE,
                                         true)), pos);
                             }
                         } else {
                             checkTokenIsOr(startPos + 2, SymbolToken.TK_LINE_BREAK, SymbolToken.TK_SEMICOLON);
-                            stmtResult = new ParseResult<>(new SelfOperationStmt(new SelfOperationExp(new VariableExp(((VariableToken) next).getName()),
+                            stmtResult = new ParseResult<>(new SelfOperationStmt(new SelfOperationExp(variableFor((VariableToken) next),
                                     tokenHere == UnopToken.TK_PLUS_PLUS ? SelfOp.OP_SELF_INCREASE : SelfOp.OP_SELF_DECREASE, true)), startPos + 3);
                         }
                     }
@@ -833,29 +937,29 @@ public class Parser {
                             case TK_ARRAY: case TK_MUTABLE_LIST:
                                 pos++;
                                 ParseResult<BasicType> genericType = parseGenericType(pos);
-                                type = next == TypeToken.TK_ARRAY ? new TypeArray(genericType.result) :
-                                        new TypeMutableList(genericType.result);
+                                type = next == TypeToken.TK_ARRAY ? Types.arrayOf(genericType.result) :
+                                        Types.mutableListOf(genericType.result);
                                 pos = genericType.nextPos;
                                 break;
                         }
                     }
                 }
-                if(pos < tokens.length && readToken(pos) == BinopToken.TK_EQUAL) {
+                if(hasToken(pos) && readToken(pos) == BinopToken.TK_EQUAL) {
                     ParseResult<Exp> resultExp = parseExp(pos + 1);
-                    if (resultExp.nextPos == tokens.length) {
-                        stmtResult = new ParseResult<>(new AssignStmt(resultExp.result, new VariableExp(asVar.getName()),
+                    if (!hasToken(resultExp.nextPos)) {
+                        stmtResult = new ParseResult<>(new AssignStmt(resultExp.result, variableFor(asVar),
                                 type, tokenHere == KeywordToken.TK_VAL, true), resultExp.nextPos);
                     } else {
                         checkTokenIsOr(resultExp.nextPos, SymbolToken.TK_LINE_BREAK, SymbolToken.TK_SEMICOLON);
-                        stmtResult = new ParseResult<>(new AssignStmt(resultExp.result, new VariableExp(asVar.getName()),
+                        stmtResult = new ParseResult<>(new AssignStmt(resultExp.result, variableFor(asVar),
                                 type, tokenHere == KeywordToken.TK_VAL, true), resultExp.nextPos + 1);
                     }
                 } else {    // VariableDeclareStmt
-                    if(pos == tokens.length) {
-                        stmtResult = new ParseResult<>(new VariableDeclareStmt(new VariableExp(asVar.getName()), type, tokenHere == KeywordToken.TK_VAL), pos);
+                    if(!hasToken(pos)) {
+                        stmtResult = new ParseResult<>(new VariableDeclareStmt(variableFor(asVar), type, tokenHere == KeywordToken.TK_VAL), pos);
                     } else {
                         checkTokenIsOr(pos, SymbolToken.TK_LINE_BREAK, SymbolToken.TK_SEMICOLON);
-                        stmtResult = new ParseResult<>(new VariableDeclareStmt(new VariableExp(asVar.getName()), type, tokenHere == KeywordToken.TK_VAL), pos + 1);
+                        stmtResult = new ParseResult<>(new VariableDeclareStmt(variableFor(asVar), type, tokenHere == KeywordToken.TK_VAL), pos + 1);
                     }
                 }
             } else {
@@ -865,7 +969,7 @@ public class Parser {
             checkTokenIs(startPos + 1, BracketsToken.TK_LPAREN);
             ParseResult<Exp> resultExp = parseExp(startPos + 2);
             checkTokenIs(resultExp.nextPos, BracketsToken.TK_RPAREN);
-            if(resultExp.nextPos + 1 == tokens.length) {
+            if(!hasToken(resultExp.nextPos + 1)) {
                 stmtResult = new ParseResult<>(tokenHere == KeywordToken.TK_PRINT ?
                         new PrintStmt(resultExp.result) : new PrintlnStmt(resultExp.result), resultExp.nextPos + 1);
             } else {
@@ -874,7 +978,7 @@ public class Parser {
                         new PrintStmt(resultExp.result) : new PrintlnStmt(resultExp.result), resultExp.nextPos + 2);
             }
         } else if(tokenHere == KeywordToken.TK_BREAK || tokenHere == KeywordToken.TK_CONTINUE) {
-            if(startPos + 1 == tokens.length) {
+            if(!hasToken(startPos + 1)) {
                 stmtResult = new ParseResult<>(tokenHere == KeywordToken.TK_BREAK ?
                         ControlLoopStmt.STMT_BREAK : ControlLoopStmt.STMT_CONTINUE, startPos + 1);
             } else {
@@ -884,12 +988,12 @@ public class Parser {
             }
         } else if(tokenHere == KeywordToken.TK_RETURN) {
             boolean nothingReturn = false;
-            if(startPos + 1 < tokens.length) {
+            if(hasToken(startPos + 1)) {
                 ParseResult<Exp> returnExp = null;
                 try {
                     returnExp = parseExp(startPos + 1);
                 } catch (ParseException e) {
-                    if(startPos + 1 == tokens.length) {
+                    if(!hasToken(startPos + 1)) {
                         stmtResult = new ParseResult<>(new ReturnStmt(null), startPos + 1);
                     } else {
                         checkTokenIsOr(startPos + 1, SymbolToken.TK_LINE_BREAK, SymbolToken.TK_SEMICOLON);
@@ -898,7 +1002,7 @@ public class Parser {
                     nothingReturn = true;
                 }
                 if(!nothingReturn) {
-                    if (returnExp.nextPos == tokens.length) {
+                    if (!hasToken(returnExp.nextPos)) {
                         stmtResult = new ParseResult<>(new ReturnStmt(returnExp.result), returnExp.nextPos);
                     } else {
                         checkTokenIsOr(returnExp.nextPos, SymbolToken.TK_LINE_BREAK, SymbolToken.TK_SEMICOLON);
@@ -914,17 +1018,17 @@ public class Parser {
     }
 
     private int skipLineBreakOrSemicolon(final int startPos) throws ParseException {
-        if(startPos < tokens.length) {
+        if(hasToken(startPos)) {
             Token token = readToken(startPos);
             if (token != SymbolToken.TK_LINE_BREAK && token != SymbolToken.TK_SEMICOLON) {
                 return startPos;
             } else {
                 int pos = startPos + 1;
-                if (pos < tokens.length) {
+                if (hasToken(pos)) {
                     token = readToken(pos);
                     while (token == SymbolToken.TK_SEMICOLON || token == SymbolToken.TK_LINE_BREAK) {
                         pos++;
-                        if (pos < tokens.length) {
+                        if (hasToken(pos)) {
                             token = readToken(pos);
                         } else {
                             break;
@@ -938,59 +1042,47 @@ public class Parser {
         }
     }
 
-    private ParseResult<BlockStmt> parseBlockStmt(final int startPos) throws ParseException {
+    // A for, if, while or fun statement whose block is being parsed, see parseStmt.
+    private static final class OpenStmt {
+        private final Token keyword;
+        private final boolean inBlock;  // false at top level
+        private List<Stmt> stmtList;    // the block parsed so far
+        private Exp condition;          // if and while
+        private BlockStmt trueBlock;    // if, once its else block is parsed
+        private VariableExp variable;   // for iterator or fun name
+        private Exp startExp;           // for, the array when there is no range
+        private Exp endExp;
+        private Exp stepExp;
+        private LinkedHashMap<Exp, Type> parameterList;
+        private boolean hasReturnType;
+        private Type returnType;
+
+        private OpenStmt(final Token keyword, final boolean inBlock) {
+            this.keyword = keyword;
+            this.inBlock = inBlock;
+        }
+    }
+
+    private int openBlock(final List<OpenStmt> open, final OpenStmt stmt, final int startPos) throws ParseException {
         checkTokenIs(startPos, BracketsToken.TK_LCURLY);
+        stmt.stmtList = new ArrayList<>();
+        open.add(stmt);
+        return skipLineBreakOrSemicolon(startPos + 1);
+    }
+
+    // Reads "(condition)" of an if or while, returns the position after ).
+    private int parseCondition(final OpenStmt stmt, final int startPos) throws ParseException {
         int pos = startPos + 1;
-        Token temp;
-        List<Stmt> stmtList = new ArrayList<>();
-        pos = skipLineBreakOrSemicolon(pos);
-        while((temp = readToken(pos)) != BracketsToken.TK_RCURLY) {
-            if(temp == KeywordToken.TK_FOR) {
-                ParseResult<Stmt> forResult = parseForStmt(pos);
-                stmtList.add(forResult.result);
-                pos = forResult.nextPos;
-            } else if(temp == KeywordToken.TK_IF) {
-                pos++;
-                checkTokenIs(pos, BracketsToken.TK_LPAREN);
-                pos++;
-                ParseResult<Exp> resultExp = parseExp(pos);
-                pos = resultExp.nextPos;
-                checkTokenIs(pos, BracketsToken.TK_RPAREN);
-                pos++;
-                ParseResult<BlockStmt> blockStmt = parseBlockStmt(pos);
-                ParseResult<BlockStmt> elseBlock = null;
-                if(readToken(blockStmt.nextPos) == KeywordToken.TK_ELSE) {
-                    elseBlock = parseBlockStmt(blockStmt.nextPos + 1);
-                }
-                stmtList.add(new IfStmt(resultExp.result, blockStmt.result, elseBlock == null ? null : elseBlock.result));
-                pos = elseBlock == null ? blockStmt.nextPos : elseBlock.nextPos;
-                checkTokenIsOr(pos, SymbolToken.TK_SEMICOLON, SymbolToken.TK_LINE_BREAK);
-                pos++;
-            } else if(temp == KeywordToken.TK_WHILE) {
-                pos++;
-                checkTokenIs(pos, BracketsToken.TK_LPAREN);
-                pos++;
-                ParseResult<Exp> resultExp = parseExp(pos);
-                pos = resultExp.nextPos;
-                checkTokenIs(pos, BracketsToken.TK_RPAREN);
-                pos++;
-                ParseResult<BlockStmt> blockStmt = parseBlockStmt(pos);
-                stmtList.add(new WhileStmt(resultExp.result, blockStmt.result));
-                pos = blockStmt.nextPos;
-                checkTokenIsOr(pos, SymbolToken.TK_SEMICOLON, SymbolToken.TK_LINE_BREAK);
-                pos++;
-            } else {
-                ParseResult<Stmt> primaryStmt = parsePrimaryStmt(pos);
-                stmtList.add(primaryStmt.result);
-                pos = primaryStmt.nextPos;
-            }
-            pos = skipLineBreakOrSemicolon(pos);
-        }
+        checkTokenIs(pos, BracketsToken.TK_LPAREN);
         pos++;
-        return new ParseResult<>(new BlockStmt(stmtList), pos);
+        ParseResult<Exp> resultExp = parseExp(pos);
+        stmt.condition = resultExp.result;
+        pos = resultExp.nextPos;
+        checkTokenIs(pos, BracketsToken.TK_RPAREN);
+        return pos + 1;
     }
 
-    private ParseResult<Stmt> parseForStmt(final int startPos) throws ParseException {
+    private int parseForHeader(final OpenStmt stmt, final int startPos) throws ParseException {
         int pos = startPos;
         checkTokenIs(pos, KeywordToken.TK_FOR);
         Token tokenHere;
@@ -999,222 +1091,229 @@ public class Parser {
         pos++;
 
         if((tokenHere = readToken(pos)) instanceof VariableToken) {
-            VariableExp variableExp = new VariableExp(((VariableToken)tokenHere).getName());
+            stmt.variable = variableFor((VariableToken) tokenHere);
             pos++;
             checkTokenIs(pos, KeywordToken.TK_IN);
             pos++;
             ParseResult<Exp> result = parseExp(pos);
-            Exp startExp = result.result;
+            stmt.startExp = result.result;
             pos = result.nextPos;
             if(readToken(pos) == SymbolToken.TK_DOT_DOT) {
                 pos++;
                 result = parseExp(pos);
                 pos = result.nextPos;
-                Exp endExp = result.result;
-                Exp stepExp = null;
+                stmt.endExp = result.result;
                 if(readToken(pos) == KeywordToken.TK_STEP) {
                     pos++;
                     result = parseExp(pos);
-                    stepExp = result.result;
+                    stmt.stepExp = result.result;
                     pos = result.nextPos;
                 }
-                checkTokenIs(pos, BracketsToken.TK_RPAREN);
-                pos++;
-                ParseResult<BlockStmt> blockStmt = parseBlockStmt(pos);
-                pos = blockStmt.nextPos;
-                if(pos < tokens.length) {   // not the end the program
-                    checkTokenIsOr(pos, SymbolToken.TK_SEMICOLON, SymbolToken.TK_LINE_BREAK);
-                    pos++;
-                }
-                return new ParseResult<>(new ForStmt(variableExp, new RangeExp(startExp, endExp), stepExp, blockStmt.result), pos);
-
-            } else {
-                checkTokenIs(pos, BracketsToken.TK_RPAREN);
-                pos++;
-                ParseResult<BlockStmt> blockStmt = parseBlockStmt(pos);
-                pos = blockStmt.nextPos;
-                if(pos < tokens.length) {   // not the end the program
-                    checkTokenIsOr(pos, SymbolToken.TK_SEMICOLON, SymbolToken.TK_LINE_BREAK);
-                    pos++;
-                }
-                return new ParseResult<>(new ForStmt(variableExp, (VariableExp) result.result, blockStmt.result), pos);
             }
+            checkTokenIs(pos, BracketsToken.TK_RPAREN);
+            return pos + 1;
         } else {
             throw new ParseException("Variable expected in for loop!");
         }
-
     }
 
-    private ParseResult<Stmt> parseStmt(final int startPos) throws ParseException {
-        Token tokenHere = readToken(startPos);
-        int pos = startPos;
-        if(tokenHere == KeywordToken.TK_FOR) {
-            return parseForStmt(pos);
-        } else if(tokenHere == KeywordToken.TK_FUN) {
+    private int parseFunHeader(final OpenStmt stmt, final int startPos) throws ParseException {
+        int pos = startPos + 1;
+        Token tokenHere;
+        if((tokenHere = readToken(pos)) instanceof VariableToken) {
+            stmt.variable = variableFor((VariableToken) tokenHere);
+            VariableExp variableExp;
+            Type type = null;
             pos++;
-            if((tokenHere = readToken(pos)) instanceof VariableToken) {
-                VariableExp asVar = new VariableExp(((VariableToken) tokenHere).getName());
-                VariableExp variableExp;
-                Type type = null;
-                pos++;
-                checkTokenIs(pos, BracketsToken.TK_LPAREN);
-                pos++;
-                LinkedHashMap<Exp, Type> parameterList = new LinkedHashMap<>();
-                while((tokenHere = readToken(pos)) != BracketsToken.TK_RPAREN) {
-                    if (tokenHere instanceof VariableToken) {
-                        variableExp = new VariableExp(((VariableToken)tokenHere).getName());
+            checkTokenIs(pos, BracketsToken.TK_LPAREN);
+            pos++;
+            LinkedHashMap<Exp, Type> parameterList = new LinkedHashMap<>();
+            while((tokenHere = readToken(pos)) != BracketsToken.TK_RPAREN) {
+                if (tokenHere instanceof VariableToken) {
+                    variableExp = variableFor((VariableToken) tokenHere);
+                    pos++;
+                    tokenHere = readToken(pos);
+                    if(tokenHere == SymbolToken.TK_COLON) {
                         pos++;
                         tokenHere = readToken(pos);
-                        if(tokenHere == SymbolToken.TK_COLON) {
-                            pos++;
-                            tokenHere = readToken(pos);
-                            switch ((TypeToken)tokenHere) {
-                                case TK_TYPE_INT:
-                                    type = BasicType.TYPE_INT;
-                                    pos++;
-                                    break;
-                                case TK_TYPE_STRING:
-                                    type = BasicType.TYPE_STRING;
-                                    pos++;
-                                    break;
-                                case TK_TYPE_BOOLEAN:
-                                    type = BasicType.TYPE_BOOLEAN;
-                                    pos++;
-                                    break;
-                                case TK_TYPE_UNIT:
-                                    type = BasicType.TYPE_UNIT;
-                                    pos++;
-                                    break;
-                                case TK_ANY:
-                                    type = BasicType.TYPE_ANY;
-                                    pos++;
-                                    break;
-                                case TK_ARRAY: case TK_MUTABLE_LIST:
-                                    pos++;
-                                    ParseResult<BasicType> genericType = parseGenericType(pos);
-                                    type = tokenHere == TypeToken.TK_ARRAY ? new TypeArray(genericType.result) :
-                                            new TypeMutableList(genericType.result);
-                                    pos = genericType.nextPos;
-                                    break;
-                            }
-                        }
-                        if(parameterList.containsKey(variableExp)) {    // Function declaration cannot have same parameter name.
-                            throw new ParseException("Cannot have same parameter name in function declaration");
-                        } else {
-                            parameterList.put(variableExp, type);
-                        }
-                        if(readToken(pos) != SymbolToken.TK_COMMA) {
-                            break;
-                        } else {
-                            pos++;
-                        }
-                    } else {
-                        if(parameterList.size() > 0) {
-                            throw new ParseException("Variable expected after ,");
-                        } else {
-                            pos++;
-                            break;
+                        switch ((TypeToken)tokenHere) {
+                            case TK_TYPE_INT:
+                                type = BasicType.TYPE_INT;
+                                pos++;
+                                break;
+                            case TK_TYPE_STRING:
+                                type = BasicType.TYPE_STRING;
+                                pos++;
+                                break;
+                            case TK_TYPE_BOOLEAN:
+                                type = BasicType.TYPE_BOOLEAN;
+                                pos++;
+                                break;
+                            case TK_TYPE_UNIT:
+                                type = BasicType.TYPE_UNIT;
+                                pos++;
+                                break;
+                            case TK_ANY:
+                                type = BasicType.TYPE_ANY;
+                                pos++;
+                                break;
+                            case TK_ARRAY: case TK_MUTABLE_LIST:
+                                pos++;
+                                ParseResult<BasicType> genericType = parseGenericType(pos);
+                                type = tokenHere == TypeToken.TK_ARRAY ? Types.arrayOf(genericType.result) :
+                                        Types.mutableListOf(genericType.result);
+                                pos = genericType.nextPos;
+                                break;
                         }
                     }
-                    type = null;
-                }
-                checkTokenIs(pos, BracketsToken.TK_RPAREN);
-                Type retureType = null;
-                pos++;
-                if(readToken(pos) == SymbolToken.TK_COLON) {
-                    pos++;
-                    tokenHere = readToken(pos);
-                    switch ((TypeToken)tokenHere) {
-                        case TK_TYPE_INT:
-                            retureType = BasicType.TYPE_INT;
-                            pos++;
-                            break;
-                        case TK_TYPE_STRING:
-                            retureType = BasicType.TYPE_STRING;
-                            pos++;
-                            break;
-                        case TK_TYPE_BOOLEAN:
-                            retureType = BasicType.TYPE_BOOLEAN;
-                            pos++;
-                            break;
-                        case TK_TYPE_UNIT:
-                            retureType = BasicType.TYPE_UNIT;
-                            pos++;
-                            break;
-                        case TK_ANY:
-                            retureType = BasicType.TYPE_ANY;
-                            pos++;
-                            break;
-                        case TK_ARRAY: case TK_MUTABLE_LIST:
-                            pos++;
-                            ParseResult<BasicType> genericType = parseGenericType(pos);
-                            retureType = tokenHere == TypeToken.TK_ARRAY ? new TypeArray(genericType.result) :
-                                    new TypeMutableList(genericType.result);
-                            pos = genericType.nextPos;
-                            break;
+                    if(parameterList.containsKey(variableExp)) {    // Function declaration cannot have same parameter name.
+                        throw new ParseException("Cannot have same parameter name in function declaration");
+                    } else {
+                        parameterList.put(variableExp, type);
                     }
-                    ParseResult<BlockStmt> blockStmt = parseBlockStmt(pos);
-                    pos = blockStmt.nextPos;
-                    if(pos < tokens.length) {   // not the end the program
-                        checkTokenIsOr(pos, SymbolToken.TK_SEMICOLON, SymbolToken.TK_LINE_BREAK);
+                    if(readToken(pos) != SymbolToken.TK_COMMA) {
+                        break;
+                    } else {
                         pos++;
                     }
-                    if(retureType == null) {
-                        throw new ParseException("Unknown return type.");
-                    }
-                    return new ParseResult<>(new FunctionDeclareStmt(asVar, retureType, parameterList, blockStmt.result), pos);
-                } else if(readToken(pos) == BracketsToken.TK_LCURLY) {
-                    ParseResult<BlockStmt> blockStmt = parseBlockStmt(pos);
-                    pos = blockStmt.nextPos;
-                    if(pos < tokens.length) {   // not the end the program
-                        checkTokenIsOr(pos, SymbolToken.TK_SEMICOLON, SymbolToken.TK_LINE_BREAK);
+                } else {
+                    if(parameterList.size() > 0) {
+                        throw new ParseException("Variable expected after ,");
+                    } else {
                         pos++;
+                        break;
                     }
-                    return new ParseResult<>(new FunctionDeclareStmt(asVar, BasicType.TYPE_UNIT, parameterList, blockStmt.result), pos);
-                } else {
-                    throw new ParseException(": or { expected after function parameter!");
                 }
-            } else {
-                throw new ParseException("Function name expected!");
+                type = null;
             }
-        }
-        else if(tokenHere == KeywordToken.TK_IF) {
-            pos++;
-            checkTokenIs(pos, BracketsToken.TK_LPAREN);
-            pos++;
-            ParseResult<Exp> resultExp = parseExp(pos);
-            pos = resultExp.nextPos;
+            stmt.parameterList = parameterList;
             checkTokenIs(pos, BracketsToken.TK_RPAREN);
             pos++;
-            ParseResult<BlockStmt> blockStmt = parseBlockStmt(pos);
-            ParseResult<BlockStmt> elseBlock = null;
-            if(readToken(blockStmt.nextPos) == KeywordToken.TK_ELSE) {
-                elseBlock = parseBlockStmt(blockStmt.nextPos + 1);
-            }
-            pos = elseBlock == null ? blockStmt.nextPos : elseBlock.nextPos;
-            if(pos < tokens.length) {   // not the end the program
-                checkTokenIsOr(pos, SymbolToken.TK_SEMICOLON, SymbolToken.TK_LINE_BREAK);
+            if(readToken(pos) == SymbolToken.TK_COLON) {
+                stmt.hasReturnType = true;
                 pos++;
+                tokenHere = readToken(pos);
+                switch ((TypeToken)tokenHere) {
+                    case TK_TYPE_INT:
+                        stmt.returnType = BasicType.TYPE_INT;
+                        pos++;
+                        break;
+                    case TK_TYPE_STRING:
+                        stmt.returnType = BasicType.TYPE_STRING;
+                        pos++;
+                        break;
+                    case TK_TYPE_BOOLEAN:
+                        stmt.returnType = BasicType.TYPE_BOOLEAN;
+                        pos++;
+                        break;
+                    case TK_TYPE_UNIT:
+                        stmt.returnType = BasicType.TYPE_UNIT;
+                        pos++;
+                        break;
+                    case TK_ANY:
+                        stmt.returnType = BasicType.TYPE_ANY;
+                        pos++;
+                        break;
+                    case TK_ARRAY: case TK_MUTABLE_LIST:
+                        pos++;
+                        ParseResult<BasicType> genericType = parseGenericType(pos);
+                        stmt.returnType = tokenHere == TypeToken.TK_ARRAY ? Types.arrayOf(genericType.result) :
+                                Types.mutableListOf(genericType.result);
+                        pos = genericType.nextPos;
+                        break;
+                }
+                return pos;
+            } else if(readToken(pos) == BracketsToken.TK_LCURLY) {
+                stmt.returnType = BasicType.TYPE_UNIT;
+                return pos;
+            } else {
+                throw new ParseException(": or { expected after function parameter!");
             }
-            return new ParseResult<>(elseBlock == null ? new IfStmt(resultExp.result, blockStmt.result) :
-                    new IfStmt(resultExp.result, blockStmt.result, elseBlock.result), pos);
-        } else if(tokenHere == KeywordToken.TK_WHILE) {
-            pos++;
-            checkTokenIs(pos, BracketsToken.TK_LPAREN);
+        } else {
+            throw new ParseException("Function name expected!");
+        }
+    }
+
+    // Builds stmt once the } of its last block at startPos - 1 is read.
+    private ParseResult<Stmt> closeStmt(final OpenStmt stmt, final BlockStmt blockStmt, final int startPos) throws ParseException {
+        int pos = startPos;
+        if(stmt.inBlock && (stmt.keyword == KeywordToken.TK_IF || stmt.keyword == KeywordToken.TK_WHILE)) {
+            checkTokenIsOr(pos, SymbolToken.TK_SEMICOLON, SymbolToken.TK_LINE_BREAK);
             pos++;
-            ParseResult<Exp> resultExp = parseExp(pos);
-            pos = resultExp.nextPos;
-            checkTokenIs(pos, BracketsToken.TK_RPAREN);
+        } else if(hasToken(pos)) {   // not the end the program
+            checkTokenIsOr(pos, SymbolToken.TK_SEMICOLON, SymbolToken.TK_LINE_BREAK);
             pos++;
-            ParseResult<BlockStmt> blockStmt = parseBlockStmt(pos);
-            pos = blockStmt.nextPos;
-            if(pos < tokens.length) {   // not the end the program
-                checkTokenIsOr(pos, SymbolToken.TK_SEMICOLON, SymbolToken.TK_LINE_BREAK);
+        }
+        if(stmt.keyword == KeywordToken.TK_IF) {
+            return new ParseResult<>(stmt.trueBlock == null ? new IfStmt(stmt.condition, blockStmt) :
+                    new IfStmt(stmt.condition, stmt.trueBlock, blockStmt), pos);
+        } else if(stmt.keyword == KeywordToken.TK_WHILE) {
+            return new ParseResult<>(new WhileStmt(stmt.condition, blockStmt), pos);
+        } else if(stmt.keyword == KeywordToken.TK_FOR) {
+            return new ParseResult<>(stmt.endExp != null ?
+                    new ForStmt(stmt.variable, new RangeExp(stmt.startExp, stmt.endExp), stmt.stepExp, blockStmt) :
+                    new ForStmt(stmt.variable, (VariableExp) stmt.startExp, blockStmt), pos);
+        } else {
+            if(stmt.hasReturnType && stmt.returnType == null) {
+                throw new ParseException("Unknown return type.");
+            }
+            return new ParseResult<>(new FunctionDeclareStmt(stmt.variable, stmt.returnType, stmt.parameterList, blockStmt), pos);
+        }
+    }
+
+    /**
+     * Parses one statement with all the statements in its blocks. Blocks are not parsed by
+     * recursion: when the { of a for, if, while or fun is reached it goes on a stack together with
+     * the statements of its block, and it is built when the matching } is reached. Blocks can so
+     * be nested as deep as the heap allows.
+     */
+    private ParseResult<Stmt> parseStmt(final int startPos) throws ParseException {
+        final List<OpenStmt> open = new ArrayList<>();
+        int pos = startPos;
+        while(true) {
+            final boolean inBlock = !open.isEmpty();
+            final Token tokenHere = readToken(pos);
+            Stmt stmt = null;
+            if(tokenHere == KeywordToken.TK_FOR) {
+                final OpenStmt forStmt = new OpenStmt(tokenHere, inBlock);
+                pos = openBlock(open, forStmt, parseForHeader(forStmt, pos));
+            } else if(tokenHere == KeywordToken.TK_FUN && !inBlock) {
+                final OpenStmt funStmt = new OpenStmt(tokenHere, false);
+                pos = openBlock(open, funStmt, parseFunHeader(funStmt, pos));
+            } else if(tokenHere == KeywordToken.TK_IF || tokenHere == KeywordToken.TK_WHILE) {
+                final OpenStmt condStmt = new OpenStmt(tokenHere, inBlock);
+                pos = openBlock(open, condStmt, parseCondition(condStmt, pos));
+            } else {
+                ParseResult<Stmt> primaryStmt = parsePrimaryStmt(pos);
+                stmt = primaryStmt.result;
+                pos = primaryStmt.nextPos;
+            }
+            // Add the statement to its block, and close the blocks ending here.
+            while(true) {
+                if(stmt != null) {
+                    if(open.isEmpty()) {
+                        return new ParseResult<>(stmt, pos);
+                    }
+                    open.get(open.size() - 1).stmtList.add(stmt);
+                    stmt = null;
+                    pos = skipLineBreakOrSemicolon(pos);
+                }
+                if(readToken(pos) != BracketsToken.TK_RCURLY) {
+                    break;
+                }
                 pos++;
+                final OpenStmt closed = open.remove(open.size() - 1);
+                final BlockStmt blockStmt = new BlockStmt(closed.stmtList);
+                if(closed.keyword == KeywordToken.TK_IF && closed.trueBlock == null &&
+                        readToken(pos) == KeywordToken.TK_ELSE) {
+                    closed.trueBlock = blockStmt;
+                    pos = openBlock(open, closed, pos + 1);
+                } else {
+                    final ParseResult<Stmt> result = closeStmt(closed, blockStmt, pos);
+                    stmt = result.result;
+                    pos = result.nextPos;
+                }
             }
-            return new ParseResult<>(new WhileStmt(resultExp.result, blockStmt.result), pos);
-        } else {
-            return parsePrimaryStmt(startPos);
         }
     }
 
@@ -1223,7 +1322,7 @@ public class Parser {
         final ParseResult<Stmt> result = parseStmt(pos);
         pos = skipLineBreakOrSemicolon(result.nextPos);
 
-        if(pos == tokens.length) {
+        if(!hasToken(pos)) {
             return result.result;
         } else {
             throw new ParseException("Extra tokens at end");
@@ -1232,20 +1331,30 @@ public class Parser {
 
     private ParseResult<Program> parseProgram(final int startPos) throws ParseException {
         List<Stmt> stmtList = new ArrayList<>();
+        int pos = parseStatements(startPos, Integer.MAX_VALUE, stmtList);
+        return new ParseResult<>(new Program(stmtList), pos);
+    }
+
+    /**
+     * Adds the top level statements from startPos to stmtList until one ends at or after endPos,
+     * returns the position after it and the line breaks following it.
+     */
+    int parseStatements(final int startPos, final int endPos, final List<Stmt> stmtList) throws ParseException {
         int pos = startPos;
-        while(pos < tokens.length) {
+        while(pos < endPos && hasToken(pos)) {
             pos = skipLineBreakOrSemicolon(pos);
             ParseResult<Stmt> stmtParseResult = parseStmt(pos);
             stmtList.add(stmtParseResult.result);
             pos = skipLineBreakOrSemicolon(stmtParseResult.nextPos);
+            tokens.release(pos);
         }
-        return new ParseResult<>(new Program(stmtList), pos);
+        return pos;
     }
 
     public Program parseToplevelProgram() throws ParseException {
         final ParseResult<Program> result = parseProgram(0);
 
-        if(result.nextPos == tokens.length) {
+        if(!hasToken(result.nextPos)) {
             return result.result;
         } else {
             throw new ParseException("Extra tokens at end");
@@ -1,10 +1,13 @@
 package com.github.wangdong20.kotlinscriptcompiler.parser.expressions;
 
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.FunctionDeclareStmt;
+
 import java.util.List;
 
 public class FunctionInstanceExp implements Exp {
     private final VariableExp funcName;
     private final List<Exp> parameterList;
+    private FunctionDeclareStmt function;
 
     public FunctionInstanceExp(VariableExp funcName, List<Exp> parameterList) {
         this.funcName = funcName;
@@ -19,6 +22,18 @@ public class FunctionInstanceExp implements Exp {
         return parameterList;
     }
 
+    /**
+     * The declaration this call was resolved to by the Typechecker, null if it was not checked or
+     * calls a function held by a variable.
+     */
+    public FunctionDeclareStmt getFunction() {
+        return function;
+    }
+
+    public void setFunction(final FunctionDeclareStmt function) {
+        this.function = function;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj instanceof FunctionInstanceExp) {
@@ -1,30 +1,98 @@
 package com.github.wangdong20.kotlinscriptcompiler.parser.expressions;
 
 import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class StringExp implements Exp {
-    private String strWithoutInterpolation;
-    private LinkedHashMap<Integer, Exp> interpolationExp;     // Integer is the interpolation expression position in String
+    private final String strWithoutInterpolation;
+    private volatile LinkedHashMap<Integer, Exp> interpolationExp;     // Integer is the interpolation expression position in String
+    // The same string as literal segments with exps[i] between segments[i] and segments[i + 1].
+    // Either form is built from the other when it is first asked for, in local variables, and
+    // only stored once complete: threads which share the AST may build it at the same time, and
+    // then store equal copies.
+    private volatile String[] segments;
+    private volatile Exp[] exps;
 
     public StringExp(String strWithoutInterpolation, LinkedHashMap<Integer, Exp> interpolationExp) {
         this.strWithoutInterpolation = strWithoutInterpolation;
         this.interpolationExp = interpolationExp;
     }
 
+    /**
+     * segments has one more element than exps.
+     */
+    public StringExp(String[] segments, Exp[] exps) {
+        this.segments = segments;
+        this.exps = exps;
+        StringBuilder builder = new StringBuilder();
+        for(String segment : segments) {
+            builder.append(segment);
+        }
+        this.strWithoutInterpolation = builder.toString();
+    }
+
     public String getStrWithoutInterpolation() {
         return strWithoutInterpolation;
     }
 
     public LinkedHashMap<Integer, Exp> getInterpolationExp() {
+        LinkedHashMap<Integer, Exp> interpolationExp = this.interpolationExp;
+        final Exp[] exps = this.exps;
+        final String[] segments = this.segments;
+        if(interpolationExp == null && exps != null && exps.length > 0 && segments != null) {
+            interpolationExp = new LinkedHashMap<>();
+            int position = 0;
+            for(int i = 0; i < exps.length; i++) {
+                position += segments[i].length();
+                interpolationExp.put(position, exps[i]);
+            }
+            this.interpolationExp = interpolationExp;
+        }
         return interpolationExp;
     }
 
+    public String[] getSegments() {
+        final String[] segments = this.segments;
+        return segments != null ? segments : split();
+    }
+
+    public Exp[] getExps() {
+        final Exp[] exps = this.exps;
+        if(exps != null) {
+            return exps;
+        }
+        split();
+        return this.exps;
+    }
+
+    // Builds segments and exps from interpolationExp, gives segments.
+    private String[] split() {
+        final LinkedHashMap<Integer, Exp> interpolationExp = this.interpolationExp;
+        final int count = interpolationExp == null ? 0 : interpolationExp.size();
+        final String[] segments = new String[count + 1];
+        final Exp[] exps = new Exp[count];
+        int i = 0;
+        int from = 0;
+        if(count > 0) {
+            for(Map.Entry<Integer, Exp> entry : interpolationExp.entrySet()) {
+                segments[i] = strWithoutInterpolation.substring(from, entry.getKey());
+                exps[i] = entry.getValue();
+                from = entry.getKey();
+                i++;
+            }
+        }
+        segments[i] = strWithoutInterpolation.substring(from);
+        this.exps = exps;
+        this.segments = segments;
+        return segments;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj instanceof StringExp) {
             if(((StringExp) obj).getStrWithoutInterpolation().equals(strWithoutInterpolation)) {
-                if((((StringExp) obj).getInterpolationExp() == null && interpolationExp == null) ||
-                        ((StringExp) obj).getInterpolationExp().equals(interpolationExp))
+                if((((StringExp) obj).getInterpolationExp() == null && getInterpolationExp() == null) ||
+                        ((StringExp) obj).getInterpolationExp().equals(getInterpolationExp()))
                 return true;
             }
         }
@@ -35,7 +103,7 @@ public class StringExp implements Exp {
     public String toString() {
         return "StringExp{" +
                 "strWithoutInterpolation='" + strWithoutInterpolation + '\'' +
-                ", interpolationExp=" + interpolationExp +
+                ", interpolationExp=" + getInterpolationExp() +
                 '}';
     }
 }
@@ -3,17 +3,37 @@ package com.github.wangdong20.kotlinscriptcompiler.parser.expressions;
 
 public class VariableExp implements Exp, Variable {
     private final String name;
+    private final int id;
 
     public VariableExp(final String name) {
+        this(name, -1);
+    }
+
+    /**
+     * The Parser gives every name one VariableExp, numbered like the SymbolTable of the
+     * compilation, so the same variable can be recognised by identity or by id.
+     */
+    public VariableExp(final String name, final int id) {
         this.name = name;
+        this.id = id;
     }
 
     public String getName() {
         return name;
     }
 
+    /**
+     * Dense id of the name within its compilation, -1 for names made up outside the Parser.
+     */
+    public int getId() {
+        return id;
+    }
+
     @Override
     public boolean equals(Object obj) {
+        if(obj == this) {
+            return true;
+        }
         if(obj instanceof VariableExp) {
             if(((VariableExp) obj).getName().equals(name)) {
                 return true;
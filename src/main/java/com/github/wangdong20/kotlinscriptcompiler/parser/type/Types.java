@@ -0,0 +1,87 @@
+package com.github.wangdong20.kotlinscriptcompiler.parser.type;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+/**
+ * Gives one instance for every type, so types made by these methods can be compared with ==.
+ * The Parser, Typechecker and CodeGenerator make all their types here. Types made with the
+ * constructors, e.g. in hand written ASTs, are still equal to them and canonical turns them into
+ * the shared instance.
+ *
+ * Function types are only held weakly: one no program uses any more is dropped, so a long running
+ * process does not keep every function type it has seen. While a type is in use it stays the one
+ * instance, so == still holds between the types of live programs.
+ */
+public final class Types {
+    private static final TypeArray[] ARRAYS = new TypeArray[BasicType.values().length];
+    private static final TypeMutableList[] MUTABLE_LISTS = new TypeMutableList[BasicType.values().length];
+    // Array<null> and MutableList<null>, the types of empty literals.
+    private static final TypeArray NULL_ARRAY = new TypeArray(null);
+    private static final TypeMutableList NULL_MUTABLE_LIST = new TypeMutableList(null);
+    private static final Map<TypeHighOrderFunction, WeakReference<TypeHighOrderFunction>> FUNCTIONS =
+            new WeakHashMap<>();
+
+    static {
+        for(BasicType basicType : BasicType.values()) {
+            ARRAYS[basicType.ordinal()] = new TypeArray(basicType);
+            MUTABLE_LISTS[basicType.ordinal()] = new TypeMutableList(basicType);
+        }
+    }
+
+    private Types() {
+    }
+
+    public static TypeArray arrayOf(final BasicType basicType) {
+        return basicType == null ? NULL_ARRAY : ARRAYS[basicType.ordinal()];
+    }
+
+    public static TypeMutableList mutableListOf(final BasicType basicType) {
+        return basicType == null ? NULL_MUTABLE_LIST : MUTABLE_LISTS[basicType.ordinal()];
+    }
+
+    /**
+     * The parameter list of the returned type can not be changed.
+     */
+    public static TypeHighOrderFunction functionOf(final List<Type> parameterList, final Type returnType) {
+        final List<Type> parameters = new ArrayList<>(parameterList.size());
+        for(Type parameter : parameterList) {
+            parameters.add(canonical(parameter));
+        }
+        final TypeHighOrderFunction function = new TypeHighOrderFunction(Collections.unmodifiableList(parameters), canonical(returnType));
+        synchronized(FUNCTIONS) {
+            final TypeHighOrderFunction known = known(function);
+            if(known != null) {
+                return known;
+            }
+            FUNCTIONS.put(function, new WeakReference<>(function));
+        }
+        return function;
+    }
+
+    // The shared instance equal to function, null if there is none.
+    private static TypeHighOrderFunction known(final TypeHighOrderFunction function) {
+        synchronized(FUNCTIONS) {
+            final WeakReference<TypeHighOrderFunction> reference = FUNCTIONS.get(function);
+            return reference == null ? null : reference.get();
+        }
+    }
+
+    /**
+     * The shared instance equal to type, null for null.
+     */
+    public static Type canonical(final Type type) {
+        if(type instanceof TypeArray) {
+            return arrayOf(((TypeArray) type).getBasicType());
+        } else if(type instanceof TypeMutableList) {
+            return mutableListOf(((TypeMutableList) type).getBasicType());
+        } else if(type instanceof TypeHighOrderFunction) {
+            final TypeHighOrderFunction known = known((TypeHighOrderFunction) type);
+            if(known != null) {
+                return known;
+            }
+            return functionOf(((TypeHighOrderFunction) type).getParameterList(), ((TypeHighOrderFunction) type).getReturnType());
+        }
+        return type;
+    }
+}
@@ -0,0 +1,25 @@
+package com.github.wangdong20.kotlinscriptcompiler.token;
+
+public class ArrayTokenStream implements TokenStream {
+    private final Token[] tokens;
+    private final SymbolTable symbols;
+
+    public ArrayTokenStream(final Token[] tokens) {
+        this(tokens, null);
+    }
+
+    public ArrayTokenStream(final Token[] tokens, final SymbolTable symbols) {
+        this.tokens = tokens;
+        this.symbols = symbols;
+    }
+
+    @Override
+    public Token get(final int position) {
+        return position < tokens.length ? tokens[position] : null;
+    }
+
+    @Override
+    public SymbolTable getSymbolTable() {
+        return symbols;
+    }
+}
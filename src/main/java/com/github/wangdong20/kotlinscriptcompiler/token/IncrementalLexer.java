@@ -0,0 +1,184 @@
+package com.github.wangdong20.kotlinscriptcompiler.token;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the text and tokens of a source which is edited over and over, e.g. by an editor or a
+ * watch loop, and re-scans only around each edit.
+ *
+ * The lexer is between tokens at the end of every token, and what it does from there only
+ * depends on the text that follows, plus the character before for the "->" check. So an edit is
+ * scanned from the end of the last token that ends before it, and the scan stops at the first
+ * token which ends where an old token ended, past the edited text: all old tokens after that one
+ * are still right and only move by the length difference. An edit which opens a block comment or
+ * a string keeps scanning until the comment or string is closed again.
+ */
+public class IncrementalLexer {
+    private final SymbolTable symbols;
+    private char[] text;
+    private int length;
+    private TokenBuffer tokens;
+    private int relexed;
+    private int changedFrom;
+    private int changedTo;
+
+    public IncrementalLexer(final String text) throws TokenizerException {
+        this(text, new SymbolTable());
+    }
+
+    public IncrementalLexer(final String text, final SymbolTable symbols) throws TokenizerException {
+        this.symbols = symbols;
+        this.text = text.toCharArray();
+        this.length = this.text.length;
+        this.tokens = TokenBuffer.tokenize(new Tokenizer(this.text, 0, length, 1, symbols));
+        this.relexed = tokens.size();
+    }
+
+    public String getText() {
+        return new String(text, 0, length);
+    }
+
+    /**
+     * The tokens of the current text. The buffer is updated in place by edit.
+     */
+    public TokenBuffer getTokens() {
+        return tokens;
+    }
+
+    /**
+     * How many tokens the last edit scanned.
+     */
+    public int getRelexedCount() {
+        return relexed;
+    }
+
+    /**
+     * The last edit replaced the tokens from getChangedFrom() up to getChangedTo() of the tokens
+     * before it with getRelexedCount() new tokens. After a failed edit there are no tokens, so the
+     * next edit replaces [0, 0) with all tokens.
+     */
+    public int getChangedFrom() {
+        return changedFrom;
+    }
+
+    public int getChangedTo() {
+        return changedTo;
+    }
+
+    /**
+     * Replaces removed characters at offset with inserted and updates the tokens. If the new text
+     * does not tokenize, the exception is thrown, the text is still edited, and the next edit
+     * scans the whole text.
+     */
+    public TokenBuffer edit(final int offset, final int removed, final String inserted) throws TokenizerException {
+        if(offset < 0 || removed < 0 || offset + removed > length) {
+            throw new IndexOutOfBoundsException("Edit " + offset + "+" + removed + " outside of text of length " + length);
+        }
+        if(tokens == null) {
+            replaceText(offset, removed, inserted);
+            tokens = TokenBuffer.tokenize(new Tokenizer(text, 0, length, 1, symbols));
+            relexed = tokens.size();
+            changedFrom = 0;
+            changedTo = 0;
+            return tokens;
+        }
+        final int lineDelta = lineBreaks(inserted.toCharArray(), 0, inserted.length()) - lineBreaks(text, offset, offset + removed);
+        final int delta = inserted.length() - removed;
+        final int editEnd = offset + removed;   // in the old text
+
+        // Tokens before first are not touched by the edit, not even by looking one character ahead.
+        final int first = firstEndingAtOrAfter(offset);
+        int restart = 0;
+        int line = 1;
+        if(first > 0) {
+            restart = end(first - 1);
+            line = tokens.getLine(first - 1) + lineBreaks(text, tokens.getOffset(first - 1), restart);
+        }
+
+        replaceText(offset, removed, inserted);
+
+        final Tokenizer tokenizer = new Tokenizer(text, restart, length, line, symbols);
+        Token[] newTokens = new Token[16];
+        int[] offsets = new int[16];
+        int[] lengths = new int[16];
+        int[] lines = new int[16];
+        int count = 0;
+        int old = first;    // old tokens before this one end before the current scan position
+        int resync = tokens.size();
+        try {
+            Token token;
+            while((token = tokenizer.nextToken()) != null) {
+                if(count == newTokens.length) {
+                    newTokens = Arrays.copyOf(newTokens, count * 2);
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                    lengths = Arrays.copyOf(lengths, count * 2);
+                    lines = Arrays.copyOf(lines, count * 2);
+                }
+                newTokens[count] = token;
+                offsets[count] = tokenizer.getTokenOffset();
+                lengths[count] = tokenizer.getTokenLength();
+                lines[count] = tokenizer.getTokenLine();
+                count++;
+
+                // The character before the old end has to be outside the edit as well.
+                final int oldEnd = tokenizer.getTokenOffset() + tokenizer.getTokenLength() - delta;
+                if(oldEnd > editEnd) {
+                    while(old < tokens.size() && end(old) < oldEnd) {
+                        old++;
+                    }
+                    if(old < tokens.size() && end(old) == oldEnd) {
+                        resync = old + 1;
+                        break;
+                    }
+                }
+            }
+        } catch (TokenizerException e) {
+            tokens = null;
+            throw e;
+        }
+        tokens.replace(first, resync, newTokens, offsets, lengths, lines, count, delta, lineDelta);
+        relexed = count;
+        changedFrom = first;
+        changedTo = resync;
+        return tokens;
+    }
+
+    private int end(final int position) {
+        return tokens.getOffset(position) + tokens.getLength(position);
+    }
+
+    // Binary search, token ends grow with the position.
+    private int firstEndingAtOrAfter(final int offset) {
+        int low = 0;
+        int high = tokens.size();
+        while(low < high) {
+            final int middle = (low + high) >>> 1;
+            if(end(middle) < offset) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static int lineBreaks(final char[] chars, final int from, final int to) {
+        int count = 0;
+        for(int i = from; i < to; i++) {
+            if(chars[i] == '\n') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void replaceText(final int offset, final int removed, final String inserted) {
+        final int newLength = length - removed + inserted.length();
+        if(newLength > text.length) {
+            text = Arrays.copyOf(text, Math.max(newLength, text.length + (text.length >> 1)));
+        }
+        System.arraycopy(text, offset + removed, text, offset + inserted.length(), length - offset - removed);
+        inserted.getChars(0, inserted.length(), text, offset);
+        length = newLength;
+    }
+}
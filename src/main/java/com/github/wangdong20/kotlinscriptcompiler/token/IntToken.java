@@ -21,6 +21,11 @@ public class IntToken implements Token {
         return false;
     }
 
+    @Override
+    public int hashCode() {
+        return value;
+    }
+
     @Override
     public String toString() {
         return "IntToken{" +
@@ -0,0 +1,90 @@
+package com.github.wangdong20.kotlinscriptcompiler.token;
+
+import java.util.Arrays;
+
+/**
+ * Pulls tokens from a Tokenizer (or another TokenSource) only when the parser reaches them. Only the tokens between
+ * the last released position and the furthest position read so far are kept.
+ */
+public class LazyTokenStream implements TokenStream {
+    private final TokenSource tokenizer;
+    private Token[] window = new Token[64];
+    private int[] lines = new int[64];
+    private int base;   // position of window[0]
+    private int count;
+    private int released;
+    private boolean finished;
+    private TokenizerException failure;
+
+    public LazyTokenStream(final TokenSource tokenizer) {
+        this.tokenizer = tokenizer;
+    }
+
+    @Override
+    public Token get(final int position) throws TokenizerException {
+        if(position < base) {
+            throw new IllegalStateException("Token at " + position + " was already released");
+        }
+        while(position - base >= count) {
+            if(failure != null) {
+                // The tokenizer stopped in the middle of a token, so keep reporting the same error.
+                throw failure;
+            }
+            if(finished) {
+                return null;
+            }
+            final Token next;
+            try {
+                next = tokenizer.nextToken();
+            } catch (TokenizerException e) {
+                failure = e;
+                throw e;
+            }
+            if(next == null) {
+                finished = true;
+            } else {
+                append(next, tokenizer.getTokenLine());
+            }
+        }
+        return window[position - base];
+    }
+
+    @Override
+    public void release(final int position) {
+        released = Math.max(released, position);
+    }
+
+    @Override
+    public SymbolTable getSymbolTable() {
+        return tokenizer.getSymbolTable();
+    }
+
+    @Override
+    public int getLine(final int position) {
+        return position >= base && position - base < count ? lines[position - base] : 0;
+    }
+
+    private void append(final Token token, final int line) {
+        if(count == window.length) {
+            final int drop = Math.max(0, Math.min(released - base, count));
+            if(drop > count / 2) {
+                System.arraycopy(window, drop, window, 0, count - drop);
+                System.arraycopy(lines, drop, lines, 0, count - drop);
+                Arrays.fill(window, count - drop, count, null);
+                base += drop;
+                count -= drop;
+            } else {
+                Token[] larger = new Token[window.length * 2];
+                int[] largerLines = new int[window.length * 2];
+                System.arraycopy(window, drop, larger, 0, count - drop);
+                System.arraycopy(lines, drop, largerLines, 0, count - drop);
+                base += drop;
+                count -= drop;
+                window = larger;
+                lines = largerLines;
+            }
+        }
+        lines[count] = line;
+        window[count++] = token;
+    }
+}
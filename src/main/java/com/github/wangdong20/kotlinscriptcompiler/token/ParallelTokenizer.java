@@ -0,0 +1,197 @@
+package com.github.wangdong20.kotlinscriptcompiler.token;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Tokenizes a large input on a ForkJoinPool and gives exactly the tokens, identifier ids and
+ * errors of a serial Tokenizer.
+ *
+ * The input is cut into chunks right after line breaks, and each chunk is scanned on its own as
+ * if it started between two tokens. That is wrong when the cut falls inside a block comment or a
+ * string literal, so the chunks are checked in order while they are merged: a chunk which ends
+ * with the line break before the next cut leaves the scanner between tokens, and the next chunk
+ * can be taken as is. Otherwise everything after the last line break token of the chunk is scanned
+ * again serially, until that scan emits a line break right before a later cut and the chunks can
+ * be used again.
+ *
+ * Dwks tokenizes with it when run with -Ddwks.parallel=true.
+ */
+public class ParallelTokenizer {
+    private static final int MIN_CHUNK_SIZE = 64 * 1024;
+
+    private final char[] input;
+    private final SymbolTable symbols;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    public ParallelTokenizer(final String input) {
+        this(input.toCharArray());
+    }
+
+    public ParallelTokenizer(final char[] input) {
+        this(input, new SymbolTable(), ForkJoinPool.commonPool(),
+                Math.max(MIN_CHUNK_SIZE, input.length / (ForkJoinPool.commonPool().getParallelism() * 4)));
+    }
+
+    /**
+     * Chunks are about chunkSize characters, inputs with fewer than two chunks are scanned
+     * serially.
+     */
+    public ParallelTokenizer(final char[] input, final SymbolTable symbols, final ForkJoinPool pool, final int chunkSize) {
+        this.input = input;
+        this.symbols = symbols;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    public SymbolTable getSymbolTable() {
+        return symbols;
+    }
+
+    // One chunk of the input, scanned with its own SymbolTable.
+    private static class Chunk extends RecursiveAction {
+        private final char[] input;
+        private final int start;
+        private final int end;
+        private final SymbolTable symbols = new SymbolTable();
+        private Token[] tokens;
+        private int count;
+        // Tokens up to and including the last line break, and where the scan can resume after them
+        private int cleanCount;
+        private int cleanEnd;
+        private boolean failed;
+
+        private Chunk(final char[] input, final int start, final int end) {
+            this.input = input;
+            this.start = start;
+            this.end = end;
+            this.cleanEnd = start;
+            // Scripts have about one token per three or four characters, so this rarely grows.
+            this.tokens = new Token[Math.max(16, (end - start) / 3)];
+        }
+
+        @Override
+        protected void compute() {
+            final Tokenizer tokenizer = new Tokenizer(input, start, end, 1, symbols);
+            try {
+                Token token;
+                while((token = tokenizer.nextToken()) != null) {
+                    if(count == tokens.length) {
+                        Token[] larger = new Token[count * 2];
+                        System.arraycopy(tokens, 0, larger, 0, count);
+                        tokens = larger;
+                    }
+                    tokens[count++] = token;
+                    if(token == SymbolToken.TK_LINE_BREAK) {
+                        cleanCount = count;
+                        cleanEnd = tokenizer.getTokenOffset() + 1;
+                    }
+                }
+            } catch (TokenizerException e) {
+                // Might only be the cut, e.g. a string literal running into the next chunk.
+                // The serial scan in tokenize reports it if it is real.
+                failed = true;
+            }
+        }
+
+        // true if the scanner is between tokens at end, which is where the next chunk starts.
+        private boolean endsClean() {
+            return !failed && cleanCount == count && cleanEnd == end;
+        }
+    }
+
+    private List<Chunk> split() {
+        final List<Chunk> chunks = new ArrayList<>();
+        int start = 0;
+        while(start < input.length) {
+            int end = start + chunkSize;
+            while(end < input.length && input[end - 1] != '\n') {
+                end++;
+            }
+            end = Math.min(end, input.length);
+            chunks.add(new Chunk(input, start, end));
+            start = end;
+        }
+        return chunks;
+    }
+
+    public List<Token> tokenize() throws TokenizerException {
+        final List<Chunk> chunks = split();
+        if(chunks.size() < 2) {
+            return new Tokenizer(input, symbols).tokenize();
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(chunks);
+            }
+        });
+
+        int total = 0;
+        for(Chunk chunk : chunks) {
+            total += chunk.count;
+        }
+        final List<Token> result = new ArrayList<>(total);
+        int index = 0;
+        while(index < chunks.size()) {
+            final Chunk chunk = chunks.get(index);
+            // chunk starts between tokens, so its clean prefix matches the serial scan. All of it
+            // does if it ends between tokens too, or at the end of the input.
+            final boolean complete = chunk.endsClean() || (!chunk.failed && chunk.end == input.length);
+            final int take = complete ? chunk.count : chunk.cleanCount;
+            final VariableToken[] remap = new VariableToken[chunk.symbols.size()];
+            for(int i = 0; i < take; i++) {
+                Token token = chunk.tokens[i];
+                if(token instanceof VariableToken) {
+                    token = remap((VariableToken) token, remap);
+                } else if(token instanceof StringToken && ((StringToken) token).getInterpolations() != null) {
+                    final StringToken string = (StringToken) token;
+                    final Token[] interpolations = string.getInterpolations().clone();
+                    for(int j = 0; j < interpolations.length; j++) {
+                        if(interpolations[j] instanceof VariableToken) {
+                            interpolations[j] = remap((VariableToken) interpolations[j], remap);
+                        }
+                    }
+                    token = new StringToken(string.getValue(), string.getSegments(), interpolations);
+                }
+                result.add(token);
+            }
+            if(complete) {
+                index++;
+            } else {
+                index = rescan(chunk.cleanEnd, chunks, index + 1, result);
+            }
+        }
+        return result;
+    }
+
+    // Ids have to follow the order of first appearance in the whole input.
+    private VariableToken remap(final VariableToken token, final VariableToken[] remap) {
+        final int id = token.getId();
+        if(remap[id] == null) {
+            remap[id] = symbols.intern(token.getName());
+        }
+        return remap[id];
+    }
+
+    // Scans serially from resume until a line break token ends right before the start of a chunk,
+    // returns the index of that chunk or chunks.size() if the scan reached the end of the input.
+    private int rescan(final int resume, final List<Chunk> chunks, int next, final List<Token> result) throws TokenizerException {
+        final Tokenizer tokenizer = new Tokenizer(input, resume, input.length, 1, symbols);
+        Token token;
+        while((token = tokenizer.nextToken()) != null) {
+            result.add(token);
+            final int tokenStart = tokenizer.getTokenOffset();
+            while(next < chunks.size() && chunks.get(next).start <= tokenStart) {
+                next++;
+            }
+            if(token == SymbolToken.TK_LINE_BREAK && next < chunks.size() && chunks.get(next).start == tokenStart + 1) {
+                return next;
+            }
+        }
+        return chunks.size();
+    }
+}
@@ -2,15 +2,41 @@ package com.github.wangdong20.kotlinscriptcompiler.token;
 
 public class StringToken implements Token {
     private final String value;
+    // Set by the tokenizer for a string with "$x" or "${...}" in it: the literal text around the
+    // interpolations, and the tokens of each interpolation, each followed by a null.
+    private final String[] segments;
+    private final Token[] interpolations;
 
     public StringToken(String value) {
+        this(value, null, null);
+    }
+
+    StringToken(String value, String[] segments, Token[] interpolations) {
         this.value = value;
+        this.segments = segments;
+        this.interpolations = interpolations;
     }
 
     public String getValue() {
         return value;
     }
 
+    /**
+     * The literal parts of a string template, one more than it has interpolations, or null if
+     * the string was not split by a tokenizer.
+     */
+    public String[] getSegments() {
+        return segments;
+    }
+
+    /**
+     * The tokens of all interpolations in order, each interpolation ends with a null, or null
+     * like getSegments.
+     */
+    public Token[] getInterpolations() {
+        return interpolations;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if(obj instanceof StringToken) {
@@ -21,6 +47,11 @@ public class StringToken implements Token {
         return false;
     }
 
+    @Override
+    public int hashCode() {
+        return value.hashCode();
+    }
+
     @Override
     public String toString() {
         return "StringToken{" +
@@ -0,0 +1,136 @@
+package com.github.wangdong20.kotlinscriptcompiler.token;
+
+/**
+ * Interns identifiers for one compilation: every occurrence of a name maps to the same
+ * VariableToken, and tokens are numbered 0, 1, 2, ... in order of first appearance so later
+ * stages can index arrays by id. Not thread safe, each compilation uses its own table.
+ */
+public class SymbolTable {
+    private VariableToken[] slots = new VariableToken[64];  // open addressing, keyed by name
+    private VariableToken[] byId = new VariableToken[32];
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public VariableToken get(final int id) {
+        return byId[id];
+    }
+
+    /**
+     * true if token was handed out by this table, so its id can be used as is.
+     */
+    public boolean owns(final VariableToken token) {
+        final int id = token.getId();
+        return id >= 0 && id < size && byId[id] == token;
+    }
+
+    public VariableToken intern(final String name) {
+        final int hash = name.hashCode();
+        int slot = hash & (slots.length - 1);
+        VariableToken token;
+        while((token = slots[slot]) != null) {
+            if(token.getName().equals(name)) {
+                return token;
+            }
+            slot = (slot + 1) & (slots.length - 1);
+        }
+        return add(slot, name);
+    }
+
+    /**
+     * Same as intern(new String(chars, offset, length)), but the String is only built for names
+     * which are not in the table yet.
+     */
+    public VariableToken intern(final char[] chars, final int offset, final int length) {
+        int hash = 0;   // same as String.hashCode
+        for(int i = 0; i < length; i++) {
+            hash = 31 * hash + chars[offset + i];
+        }
+        int slot = hash & (slots.length - 1);
+        VariableToken token;
+        while((token = slots[slot]) != null) {
+            if(matches(token.getName(), chars, offset, length)) {
+                return token;
+            }
+            slot = (slot + 1) & (slots.length - 1);
+        }
+        return add(slot, new String(chars, offset, length));
+    }
+
+    /**
+     * Same as intern(chars, offset, length) for a name stored as ASCII bytes. Names with other
+     * characters have to be decoded and passed as a String.
+     */
+    public VariableToken intern(final byte[] bytes, final int offset, final int length) {
+        int hash = 0;
+        for(int i = 0; i < length; i++) {
+            hash = 31 * hash + bytes[offset + i];
+        }
+        int slot = hash & (slots.length - 1);
+        VariableToken token;
+        while((token = slots[slot]) != null) {
+            if(matches(token.getName(), bytes, offset, length)) {
+                return token;
+            }
+            slot = (slot + 1) & (slots.length - 1);
+        }
+        final char[] chars = new char[length];
+        for(int i = 0; i < length; i++) {
+            chars[i] = (char) bytes[offset + i];
+        }
+        return add(slot, new String(chars));
+    }
+
+    private static boolean matches(final String name, final byte[] bytes, final int offset, final int length) {
+        if(name.length() != length) {
+            return false;
+        }
+        for(int i = 0; i < length; i++) {
+            if(name.charAt(i) != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(final String name, final char[] chars, final int offset, final int length) {
+        if(name.length() != length) {
+            return false;
+        }
+        for(int i = 0; i < length; i++) {
+            if(name.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private VariableToken add(final int slot, final String name) {
+        final VariableToken token = new VariableToken(name, size);
+        if(size == byId.length) {
+            VariableToken[] larger = new VariableToken[size * 2];
+            System.arraycopy(byId, 0, larger, 0, size);
+            byId = larger;
+        }
+        byId[size++] = token;
+        slots[slot] = token;
+        if(size * 2 > slots.length) {
+            rehash();
+        }
+        return token;
+    }
+
+    private void rehash() {
+        VariableToken[] larger = new VariableToken[slots.length * 2];
+        for(int id = 0; id < size; id++) {
+            int slot = byId[id].getName().hashCode() & (larger.length - 1);
+            while(larger[slot] != null) {
+                slot = (slot + 1) & (larger.length - 1);
+            }
+            larger[slot] = byId[id];
+        }
+        slots = larger;
+    }
+}
@@ -0,0 +1,182 @@
+package com.github.wangdong20.kotlinscriptcompiler.token;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * All tokens of an input with their positions, stored as parallel int arrays: kind, offset,
+ * length and line, 16 bytes per token. A kind indexes a side table of distinct tokens, so an
+ * identifier, number or string which occurs many times is stored once and get returns the same
+ * object every time without allocating.
+ *
+ * Kinds below FIXED_KINDS are the keyword, operator and symbol tokens, in the same order for
+ * every buffer. Kinds from FIXED_KINDS on are given to the other tokens as they first appear.
+ */
+public class TokenBuffer implements TokenStream {
+    private static final Token[] fixedTokens;
+    public static final int FIXED_KINDS;
+
+    private final SymbolTable symbols;
+    private final List<Token> values;
+    private final Map<Token, Integer> kindOf;
+    // Kind of each identifier of symbols plus one, indexed by id, so identifiers skip the map
+    private int[] identifierKinds = new int[32];
+    private int[] kinds = new int[64];
+    private int[] offsets = new int[64];
+    private int[] lengths = new int[64];
+    private int[] lines = new int[64];
+    private int size;
+
+    static {
+        List<Token> fixed = new ArrayList<>();
+        fixed.addAll(Arrays.asList(BinopToken.values()));
+        fixed.addAll(Arrays.asList(BracketsToken.values()));
+        fixed.addAll(Arrays.asList(KeywordToken.values()));
+        fixed.addAll(Arrays.asList(SymbolToken.values()));
+        fixed.addAll(Arrays.asList(TypeToken.values()));
+        fixed.addAll(Arrays.asList(UnopToken.values()));
+        fixedTokens = fixed.toArray(new Token[0]);
+        FIXED_KINDS = fixedTokens.length;
+    }
+
+    public TokenBuffer(final SymbolTable symbols) {
+        this.symbols = symbols;
+        this.values = new ArrayList<>(Arrays.asList(fixedTokens));
+        this.kindOf = new HashMap<>();
+        for(int kind = 0; kind < fixedTokens.length; kind++) {
+            kindOf.put(fixedTokens[kind], kind);
+        }
+    }
+
+    /**
+     * Reads every token of source.
+     */
+    public static TokenBuffer tokenize(final TokenSource source) throws TokenizerException {
+        final TokenBuffer buffer = new TokenBuffer(source.getSymbolTable());
+        Token token;
+        while((token = source.nextToken()) != null) {
+            buffer.add(token, source.getTokenOffset(), source.getTokenLength(), source.getTokenLine());
+        }
+        buffer.trim();
+        return buffer;
+    }
+
+    public void add(final Token token, final int offset, final int length, final int line) {
+        final int kind = kindOf(token);
+        if(size == kinds.length) {
+            final int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+        }
+        kinds[size] = kind;
+        offsets[size] = offset;
+        lengths[size] = length;
+        lines[size] = line;
+        size++;
+    }
+
+    private int kindOf(final Token token) {
+        if(token instanceof VariableToken && symbols != null && symbols.owns((VariableToken) token)) {
+            final int id = ((VariableToken) token).getId();
+            if(id >= identifierKinds.length) {
+                identifierKinds = Arrays.copyOf(identifierKinds, Math.max(id + 1, identifierKinds.length * 2));
+            }
+            if(identifierKinds[id] == 0) {
+                identifierKinds[id] = values.size() + 1;
+                values.add(token);
+            }
+            return identifierKinds[id] - 1;
+        }
+        Integer kind = kindOf.get(token);
+        if(kind == null) {
+            kind = values.size();
+            values.add(token);
+            kindOf.put(token, kind);
+        }
+        return kind;
+    }
+
+    /**
+     * Replaces the tokens [from, to) with the first count of tokens, offsets, lengths and lines,
+     * and moves every token after them by offsetDelta characters and lineDelta lines. Used by
+     * IncrementalLexer after an edit.
+     */
+    void replace(final int from, final int to, final Token[] tokens, final int[] offsets, final int[] lengths,
+                 final int[] lines, final int count, final int offsetDelta, final int lineDelta) {
+        final int tail = size - to;
+        final int newSize = from + count + tail;
+        if(newSize > kinds.length) {
+            final int capacity = Math.max(newSize, kinds.length + (kinds.length >> 1));
+            this.kinds = Arrays.copyOf(this.kinds, capacity);
+            this.offsets = Arrays.copyOf(this.offsets, capacity);
+            this.lengths = Arrays.copyOf(this.lengths, capacity);
+            this.lines = Arrays.copyOf(this.lines, capacity);
+        }
+        System.arraycopy(this.kinds, to, this.kinds, from + count, tail);
+        System.arraycopy(this.offsets, to, this.offsets, from + count, tail);
+        System.arraycopy(this.lengths, to, this.lengths, from + count, tail);
+        System.arraycopy(this.lines, to, this.lines, from + count, tail);
+        for(int i = from + count; i < newSize; i++) {
+            this.offsets[i] += offsetDelta;
+            this.lines[i] += lineDelta;
+        }
+        for(int i = 0; i < count; i++) {
+            this.kinds[from + i] = kindOf(tokens[i]);
+            this.offsets[from + i] = offsets[i];
+            this.lengths[from + i] = lengths[i];
+            this.lines[from + i] = lines[i];
+        }
+        size = newSize;
+    }
+
+    // Drops the spare capacity once all tokens are in.
+    private void trim() {
+        kinds = Arrays.copyOf(kinds, size);
+        offsets = Arrays.copyOf(offsets, size);
+        lengths = Arrays.copyOf(lengths, size);
+        lines = Arrays.copyOf(lines, size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Token get(final int position) {
+        return position < size ? values.get(kinds[position]) : null;
+    }
+
+    public int getKind(final int position) {
+        return kinds[position];
+    }
+
+    /**
+     * The token a kind stands for.
+     */
+    public Token getToken(final int kind) {
+        return values.get(kind);
+    }
+
+    public int getOffset(final int position) {
+        return offsets[position];
+    }
+
+    public int getLength(final int position) {
+        return lengths[position];
+    }
+
+    @Override
+    public int getLine(final int position) {
+        return position < size ? lines[position] : 0;
+    }
+
+    @Override
+    public SymbolTable getSymbolTable() {
+        return symbols;
+    }
+}
@@ -0,0 +1,25 @@
+package com.github.wangdong20.kotlinscriptcompiler.token;
+
+/**
+ * Produces tokens one at a time, e.g. Tokenizer over characters or Utf8Tokenizer over bytes.
+ */
+public interface TokenSource {
+    /**
+     * The next token, or null once the input is used up.
+     */
+    Token nextToken() throws TokenizerException;
+
+    SymbolTable getSymbolTable();
+
+    /**
+     * Where the token last returned by nextToken starts, counted from the start of the input.
+     */
+    int getTokenOffset();
+
+    int getTokenLength();
+
+    /**
+     * Line of the token last returned by nextToken, counting from 1.
+     */
+    int getTokenLine();
+}
@@ -0,0 +1,28 @@
+package com.github.wangdong20.kotlinscriptcompiler.token;
+
+/**
+ * Tokens as the parser sees them: addressed by position, with null past the last token.
+ */
+public interface TokenStream {
+    Token get(final int position) throws TokenizerException;
+
+    /**
+     * Tells the stream that tokens before position will not be asked for again.
+     */
+    default void release(final int position) {
+    }
+
+    /**
+     * The table the identifiers of this stream were interned into, null if they were not.
+     */
+    default SymbolTable getSymbolTable() {
+        return null;
+    }
+
+    /**
+     * Source line of the token at position, counting from 1, or 0 if the stream does not know.
+     */
+    default int getLine(final int position) {
+        return 0;
+    }
+}
@@ -1,411 +1,597 @@
 package com.github.wangdong20.kotlinscriptcompiler.token;
 
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
-public class Tokenizer {
-    private static char[] input;
+public class Tokenizer implements TokenSource {
+    // Lookup tables are only written in the static initializer, so they can be shared by every
+    // Tokenizer instance and by Utf8Tokenizer. Everything that changes while scanning lives in the
+    // instance.
+    // Keywords and type names are looked up on the input chars directly, grouped by first letter,
+    // so no String is built for them.
+    static final char[][][] wordsByFirstChar = new char[128][][];
+    static final Token[][] wordTokensByFirstChar = new Token[128][];
+    // Brackets and symbols which are always one character long
+    static final Token[] singleCharTokens = new Token[128];
+
+    // Character classes, the columns of the transition table. Characters above 127 are classified
+    // by charClass.
+    static final int C_OTHER = 0;
+    static final int C_SPACE = 1;
+    private static final int C_LETTER = 2;
+    private static final int C_DIGIT = 3;
+    private static final int C_QUOTE = 4;
+    private static final int C_SINGLE = 5;
+    private static final int C_PLUS = 6;
+    private static final int C_MINUS = 7;
+    private static final int C_BANG = 8;
+    private static final int C_EQUAL = 9;
+    private static final int C_GREATER = 10;
+    private static final int C_LESS = 11;
+    private static final int C_STAR = 12;
+    private static final int C_SLASH = 13;
+    private static final int C_PIPE = 14;
+    private static final int C_AMP = 15;
+    private static final int C_DOT = 16;
+    private static final int C_PERCENT = 17;
+    private static final int CLASS_COUNT = 18;
+    static final byte[] charClasses = new byte[128];
+
+    // States of the lexer, the rows of the transition table. acceptTokens holds the token a
+    // state stands for when the scan stops there, states without one are handled in tokenizeOne.
+    static final int S_STOP = -1;
+    static final int S_START = 0;
+    static final int S_SINGLE = 1;
+    static final int S_IDENT = 2;
+    static final int S_NUMBER = 3;
+    private static final int S_STRING = 4;
+    static final int S_STRING_END = 5;
+    private static final int S_PLUS = 6;
+    private static final int S_PLUS_PLUS = 7;
+    private static final int S_PLUS_EQUAL = 8;
+    private static final int S_MINUS = 9;
+    private static final int S_MINUS_MINUS = 10;
+    private static final int S_MINUS_EQUAL = 11;
+    private static final int S_ARROW = 12;
+    private static final int S_NOT = 13;
+    private static final int S_NOT_EQUAL = 14;
+    private static final int S_EQUAL = 15;
+    private static final int S_EQUAL_EQUAL = 16;
+    static final int S_GREATER = 17;
+    static final int S_GREATER_EQUAL = 18;
+    private static final int S_LESS = 19;
+    private static final int S_LESS_EQUAL = 20;
+    private static final int S_MULTIPLY = 21;
+    private static final int S_MULTIPLY_EQUAL = 22;
+    private static final int S_DIVIDE = 23;
+    private static final int S_DIVIDE_EQUAL = 24;
+    private static final int S_PIPE = 25;
+    private static final int S_OR = 26;
+    private static final int S_AMP = 27;
+    private static final int S_AND = 28;
+    private static final int S_DOT = 29;
+    private static final int S_DOT_DOT = 30;
+    private static final int S_MOD = 31;
+    private static final int STATE_COUNT = 32;
+    static final int[][] transitions = new int[STATE_COUNT][CLASS_COUNT];
+    static final Token[] acceptTokens = new Token[STATE_COUNT];
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int NO_TOKEN = -1;
+
+    // When the tokenizer reads from a source, input is a window over it: the valid characters are
+    // input[0, limit) and the window slides forward as tokens are consumed.
+    private final Readable source;
+    private final SymbolTable symbols;
+    private boolean sourceDrained;
+    private char[] input;
+    private int limit;
     private int inputPos;
-    private static Map<String, Token> keywordMap;
-    private static Map<String, Token> bracketsMap;
-    private static Map<String, Token> binopMap;
-    private static Map<String, Token> unopMap;
-    private static Map<String, Token> symbolMap;
-    private static Map<String, Token> typeMap;
+    // Where the token being scanned starts, lexemes are sliced from here instead of being copied
+    // one character at a time.
+    private int tokenStart = NO_TOKEN;
+    // Characters dropped from the front of the window so far, so offsets count from the start of
+    // the source. Lines count from 1 and are those of the token last returned.
+    private int dropped;
+    private int line = 1;
+    private int tokenLine;
 
     static {
-        keywordMap = new HashMap<String, Token>();
-        keywordMap.put("if", KeywordToken.TK_IF);
-        keywordMap.put("else", KeywordToken.TK_ELSE);
-        keywordMap.put("break", KeywordToken.TK_BREAK);
-        keywordMap.put("continue", KeywordToken.TK_CONTINUE);
-        keywordMap.put("while", KeywordToken.TK_WHILE);
-        keywordMap.put("for", KeywordToken.TK_FOR);
-        keywordMap.put("fun", KeywordToken.TK_FUN);
-        keywordMap.put("var", KeywordToken.TK_VAR);
-        keywordMap.put("val", KeywordToken.TK_VAL);
-        keywordMap.put("in", KeywordToken.TK_IN);
-        keywordMap.put("step", KeywordToken.TK_STEP);
-        keywordMap.put("return", KeywordToken.TK_RETURN);
-        keywordMap.put("print", KeywordToken.TK_PRINT);
-        keywordMap.put("println", KeywordToken.TK_PRINTLN);
-        keywordMap.put("true", KeywordToken.TK_TRUE);
-        keywordMap.put("false", KeywordToken.TK_FALSE);
-        keywordMap.put("main", KeywordToken.TK_MAIN);
-        keywordMap.put("arrayOf", KeywordToken.TK_ARRAY_OF);
-        keywordMap.put("mutableListOf", KeywordToken.TK_MUTABLE_LIST_OF);
-
-        bracketsMap = new HashMap<String, Token>();
-        bracketsMap.put("(", BracketsToken.TK_LPAREN);
-        bracketsMap.put(")", BracketsToken.TK_RPAREN);
-        bracketsMap.put("{", BracketsToken.TK_LCURLY);
-        bracketsMap.put("}", BracketsToken.TK_RCURLY);
-        bracketsMap.put("[", BracketsToken.TK_LBRACKET);
-        bracketsMap.put("]", BracketsToken.TK_RBRACKET);
+        addWord("if", KeywordToken.TK_IF);
+        addWord("else", KeywordToken.TK_ELSE);
+        addWord("break", KeywordToken.TK_BREAK);
+        addWord("continue", KeywordToken.TK_CONTINUE);
+        addWord("while", KeywordToken.TK_WHILE);
+        addWord("for", KeywordToken.TK_FOR);
+        addWord("fun", KeywordToken.TK_FUN);
+        addWord("var", KeywordToken.TK_VAR);
+        addWord("val", KeywordToken.TK_VAL);
+        addWord("in", KeywordToken.TK_IN);
+        addWord("step", KeywordToken.TK_STEP);
+        addWord("return", KeywordToken.TK_RETURN);
+        addWord("print", KeywordToken.TK_PRINT);
+        addWord("println", KeywordToken.TK_PRINTLN);
+        addWord("true", KeywordToken.TK_TRUE);
+        addWord("false", KeywordToken.TK_FALSE);
+        addWord("main", KeywordToken.TK_MAIN);
+        addWord("arrayOf", KeywordToken.TK_ARRAY_OF);
+        addWord("mutableListOf", KeywordToken.TK_MUTABLE_LIST_OF);
+
+        addWord("Int", TypeToken.TK_TYPE_INT);
+        addWord("String", TypeToken.TK_TYPE_STRING);
+        addWord("Boolean", TypeToken.TK_TYPE_BOOLEAN);
+        addWord("Unit", TypeToken.TK_TYPE_UNIT);
+        addWord("Array", TypeToken.TK_ARRAY);
+        addWord("MutableList", TypeToken.TK_MUTABLE_LIST);
+        addWord("Any", TypeToken.TK_ANY);
+        // I think high order function token will be a class not a enum case, so will not add this token
 
+        singleCharTokens['('] = BracketsToken.TK_LPAREN;
+        singleCharTokens[')'] = BracketsToken.TK_RPAREN;
+        singleCharTokens['{'] = BracketsToken.TK_LCURLY;
+        singleCharTokens['}'] = BracketsToken.TK_RCURLY;
+        singleCharTokens['['] = BracketsToken.TK_LBRACKET;
+        singleCharTokens[']'] = BracketsToken.TK_RBRACKET;
         // Angle brackets may have conflict with greater, less token, so comment first
-//        bracketsMap.put("<", BracketsToken.TK_LANGLE);
-//        bracketsMap.put(">", BracketsToken.TK_RANGLE);
-
-        binopMap = new HashMap<String, Token>();
-        binopMap.put("+", BinopToken.TK_PLUS);
-        binopMap.put("-", BinopToken.TK_MINUS);
-        binopMap.put("*", BinopToken.TK_MULTIPLY);
-        binopMap.put("/", BinopToken.TK_DIVIDE);
-        binopMap.put("%", BinopToken.TK_MOD);
-        binopMap.put("+=", BinopToken.TK_PLUS_EQUAL);
-        binopMap.put("-=", BinopToken.TK_MINUS_EQUAL);
-        binopMap.put("*=", BinopToken.TK_MULTIPLY_EQUAL);
-        binopMap.put("/=", BinopToken.TK_DIVIDE_EQUAL);
-        binopMap.put("||", BinopToken.TK_OR);
-        binopMap.put("&&", BinopToken.TK_AND);
-        binopMap.put("!=", BinopToken.TK_NOT_EQUAL);
-        binopMap.put(">", BinopToken.TK_GREATER_THAN);
-        binopMap.put("<", BinopToken.TK_LESS_THAN);
-        binopMap.put("==", BinopToken.TK_EQUAL_EQUAL);
-        binopMap.put(">=", BinopToken.TK_GREATER_OR_EQUAL);
-        binopMap.put("<=", BinopToken.TK_LESS_OR_EQUAL);
-        binopMap.put("=", BinopToken.TK_EQUAL);
-
-        unopMap = new HashMap<String, Token>();
-        unopMap.put("!", UnopToken.TK_NOT);
-        unopMap.put("++", UnopToken.TK_PLUS_PLUS);
-        unopMap.put("--", UnopToken.TK_MINUS_MINUS);
-
-        symbolMap = new HashMap<String, Token>();
-        symbolMap.put(":", SymbolToken.TK_COLON);
-        symbolMap.put(";", SymbolToken.TK_SEMICOLON);
-        symbolMap.put("\n", SymbolToken.TK_LINE_BREAK);
-        symbolMap.put("->", SymbolToken.TK_ARROW);
-        symbolMap.put(",", SymbolToken.TK_COMMA);
-        symbolMap.put(".", SymbolToken.TK_DOT);
-        symbolMap.put("..", SymbolToken.TK_DOT_DOT);
-        symbolMap.put("$", SymbolToken.TK_DOLLAR_MARK);
-
-
-        typeMap = new HashMap<String, Token>();
-        typeMap.put("Int", TypeToken.TK_TYPE_INT);
-        typeMap.put("String", TypeToken.TK_TYPE_STRING);
-        typeMap.put("Boolean", TypeToken.TK_TYPE_BOOLEAN);
-        typeMap.put("Unit", TypeToken.TK_TYPE_UNIT);
-        typeMap.put("Array", TypeToken.TK_ARRAY);
-        typeMap.put("MutableList", TypeToken.TK_MUTABLE_LIST);
-        typeMap.put("Any", TypeToken.TK_ANY);
-        // I think high order function token will be a class not a enum case, so will not add this token
+//        singleCharTokens['<'] = BracketsToken.TK_LANGLE;
+//        singleCharTokens['>'] = BracketsToken.TK_RANGLE;
+
+        singleCharTokens['\n'] = SymbolToken.TK_LINE_BREAK;
+        singleCharTokens[';'] = SymbolToken.TK_SEMICOLON;
+        singleCharTokens[':'] = SymbolToken.TK_COLON;
+        singleCharTokens[','] = SymbolToken.TK_COMMA;
+        singleCharTokens['$'] = SymbolToken.TK_DOLLAR_MARK;
+
+        for(char c = 0; c < charClasses.length; c++) {
+            if(singleCharTokens[c] != null) {   // includes '\n', which is a token, not white space
+                charClasses[c] = C_SINGLE;
+            } else if(Character.isWhitespace(c)) {
+                charClasses[c] = C_SPACE;
+            } else if(Character.isLetter(c)) {
+                charClasses[c] = C_LETTER;
+            } else if(Character.isDigit(c)) {
+                charClasses[c] = C_DIGIT;
+            }
+        }
+        charClasses['"'] = C_QUOTE;
+        charClasses['+'] = C_PLUS;
+        charClasses['-'] = C_MINUS;
+        charClasses['!'] = C_BANG;
+        charClasses['='] = C_EQUAL;
+        charClasses['>'] = C_GREATER;
+        charClasses['<'] = C_LESS;
+        charClasses['*'] = C_STAR;
+        charClasses['/'] = C_SLASH;
+        charClasses['|'] = C_PIPE;
+        charClasses['&'] = C_AMP;
+        charClasses['.'] = C_DOT;
+        charClasses['%'] = C_PERCENT;
+
+        for(int[] row : transitions) {
+            Arrays.fill(row, S_STOP);
+        }
+        transitions[S_START][C_SINGLE] = S_SINGLE;
+        transitions[S_START][C_LETTER] = S_IDENT;
+        transitions[S_IDENT][C_LETTER] = S_IDENT;
+        transitions[S_IDENT][C_DIGIT] = S_IDENT;
+        transitions[S_START][C_DIGIT] = S_NUMBER;
+        transitions[S_NUMBER][C_DIGIT] = S_NUMBER;
+        transitions[S_START][C_QUOTE] = S_STRING;
+        Arrays.fill(transitions[S_STRING], S_STRING);
+        transitions[S_STRING][C_QUOTE] = S_STRING_END;
+
+        addOperator(S_START, C_PLUS, S_PLUS, BinopToken.TK_PLUS);
+        addOperator(S_PLUS, C_PLUS, S_PLUS_PLUS, UnopToken.TK_PLUS_PLUS);
+        addOperator(S_PLUS, C_EQUAL, S_PLUS_EQUAL, BinopToken.TK_PLUS_EQUAL);
+        addOperator(S_START, C_MINUS, S_MINUS, BinopToken.TK_MINUS);
+        addOperator(S_MINUS, C_MINUS, S_MINUS_MINUS, UnopToken.TK_MINUS_MINUS);
+        addOperator(S_MINUS, C_EQUAL, S_MINUS_EQUAL, BinopToken.TK_MINUS_EQUAL);
+        addOperator(S_MINUS, C_GREATER, S_ARROW, SymbolToken.TK_ARROW);
+        transitions[S_MINUS][C_DIGIT] = S_NUMBER;   // negative integer
+        addOperator(S_START, C_BANG, S_NOT, UnopToken.TK_NOT);
+        addOperator(S_NOT, C_EQUAL, S_NOT_EQUAL, BinopToken.TK_NOT_EQUAL);
+        addOperator(S_START, C_EQUAL, S_EQUAL, BinopToken.TK_EQUAL);
+        addOperator(S_EQUAL, C_EQUAL, S_EQUAL_EQUAL, BinopToken.TK_EQUAL_EQUAL);
+        addOperator(S_START, C_GREATER, S_GREATER, BinopToken.TK_GREATER_THAN);
+        addOperator(S_GREATER, C_EQUAL, S_GREATER_EQUAL, BinopToken.TK_GREATER_OR_EQUAL);
+        addOperator(S_START, C_LESS, S_LESS, BinopToken.TK_LESS_THAN);
+        addOperator(S_LESS, C_EQUAL, S_LESS_EQUAL, BinopToken.TK_LESS_OR_EQUAL);
+        addOperator(S_START, C_STAR, S_MULTIPLY, BinopToken.TK_MULTIPLY);
+        addOperator(S_MULTIPLY, C_EQUAL, S_MULTIPLY_EQUAL, BinopToken.TK_MULTIPLY_EQUAL);
+        addOperator(S_START, C_SLASH, S_DIVIDE, BinopToken.TK_DIVIDE);
+        addOperator(S_DIVIDE, C_EQUAL, S_DIVIDE_EQUAL, BinopToken.TK_DIVIDE_EQUAL);
+        addOperator(S_START, C_PIPE, S_PIPE, null);
+        addOperator(S_PIPE, C_PIPE, S_OR, BinopToken.TK_OR);
+        addOperator(S_START, C_AMP, S_AMP, null);
+        addOperator(S_AMP, C_AMP, S_AND, BinopToken.TK_AND);
+        addOperator(S_START, C_DOT, S_DOT, SymbolToken.TK_DOT);
+        addOperator(S_DOT, C_DOT, S_DOT_DOT, SymbolToken.TK_DOT_DOT);
+        addOperator(S_START, C_PERCENT, S_MOD, BinopToken.TK_MOD);
+    }
+
+    private static void addOperator(final int from, final int charClass, final int to, final Token token) {
+        transitions[from][charClass] = to;
+        acceptTokens[to] = token;
+    }
+
+    static int charClass(final char c) {
+        if(c < charClasses.length) {
+            return charClasses[c];
+        } else if(Character.isLetter(c)) {
+            return C_LETTER;
+        } else if(Character.isDigit(c)) {
+            return C_DIGIT;
+        } else if(Character.isWhitespace(c)) {
+            return C_SPACE;
+        } else {
+            return C_OTHER;
+        }
+    }
+
+    private static void addWord(final String word, final Token token) {
+        final char first = word.charAt(0);
+        final char[][] words = wordsByFirstChar[first];
+        final int count = words == null ? 0 : words.length;
+        final char[][] newWords = new char[count + 1][];
+        final Token[] newTokens = new Token[count + 1];
+        if(count > 0) {
+            System.arraycopy(words, 0, newWords, 0, count);
+            System.arraycopy(wordTokensByFirstChar[first], 0, newTokens, 0, count);
+        }
+        newWords[count] = word.toCharArray();
+        newTokens[count] = token;
+        wordsByFirstChar[first] = newWords;
+        wordTokensByFirstChar[first] = newTokens;
     }
 
     public Tokenizer(final String input) {
-        this.input = input.toCharArray();
-        this.inputPos = 0;
+        this(input.toCharArray());
     }
 
     public Tokenizer(final char[] input) {
+        this(input, new SymbolTable());
+    }
+
+    /**
+     * Identifiers are interned into symbols, which can be shared with other tokenizers of the
+     * same compilation.
+     */
+    public Tokenizer(final String input, final SymbolTable symbols) {
+        this(input.toCharArray(), symbols);
+    }
+
+    public Tokenizer(final char[] input, final SymbolTable symbols) {
+        this(input, 0, input.length, 1, symbols);
+    }
+
+    // Scans input[start, end) only, with line the line at start. ParallelTokenizer uses this for
+    // its chunks and IncrementalLexer for edited ranges.
+    Tokenizer(final char[] input, final int start, final int end, final int line, final SymbolTable symbols) {
+        this.source = null;
+        this.symbols = symbols;
         this.input = input;
-        this.inputPos = 0;
+        this.limit = end;
+        this.inputPos = start;
+        this.line = line;
     }
 
-    private IntToken tryTokenizeInteger() {
-        String digits = "";
+    /**
+     * Reads characters from source (a Reader or CharBuffer) only as tokens are requested,
+     * so the whole input never has to be in memory.
+     */
+    public Tokenizer(final Readable source) {
+        this(source, new SymbolTable());
+    }
 
-        if(inputPos < input.length && input[inputPos] == '-' && inputPos + 1 < input.length &&
-            Character.isDigit(input[inputPos + 1])) {
-            digits += input[inputPos];
-            inputPos++;
-        }
+    public Tokenizer(final Readable source, final SymbolTable symbols) {
+        this.source = source;
+        this.symbols = symbols;
+        this.input = new char[BUFFER_SIZE];
+        this.limit = 0;
+        this.inputPos = 0;
+    }
 
-        while(inputPos < input.length && Character.isDigit(input[inputPos])) {
-            digits += input[inputPos];
-            inputPos++;
-        }
+    /**
+     * Decodes UTF-8 from channel, e.g. a FileChannel, as tokens are requested.
+     */
+    public Tokenizer(final ReadableByteChannel channel) {
+        this(Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), -1));
+    }
 
-        if(digits.length() > 0) {
-            return new IntToken(Integer.parseInt(digits));
-        }
-        return null;
+    @Override
+    public SymbolTable getSymbolTable() {
+        return symbols;
     }
 
-    private Token tryTokenizeVariableOrKeywordOrType() {
-        String letters = "";
+    @Override
+    public int getTokenOffset() {
+        return dropped + tokenStart;
+    }
 
-        if(inputPos < input.length && Character.isLetter(input[inputPos])) {
-            letters += input[inputPos];
-            inputPos++;
+    @Override
+    public int getTokenLength() {
+        return inputPos - tokenStart;
+    }
 
-            while(inputPos < input.length && Character.isLetterOrDigit(input[inputPos])) {
-                letters += input[inputPos];
-                inputPos++;
-            }
+    @Override
+    public int getTokenLine() {
+        return tokenLine;
+    }
 
-            // Now consider all the keyword case
-            if(keywordMap.containsKey(letters)) {
-                return keywordMap.get(letters);
-            } else {
-                if(typeMap.containsKey(letters)) {
-                    return typeMap.get(letters);
-                } else {
-                    return new VariableToken(letters);
+    // true if input[inputPos + offset] holds a character, reading more from the source if needed.
+    private boolean available(final int offset) throws TokenizerException {
+        return inputPos + offset < limit || fill(inputPos + offset + 1);
+    }
+
+    private boolean fill(final int needed) throws TokenizerException {
+        if(source == null || sourceDrained) {
+            return false;
+        }
+        // Keep the token being scanned and the character before it, tokenizeOne looks one
+        // character back.
+        final int keep = Math.max(0, (tokenStart == NO_TOKEN ? inputPos : tokenStart) - 1);
+        final int wanted = needed - keep;
+        if(wanted > input.length) {
+            char[] larger = new char[Math.max(wanted, input.length * 2)];
+            System.arraycopy(input, keep, larger, 0, limit - keep);
+            input = larger;
+        } else if(keep > 0) {
+            System.arraycopy(input, keep, input, 0, limit - keep);
+        }
+        limit -= keep;
+        inputPos -= keep;
+        dropped += keep;
+        if(tokenStart != NO_TOKEN) {
+            tokenStart -= keep;
+        }
+        try {
+            while(limit < wanted) {
+                final int read = source.read(CharBuffer.wrap(input, limit, input.length - limit));
+                if(read < 0) {
+                    sourceDrained = true;
+                    return false;
                 }
+                limit += read;
             }
-        } else {
-            return null;
+        } catch (IOException e) {
+            throw new TokenizerException("Unable to read input: " + e.getMessage(), e);
         }
+        return true;
     }
 
-    private Token tryTokenizeBracket() {
-        if(inputPos < input.length) {
-            String key = Character.toString(input[inputPos]);
-            if(bracketsMap.containsKey(key)) {
-                inputPos++;
-                return bracketsMap.get(key);
+    private IntToken integerToken() throws TokenizerException {
+        final boolean negative = input[tokenStart] == '-';
+        // Accumulated as a negative number, like Integer.parseInt, so that Integer.MIN_VALUE fits.
+        final int min = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        int value = 0;
+        for(int i = negative ? tokenStart + 1 : tokenStart; i < inputPos; i++) {
+            final int digit = Character.digit(input[i], 10);
+            if(value < min / 10 || value * 10 < min + digit) {
+                throw new TokenizerException("Integer out of range!");
             }
+            value = value * 10 - digit;
         }
-        return null;
+        return new IntToken(negative ? value : -value);
     }
 
-    // now combine binop and unop together to figure out which token is
-    private Token tryTokenizeOp() {
-        if(inputPos < input.length) {
-            switch (input[inputPos]) {
-                case '+':
-                case '-':
-                    if(inputPos + 1 < input.length && (input[inputPos + 1] == '=' || input[inputPos + 1] == input[inputPos])) {
-                        char first = input[inputPos];
-                        char second = input[inputPos + 1];
-                        String key = Character.toString(first) + second;
-
-                        if(input[inputPos + 1] == '=') {    // +=, -= case
-                            inputPos += 2;
-                            return binopMap.get(key);
-                        } else if(input[inputPos + 1] == input[inputPos]) {  // ++, -- case
-                            inputPos += 2;
-                            return unopMap.get(key);
-                        } else {
-                            return null;
-                        }
-
-                    } else if((inputPos + 1 < input.length && input[inputPos] != '-' || input[inputPos + 1] != '>') || inputPos + 1 >= input.length) {    // +, - case but exclude ->
-                        String key = Character.toString(input[inputPos]);
-                        if(binopMap.containsKey(key)) {
-                            inputPos += 1;
-                            return binopMap.get(key);
-                        } else if(unopMap.containsKey(key)) {
-                            inputPos += 1;
-                            return unopMap.get(key);
-                        } else {
-                            return null;
-                        }
-                    } else {
-                        return null;
-                    }
-                case '!':
-                case '=':
-                case '>':
-                case '<':
-                case '*':
-                case '/':
-                    if(inputPos - 1 >= 0 && input[inputPos - 1] == '-' && input[inputPos] == '>') {
-                        return null;
-                    }
-                    if(inputPos + 1 < input.length && input[inputPos + 1] == '=') { // !=, ==, >=, <=, *=, /= case
-                        char first = input[inputPos];
-                        char second = input[inputPos + 1];
-                        inputPos += 2;
-                        return binopMap.get(Character.toString(first) + second);
-                    } else {    // !, =, <, >
-                        String key = Character.toString(input[inputPos]);
-                        if(binopMap.containsKey(key)) {
-                            inputPos += 1;
-                            return binopMap.get(key);
-                        } else if(unopMap.containsKey(key)) {
-                            inputPos += 1;
-                            return unopMap.get(key);
-                        } else {
-                            return null;
-                        }
-                    }
-                case '|':
-                    if(inputPos + 1 < input.length && input[inputPos + 1] == '|') { // ||
-                        inputPos += 2;
-                        return binopMap.get("||");
-                    } else {
-                        return null;
-                    }
-                case '&':
-                    if(inputPos + 1 < input.length && input[inputPos + 1] == '&') { // &&
-                        inputPos += 2;
-                        return binopMap.get("&&");
-                    } else {
-                        return null;
-                    }
-                default:
-                    String key = Character.toString(input[inputPos]);
-                    if(input[inputPos] != '-') {
-                        if (binopMap.containsKey(key)) {
-                            inputPos += 1;
-                            return binopMap.get(key);
-                        } else if (unopMap.containsKey(key)) {
-                            inputPos += 1;
-                            return unopMap.get(key);
-                        } else {
-                            return null;
-                        }
-                    } else {
-                        return null;
-                    }
-            }
-        } else {
+    private Token lookupWord(final int start, final int length) {
+        final char first = input[start];
+        if(first >= wordsByFirstChar.length || wordsByFirstChar[first] == null) {
             return null;
         }
-    }
-
-    private Token tryTokenizeSymbol() {
-        if(inputPos < input.length) {
-            switch (input[inputPos]) {
-                case '\n':
-                    inputPos++;
-                    return symbolMap.get("\n");
-                case ';':
-                    inputPos++;
-                    return symbolMap.get(";");
-                case ':':
-                    inputPos++;
-                    return symbolMap.get(":");
-                case ',':
-                    inputPos++;
-                    return symbolMap.get(",");
-                case '-':
-                    if(inputPos + 1 < input.length && input[inputPos + 1] == '>') {
-                        inputPos += 2;
-                        return symbolMap.get("->");
-                    } else {
-                        return null;
-                    }
-                case '.':
-                    if(inputPos + 1 < input.length && input[inputPos + 1] == '.') {
-                        inputPos += 2;
-                        return symbolMap.get("..");
-                    } else {
-                        inputPos += 1;
-                        return symbolMap.get(".");
-                    }
-                case '$':
-                    inputPos++;
-                    return symbolMap.get("$");
-                default:
-                    return null;
+        final char[][] words = wordsByFirstChar[first];
+        for(int i = 0; i < words.length; i++) {
+            final char[] word = words[i];
+            if(word.length == length) {
+                int j = 1;
+                while(j < length && word[j] == input[start + j]) {
+                    j++;
+                }
+                if(j == length) {
+                    return wordTokensByFirstChar[first][i];
+                }
             }
-        } else {
-            return null;
         }
+        return null;
     }
 
-    private Token tryTokenizeString() {
-        if(inputPos < input.length) {
+    /**
+     * Splits the text of a string literal at its interpolations, "$name" and "${expression}",
+     * and tokenizes them. The Parser uses this for a StringToken that was not made by a
+     * tokenizer.
+     */
+    public static StringToken stringToken(final String value, final SymbolTable symbols) throws TokenizerException {
+        return stringToken(value.toCharArray(), 0, value.length(), 0, value, symbols);
+    }
 
-            String value = "";
+    // chars[from, to) is the text between the quotes, line the line it starts on, value the same
+    // text as a String. A "$" which is not followed by a letter or "{" is literal text.
+    static StringToken stringToken(final char[] chars, final int from, final int to, int line,
+                                   final String value, final SymbolTable symbols) throws TokenizerException {
+        int dollar = from;
+        while(dollar < to && chars[dollar] != '$') {
+            dollar++;
+        }
+        if(dollar == to) {
+            return new StringToken(value);
+        }
 
-            // This can be the end of string token or start of string token
-            if(input[inputPos] == '"') {
-                inputPos++;
-                boolean isStringToken = false;
-                while(inputPos < input.length) {
-                    if(input[inputPos] != '"') {
-                        value += input[inputPos];
-                        inputPos++;
-                    } else {
-                        isStringToken = true;
-                        inputPos++;
-                        break;
-                    }
+        final List<String> segments = new ArrayList<>();
+        final List<Token> interpolations = new ArrayList<>();
+        Tokenizer scanner = null;
+        int segmentStart = from;
+        int lineCounted = from;
+        for(int i = dollar; i < to; i++) {
+            if(chars[i] != '$' || i + 1 == to) {
+                continue;
+            }
+            final int start;
+            final int end;
+            final int next;
+            if(chars[i + 1] == '{') {
+                start = i + 2;
+                end = indexOf(chars, '}', start, to);
+                if(end < 0) {
+                    throw new TokenizerException("Invalid string interpolation! Expect }");
                 }
-                if(isStringToken) {
-                    return new StringToken(value);
+                next = end + 1;
+            } else if(charClass(chars[i + 1]) == C_LETTER) {
+                start = i + 1;
+                int j = start + 1;
+                while(j < to && (charClass(chars[j]) == C_LETTER || charClass(chars[j]) == C_DIGIT)) {
+                    j++;
                 }
-                else {
-                    return null;
+                end = j;
+                next = j;
+            } else {
+                continue;
+            }
+
+            segments.add(new String(chars, segmentStart, i - segmentStart));
+            for(; lineCounted < start; lineCounted++) {
+                if(chars[lineCounted] == '\n') {
+                    line++;
                 }
             }
+            if(scanner == null) {
+                scanner = new Tokenizer(chars, start, end, line, symbols);
+            } else {
+                scanner.reset(start, end, line);
+            }
+            Token token;
+            while((token = scanner.nextToken()) != null) {
+                interpolations.add(token);
+            }
+            interpolations.add(null);
+            segmentStart = next;
+            i = next - 1;
         }
-        return null;
+        if(interpolations.isEmpty()) {
+            return new StringToken(value);
+        }
+        segments.add(new String(chars, segmentStart, to - segmentStart));
+        return new StringToken(value, segments.toArray(new String[0]), interpolations.toArray(new Token[0]));
     }
 
-    private void skipWhiteSpace() {
-        while(inputPos < input.length && Character.isWhitespace(input[inputPos]) && input[inputPos] != '\n') {
-            inputPos++;
+    private static int indexOf(final char[] chars, final char c, final int from, final int to) {
+        for(int i = from; i < to; i++) {
+            if(chars[i] == c) {
+                return i;
+            }
         }
+        return -1;
+    }
+
+    // Moves a tokenizer over an array to input[start, end).
+    private void reset(final int start, final int end, final int line) {
+        this.inputPos = start;
+        this.limit = end;
+        this.line = line;
+        this.tokenStart = NO_TOKEN;
     }
 
-    private void skipComment() {
-        if(inputPos < input.length) {
-            // "//" comment case
-            if(input[inputPos] == '/' && inputPos + 1 < input.length && input[inputPos + 1] == '/') {
+    private void skipWhiteSpaceAndComments() throws TokenizerException {
+        while(available(0)) {
+            final char c = input[inputPos];
+            if(charClass(c) == C_SPACE) {
+                inputPos++;
+            } else if(c == '/' && available(1) && input[inputPos + 1] == '/') {  // "//" comment case
                 inputPos += 2;
-                while(inputPos < input.length && input[inputPos] != '\n') {
+                while(available(0) && input[inputPos] != '\n') {
                     inputPos++;
                 }
-            }
-            // "/*  */" comment case
-            else if(input[inputPos] == '/' && inputPos + 1 < input.length && input[inputPos + 1] == '*') {
+            } else if(c == '/' && available(1) && input[inputPos + 1] == '*') {  // "/*  */" comment case
                 inputPos += 2;
-                while(inputPos < input.length) {
-                    if(input[inputPos] == '*' && inputPos + 1 < input.length && input[inputPos + 1] == '/') {
+                while(available(0)) {
+                    if(input[inputPos] == '*' && available(1) && input[inputPos + 1] == '/') {
                         inputPos += 2;
                         break;
-                    } else {
-                        inputPos++;
+                    } else if(input[inputPos++] == '\n') {
+                        line++;
                     }
                 }
+            } else {
+                return;
             }
         }
     }
 
     public List<Token> tokenize() throws TokenizerException {
         List<Token> tokens = new ArrayList<Token>();
-        while(inputPos < input.length) {
-            skipWhiteSpace();
-            skipComment();
-            skipWhiteSpace();
-            if(inputPos < input.length) {
-                tokens.add(tokenizeOne());
-            }
+        Token token;
+        while((token = nextToken()) != null) {
+            tokens.add(token);
         }
         return tokens;
     }
 
+    /**
+     * Scans a single token, returns null once the input is used up.
+     */
+    @Override
+    public Token nextToken() throws TokenizerException {
+        tokenStart = NO_TOKEN;
+        skipWhiteSpaceAndComments();
+        if(!available(0)) {
+            return null;
+        }
+        tokenStart = inputPos;
+        tokenLine = line;
+        final Token token = tokenizeOne();
+        if(token == SymbolToken.TK_LINE_BREAK) {
+            line++;
+        } else if(token instanceof StringToken) {
+            for(int i = tokenStart; i < inputPos; i++) {
+                if(input[i] == '\n') {
+                    line++;
+                }
+            }
+        }
+        return token;
+    }
+
     // assume it's not starting on whitespace
     private Token tokenizeOne() throws TokenizerException {
-        Token read = tryTokenizeString();
-        if(read != null) {
-            return read;
-        } else {
-            read = tryTokenizeVariableOrKeywordOrType();
-            if (read != null) {
-                return read;
-            } else {
-                read = tryTokenizeInteger();
-                if (read != null) {
-                    return read;
-                } else {
-                    read = tryTokenizeBracket();
-                    if (read != null) {
-                        return read;
-                    } else {
-                        read = tryTokenizeOp();
-                        if(read != null) {
-                            return read;
-                        } else {
-                            read = tryTokenizeSymbol();
-                            if(read != null) {
-                                return read;
-                            } else {
-                                throw new TokenizerException("Has more input!");
-                            }
-                        }
-                    }
-                }
+        // Longest match: follow the transitions until the next character does not fit the token.
+        int state = S_START;
+        while(available(0)) {
+            final int next = transitions[state][charClass(input[inputPos])];
+            if(next == S_STOP) {
+                break;
             }
+            state = next;
+            inputPos++;
+        }
+
+        switch (state) {
+            case S_IDENT:
+                final Token word = lookupWord(tokenStart, inputPos - tokenStart);
+                return word != null ? word : symbols.intern(input, tokenStart, inputPos - tokenStart);
+            case S_NUMBER:
+                return integerToken();
+            case S_STRING_END:
+                return stringToken(input, tokenStart + 1, inputPos - 1, tokenLine,
+                        new String(input, tokenStart + 1, inputPos - tokenStart - 2), symbols);
+            case S_SINGLE:
+                return singleCharTokens[input[tokenStart]];
+            case S_GREATER:
+            case S_GREATER_EQUAL:
+                // A '>' right after '-' that did not form "->", e.g. "-->", is rejected.
+                if(tokenStart > 0 && input[tokenStart - 1] == '-') {
+                    throw new TokenizerException("Has more input!");
+                }
+                return acceptTokens[state];
+            default:
+                if(acceptTokens[state] == null) {  // unknown character, unterminated string, lone | or &
+                    throw new TokenizerException("Has more input!");
+                }
+                return acceptTokens[state];
         }
     }
 }
@@ -4,4 +4,8 @@ public class TokenizerException extends Exception {
     public TokenizerException(final String message) {
         super(message);
     }
+
+    public TokenizerException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
 }
@@ -0,0 +1,331 @@
+package com.github.wangdong20.kotlinscriptcompiler.token;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.github.wangdong20.kotlinscriptcompiler.token.Tokenizer.*;
+
+/**
+ * Scans UTF-8 bytes directly, typically a file mapped with FileChannel.map, so the source is
+ * never decoded into a String or char[]. It runs the same transition table as Tokenizer and
+ * produces the same tokens. Keywords, operators and numbers are matched on the bytes, only string
+ * literals and identifiers seen for the first time are decoded, and an identifier only needs a
+ * real decoder if it is not ASCII.
+ */
+public class Utf8Tokenizer implements TokenSource {
+    private static final int WINDOW_SIZE = 64 * 1024;
+    private static final int NO_TOKEN = -1;
+
+    // A buffer backed by an array is scanned in place. Otherwise (a mapped or direct buffer) bytes
+    // are copied over in blocks, reading a byte[] is much cheaper than ByteBuffer.get per byte.
+    // Either way the valid bytes are input[first, limit).
+    private final ByteBuffer source;
+    private final SymbolTable symbols;
+    private byte[] input;
+    private final int first;
+    private int limit;
+    private int inputPos;
+    private int tokenStart = NO_TOKEN;
+    // Bytes dropped from the front of the window so far, so offsets count from the start of the
+    // input. Lines count from 1 and are those of the token last returned.
+    private int dropped;
+    private int line = 1;
+    private int tokenLine;
+    // Length in bytes of the character last classified by classAt
+    private int width;
+    private byte[] scratch = new byte[64];
+
+    /**
+     * Scans input from its position to its limit. The position of input is left alone.
+     */
+    public Utf8Tokenizer(final ByteBuffer input) {
+        this(input, new SymbolTable());
+    }
+
+    public Utf8Tokenizer(final ByteBuffer input, final SymbolTable symbols) {
+        this.symbols = symbols;
+        if(input.hasArray()) {
+            this.source = null;
+            this.input = input.array();
+            this.first = input.arrayOffset() + input.position();
+            this.limit = input.arrayOffset() + input.limit();
+        } else {
+            this.source = input.duplicate();
+            this.input = new byte[Math.min(WINDOW_SIZE, input.remaining())];
+            this.first = 0;
+            this.limit = 0;
+        }
+        this.inputPos = first;
+    }
+
+    @Override
+    public SymbolTable getSymbolTable() {
+        return symbols;
+    }
+
+    /**
+     * In bytes, like getTokenLength.
+     */
+    @Override
+    public int getTokenOffset() {
+        return dropped + tokenStart - first;
+    }
+
+    @Override
+    public int getTokenLength() {
+        return inputPos - tokenStart;
+    }
+
+    @Override
+    public int getTokenLine() {
+        return tokenLine;
+    }
+
+    // true if input[inputPos + offset] holds a byte, copying more from the source if needed.
+    private boolean available(final int offset) {
+        return inputPos + offset < limit || fill(inputPos + offset + 1);
+    }
+
+    private boolean fill(final int needed) {
+        if(source == null || !source.hasRemaining()) {
+            return false;
+        }
+        // Same as Tokenizer.fill: keep the token being scanned and the byte before it.
+        final int keep = Math.max(0, (tokenStart == NO_TOKEN ? inputPos : tokenStart) - 1);
+        final int wanted = needed - keep;
+        if(wanted > input.length) {
+            byte[] larger = new byte[Math.max(wanted, input.length * 2)];
+            System.arraycopy(input, keep, larger, 0, limit - keep);
+            input = larger;
+        } else if(keep > 0) {
+            System.arraycopy(input, keep, input, 0, limit - keep);
+        }
+        limit -= keep;
+        inputPos -= keep;
+        dropped += keep;
+        if(tokenStart != NO_TOKEN) {
+            tokenStart -= keep;
+        }
+        final int count = Math.min(input.length - limit, source.remaining());
+        source.get(input, limit, count);
+        limit += count;
+        return limit >= wanted;
+    }
+
+    private TokenizerException malformed(final int pos) {
+        return new TokenizerException("Malformed UTF-8 input at byte " + (dropped + pos - first));
+    }
+
+    private static int sequenceLength(final byte lead) {
+        if(lead >= 0) {
+            return 1;
+        } else if((lead & 0xE0) == 0xC0) {
+            return 2;
+        } else if((lead & 0xF0) == 0xE0) {
+            return 3;
+        } else if((lead & 0xF8) == 0xF0) {
+            return 4;
+        } else {
+            return 0;
+        }
+    }
+
+    // Decodes the character of width bytes starting at pos, all of which are in the window.
+    // Characters outside the BMP would be a surrogate pair in a char[], which Tokenizer classifies
+    // as C_OTHER, so -1 is returned for them to get the same class.
+    private int codePointAt(final int pos, final int width) throws TokenizerException {
+        if(width == 1) {
+            return input[pos];
+        }
+        int codePoint = input[pos] & (0x7F >> width);
+        for(int i = 1; i < width; i++) {
+            final int next = input[pos + i];
+            if((next & 0xC0) != 0x80) {
+                throw malformed(pos);
+            }
+            codePoint = (codePoint << 6) | (next & 0x3F);
+        }
+        final int min = width == 2 ? 0x80 : width == 3 ? 0x800 : 0x10000;
+        if(codePoint < min || codePoint > Character.MAX_CODE_POINT
+                || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+            throw malformed(pos);
+        }
+        return codePoint > Character.MAX_VALUE ? -1 : codePoint;
+    }
+
+    // Class of the character at inputPos, sets width. The bytes of a non-ASCII character are
+    // checked here, so everything before inputPos is known to be valid UTF-8.
+    private int classAt() throws TokenizerException {
+        final byte lead = input[inputPos];
+        if(lead >= 0) {
+            width = 1;
+            return charClasses[lead];
+        }
+        width = sequenceLength(lead);
+        if(width == 0 || !available(width - 1)) {
+            throw malformed(inputPos);
+        }
+        final int codePoint = codePointAt(inputPos, width);
+        return codePoint < 0 ? C_OTHER : charClass((char) codePoint);
+    }
+
+    private String decode(final int from, final int to) {
+        final int length = to - from;
+        if(length > scratch.length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        System.arraycopy(input, from, scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private IntToken integerToken() throws TokenizerException {
+        final boolean negative = input[tokenStart] == '-';
+        final int min = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        int value = 0;
+        int length;
+        for(int i = negative ? tokenStart + 1 : tokenStart; i < inputPos; i += length) {
+            length = sequenceLength(input[i]);
+            final int digit = Character.digit(codePointAt(i, length), 10);
+            if(value < min / 10 || value * 10 < min + digit) {
+                throw new TokenizerException("Integer out of range!");
+            }
+            value = value * 10 - digit;
+        }
+        return new IntToken(negative ? value : -value);
+    }
+
+    private Token lookupWord(final int start, final int length) {
+        final byte first = input[start];
+        if(first < 0 || wordsByFirstChar[first] == null) {
+            return null;
+        }
+        final char[][] words = wordsByFirstChar[first];
+        for(int i = 0; i < words.length; i++) {
+            final char[] word = words[i];
+            if(word.length == length) {
+                int j = 1;
+                while(j < length && word[j] == input[start + j]) {
+                    j++;
+                }
+                if(j == length) {
+                    return wordTokensByFirstChar[first][i];
+                }
+            }
+        }
+        return null;
+    }
+
+    private Token identifier(final int from, final int to) {
+        for(int i = from; i < to; i++) {
+            if(input[i] < 0) {
+                return symbols.intern(decode(from, to));
+            }
+        }
+        return symbols.intern(input, from, to - from);
+    }
+
+    private void skipWhiteSpaceAndComments() throws TokenizerException {
+        while(available(0)) {
+            final byte b = input[inputPos];
+            if(b == ' ') {
+                inputPos++;
+            } else if(b == '/' && available(1) && input[inputPos + 1] == '/') {  // "//" comment case
+                inputPos += 2;
+                while(available(0) && input[inputPos] != '\n') {
+                    classAt();
+                    inputPos += width;
+                }
+            } else if(b == '/' && available(1) && input[inputPos + 1] == '*') {  // "/*  */" comment case
+                inputPos += 2;
+                while(available(0)) {
+                    if(input[inputPos] == '*' && available(1) && input[inputPos + 1] == '/') {
+                        inputPos += 2;
+                        break;
+                    } else {
+                        if(input[inputPos] == '\n') {
+                            line++;
+                        }
+                        classAt();
+                        inputPos += width;
+                    }
+                }
+            } else if(classAt() == C_SPACE) {
+                inputPos += width;
+            } else {
+                return;
+            }
+        }
+    }
+
+    public List<Token> tokenize() throws TokenizerException {
+        List<Token> tokens = new ArrayList<Token>();
+        Token token;
+        while((token = nextToken()) != null) {
+            tokens.add(token);
+        }
+        return tokens;
+    }
+
+    @Override
+    public Token nextToken() throws TokenizerException {
+        tokenStart = NO_TOKEN;
+        skipWhiteSpaceAndComments();
+        if(!available(0)) {
+            return null;
+        }
+        tokenStart = inputPos;
+        tokenLine = line;
+        final Token token = tokenizeOne();
+        if(token == SymbolToken.TK_LINE_BREAK) {
+            line++;
+        } else if(token instanceof StringToken) {
+            for(int i = tokenStart; i < inputPos; i++) {
+                if(input[i] == '\n') {
+                    line++;
+                }
+            }
+        }
+        return token;
+    }
+
+    // Mirrors Tokenizer.tokenizeOne, positions are byte offsets.
+    private Token tokenizeOne() throws TokenizerException {
+        int state = S_START;
+        while(available(0)) {
+            final byte b = input[inputPos];
+            final int next = transitions[state][b >= 0 ? charClasses[b] : classAt()];
+            if(next == S_STOP) {
+                break;
+            }
+            state = next;
+            inputPos += b >= 0 ? 1 : width;
+        }
+
+        switch (state) {
+            case S_IDENT:
+                final Token word = lookupWord(tokenStart, inputPos - tokenStart);
+                return word != null ? word : identifier(tokenStart, inputPos);
+            case S_NUMBER:
+                return integerToken();
+            case S_STRING_END:
+                final String value = decode(tokenStart + 1, inputPos - 1);
+                return value.indexOf('$') < 0 ? new StringToken(value)
+                        : Tokenizer.stringToken(value.toCharArray(), 0, value.length(), tokenLine, value, symbols);
+            case S_SINGLE:
+                return singleCharTokens[input[tokenStart]];
+            case S_GREATER:
+            case S_GREATER_EQUAL:
+                if(tokenStart > first && input[tokenStart - 1] == '-') {
+                    throw new TokenizerException("Has more input!");
+                }
+                return acceptTokens[state];
+            default:
+                if(acceptTokens[state] == null) {
+                    throw new TokenizerException("Has more input!");
+                }
+                return acceptTokens[state];
+        }
+    }
+}
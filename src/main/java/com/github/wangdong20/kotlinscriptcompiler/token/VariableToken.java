@@ -2,17 +2,34 @@ package com.github.wangdong20.kotlinscriptcompiler.token;
 
 public class VariableToken implements Token {
     private final String name;
+    private final int id;
 
     public VariableToken(String name) {
+        this(name, -1);
+    }
+
+    // Tokens with an id come from a SymbolTable
+    VariableToken(String name, int id) {
         this.name = name;
+        this.id = id;
     }
 
     public String getName() {
         return name;
     }
 
+    /**
+     * Index in the SymbolTable which interned this token, -1 if it was not interned.
+     */
+    public int getId() {
+        return id;
+    }
+
     @Override
     public boolean equals(Object obj) {
+        if(obj == this) {
+            return true;
+        }
         if(obj instanceof  VariableToken) {
             if(((VariableToken) obj).getName().equals(name)) {
                 return true;
@@ -21,6 +38,11 @@ public class VariableToken implements Token {
         return false;
     }
 
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+
     @Override
     public String toString() {
         return "VariableToken{" +
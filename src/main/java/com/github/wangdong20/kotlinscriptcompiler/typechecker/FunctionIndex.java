@@ -0,0 +1,138 @@
+package com.github.wangdong20.kotlinscriptcompiler.typechecker;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.VariableExp;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.FunctionDeclareStmt;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.Type;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.Types;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The functions declared at the top level of a program, found by the id the Parser gave their
+ * name, then by number of parameters, then by parameter types. Names made without a Parser have
+ * no id, these are found by their text. Parameter types are kept as their shared instances, so the
+ * few overloads with the same name and number of parameters are told apart by comparing types
+ * with ==, and a call is resolved without making a key for it.
+ */
+class FunctionIndex {
+    private static final class Overload {
+        private final Type[] parameterTypes;
+        private final FunctionDeclareStmt function;
+
+        private Overload(final Type[] parameterTypes, final FunctionDeclareStmt function) {
+            this.parameterTypes = parameterTypes;
+            this.function = function;
+        }
+    }
+
+    // The overloads of a name by number of parameters, indexed by the id of the name.
+    private List<List<Overload>>[] byId = newArray(64);
+    private final Map<String, List<List<Overload>>> unnumbered = new HashMap<>();
+    // Ids of the names added, only to find functions by their text in named.
+    private final Map<String, Integer> ids = new HashMap<>();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static List<List<Overload>>[] newArray(final int length) {
+        return (List<List<Overload>>[]) new List[length];
+    }
+
+    void clear() {
+        Arrays.fill(byId, null);
+        unnumbered.clear();
+        ids.clear();
+    }
+
+    // The overloads of name by number of parameters, null if none.
+    private List<List<Overload>> overloadsOf(final VariableExp name) {
+        final int id = name.getId() >= 0 ? name.getId() : idOf(name.getName());
+        if(id < 0) {
+            return unnumbered.get(name.getName());
+        }
+        return id < byId.length ? byId[id] : null;
+    }
+
+    private int idOf(final String name) {
+        final Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Adds function, unless a function with the same name and parameter types is there already.
+     *
+     * @return whether function was added
+     */
+    boolean add(final FunctionDeclareStmt function) {
+        final Type[] parameterTypes = function.getParameterList().values().toArray(new Type[0]);
+        for(int i = 0; i < parameterTypes.length; i++) {
+            parameterTypes[i] = Types.canonical(parameterTypes[i]);
+        }
+        final VariableExp name = function.getFuncName();
+        List<List<Overload>> byArity = overloadsOf(name);
+        if(byArity == null) {
+            byArity = new ArrayList<>();
+            if(name.getId() >= 0) {
+                if(name.getId() >= byId.length) {
+                    byId = Arrays.copyOf(byId, Math.max(byId.length * 2, name.getId() + 1));
+                }
+                byId[name.getId()] = byArity;
+                ids.put(name.getName(), name.getId());
+            } else {
+                unnumbered.put(name.getName(), byArity);
+            }
+        }
+        while(byArity.size() <= parameterTypes.length) {
+            byArity.add(new ArrayList<Overload>(1));
+        }
+        final List<Overload> overloads = byArity.get(parameterTypes.length);
+        if(find(overloads, parameterTypes) != null) {
+            return false;
+        }
+        overloads.add(new Overload(parameterTypes, function));
+        return true;
+    }
+
+    /**
+     * The function named name which takes arguments of exactly the given types, null if none.
+     */
+    FunctionDeclareStmt get(final VariableExp name, final Type[] argumentTypes) {
+        final List<List<Overload>> byArity = overloadsOf(name);
+        if(byArity == null || argumentTypes.length >= byArity.size()) {
+            return null;
+        }
+        return find(byArity.get(argumentTypes.length), argumentTypes);
+    }
+
+    /**
+     * The functions named name, in the order they were added.
+     */
+    List<FunctionDeclareStmt> named(final String name) {
+        final List<FunctionDeclareStmt> named = new ArrayList<>();
+        final int id = idOf(name);
+        final List<List<Overload>> byArity = id >= 0 ? byId[id] : unnumbered.get(name);
+        if(byArity != null) {
+            for(List<Overload> overloads : byArity) {
+                for(Overload overload : overloads) {
+                    named.add(overload.function);
+                }
+            }
+        }
+        return named;
+    }
+
+    private static FunctionDeclareStmt find(final List<Overload> overloads, final Type[] types) {
+        for(Overload overload : overloads) {
+            boolean same = true;
+            for(int i = 0; i < types.length && same; i++) {
+                same = overload.parameterTypes[i] == types[i];
+            }
+            if(same) {
+                return overload.function;
+            }
+        }
+        return null;
+    }
+}
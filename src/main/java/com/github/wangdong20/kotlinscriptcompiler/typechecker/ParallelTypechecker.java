@@ -0,0 +1,107 @@
+package com.github.wangdong20.kotlinscriptcompiler.typechecker;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.Exp;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.FunctionDeclareStmt;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.Stmt;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.Type;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Checks the function bodies of a program on a ForkJoinPool and gives exactly the expression types
+ * and the error of Typechecker.typecheckProgram.
+ *
+ * Once the signatures of all functions are known, a body only needs them and the variables
+ * declared at the top level before it. The top level statements are checked in order on the
+ * calling thread, and every function met on the way is handed to the pool with a copy of the
+ * variables in scope at that point. The first error in source order is thrown: the bodies before
+ * a failing top level statement are waited for, and the bodies after it are never started.
+ *
+ * Dwks checks with it when run with -Ddwks.parallel=true.
+ */
+public class ParallelTypechecker {
+    private final ForkJoinPool pool;
+    private final TypecheckCache cache;
+
+    public ParallelTypechecker() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ParallelTypechecker(final ForkJoinPool pool) {
+        this(pool, null);
+    }
+
+    public ParallelTypechecker(final ForkJoinPool pool, final TypecheckCache cache) {
+        this.pool = pool;
+        this.cache = cache;
+    }
+
+    private static class Body extends RecursiveAction {
+        private final Typechecker typechecker;
+        private final FunctionDeclareStmt function;
+        private Exception error;
+
+        private Body(final Typechecker typechecker, final FunctionDeclareStmt function) {
+            this.typechecker = typechecker;
+            this.function = function;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                typechecker.typecheckToplevel(function);
+            } catch (IllTypedException | RuntimeException e) {
+                // Thrown by typecheck unless an earlier statement fails.
+                error = e;
+            }
+        }
+    }
+
+    private static void rethrow(final Exception error) throws IllTypedException {
+        if(error instanceof IllTypedException) {
+            throw (IllTypedException) error;
+        }
+        throw (RuntimeException) error;
+    }
+
+    public Map<Exp, Type> typecheck(final Program program) throws IllTypedException {
+        final Typechecker typechecker = new Typechecker(cache);
+        final List<Stmt> stmtList = program.getStmtList();
+        typechecker.declareFunctions(stmtList);
+
+        final List<Body> bodies = new ArrayList<>();
+        Exception error = null;
+        for(Stmt s : stmtList) {
+            if(s instanceof FunctionDeclareStmt) {
+                final Body body = new Body(typechecker.forFunction(), (FunctionDeclareStmt) s);
+                bodies.add(body);
+                pool.execute(body);
+            } else {
+                try {
+                    typechecker.typecheckToplevel(s);
+                } catch (IllTypedException | RuntimeException e) {
+                    error = e;
+                    break;
+                }
+            }
+        }
+
+        final Map<Exp, Type> expTypes = typechecker.getExpTypes();
+        for(Body body : bodies) {
+            body.join();
+            if(body.error != null) {
+                rethrow(body.error);
+            }
+            expTypes.putAll(body.typechecker.getExpTypes());
+        }
+        if(error != null) {
+            rethrow(error);
+        }
+        return expTypes;
+    }
+}
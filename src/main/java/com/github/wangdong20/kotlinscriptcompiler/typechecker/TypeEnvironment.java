@@ -0,0 +1,147 @@
+package com.github.wangdong20.kotlinscriptcompiler.typechecker;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.Variable;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.VariableExp;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.Type;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The variables in scope while a program is checked, each with its type and whether it is read
+ * only. The Parser binds every name to one VariableExp with a dense id, so a variable is found by
+ * indexing an array with that id. Entering a scope only remembers how many variables were put so
+ * far, and leaving it puts back what they replaced, so declaring a variable or opening a block
+ * costs the same however many variables are in scope.
+ */
+class TypeEnvironment {
+    private Pair<Type, Boolean>[] byId = newArray(64);
+    // VariableExps made without a Parser have no id, these are numbered by name.
+    private final Map<String, Integer> unnumbered = new HashMap<>();
+    private Pair<Type, Boolean>[] byName = newArray(16);
+    // Key and previous value of every put.
+    private int[] undoKeys = new int[64];
+    private Pair<Type, Boolean>[] undoValues = newArray(64);
+    private int undoSize;
+    private Set<String> lookups;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Pair<Type, Boolean>[] newArray(final int length) {
+        return (Pair<Type, Boolean>[]) new Pair[length];
+    }
+
+    /**
+     * The type of variable and whether it is read only, null if it is not in scope. Only a
+     * VariableExp can be in scope, an element of an array is never.
+     */
+    Pair<Type, Boolean> get(final Variable variable) {
+        if(!(variable instanceof VariableExp)) {
+            return null;
+        }
+        if(lookups != null) {
+            lookups.add(((VariableExp) variable).getName());
+        }
+        final int id = ((VariableExp) variable).getId();
+        if(id >= 0) {
+            return get(id);
+        }
+        final Integer number = unnumbered.get(((VariableExp) variable).getName());
+        return number == null ? null : get(-1 - number);
+    }
+
+    boolean containsKey(final Variable variable) {
+        return get(variable) != null;
+    }
+
+    void put(final VariableExp variable, final Pair<Type, Boolean> value) {
+        final int id = variable.getId();
+        if(id >= 0) {
+            put(id, value);
+        } else {
+            Integer number = unnumbered.get(variable.getName());
+            if(number == null) {
+                number = unnumbered.size();
+                unnumbered.put(variable.getName(), number);
+            }
+            put(-1 - number, value);
+        }
+    }
+
+    // Keys are ids as they are and names as -1 - number.
+    private void put(final int key, final Pair<Type, Boolean> value) {
+        final Pair<Type, Boolean> previous;
+        if(key >= 0) {
+            if(key >= byId.length) {
+                byId = Arrays.copyOf(byId, Math.max(byId.length * 2, key + 1));
+            }
+            previous = byId[key];
+            byId[key] = value;
+        } else {
+            final int number = -1 - key;
+            if(number >= byName.length) {
+                byName = Arrays.copyOf(byName, Math.max(byName.length * 2, number + 1));
+            }
+            previous = byName[number];
+            byName[number] = value;
+        }
+        if(undoSize == undoKeys.length) {
+            undoKeys = Arrays.copyOf(undoKeys, undoSize * 2);
+            undoValues = Arrays.copyOf(undoValues, undoSize * 2);
+        }
+        undoKeys[undoSize] = key;
+        undoValues[undoSize++] = previous;
+    }
+
+    private Pair<Type, Boolean> get(final int key) {
+        if(key >= 0) {
+            return key < byId.length ? byId[key] : null;
+        }
+        return -1 - key < byName.length ? byName[-1 - key] : null;
+    }
+
+    /**
+     * A TypeEnvironment with the same variables in scope, which can be used on another thread.
+     */
+    TypeEnvironment copy() {
+        final TypeEnvironment copy = new TypeEnvironment();
+        copy.unnumbered.putAll(unnumbered);
+        for(int i = 0; i < undoSize; i++) {
+            final int key = undoKeys[i];
+            if(copy.get(key) == null) {
+                copy.put(key, get(key));
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Adds the name of every variable looked up from now on to names, until called with null.
+     */
+    void recordLookups(final Set<String> names) {
+        lookups = names;
+    }
+
+    /**
+     * Marks the start of a scope, give it to leave at the end of the scope.
+     */
+    int enter() {
+        return undoSize;
+    }
+
+    /**
+     * Removes the variables put since mark was entered.
+     */
+    void leave(final int mark) {
+        while(undoSize > mark) {
+            final int key = undoKeys[--undoSize];
+            if(key >= 0) {
+                byId[key] = undoValues[undoSize];
+            } else {
+                byName[-1 - key] = undoValues[undoSize];
+            }
+            undoValues[undoSize] = null;
+        }
+    }
+}
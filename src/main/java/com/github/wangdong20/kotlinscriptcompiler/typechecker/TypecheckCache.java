@@ -0,0 +1,153 @@
+package com.github.wangdong20.kotlinscriptcompiler.typechecker;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers, in a file, the function declarations which passed the Typechecker, so an unchanged
+ * body is not checked again when the program is compiled the next time.
+ *
+ * A declaration is found by a hash of its text. Only the names a body looks up can change its
+ * outcome from the outside: variables declared at the top level before the function, and the
+ * functions it calls. So each entry keeps these names with a hash of what they were when the
+ * body passed, and is only used while the names still hash the same. Failing bodies are never
+ * kept, they are checked every time to give their error.
+ *
+ * Bodies skipped this way give the CodeGenerator no expression types or resolved calls, it works
+ * those out itself. One cache can be shared by the threads of a ParallelTypechecker.
+ *
+ * The file starts with FORMAT, a file with another first line is not read. Only the entries used
+ * or added since the file was read are written back, so the versions of a function which has
+ * changed since do not pile up.
+ */
+public class TypecheckCache {
+    private static final class Entry {
+        private final String names;         // separated by spaces
+        private final String namesHash;
+
+        private Entry(final String names, final String namesHash) {
+            this.names = names;
+            this.namesHash = namesHash;
+        }
+    }
+
+    /**
+     * The first line of the file. Change the version with the rules of the Typechecker, the
+     * toString of the statements or the way names are hashed, entries made before are then dropped.
+     */
+    static final String FORMAT = "dwks typecheck cache 1";
+
+    private final File file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Keys of the entries used or added since the file was read.
+    private final Set<String> used = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * A cache kept in file, which is read if it exists and was written in this FORMAT.
+     */
+    public TypecheckCache(final File file) throws IOException {
+        this.file = file;
+        if(file.exists()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line = reader.readLine();
+                if(!FORMAT.equals(line)) {
+                    return;
+                }
+                while((line = reader.readLine()) != null) {
+                    final String[] fields = line.split("\t", -1);
+                    if(fields.length == 3) {
+                        entries.put(fields[0], new Entry(fields[2], fields[1]));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the entries used or added since the file was read to the file, in place of what it had.
+     */
+    public void save() throws IOException {
+        final File temporary = new File(file.getPath() + ".tmp");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporary), StandardCharsets.UTF_8))) {
+            writer.write(FORMAT + "\n");
+            for(Map.Entry<String, Entry> entry : entries.entrySet()) {
+                if(!used.contains(entry.getKey())) {
+                    continue;
+                }
+                writer.write(entry.getKey() + "\t" + entry.getValue().namesHash + "\t" + entry.getValue().names + "\n");
+            }
+        }
+        if(!temporary.renameTo(file)) {
+            if(!file.delete() || !temporary.renameTo(file)) {
+                throw new IOException("Cannot write " + file);
+            }
+        }
+    }
+
+    /**
+     * Bodies skipped because they passed before.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Bodies checked because they were not in the cache or a name they look up changed.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    static String hash(final String text) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder hex = new StringBuilder(digest.length * 2);
+            for(byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);     // every JVM has SHA-256
+        }
+    }
+
+    /**
+     * The names the body with key looked up when it passed, null if it is not in the cache.
+     */
+    String[] names(final String key) {
+        final Entry entry = entries.get(key);
+        if(entry == null) {
+            return null;
+        }
+        return entry.names.isEmpty() ? new String[0] : entry.names.split(" ");
+    }
+
+    /**
+     * Whether the body with key passed while its names hashed to namesHash, counted as a hit or
+     * a miss.
+     */
+    boolean passed(final String key, final String namesHash) {
+        final Entry entry = entries.get(key);
+        if(entry != null && entry.namesHash.equals(namesHash)) {
+            used.add(key);
+            hits.incrementAndGet();
+            return true;
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    void put(final String key, final String names, final String namesHash) {
+        entries.put(key, new Entry(names, namesHash));
+        used.add(key);
+    }
+}
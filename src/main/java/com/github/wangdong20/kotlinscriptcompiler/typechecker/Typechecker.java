@@ -9,12 +9,63 @@ import java.util.*;
 
 public class Typechecker {
 
-    private static Map<Pair<Variable, List<Type>>, FunctionDeclareStmt> funcMap;
-    private static Type returnTypeFromFunc;
-    private static int returnEvaluate = 0;  // Evaluate return, if return needed in Function declaration, it is -1, if return not needed it is 0, if return need in if statement, it is -2 for both true false branch.
-    private static boolean alreadyReturn;   // Already return in block statements, no need to check remain statements in block statement.
+    private final FunctionIndex functions;
+    private TypeEnvironment gamma;
+    private Map<Exp, Type> expTypes;
+    private Type returnTypeFromFunc;
+    private int returnEvaluate = 0;  // Evaluate return, if return needed in Function declaration, it is -1, if return not needed it is 0, if return need in if statement, it is -2 for both true false branch.
+    private boolean alreadyReturn;   // Already return in block statements, no need to check remain statements in block statement.
+    private final TypecheckCache cache;
+    private Map<String, Pair<Type, Boolean>> globals;   // top level variables by name, only with a cache
+    private Set<String> lookups;                        // names looked up by the function being checked
 
-    private static Type typeOf(final Map<Variable, Pair<Type, Boolean>> gamma, final Exp e) throws IllTypedException {
+    /**
+     * Every piece of state used while checking lives in the instance, so a Typechecker must not be
+     * shared between threads, but any number of them can check different programs at the same time.
+     */
+    public Typechecker() {
+        this((TypecheckCache) null);
+    }
+
+    /**
+     * A Typechecker which skips the function bodies that passed before, see TypecheckCache.
+     */
+    public Typechecker(final TypecheckCache cache) {
+        functions = new FunctionIndex();
+        gamma = new TypeEnvironment();
+        expTypes = new IdentityHashMap<>();
+        returnTypeFromFunc = null;
+        returnEvaluate = 0;
+        alreadyReturn = false;
+        this.cache = cache;
+        globals = new HashMap<>();
+    }
+
+    // Checks function bodies for typechecker on another thread, see forFunction.
+    private Typechecker(final Typechecker typechecker) {
+        functions = typechecker.functions;
+        gamma = typechecker.gamma.copy();
+        expTypes = new IdentityHashMap<>();
+        returnTypeFromFunc = null;
+        returnEvaluate = 0;
+        alreadyReturn = false;
+        cache = typechecker.cache;
+        globals = cache == null ? typechecker.globals : new HashMap<>(typechecker.globals);
+    }
+
+    /**
+     * The type of e, which is also kept for getExpTypes unless e is a variable. The Parser gives
+     * every occurrence of a name the same VariableExp, so its type depends on where it is.
+     */
+    private Type typeOf(final Exp e) throws IllTypedException {
+        final Type type = inferType(e);
+        if(!(e instanceof Variable)) {
+            expTypes.put(e, type);
+        }
+        return type;
+    }
+
+    private Type inferType(final Exp e) throws IllTypedException {
         if(e instanceof IntExp) {
             return BasicType.TYPE_INT;
         } else if(e instanceof BooleanExp) {
@@ -24,58 +75,18 @@ public class Typechecker {
                 List<Exp> exps = new ArrayList<>(((StringExp) e).getInterpolationExp().values());
                 Type type;
                 for (Exp exp : exps) {
-                    type = typeOf(gamma, exp);
+                    type = typeOf(exp);
                     if (!(type instanceof BasicType)) {
                         throw new IllTypedException("Only basic type can be the type in string interpolation expression");
                     }
                 }
             }
             return BasicType.TYPE_STRING;
-        } else if(e instanceof AdditiveExp) {
-            final Type leftType = typeOf(gamma, ((AdditiveExp) e).getLeft());
-            final Type rightType = typeOf(gamma, ((AdditiveExp) e).getRight());
-            if (leftType == BasicType.TYPE_INT && rightType == BasicType.TYPE_INT) {
-                return BasicType.TYPE_INT;
-            }
-            final AdditiveOp op = ((AdditiveExp) e).getOp();
-            if (op == AdditiveOp.EXP_PLUS) {
-                if (leftType == BasicType.TYPE_STRING && rightType == BasicType.TYPE_INT) {
-                    return BasicType.TYPE_STRING;
-                } else if (leftType == BasicType.TYPE_STRING && rightType == BasicType.TYPE_STRING) {
-                    return BasicType.TYPE_STRING;
-                }
-            }
-            throw new IllTypedException("Only Int + Int, Int - Int, String + Int, String + String accept!");
-        } else if(e instanceof MultiplicativeExp) {
-            final Type leftType = typeOf(gamma, ((MultiplicativeExp) e).getLeft());
-            final Type rightType = typeOf(gamma, ((MultiplicativeExp) e).getRight());
-            if (leftType == BasicType.TYPE_INT && rightType == BasicType.TYPE_INT) {
-                return BasicType.TYPE_INT;
-            } else {
-                throw new IllTypedException("Only Int * Int and Int / Int accept!");
-            }
-        } else if(e instanceof ComparableExp) {
-            final Type leftType = typeOf(gamma, ((ComparableExp) e).getLeft());
-            final Type rightType = typeOf(gamma, ((ComparableExp) e).getRight());
-            if (leftType == BasicType.TYPE_INT && rightType == BasicType.TYPE_INT) {
-                return BasicType.TYPE_BOOLEAN;
-            } else if(((ComparableExp) e).getOp() == ComparableOp.OP_EQUAL_EQUAL && leftType == BasicType.TYPE_BOOLEAN && rightType == BasicType.TYPE_BOOLEAN) {
-                return BasicType.TYPE_BOOLEAN;
-            }
-            else {
-                throw new IllTypedException("Only Int can compare with Int!");
-            }
-        } else if(e instanceof BiLogicalExp) {
-            final Type leftType = typeOf(gamma, ((BiLogicalExp) e).getLeft());
-            final Type rightType = typeOf(gamma, ((BiLogicalExp) e).getRight());
-            if (leftType == BasicType.TYPE_BOOLEAN && rightType == BasicType.TYPE_BOOLEAN) {
-                return BasicType.TYPE_BOOLEAN;
-            } else {
-                throw new IllTypedException("Only Boolean && Boolean and Boolean || Boolean supported!");
-            }
+        } else if(isOperator(e)) {
+            return typeOfOperators(e);
         } else if(e instanceof VariableExp) {
-            if(gamma.containsKey(e)) {
-                return gamma.get(e).getFirst();
+            if(gamma.containsKey((VariableExp) e)) {
+                return gamma.get((VariableExp) e).getFirst();
             } else {
                 throw new IllTypedException("Not in scope " + ((VariableExp) e).getName());
             }
@@ -83,7 +94,7 @@ public class Typechecker {
             LambdaExp lambdaExp = ((ArrayExp) e).getLambdaExp();
             Exp size = ((ArrayExp) e).getSize();
             if(size != null) {
-                Type sizeType = typeOf(gamma, size);
+                Type sizeType = typeOf(size);
                 if(sizeType != BasicType.TYPE_INT) {
                     throw new IllTypedException("ArrayExp must initial with value of IntType");
                 }
@@ -93,21 +104,22 @@ public class Typechecker {
             if(lambdaExp.getParameterList().size() == 1) {  // ArrayExp only support Array(Int, {i - > exp})
                 VariableExp[] variables = new VariableExp[1];
                 Type[] types = new Type[1];
-                final Map<Variable, Pair<Type, Boolean>> newGama = newCopy(gamma);
+                final int scope = gamma.enter();
                 lambdaExp.getParameterList().keySet().toArray(variables);
                 lambdaExp.getParameterList().values().toArray(types);
                 if(types[0] == null) {
-                    newGama.put(variables[0], new Pair<>(BasicType.TYPE_INT, false));
+                    gamma.put(variables[0], new Pair<>(BasicType.TYPE_INT, false));
                 } else {
                     if(types[0] == BasicType.TYPE_INT) {
-                        newGama.put(variables[0], new Pair<>(types[0], false));
+                        gamma.put(variables[0], new Pair<>(types[0], false));
                     } else {
                         throw new IllTypedException("Expected parameter type of Int!");
                     }
                 }
-                Type returnType = typeOf (newGama, ((ArrayExp) e).getLambdaExp().getReturnExp());
+                Type returnType = typeOf(((ArrayExp) e).getLambdaExp().getReturnExp());
+                gamma.leave(scope);
                 if(returnType instanceof BasicType) {
-                    return new TypeArray((BasicType) returnType);
+                    return Types.arrayOf((BasicType) returnType);
                 } else {
                     throw new IllTypedException("Unsupported generic type: " + returnType);
                 }
@@ -117,18 +129,18 @@ public class Typechecker {
 
         } else if(e instanceof ArrayOfExp) {
             if(((ArrayOfExp) e).getExpList().size() > 0) {
-                Type type = typeOf(gamma, ((ArrayOfExp) e).getExpList().get(0));
+                Type type = typeOf(((ArrayOfExp) e).getExpList().get(0));
                 boolean isAny = false;
                 for (Exp exp : ((ArrayOfExp) e).getExpList()) {
-                    if(type != typeOf(gamma, exp)) {
+                    if(type != typeOf(exp)) {
                         isAny = true;
                     }
                 }
                 if(isAny) {
-                    return new TypeArray(BasicType.TYPE_ANY);
+                    return Types.arrayOf(BasicType.TYPE_ANY);
                 } else {
                     if(type instanceof BasicType)
-                        return new TypeArray((BasicType) type);
+                        return Types.arrayOf((BasicType) type);
                     else
                         throw new IllTypedException("Unsupported generic type: " + type);
                 }
@@ -137,7 +149,7 @@ public class Typechecker {
             }
         } else if(e instanceof ArrayWithIndexExp) {
             if(gamma.containsKey(((ArrayWithIndexExp) e).getVariableExp())) {
-                if(typeOf(gamma, ((ArrayWithIndexExp) e).getIndexExp()) != BasicType.TYPE_INT) {
+                if(typeOf(((ArrayWithIndexExp) e).getIndexExp()) != BasicType.TYPE_INT) {
                     throw new IllTypedException("Array Index should be Int type");
                 }
                 if(gamma.get(((ArrayWithIndexExp) e).getVariableExp()).getFirst() instanceof TypeArray) {
@@ -149,34 +161,38 @@ public class Typechecker {
                 throw new IllTypedException("Not in scope " + ((ArrayWithIndexExp) e).getVariableExp().getName());
             }
         } else if(e instanceof FunctionInstanceExp) {
-            List<Type> parameters = new ArrayList<>();
-            Type type;
-            for(Exp exp : ((FunctionInstanceExp) e).getParameterList()) {
+            final FunctionInstanceExp call = (FunctionInstanceExp) e;
+            final Type[] argumentTypes = new Type[call.getParameterList().size()];
+            for(int i = 0; i < argumentTypes.length; i++) {
                 // No same parameter.
-                type = typeOf(gamma, exp);
-                parameters.add(type);
-            }
-            Pair<Variable, List<Type>> key = new Pair<>(((FunctionInstanceExp) e).getFuncName(), parameters);
-            if(!funcMap.containsKey(key)) {
-                if(gamma.containsKey(((FunctionInstanceExp) e).getFuncName())) {
-                    if(gamma.get(((FunctionInstanceExp) e).getFuncName()).getFirst() instanceof TypeHighOrderFunction) {
-                        TypeHighOrderFunction highOrderFunction = (TypeHighOrderFunction) gamma.get(((FunctionInstanceExp) e).getFuncName()).getFirst();
+                argumentTypes[i] = typeOf(call.getParameterList().get(i));
+            }
+            final List<Type> parameters = Arrays.asList(argumentTypes);
+            final FunctionDeclareStmt function = functions.get(call.getFuncName(), argumentTypes);
+            if(lookups != null) {
+                lookups.add(call.getFuncName().getName());
+            }
+            call.setFunction(function);
+            if(function == null) {
+                if(gamma.containsKey(call.getFuncName())) {
+                    if(gamma.get(call.getFuncName()).getFirst() instanceof TypeHighOrderFunction) {
+                        TypeHighOrderFunction highOrderFunction = (TypeHighOrderFunction) gamma.get(call.getFuncName()).getFirst();
                         if(!highOrderFunction.getParameterList().equals(parameters)) {
-                            throw new IllTypedException("Function instance " + ((FunctionInstanceExp) e).getFuncName().getName() + "("
-                                + parameters + ") does not match with the Function declaration " + ((FunctionInstanceExp) e).getFuncName().getName() + "("
+                            throw new IllTypedException("Function instance " + call.getFuncName().getName() + "("
+                                + parameters + ") does not match with the Function declaration " + call.getFuncName().getName() + "("
                                 + highOrderFunction.getParameterList() + ")");
                         }
                         return highOrderFunction.getReturnType();
                     } else {
-                        throw new IllTypedException("Function " + ((FunctionInstanceExp) e).getFuncName().getName() + "("
+                        throw new IllTypedException("Function " + call.getFuncName().getName() + "("
                                 + parameters + ")" + " undefined");
                     }
                 } else {
-                    throw new IllTypedException("Function " + ((FunctionInstanceExp) e).getFuncName().getName() + "("
+                    throw new IllTypedException("Function " + call.getFuncName().getName() + "("
                             + parameters + ")" + " undefined");
                 }
             } else {
-                return funcMap.get(key).getReturnType();
+                return Types.canonical(function.getReturnType());
             }
         } else if(e instanceof LambdaExp) {
             LinkedHashMap<VariableExp, Type> parameterList = ((LambdaExp) e).getParameterList();
@@ -184,25 +200,27 @@ public class Typechecker {
             if(parameterList.size() > 0) {
                 VariableExp[] variableExps = new VariableExp[parameterList.size()];
                 Type[] types = new Type[parameterList.size()];
-                final Map<Variable, Pair<Type, Boolean>> newGama = newCopy(gamma);
+                final int scope = gamma.enter();
                 parameterList.keySet().toArray(variableExps);
                 parameterList.values().toArray(types);
 
                 for(int i = 0; i < variableExps.length; i++) {
-                    newGama.put(variableExps[i], new Pair<>(types[i], false));
+                    types[i] = Types.canonical(types[i]);
+                    gamma.put(variableExps[i], new Pair<>(types[i], false));
                 }
-                Type returnType = typeOf(newGama, ((LambdaExp) e).getReturnExp());
+                Type returnType = typeOf(((LambdaExp) e).getReturnExp());
+                gamma.leave(scope);
                 List<Type> parameterTypes = Arrays.asList(types);
-                return new TypeHighOrderFunction(parameterTypes, returnType);
+                return Types.functionOf(parameterTypes, returnType);
             } else {
-                Type returnType = typeOf(gamma, ((LambdaExp) e).getReturnExp());
-                return new TypeHighOrderFunction(new ArrayList<>(), returnType);
+                Type returnType = typeOf(((LambdaExp) e).getReturnExp());
+                return Types.functionOf(new ArrayList<>(), returnType);
             }
         } else if(e instanceof MutableListExp) {
             LambdaExp lambdaExp = ((MutableListExp) e).getLambdaExp();
             Exp size = ((MutableListExp) e).getSize();
             if(size != null) {
-                Type sizeType = typeOf(gamma, size);
+                Type sizeType = typeOf(size);
                 if(sizeType != BasicType.TYPE_INT) {
                     throw new IllTypedException("MutableListExp must initial with value of IntType");
                 }
@@ -212,21 +230,22 @@ public class Typechecker {
             if(lambdaExp.getParameterList().size() == 1) {  // MutableListExp only support MutableList(Int, {i - > exp})
                 VariableExp[] variables = new VariableExp[1];
                 Type[] types = new Type[1];
-                final Map<Variable, Pair<Type, Boolean>> newGama = newCopy(gamma);
+                final int scope = gamma.enter();
                 lambdaExp.getParameterList().keySet().toArray(variables);
                 lambdaExp.getParameterList().values().toArray(types);
                 if(types[0] == null) {
-                    newGama.put(variables[0], new Pair<>(BasicType.TYPE_INT, false));
+                    gamma.put(variables[0], new Pair<>(BasicType.TYPE_INT, false));
                 } else {
                     if(types[0] == BasicType.TYPE_INT) {
-                        newGama.put(variables[0], new Pair<>(types[0], false));
+                        gamma.put(variables[0], new Pair<>(types[0], false));
                     } else {
                         throw new IllTypedException("Expected parameter type of Int!");
                     }
                 }
-                Type returnType = typeOf (newGama, ((MutableListExp) e).getLambdaExp().getReturnExp());
+                Type returnType = typeOf(((MutableListExp) e).getLambdaExp().getReturnExp());
+                gamma.leave(scope);
                 if(returnType instanceof BasicType) {
-                    return new TypeArray((BasicType) returnType);
+                    return Types.arrayOf((BasicType) returnType);
                 } else {
                     throw new IllTypedException("Unsupported generic type: " + returnType);
                 }
@@ -235,39 +254,33 @@ public class Typechecker {
             }
         } else if(e instanceof MutableListOfExp) {
             if(((MutableListOfExp) e).getExpList().size() > 0) {
-                Type type = typeOf(gamma, ((MutableListOfExp) e).getExpList().get(0));
+                Type type = typeOf(((MutableListOfExp) e).getExpList().get(0));
                 boolean isAny = false;
                 for (Exp exp : ((MutableListOfExp) e).getExpList()) {
-                    if(type != typeOf(gamma, exp)) {
+                    if(type != typeOf(exp)) {
                         isAny = true;
                     }
                 }
                 if(isAny) {
-                    return new TypeMutableList(BasicType.TYPE_ANY);
+                    return Types.mutableListOf(BasicType.TYPE_ANY);
                 } else {
                     if(type instanceof BasicType)
-                        return new TypeMutableList((BasicType) type);
+                        return Types.mutableListOf((BasicType) type);
                     else
                         throw new IllTypedException("Unsupported generic type: " + type);
                 }
             } else {
                 throw new IllTypedException("mutableListOf(exp*) should have at least one expression in parameter");
             }
-        } else if(e instanceof NotExp) {
-            Type type = typeOf(gamma, ((NotExp) e).getValue());
-            if(type != BasicType.TYPE_BOOLEAN) {
-                throw new IllTypedException("Only !Boolean accept");
-            }
-            return BasicType.TYPE_BOOLEAN;
         } else if(e instanceof RangeExp) {
-            Type start = typeOf(gamma, ((RangeExp) e).getStart());
-            Type end = typeOf(gamma, ((RangeExp) e).getEnd());
+            Type start = typeOf(((RangeExp) e).getStart());
+            Type end = typeOf(((RangeExp) e).getEnd());
             if(start != BasicType.TYPE_INT || end != BasicType.TYPE_INT) {
                 throw new IllTypedException("Range expression only support Int..Int");
             }
-            return new TypeArray(BasicType.TYPE_INT);   // we also count range exp as array type
+            return Types.arrayOf(BasicType.TYPE_INT);   // we also count range exp as array type
         } else if(e instanceof SelfOperationExp) {
-            Type type = typeOf(gamma, (Exp)((SelfOperationExp) e).getVariableExp());
+            Type type = typeOf((Exp)((SelfOperationExp) e).getVariableExp());
             if(type != BasicType.TYPE_INT) {
                 throw new IllTypedException("Only Int support ++, -- operation");
             }
@@ -278,8 +291,293 @@ public class Typechecker {
         }
     }
 
-    private static Map<Variable, Pair<Type, Boolean>> typecheckStmt(final Map<Variable, Pair<Type, Boolean>> gamma, boolean continueBreakOk, boolean returnOk, Stmt s) throws IllTypedException {
+    private static boolean isOperator(final Exp e) {
+        return e instanceof AdditiveExp || e instanceof MultiplicativeExp || e instanceof ComparableExp ||
+                e instanceof BiLogicalExp || e instanceof NotExp;
+    }
+
+    private static Exp leftOf(final Exp e) {
+        if(e instanceof BinaryIntExp) {
+            return ((BinaryIntExp) e).getLeft();
+        } else if(e instanceof ComparableExp) {
+            return ((ComparableExp) e).getLeft();
+        } else if(e instanceof BiLogicalExp) {
+            return ((BiLogicalExp) e).getLeft();
+        } else {
+            return ((NotExp) e).getValue();
+        }
+    }
+
+    private static Exp rightOf(final Exp e) {
+        if(e instanceof BinaryIntExp) {
+            return ((BinaryIntExp) e).getRight();
+        } else if(e instanceof ComparableExp) {
+            return ((ComparableExp) e).getRight();
+        } else {
+            return ((BiLogicalExp) e).getRight();
+        }
+    }
+
+    /**
+     * Types a tree of operators. A chain like a + b + c + ... is as deep as it is long, so the tree
+     * is walked with a stack of the operators whose operands are being typed, left operand first
+     * like typeOf would, and nesting is only limited by the heap.
+     */
+    private Type typeOfOperators(final Exp root) throws IllTypedException {
+        final List<Exp> operators = new ArrayList<>();
+        final List<Type> leftTypes = new ArrayList<>();  // of the operators whose right operand is being typed
+        boolean[] onRight = new boolean[16];
+        Exp e = root;
+        while(true) {
+            while(isOperator(e)) {
+                if(operators.size() == onRight.length) {
+                    onRight = Arrays.copyOf(onRight, onRight.length * 2);
+                }
+                onRight[operators.size()] = false;
+                operators.add(e);
+                e = leftOf(e);
+            }
+            Type type = typeOf(e);
+            while(true) {
+                if(operators.isEmpty()) {
+                    return type;
+                }
+                final int top = operators.size() - 1;
+                final Exp operator = operators.get(top);
+                if(!(operator instanceof NotExp) && !onRight[top]) {
+                    onRight[top] = true;
+                    leftTypes.add(type);
+                    e = rightOf(operator);
+                    break;
+                }
+                operators.remove(top);
+                type = operatorType(operator, operator instanceof NotExp ? type : leftTypes.remove(leftTypes.size() - 1), type);
+                expTypes.put(operator, type);
+            }
+        }
+    }
+
+    // The type of operator applied to operands of the given types, for NotExp both are the operand.
+    private static Type operatorType(final Exp e, final Type leftType, final Type rightType) throws IllTypedException {
+        if(e instanceof AdditiveExp) {
+            if (leftType == BasicType.TYPE_INT && rightType == BasicType.TYPE_INT) {
+                return BasicType.TYPE_INT;
+            }
+            final AdditiveOp op = ((AdditiveExp) e).getOp();
+            if (op == AdditiveOp.EXP_PLUS) {
+                if (leftType == BasicType.TYPE_STRING && rightType == BasicType.TYPE_INT) {
+                    return BasicType.TYPE_STRING;
+                } else if (leftType == BasicType.TYPE_STRING && rightType == BasicType.TYPE_STRING) {
+                    return BasicType.TYPE_STRING;
+                }
+            }
+            throw new IllTypedException("Only Int + Int, Int - Int, String + Int, String + String accept!");
+        } else if(e instanceof MultiplicativeExp) {
+            if (leftType == BasicType.TYPE_INT && rightType == BasicType.TYPE_INT) {
+                return BasicType.TYPE_INT;
+            } else {
+                throw new IllTypedException("Only Int * Int and Int / Int accept!");
+            }
+        } else if(e instanceof ComparableExp) {
+            if (leftType == BasicType.TYPE_INT && rightType == BasicType.TYPE_INT) {
+                return BasicType.TYPE_BOOLEAN;
+            } else if(((ComparableExp) e).getOp() == ComparableOp.OP_EQUAL_EQUAL && leftType == BasicType.TYPE_BOOLEAN && rightType == BasicType.TYPE_BOOLEAN) {
+                return BasicType.TYPE_BOOLEAN;
+            }
+            else {
+                throw new IllTypedException("Only Int can compare with Int!");
+            }
+        } else if(e instanceof BiLogicalExp) {
+            if (leftType == BasicType.TYPE_BOOLEAN && rightType == BasicType.TYPE_BOOLEAN) {
+                return BasicType.TYPE_BOOLEAN;
+            } else {
+                throw new IllTypedException("Only Boolean && Boolean and Boolean || Boolean supported!");
+            }
+        } else {
+            if(rightType != BasicType.TYPE_BOOLEAN) {
+                throw new IllTypedException("Only !Boolean accept");
+            }
+            return BasicType.TYPE_BOOLEAN;
+        }
+    }
+
+    // A block being checked by typecheckStmt, with the statement it belongs to.
+    private static final class BlockFrame {
+        private final Stmt owner;
+        private final int scope;            // variables put in the block are removed when it ends
+        private final boolean continueBreakOk;
+        private final boolean returnOk;
+        private List<Stmt> stmtList;
+        private int index;
+        private boolean inFalseBranch;      // if
+        private int returnEvaluateBefore;   // if
+        private Type[] parameterTypes;      // fun
+
+        private BlockFrame(final Stmt owner, final int scope,
+                           final boolean continueBreakOk, final boolean returnOk, final BlockStmt blockStmt) {
+            this.owner = owner;
+            this.scope = scope;
+            this.continueBreakOk = continueBreakOk;
+            this.returnOk = returnOk;
+            this.stmtList = stmtsOf(blockStmt);
+        }
+    }
+
+    private static List<Stmt> stmtsOf(final BlockStmt blockStmt) {
+        return blockStmt == null ? Collections.<Stmt>emptyList() : blockStmt.getStmtList();
+    }
+
+    private static boolean hasBlock(final Stmt s) {
+        return s instanceof ForStmt || s instanceof WhileStmt || s instanceof BlockStmt ||
+                s instanceof FunctionDeclareStmt || s instanceof IfStmt;
+    }
+
+    /**
+     * Checks s with the statements in its blocks. Blocks are not checked by recursion: a for, while,
+     * if, fun or block statement puts a frame for its block on a stack and statements are taken
+     * from the frame on top, so blocks can be nested as deep as the heap allows.
+     */
+    private void typecheckStmt(boolean continueBreakOk, boolean returnOk, Stmt s) throws IllTypedException {
+        if(!hasBlock(s)) {
+            typecheckSimpleStmt(continueBreakOk, returnOk, s);
+            return;
+        }
+        final List<BlockFrame> frames = new ArrayList<>();
+        frames.add(openBlock(continueBreakOk, returnOk, s));
+        while(true) {
+            final BlockFrame frame = frames.get(frames.size() - 1);
+            if(frame.index < frame.stmtList.size()) {
+                final Stmt next = frame.stmtList.get(frame.index);
+                if (next instanceof FunctionDeclareStmt) {
+                    throw new IllTypedException("Function declaration is not allowed in block");
+                }
+                if(hasBlock(next)) {
+                    frames.add(openBlock(frame.continueBreakOk, frame.returnOk, next));
+                    continue;
+                }
+                typecheckSimpleStmt(frame.continueBreakOk, frame.returnOk, next);
+                nextStmt(frame);
+            } else {
+                alreadyReturn = false;
+                if(frame.owner instanceof IfStmt && !frame.inFalseBranch) {
+                    frame.inFalseBranch = true;
+                    gamma.leave(frame.scope);
+                    frame.stmtList = stmtsOf(((IfStmt) frame.owner).getFalseBranch());
+                    frame.index = 0;
+                    continue;
+                }
+                gamma.leave(frame.scope);
+                closeBlock(frame);
+                frames.remove(frames.size() - 1);
+                if(frames.isEmpty()) {
+                    return;
+                }
+                nextStmt(frames.get(frames.size() - 1));
+            }
+        }
+    }
+
+    // Moves past the statement just checked, or to the end of the block after a return.
+    private void nextStmt(final BlockFrame frame) throws IllTypedException {
+        if(alreadyReturn) {
+            if(frame.index < frame.stmtList.size() - 1) {
+                throw new IllTypedException("Statements after return cannot be reached in current block");
+            }
+            frame.index = frame.stmtList.size();
+        } else {
+            frame.index++;
+        }
+    }
+
+    // Checks what comes before the (first) block of s, and gives the frame to check that block in.
+    private BlockFrame openBlock(boolean continueBreakOk, boolean returnOk, Stmt s) throws IllTypedException {
+        final BlockFrame frame;
+        if(s instanceof ForStmt) {
+            final ForStmt asFor = (ForStmt) s;
+            final int scope = gamma.enter();
+            if(asFor.getArrayExp() != null) {
+                Type type = typeOf(asFor.getArrayExp());
+                if(type instanceof TypeArray || type instanceof TypeMutableList) {  // Type inference for array or list
+                    if(type instanceof TypeArray) {
+                        gamma.put(asFor.getIteratorExp(), new Pair<>(((TypeArray) type).getBasicType(), false));
+                    } else {
+                        gamma.put(asFor.getIteratorExp(), new Pair<>(((TypeMutableList) type).getBasicType(), false));
+                    }
+                } else {
+                    throw new IllTypedException(asFor.getArrayExp() + " is not a collection");
+                }
+            } else {
+                if(asFor.getStepExp() != null) {    // Only range expression can have step expression
+                    Type type = typeOf(asFor.getStepExp());
+                    if(type != BasicType.TYPE_INT) {
+                        throw new IllTypedException("Expression after step should be Int type");
+                    }
+                }
+                gamma.put(asFor.getIteratorExp(), new Pair<>(BasicType.TYPE_INT, false));
+            }
+            frame = new BlockFrame(s, scope, true, returnOk, asFor.getBlockStmt());
+        } else if(s instanceof WhileStmt) {
+            final WhileStmt asWhile = (WhileStmt) s;
+            Type type = typeOf(asWhile.getCondition());
+            if(type == BasicType.TYPE_BOOLEAN) {
+                frame = new BlockFrame(s, gamma.enter(), true, returnOk, asWhile.getBlockStmt());
+            } else {
+                throw new IllTypedException("while condition should be boolean type");
+            }
+        } else if(s instanceof BlockStmt) {
+            frame = new BlockFrame(s, gamma.enter(), continueBreakOk, returnOk, (BlockStmt) s);
+        } else if(s instanceof FunctionDeclareStmt) {
+            FunctionDeclareStmt asFunDeclare = (FunctionDeclareStmt)s;
+            LinkedHashMap<Exp, Type> parameters = asFunDeclare.getParameterList();
+            VariableExp[] variableExps = new VariableExp[parameters.size()];
+            Type[] types = new Type[parameters.size()];
+            final int scope = gamma.enter();
+            parameters.keySet().toArray(variableExps);
+            parameters.values().toArray(types);
+
+            for(int i = 0; i < variableExps.length; i++) {
+                types[i] = Types.canonical(types[i]);
+                gamma.put(variableExps[i], new Pair<>(types[i], false));
+            }
+            returnTypeFromFunc = Types.canonical(asFunDeclare.getReturnType());
+            if(returnTypeFromFunc != BasicType.TYPE_UNIT) {
+                returnEvaluate = -1;
+            }
+            frame = new BlockFrame(s, scope, continueBreakOk, true, asFunDeclare.getBlockStmt());
+            frame.parameterTypes = types;
+        } else {
+            Type conditionType = typeOf(((IfStmt) s).getCondition());
+            if(conditionType != BasicType.TYPE_BOOLEAN) {
+                throw new IllTypedException("if condition should be boolean type.");
+            }
+            frame = new BlockFrame(s, gamma.enter(), continueBreakOk, returnOk, ((IfStmt) s).getTrueBranch());
+            frame.returnEvaluateBefore = returnEvaluate;
+            if(returnEvaluate < 0) {
+                returnEvaluate--;
+            }
+        }
+        alreadyReturn = false;
+        return frame;
+    }
+
+    // Checks what comes after the last block of the statement of frame.
+    private void closeBlock(final BlockFrame frame) throws IllTypedException {
+        if(frame.owner instanceof FunctionDeclareStmt) {
+            if(returnEvaluate < 0) {
+                throw new IllTypedException("Missing return " + returnTypeFromFunc + " in Function Declaration " + ((FunctionDeclareStmt) frame.owner).getFuncName()
+                    + "(" + Arrays.toString(frame.parameterTypes) + ")" + " : " + returnTypeFromFunc);
+            }
+            returnTypeFromFunc = null;
+        } else if(frame.owner instanceof IfStmt) {
+            if(returnEvaluate - frame.returnEvaluateBefore < 1) {     // It means returnEvaluate does not add by 2, it means not all two branch in if has return
+                returnEvaluate = frame.returnEvaluateBefore;
+            }
+        }
+    }
+
+    private void typecheckSimpleStmt(boolean continueBreakOk, boolean returnOk, Stmt s) throws IllTypedException {
         if(s instanceof VariableDeclareStmt) {
+
             if(gamma.containsKey(((VariableDeclareStmt) s).getVariableExp())) {
                 throw new IllTypedException("Redefined variable " + ((VariableDeclareStmt) s).getVariableExp().getName());
             } else {
@@ -287,9 +585,7 @@ public class Typechecker {
                     if(((VariableDeclareStmt) s).isReadOnly()) {
                         throw new IllTypedException("This variable must either have a type annotation or be initialized");
                     }
-                    final Map<Variable, Pair<Type, Boolean>> copy = newCopy(gamma);
-                    copy.put(((VariableDeclareStmt) s).getVariableExp(), new Pair<>(((VariableDeclareStmt) s).getType(), ((VariableDeclareStmt) s).isReadOnly()));
-                    return copy;
+                    gamma.put(((VariableDeclareStmt) s).getVariableExp(), new Pair<>(Types.canonical(((VariableDeclareStmt) s).getType()), ((VariableDeclareStmt) s).isReadOnly()));
                 } else {
                     throw new IllTypedException("This variable must either have a type annotation or be initialized");
                 }
@@ -300,38 +596,34 @@ public class Typechecker {
                     throw new IllTypedException(((AssignStmt) s).getVariable() + " redefined!");
                 }
                 if (((AssignStmt) s).getType() != null) {
-                    Type expectedType = ((AssignStmt) s).getType();
-                    if (typeOf(gamma, ((AssignStmt) s).getExpression()).equals(expectedType)) {
-                        final Map<Variable, Pair<Type, Boolean>> copy = newCopy(gamma);
-                        copy.put(((AssignStmt) s).getVariable(), new Pair<>(expectedType, ((AssignStmt) s).isReadOnly()));
-                        return copy;
+                    Type expectedType = Types.canonical(((AssignStmt) s).getType());
+                    if (typeOf(((AssignStmt) s).getExpression()) == expectedType) {
+                        gamma.put((VariableExp) ((AssignStmt) s).getVariable(), new Pair<>(expectedType, ((AssignStmt) s).isReadOnly()));
                     } else {
                         throw new IllTypedException(expectedType + "expected!");
                     }
                 } else {    // Type inference
-                    Type type = typeOf(gamma, ((AssignStmt) s).getExpression());
-                    final Map<Variable, Pair<Type, Boolean>> copy = newCopy(gamma);
-                    copy.put(((AssignStmt) s).getVariable(), new Pair<>(type, ((AssignStmt) s).isReadOnly()));
-                    return copy;
+                    Type type = typeOf(((AssignStmt) s).getExpression());
+                    gamma.put((VariableExp) ((AssignStmt) s).getVariable(), new Pair<>(type, ((AssignStmt) s).isReadOnly()));
                 }
             } else {    // we need to check gamma contain the variable or not in this case
                 if(gamma.containsKey(((AssignStmt) s).getVariable())) {
                     if(gamma.get(((AssignStmt) s).getVariable()).getSecond()) { // Read only variable
                         throw new IllTypedException(((AssignStmt) s).getVariable() + " is read only variable!");
                     } else {
-                        Type expectedType = typeOf(gamma, (Exp)((AssignStmt) s).getVariable());
-                        if(!typeOf(gamma, ((AssignStmt) s).getExpression()).equals(expectedType)) {
+                        Type expectedType = typeOf((Exp)((AssignStmt) s).getVariable());
+                        if(typeOf(((AssignStmt) s).getExpression()) != expectedType) {
                             throw new IllTypedException(expectedType + " expected");
                         }
-                        return gamma;
+                        return;
                     }
                 } else if(((AssignStmt) s).getVariable() instanceof ArrayWithIndexExp) {
-                    Type expected = typeOf(gamma, (Exp)((AssignStmt) s).getVariable());
+                    Type expected = typeOf((Exp)((AssignStmt) s).getVariable());
                     if(gamma.get(((ArrayWithIndexExp) ((AssignStmt) s).getVariable()).getVariableExp()).getSecond()) {
                         throw new IllTypedException(((ArrayWithIndexExp) ((AssignStmt) s).getVariable()).getVariableExp() + " is read only variable!");
                     }
-                    if(typeOf(gamma, ((AssignStmt) s).getExpression()).equals(expected)) {
-                        return gamma;
+                    if(typeOf(((AssignStmt) s).getExpression()) == expected) {
+                        return;
                     } else {
                         throw new IllTypedException(expected + " expected for expression");
                     }
@@ -344,13 +636,13 @@ public class Typechecker {
                 if(gamma.get(((CompoundAssignStmt) s).getVariable()).getSecond()) {
                     throw new IllTypedException("Read only variable cannot be assigned a new value!");
                 }
-                Type expected = typeOf(gamma, ((CompoundAssignStmt) s).getExpression());
+                Type expected = typeOf(((CompoundAssignStmt) s).getExpression());
                 Variable variable = ((CompoundAssignStmt) s).getVariable();
                 CompoundAssignOp op = ((CompoundAssignStmt) s).getOp();
                 if (op == CompoundAssignOp.EXP_DIVIDE_EQUAL || op == CompoundAssignOp.EXP_MULTIPLY_EQUAL
                         || op == CompoundAssignOp.EXP_MINUS_EQUAL) {
                     if(expected == BasicType.TYPE_INT && gamma.get(variable).getFirst() == BasicType.TYPE_INT) {
-                        return gamma;
+                        return;
                     } else {
                         throw new IllTypedException("-=, *=, /= only support integer operation!");
                     }
@@ -358,99 +650,37 @@ public class Typechecker {
                     if((expected == BasicType.TYPE_INT && gamma.get(variable).getFirst() == BasicType.TYPE_INT)
                             || (expected == BasicType.TYPE_STRING && gamma.get(variable).getFirst() == BasicType.TYPE_STRING)
                             || (expected == BasicType.TYPE_INT && gamma.get(variable).getFirst() == BasicType.TYPE_STRING)) {
-                        return gamma;
+                        return;
                     } else {
                         throw new IllTypedException("Only Int += Int, String += Int, String += String supported!");
                     }
                 }
             } else if(((CompoundAssignStmt) s).getVariable() instanceof ArrayWithIndexExp) {
-                Type expected = typeOf(gamma, (Exp)((CompoundAssignStmt) s).getVariable());
+                Type expected = typeOf((Exp)((CompoundAssignStmt) s).getVariable());
                 if(gamma.get(((ArrayWithIndexExp) ((CompoundAssignStmt) s).getVariable()).getVariableExp()).getSecond()) {
                     throw new IllTypedException(((ArrayWithIndexExp) ((CompoundAssignStmt) s).getVariable()).getVariableExp() + " is read only variable!");
                 }
-                if(typeOf(gamma, ((CompoundAssignStmt) s).getExpression()).equals(expected)) {
-                    return gamma;
+                if(typeOf(((CompoundAssignStmt) s).getExpression()) == expected) {
+                    return;
                 } else {
                     throw new IllTypedException(expected + " expected for expression");
                 }
             } else {
                 throw new IllTypedException(((CompoundAssignStmt) s).getVariable() + " undefined!");
             }
-        } else if(s instanceof ForStmt) {
-            final ForStmt asFor = (ForStmt) s;
-            final Map<Variable, Pair<Type, Boolean>> newGama = newCopy(gamma);
-            if(asFor.getArrayExp() != null) {
-                Type type = typeOf(newGama, asFor.getArrayExp());
-                if(type instanceof TypeArray || type instanceof TypeMutableList) {  // Type inference for array or list
-                    if(type instanceof TypeArray) {
-                        newGama.put(asFor.getIteratorExp(), new Pair<>(((TypeArray) type).getBasicType(), false));
-                    } else {
-                        newGama.put(asFor.getIteratorExp(), new Pair<>(((TypeMutableList) type).getBasicType(), false));
-                    }
-                } else {
-                    throw new IllTypedException(asFor.getArrayExp() + " is not a collection");
-                }
-            } else {
-                if(asFor.getStepExp() != null) {    // Only range expression can have step expression
-                    Type type = typeOf(newGama, asFor.getStepExp());
-                    if(type != BasicType.TYPE_INT) {
-                        throw new IllTypedException("Expression after step should be Int type");
-                    }
-                }
-                newGama.put(asFor.getIteratorExp(), new Pair<>(BasicType.TYPE_INT, false));
-            }
-
-            typecheckBlockStmts(newGama, true, returnOk, asFor.getBlockStmt());
-            return gamma;
-        } else if(s instanceof WhileStmt) {
-            final WhileStmt asWhile = (WhileStmt) s;
-            Type type = typeOf(gamma, asWhile.getCondition());
-            if(type == BasicType.TYPE_BOOLEAN) {
-                typecheckBlockStmts(gamma, true, returnOk, asWhile.getBlockStmt());
-                return gamma;
-            } else {
-                throw new IllTypedException("while condition should be boolean type");
-            }
-        } else if(s instanceof BlockStmt) {
-            typecheckBlockStmts(gamma, continueBreakOk, returnOk, (BlockStmt) s);
-            return gamma;
         } else if(s instanceof ControlLoopStmt) {
             if(!continueBreakOk) {
                 throw new IllTypedException("break or continue should be in loop scope");
             } else {
-                return gamma;
+                return;
             }
-        }
-        else if(s instanceof FunctionDeclareStmt) {
-            FunctionDeclareStmt asFunDeclare = (FunctionDeclareStmt)s;
-            LinkedHashMap<Exp, Type> parameters = asFunDeclare.getParameterList();
-            VariableExp[] variableExps = new VariableExp[parameters.size()];
-            Type[] types = new Type[parameters.size()];
-            final Map<Variable, Pair<Type, Boolean>> newGama = newCopy(gamma);
-            parameters.keySet().toArray(variableExps);
-            parameters.values().toArray(types);
-
-            for(int i = 0; i < variableExps.length; i++) {
-                newGama.put(variableExps[i], new Pair<>(types[i], false));
-            }
-            returnTypeFromFunc = asFunDeclare.getReturnType();
-            if(returnTypeFromFunc != BasicType.TYPE_UNIT) {
-                returnEvaluate = -1;
-            }
-            typecheckBlockStmts(newGama, continueBreakOk, true, asFunDeclare.getBlockStmt());
-            if(returnEvaluate < 0) {
-                throw new IllTypedException("Missing return " + returnTypeFromFunc + " in Function Declaration " + asFunDeclare.getFuncName()
-                    + "(" + Arrays.toString(types) + ")" + " : " + returnTypeFromFunc);
-            }
-            returnTypeFromFunc = null;
-            return gamma;
         } else if(s instanceof ReturnStmt) {
             if (!returnOk) {
                 throw new IllTypedException("return statement should only be in the body of function declare statement");
             }
 
             if(((ReturnStmt) s).getReturnExp() != null) {
-                Type returnType = typeOf(gamma, ((ReturnStmt) s).getReturnExp());
+                Type returnType = typeOf(((ReturnStmt) s).getReturnExp());
                 if (returnTypeFromFunc == null || returnTypeFromFunc != returnType) {
                     throw new IllTypedException("return type should be the same as return type in function declaration.");
                 }
@@ -463,48 +693,32 @@ public class Typechecker {
                 returnEvaluate++;
             }
             alreadyReturn = true;
-            return gamma;
+            return;
         } else if(s instanceof FunctionInstanceStmt) {
             FunctionInstanceStmt asFunInstance = (FunctionInstanceStmt)s;
-            typeOf(gamma, asFunInstance.getFunctionInstanceExp());
-            return gamma;
+            typeOf(asFunInstance.getFunctionInstanceExp());
+            return;
         } else if(s instanceof PrintStmt || s instanceof PrintlnStmt) {
             if(s instanceof PrintStmt) {
                 if(((PrintStmt) s).getValue() != null) {
-                    if (!(typeOf(gamma, ((PrintStmt) s).getValue()) instanceof BasicType)) {
+                    if (!(typeOf(((PrintStmt) s).getValue()) instanceof BasicType)) {
                         throw new IllTypedException("Only basic type expression allowed in print(ln) statement");
                     }
                 }
             } else {
                 if(((PrintlnStmt) s).getValue() != null) {
-                    if (!(typeOf(gamma, ((PrintlnStmt) s).getValue()) instanceof BasicType)) {
+                    if (!(typeOf(((PrintlnStmt) s).getValue()) instanceof BasicType)) {
                         throw new IllTypedException("Only basic type expression allowed in print(ln) statement");
                     }
                 }
             }
-            return gamma;
-        } else if(s instanceof IfStmt) {
-            Type conditionType = typeOf(gamma, ((IfStmt) s).getCondition());
-            if(conditionType != BasicType.TYPE_BOOLEAN) {
-                throw new IllTypedException("if condition should be boolean type.");
-            } else {
-                int temp = returnEvaluate;
-                if(returnEvaluate < 0) {
-                    returnEvaluate--;
-                }
-                typecheckBlockStmts(gamma, continueBreakOk, returnOk, ((IfStmt) s).getTrueBranch());
-                typecheckBlockStmts(gamma, continueBreakOk, returnOk, ((IfStmt) s).getFalseBranch());
-                if(returnEvaluate - temp < 1) {     // It means returnEvaluate does not add by 2, it means not all two branch in if has return
-                    returnEvaluate = temp;
-                }
-                return gamma;
-            }
+            return;
         } else if(s instanceof SelfOperationStmt) {
-            Type variableType = typeOf(gamma, ((SelfOperationStmt) s).getSelfOperationExp());
+            Type variableType = typeOf(((SelfOperationStmt) s).getSelfOperationExp());
             if(variableType != BasicType.TYPE_INT) {
                 throw new IllTypedException("Only Int support ++, --");
             } else {
-                return gamma;
+                return;
             }
         } else {
             assert(false);
@@ -512,58 +726,120 @@ public class Typechecker {
         }
     }
 
-    private static Map<Variable, Pair<Type, Boolean>> typecheckBlockStmts(Map<Variable, Pair<Type, Boolean>> gamma, boolean continueBreakOK, boolean returnOk, final BlockStmt blockStmt) throws IllTypedException {
-        alreadyReturn = false;
-        if(blockStmt != null) {
-            Stmt s;
-            for (int i = 0; i < blockStmt.getStmtList().size(); i++) {
-                s = blockStmt.getStmtList().get(i);
-                if (s instanceof FunctionDeclareStmt) {
-                    throw new IllTypedException("Function declaration is not allowed in block");
-                }
-                gamma = typecheckStmt(gamma, continueBreakOK, returnOk, s);
-                if(alreadyReturn) {
-                    if(i < blockStmt.getStmtList().size() - 1) {
-                        throw new IllTypedException("Statements after return cannot be reached in current block");
-                    }
-                    break;
-                }
-            }
-            alreadyReturn = false;
-            return gamma;
-        } else {
-            return gamma;
-        }
+    /**
+     * Checks program and gives the type of each of its expressions, see getExpTypes.
+     */
+    public static Map<Exp, Type> typecheckProgram(final Program program) throws IllTypedException {
+        return typecheckProgram(program, null);
+    }
+
+    public static Map<Exp, Type> typecheckProgram(final Program program, final TypecheckCache cache) throws IllTypedException {
+        final Typechecker typechecker = new Typechecker(cache);
+        typechecker.typecheck(program);
+        return typechecker.getExpTypes();
     }
 
-    private static Map<Variable, Pair<Type, Boolean>> newCopy(final Map<Variable, Pair<Type, Boolean>> gamma) {
-        return new HashMap<>(gamma);
+    /**
+     * The type of every expression the last typecheck went through, keyed by identity so the
+     * CodeGenerator can look up the node it is at instead of working the type out again. Variables
+     * are not in it, their type depends on where they are.
+     */
+    public Map<Exp, Type> getExpTypes() {
+        return expTypes;
     }
 
-    public static void typecheckProgram(final Program program) throws IllTypedException {
+    public void typecheck(final Program program) throws IllTypedException {
         List<Stmt> stmtList = program.getStmtList();
-        Map<Variable, Pair<Type, Boolean>> gamma = new HashMap<>();
-        if(funcMap == null || funcMap.size() > 0) {
-            funcMap = new HashMap<>();
+        declareFunctions(stmtList);
+        for(Stmt s : stmtList) {
+            typecheckToplevel(s);
         }
+    }
+
+    // Starts a check of stmtList with the signatures of its functions, which every body can call.
+    void declareFunctions(final List<Stmt> stmtList) throws IllTypedException {
+        gamma = new TypeEnvironment();
+        expTypes = new IdentityHashMap<>();
+        globals.clear();
+        functions.clear();
         returnTypeFromFunc = null;
         returnEvaluate = 0;
+        alreadyReturn = false;
 
         for(Stmt s : stmtList) {
             if(s instanceof FunctionDeclareStmt) {
                 FunctionDeclareStmt asFunDeclare = (FunctionDeclareStmt)s;
-                List<Type> parameters = new ArrayList<>(asFunDeclare.getParameterList().values());
-                if(!funcMap.containsKey(new Pair<>(asFunDeclare.getFuncName(), parameters))) {
-                    funcMap.put(new Pair<>(asFunDeclare.getFuncName(), parameters), asFunDeclare);
-                } else {
+                if(!functions.add(asFunDeclare)) {
                     throw new IllTypedException("Function " + asFunDeclare.getFuncName().getName()
-                        + "(" + parameters + ")" + " redefined");
+                        + "(" + asFunDeclare.getParameterList().values() + ")" + " redefined");
                 }
             }
         }
+    }
 
-        for(Stmt s : stmtList) {
-            gamma = typecheckStmt(gamma, false, false, s);
+    // Checks a top level statement of the program given to declareFunctions.
+    void typecheckToplevel(final Stmt s) throws IllTypedException {
+        if(cache == null) {
+            typecheckStmt(false, false, s);
+        } else if(s instanceof FunctionDeclareStmt) {
+            typecheckCached((FunctionDeclareStmt) s);
+        } else {
+            typecheckStmt(false, false, s);
+            VariableExp declared = null;
+            if(s instanceof VariableDeclareStmt) {
+                declared = ((VariableDeclareStmt) s).getVariableExp();
+            } else if(s instanceof AssignStmt && ((AssignStmt) s).isNew()) {
+                declared = (VariableExp) ((AssignStmt) s).getVariable();
+            }
+            if(declared != null) {
+                globals.put(declared.getName(), gamma.get(declared));
+            }
+        }
+    }
+
+    // Checks function, unless it passed before and the names it looked up are still the same.
+    private void typecheckCached(final FunctionDeclareStmt function) throws IllTypedException {
+        final String key = TypecheckCache.hash(function.toString());
+        final String[] names = cache.names(key);
+        if(cache.passed(key, names == null ? null : namesHash(names))) {
+            return;
         }
+        final Set<String> looked = new TreeSet<>();
+        lookups = looked;
+        gamma.recordLookups(looked);
+        try {
+            typecheckStmt(false, false, function);
+        } finally {
+            gamma.recordLookups(null);
+            lookups = null;
+        }
+        for(String name : looked) {
+            if(functions.named(name).size() > 1) {
+                return;     // the CodeGenerator needs the overload each call was resolved to
+            }
+        }
+        cache.put(key, String.join(" ", looked), namesHash(looked.toArray(new String[0])));
+    }
+
+    // What the names are at the top level: the type of a variable, and the signatures of functions.
+    private String namesHash(final String[] names) {
+        final StringBuilder text = new StringBuilder();
+        for(String name : names) {
+            text.append(name).append('=').append(globals.get(name));
+            for(FunctionDeclareStmt function : functions.named(name)) {
+                text.append(", ").append(function.getParameterList().values()).append(':').append(Types.canonical(function.getReturnType()));
+            }
+            text.append('\n');
+        }
+        return TypecheckCache.hash(text.toString());
+    }
+
+    /**
+     * A Typechecker for the function declared at the top level statement reached so far. It shares
+     * the signatures, which are only read once declareFunctions is done, and has its own copy of the
+     * variables in scope, so it can check the body on another thread.
+     */
+    Typechecker forFunction() {
+        return new Typechecker(this);
     }
 }
@@ -2,21 +2,35 @@ package com.github.wangdong20.kotlinscriptcompiler.test;
 
 import com.github.wangdong20.kotlinscriptcompiler.codegen.CodeGenerator;
 import com.github.wangdong20.kotlinscriptcompiler.codegen.CodeGeneratorException;
+import com.github.wangdong20.kotlinscriptcompiler.optimizer.ConstantFolder;
+import com.github.wangdong20.kotlinscriptcompiler.optimizer.DeadCodeEliminator;
+import com.github.wangdong20.kotlinscriptcompiler.parser.ParseException;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Parser;
 import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
 import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.*;
 import com.github.wangdong20.kotlinscriptcompiler.parser.statements.*;
 import com.github.wangdong20.kotlinscriptcompiler.parser.type.BasicType;
 import com.github.wangdong20.kotlinscriptcompiler.parser.type.Type;
 import com.github.wangdong20.kotlinscriptcompiler.parser.type.TypeArray;
+import com.github.wangdong20.kotlinscriptcompiler.token.TokenBuffer;
+import com.github.wangdong20.kotlinscriptcompiler.token.Tokenizer;
+import com.github.wangdong20.kotlinscriptcompiler.token.TokenizerException;
+import com.github.wangdong20.kotlinscriptcompiler.typechecker.IllTypedException;
+import com.github.wangdong20.kotlinscriptcompiler.typechecker.TypecheckCache;
+import com.github.wangdong20.kotlinscriptcompiler.typechecker.Typechecker;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInfo;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class CodeGeneratorTest {
@@ -48,8 +62,13 @@ public class CodeGeneratorTest {
 
     public String[] runTest(final Program program, String testName)
             throws CodeGeneratorException, IOException {
+        return runTest(program, Collections.<Exp, Type>emptyMap(), testName);
+    } // runTest
+
+    public String[] runTest(final Program program, final Map<Exp, Type> expTypes, String testName)
+            throws CodeGeneratorException, IOException {
         currentClassName = CLASS_NAME_PREFIX + testName;
-        final CodeGenerator generator = new CodeGenerator(currentClassName, METHOD_NAME);
+        final CodeGenerator generator = new CodeGenerator(currentClassName, METHOD_NAME, expTypes);
         generator.writeProgram(program);
         final ProcessBuilder builder = new ProcessBuilder("java", currentClassName);
         builder.redirectErrorStream(true);
@@ -70,6 +89,15 @@ public class CodeGeneratorTest {
         new File(currentClassName + ".class").delete();
     } // runTest
 
+    // Generates with the types the Typechecker gives for program.
+    public void assertTypedOutput(String testName, final Program program,
+                                  final String... expectedOutput)
+            throws CodeGeneratorException, IOException, IllTypedException {
+        assertArrayEquals(expectedOutput,
+                runTest(program, Typechecker.typecheckProgram(program), testName));
+        new File(currentClassName + ".class").delete();
+    } // assertTypedOutput
+
     public void assertOutputExpectedException (String testName, final Program program,
                                                final String... expectedOutput) {
         Throwable exception = assertThrows(CodeGeneratorException.class,
@@ -692,4 +720,128 @@ public class CodeGeneratorTest {
         ), "-2");
     }
 
+    @Test
+    // Parsed, so the variables have ids, and x is declared again in every block.
+    public void testSameNameInSiblingScopes(TestInfo testInfo) throws CodeGeneratorException, IOException, TokenizerException, ParseException {
+        String source = "var total = 0\n" +
+                "for(i in 0..3) {\n" +
+                "    var x = i * 2\n" +
+                "    total += x\n" +
+                "}\n" +
+                "for(i in 0..2) {\n" +
+                "    var x = 10\n" +
+                "    total += x\n" +
+                "}\n" +
+                "if(total > 0) {\n" +
+                "    var x = \"big\"\n" +
+                "    print(x)\n" +
+                "}\n" +
+                "print(total)\n";
+        assertOutput(testInfo.getDisplayName(), new Parser(TokenBuffer.tokenize(new Tokenizer(source))).parseToplevelProgram(), "big26");
+    }
+
+    @Test
+    // An element of a String array added to something is a String, which only the Typechecker knows.
+    public void testStringArrayElementConcatenation(TestInfo testInfo) throws CodeGeneratorException, IOException, TokenizerException, ParseException, IllTypedException {
+        String source = "var a = arrayOf(\"x\", \"y\")\n" +
+                "println(a[0] + 1)\n" +
+                "println(a[1] + \"z\" + 2)\n" +
+                "var n = arrayOf(1, 2)\n" +
+                "println(n[0] + n[1] * 3)\n";
+        assertTypedOutput(testInfo.getDisplayName(), new Parser(TokenBuffer.tokenize(new Tokenizer(source))).parseToplevelProgram(),
+                "x1", "yz2", "7");
+    }
+
+    @Test
+    // Folded expressions take the types of the ones they replace, a String array element included.
+    public void testFoldedConstants(TestInfo testInfo) throws CodeGeneratorException, IOException, TokenizerException, ParseException, IllTypedException {
+        String source = "val k = 3\n" +
+                "val a = arrayOf(\"x\", \"y\")\n" +
+                "var n = 2\n" +
+                "println(a[0] + (k * 2 + 1))\n" +
+                "println(\"k=$k, \" + n + (\"!\" + k * 2))\n" +
+                "var b = k > 2 && n < 5\n" +
+                "println(b || false)\n" +
+                "println(n * (4 / 2) + k)\n";
+        Program program = new Parser(TokenBuffer.tokenize(new Tokenizer(source))).parseToplevelProgram();
+        ConstantFolder folder = new ConstantFolder(Typechecker.typecheckProgram(program));
+        Program folded = folder.fold(program);
+        assertArrayEquals(new String[] { "x7", "k=3, 2!6", "true", "7" },
+                runTest(folded, folder.getExpTypes(), testInfo.getDisplayName()));
+        new File(currentClassName + ".class").delete();
+    }
+
+    @Test
+    // Each overload is a method of its own, a call goes to the one the Typechecker resolved it to.
+    public void testOverloadedFunctions(TestInfo testInfo) throws CodeGeneratorException, IOException, TokenizerException, ParseException, IllTypedException {
+        String source = "fun show(x: Int): Int {\n" +
+                "    println(\"int \" + x)\n" +
+                "    return x\n" +
+                "}\n" +
+                "fun show(s: String): Int {\n" +
+                "    println(\"string \" + s)\n" +
+                "    return 0\n" +
+                "}\n" +
+                "var n = show(1)\n" +
+                "var w = \"a\"\n" +
+                "n = show(w)\n";
+        assertTypedOutput(testInfo.getDisplayName(), new Parser(TokenBuffer.tokenize(new Tokenizer(source))).parseToplevelProgram(),
+                "int 1", "string a");
+    }
+
+    @Test
+    // An if taken for sure is left as a block, a break or continue in it still leaves the loop around it.
+    public void testPrunedDeadCode(TestInfo testInfo) throws CodeGeneratorException, IOException, TokenizerException, ParseException, IllTypedException {
+        String source = "val debug = false\n" +
+                "var n = 0\n" +
+                "while(n < 10) {\n" +
+                "    n = n + 1\n" +
+                "    if(n < 3) {\n" +
+                "        continue\n" +
+                "        println(n)\n" +
+                "    }\n" +
+                "    if(!debug) {\n" +
+                "        println(n)\n" +
+                "        if(n == 4) {\n" +
+                "            break\n" +
+                "        } else {\n" +
+                "        }\n" +
+                "    } else {\n" +
+                "        println(0)\n" +
+                "    }\n" +
+                "}\n" +
+                "while(debug) {\n" +
+                "    println(0)\n" +
+                "}\n" +
+                "println(n)\n";
+        Program program = new Parser(TokenBuffer.tokenize(new Tokenizer(source))).parseToplevelProgram();
+        ConstantFolder folder = new ConstantFolder(Typechecker.typecheckProgram(program));
+        Program pruned = new DeadCodeEliminator().eliminate(folder.fold(program));
+        assertArrayEquals(new String[] { "3", "4", "4" },
+                runTest(pruned, folder.getExpTypes(), testInfo.getDisplayName()));
+        new File(currentClassName + ".class").delete();
+    }
+
+    @Test
+    // A body skipped by the cache has no types from the Typechecker, the CodeGenerator finds them.
+    public void testStringArrayElementConcatenationInCachedFunction(TestInfo testInfo, @TempDir File directory) throws CodeGeneratorException, IOException, TokenizerException, ParseException, IllTypedException {
+        String source = "fun show(a: Array<String>) {\n" +
+                "    println(a[0] + 1)\n" +
+                "    println(a[1] + \"z\" + 2)\n" +
+                "}\n" +
+                "val words = arrayOf(\"x\", \"y\")\n" +
+                "show(words)\n";
+        File file = new File(directory, "typecheck.cache");
+        TypecheckCache cache = new TypecheckCache(file);
+        Typechecker.typecheckProgram(new Parser(TokenBuffer.tokenize(new Tokenizer(source))).parseToplevelProgram(), cache);
+        cache.save();
+
+        cache = new TypecheckCache(file);
+        Program program = new Parser(TokenBuffer.tokenize(new Tokenizer(source))).parseToplevelProgram();
+        Map<Exp, Type> expTypes = Typechecker.typecheckProgram(program, cache);
+        assertEquals(1, cache.getHits());
+        assertArrayEquals(new String[] { "x1", "yz2" }, runTest(program, expTypes, testInfo.getDisplayName()));
+        new File(currentClassName + ".class").delete();
+    }
+
 }
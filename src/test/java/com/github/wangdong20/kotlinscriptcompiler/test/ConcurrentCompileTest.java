@@ -0,0 +1,116 @@
+package com.github.wangdong20.kotlinscriptcompiler.test;
+
+import com.github.wangdong20.kotlinscriptcompiler.codegen.CodeGenerator;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Parser;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.token.Token;
+import com.github.wangdong20.kotlinscriptcompiler.token.Tokenizer;
+import com.github.wangdong20.kotlinscriptcompiler.typechecker.Typechecker;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConcurrentCompileTest {
+    private static final int PROGRAM_COUNT = 300;
+    private static final int THREAD_COUNT = 8;
+
+    // Every program is slightly different, so two compilations corrupting each other's state
+    // would show up as a different class file or a different error.
+    private static String makeSource(final int i) {
+        StringBuilder source = new StringBuilder();
+        source.append("fun f").append(i).append("(n : Int): Int {\n")
+                .append("    var total = 0\n")
+                .append("    for(k in 0..n) {\n")
+                .append("        total += k * ").append(i).append("\n")
+                .append("    }\n")
+                .append("    return total\n")
+                .append("}\n\n")
+                .append("var a = arrayOf(").append(i).append(", ").append(i + 1).append(", ").append(i + 2).append(")\n")
+                .append("var s = \"v").append(i).append("\"\n")
+                .append("for(x in a) {\n")
+                .append("    s += x\n")
+                .append("}\n")
+                .append("println(s)\n")
+                .append("println(f").append(i).append("(").append(i % 50).append("))\n")
+                .append("if(f").append(i).append("(3) > ").append(i).append(") {\n")
+                .append("    println(\"big $s\")\n")
+                .append("} else {\n")
+                .append("    println(\"small\")\n")
+                .append("}\n");
+        if(i % 7 == 0) {
+            source.append("var bad").append(i).append(" = \"x\" * ").append(i).append("\n");
+        }
+        return source.toString();
+    }
+
+    // Returns the class file, or the error message when compilation fails.
+    private static Object compile(final int i) {
+        try {
+            List<Token> tokenList = new Tokenizer(makeSource(i)).tokenize();
+            Program program = new Parser(tokenList.toArray(new Token[0])).parseToplevelProgram();
+            new Typechecker().typecheck(program);
+            return new CodeGenerator("Concurrent" + i, "compiledProgram").generateClass(program);
+        } catch (Exception e) {
+            return e.getClass().getName() + ": " + e.getMessage();
+        }
+    }
+
+    @Test
+    public void concurrentCompilationMatchesSerial() throws Exception {
+        List<Object> serial = new ArrayList<>();
+        for(int i = 0; i < PROGRAM_COUNT; i++) {
+            serial.add(compile(i));
+        }
+
+        List<Integer> order = new ArrayList<>();
+        for(int round = 0; round < 3; round++) {
+            for(int i = 0; i < PROGRAM_COUNT; i++) {
+                order.add(i);
+            }
+        }
+        Collections.shuffle(order);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        try {
+            List<Integer> submitted = new ArrayList<>();
+            List<Future<Object>> futures = new ArrayList<>();
+            for(final int i : order) {
+                submitted.add(i);
+                futures.add(executor.submit((Callable<Object>) () -> compile(i)));
+            }
+            for(int j = 0; j < futures.size(); j++) {
+                int i = submitted.get(j);
+                Object expected = serial.get(i);
+                Object received = futures.get(j).get();
+                if(expected instanceof byte[]) {
+                    assertTrue(received instanceof byte[], "Program " + i + " failed concurrently: " + received);
+                    assertTrue(Arrays.equals((byte[]) expected, (byte[]) received), "Program " + i + " compiled differently");
+                } else {
+                    assertEquals(expected, received, "Program " + i + " reported a different error");
+                }
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    @Test
+    public void illTypedProgramsFailTheSameWay() {
+        for(int i = 0; i < PROGRAM_COUNT; i += 7) {
+            Object result = compile(i);
+            assertTrue(result instanceof String, "Program " + i + " should be ill typed");
+        }
+        assertTrue(compile(1) instanceof byte[]);
+    }
+}
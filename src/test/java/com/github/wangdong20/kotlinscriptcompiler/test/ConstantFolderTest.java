@@ -0,0 +1,84 @@
+package com.github.wangdong20.kotlinscriptcompiler.test;
+
+import com.github.wangdong20.kotlinscriptcompiler.optimizer.ConstantFolder;
+import com.github.wangdong20.kotlinscriptcompiler.parser.ParseException;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Parser;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.token.TokenBuffer;
+import com.github.wangdong20.kotlinscriptcompiler.token.Tokenizer;
+import com.github.wangdong20.kotlinscriptcompiler.token.TokenizerException;
+import com.github.wangdong20.kotlinscriptcompiler.typechecker.IllTypedException;
+import com.github.wangdong20.kotlinscriptcompiler.typechecker.Typechecker;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConstantFolderTest {
+
+    private static Program parse(final String source) throws TokenizerException, ParseException {
+        return new Parser(TokenBuffer.tokenize(new Tokenizer(source))).parseToplevelProgram();
+    }
+
+    private static Program fold(final String source) throws TokenizerException, ParseException, IllTypedException {
+        Program program = parse(source);
+        return new ConstantFolder(Typechecker.typecheckProgram(program)).fold(program);
+    }
+
+    private static void assertFolds(final String expected, final String source) throws TokenizerException, ParseException, IllTypedException {
+        assertEquals(parse(expected), fold(source));
+    }
+
+    @Test
+    public void intOperators() throws TokenizerException, ParseException, IllTypedException {
+        assertFolds("var n = 1\nvar x = 6 + n\nvar y = n * 3\n",
+                "var n = 1\nvar x = 2 * 3 + n\nvar y = n * (7 % 4)\n");
+        assertFolds("var x = -3\nvar y = 2\n", "var x = 1 - 2 * 2\nvar y = 7 / 3\n");
+    }
+
+    @Test
+    public void divisionByZeroIsLeft() throws TokenizerException, ParseException, IllTypedException {
+        assertFolds("var x = 1 / 0\nvar y = 4 % 0\n", "var x = 1 / (2 - 2)\nvar y = 4 % 0\n");
+    }
+
+    @Test
+    public void strings() throws TokenizerException, ParseException, IllTypedException {
+        assertFolds("var s = \"ab1\"\nvar t = s + \"c2\"\n",
+                "var s = \"a\" + \"b\" + 1\nvar t = s + (\"c\" + 2)\n");
+        assertFolds("var n = 1\nprintln(\"3 and $n, true\")\n",
+                "var n = 1\nprintln(\"${1 + 2} and $n, ${1 < 2}\")\n");
+    }
+
+    @Test
+    public void booleans() throws TokenizerException, ParseException, IllTypedException {
+        // n < 0 could not be left out if it had a call in it.
+        assertFolds("var n = 1\nvar a = n < 2\nvar b = true\nvar c = true\nvar d = n < 0 && false\n",
+                "var n = 1\nvar a = true && n < 2\nvar b = 1 < 2 || n < 0\nvar c = !(1 == 2)\nvar d = n < 0 && 2 < 1\n");
+        assertFolds("var b = true\nvar c = false\nvar d = b\nvar e = false\n",
+                "var b = true\nvar c = b && false\nvar d = b || false\nvar e = b && (1 > 2)\n");
+        // && binds tighter than ||.
+        assertFolds("var b = true\n", "var b = true || false && false\n");
+    }
+
+    @Test
+    public void valsAreRead() throws TokenizerException, ParseException, IllTypedException {
+        assertFolds("val k = 4\nvar x = 8\nprintln(\"k is 4\")\nval s = \"k4\"\nprintln(\"k4!\")\n",
+                "val k = 4\nvar x = k * 2\nprintln(\"k is $k\")\nval s = \"k\" + k\nprintln(s + \"!\")\n");
+    }
+
+    @Test
+    public void varsAreNotRead() throws TokenizerException, ParseException, IllTypedException {
+        Program program = parse("var k = 1\nvar x = k + 1\nval y = x\nprintln(y)\n");
+        assertSame(program, new ConstantFolder(Typechecker.typecheckProgram(program)).fold(program));
+    }
+
+    @Test
+    public void valsStayInScope() throws TokenizerException, ParseException, IllTypedException {
+        assertFolds("val k = 1\nif(true) {\nval j = 2\nprintln(3)\n}\nprintln(1)\n",
+                "val k = 1\nif(true) {\nval j = 2\nprintln(k + j)\n}\nprintln(k)\n");
+        // A function may be called before a val at the top level is assigned.
+        assertFolds("val k = 1\nfun f(): Int {\nval j = 2\nreturn k + 2\n}\n",
+                "val k = 1\nfun f(): Int {\nval j = 2\nreturn k + j\n}\n");
+        assertFolds("val k = 1\nfor(i in 0..1) {\nprintln(i + 1)\n}\n",
+                "val k = 1\nfor(i in 0..k) {\nprintln(i + k)\n}\n");
+    }
+}
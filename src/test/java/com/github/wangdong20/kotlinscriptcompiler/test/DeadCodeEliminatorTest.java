@@ -0,0 +1,104 @@
+package com.github.wangdong20.kotlinscriptcompiler.test;
+
+import com.github.wangdong20.kotlinscriptcompiler.codegen.CodeGenerator;
+import com.github.wangdong20.kotlinscriptcompiler.codegen.CodeGeneratorException;
+import com.github.wangdong20.kotlinscriptcompiler.optimizer.ConstantFolder;
+import com.github.wangdong20.kotlinscriptcompiler.optimizer.DeadCodeEliminator;
+import com.github.wangdong20.kotlinscriptcompiler.parser.ParseException;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Parser;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.BlockStmt;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.ForStmt;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.FunctionDeclareStmt;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.Stmt;
+import com.github.wangdong20.kotlinscriptcompiler.token.TokenBuffer;
+import com.github.wangdong20.kotlinscriptcompiler.token.Tokenizer;
+import com.github.wangdong20.kotlinscriptcompiler.token.TokenizerException;
+import com.github.wangdong20.kotlinscriptcompiler.typechecker.IllTypedException;
+import com.github.wangdong20.kotlinscriptcompiler.typechecker.Typechecker;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeadCodeEliminatorTest {
+
+    private static Program parse(final String source) throws TokenizerException, ParseException {
+        return new Parser(TokenBuffer.tokenize(new Tokenizer(source))).parseToplevelProgram();
+    }
+
+    private static Program fold(final String source) throws TokenizerException, ParseException, IllTypedException {
+        Program program = parse(source);
+        return new ConstantFolder(Typechecker.typecheckProgram(program)).fold(program);
+    }
+
+    private static Program prune(final String source) throws TokenizerException, ParseException, IllTypedException {
+        return new DeadCodeEliminator().eliminate(fold(source));
+    }
+
+    private static void assertPrunes(final String expected, final String source) throws TokenizerException, ParseException, IllTypedException {
+        assertEquals(parse(expected), prune(source));
+    }
+
+    // The language has no block on its own, it is made from the statements of source.
+    private static BlockStmt block(final String source) throws TokenizerException, ParseException {
+        return new BlockStmt(parse(source).getStmtList());
+    }
+
+    private static Program program(final Stmt... stmts) {
+        return new Program(Arrays.asList(stmts));
+    }
+
+    @Test
+    public void constantIfs() throws TokenizerException, ParseException, IllTypedException {
+        assertEquals(program(parse("var n = 1\n").getStmtList().get(0), block("println(n)\n"), block("println(2)\n")),
+                prune("var n = 1\nif(1 < 2) {\nprintln(n)\n} else {\nprintln(0)\n}\nif(false) {\nprintln(1)\n} else {\nprintln(2)\n}\n"));
+        assertPrunes("var n = 1\n", "var n = 1\nif(2 < 1 && n > 2) {\nprintln(n)\n}\nif(true) {\n}\n");
+    }
+
+    @Test
+    public void whileFalse() throws TokenizerException, ParseException, IllTypedException {
+        assertPrunes("var n = 1\n", "var n = 1\nwhile(2 < 1) {\nn = n + 1\n}\n");
+    }
+
+    @Test
+    public void afterBreakAndContinue() throws TokenizerException, ParseException, IllTypedException {
+        assertPrunes("var n = 0\nwhile(n < 3) {\nn = n + 1\nif(n == 2) {\nbreak\n} else {\ncontinue\n}\n}\n",
+                "var n = 0\nwhile(n < 3) {\nn = n + 1\nif(n == 2) {\nbreak\nn = 5\n} else {\ncontinue\n}\nprintln(n)\n}\n");
+        ForStmt loop = (ForStmt) parse("for(i in 0..3) {\n}\n").getStmtList().get(0);
+        assertEquals(program(new ForStmt(loop.getIteratorExp(), loop.getRangeExp(), new BlockStmt(Arrays.<Stmt>asList(block("continue\n"))))),
+                prune("for(i in 0..3) {\nif(true) {\ncontinue\nprintln(i)\n}\nprintln(i)\n}\n"));
+    }
+
+    @Test
+    public void returnOnlyEndsItsBlock() throws TokenizerException, ParseException, IllTypedException {
+        // The CodeGenerator returns at the end of the function, so println(n) still runs after return 1.
+        Program program = fold("fun f(n: Int): Int {\nif(n > 0) {\nreturn 1\n}\nprintln(n)\nreturn 0\n}\n");
+        assertSame(program, new DeadCodeEliminator().eliminate(program));
+        FunctionDeclareStmt f = (FunctionDeclareStmt) parse("fun f(n: Int): Int {\nprintln(n)\nreturn 0\n}\n").getStmtList().get(0);
+        List<Stmt> body = new ArrayList<>(f.getBlockStmt().getStmtList());
+        body.add(0, block("return 1\n"));
+        assertEquals(program(new FunctionDeclareStmt(f.getFuncName(), f.getReturnType(), f.getParameterList(), new BlockStmt(body))),
+                prune("fun f(n: Int): Int {\nif(true) {\nreturn 1\n}\nprintln(n)\nreturn 0\n}\n"));
+    }
+
+    @Test
+    public void bytesRemoved() throws TokenizerException, ParseException, IllTypedException, CodeGeneratorException {
+        Program program = parse("fun f(n: Int): Int {\nif(1 > 2) {\nprintln(n)\n}\nreturn n\n}\n" +
+                "fun g(n: Int): Int {\nreturn n\n}\nprintln(f(1))\nprintln(g(2))\n");
+        ConstantFolder folder = new ConstantFolder(Typechecker.typecheckProgram(program));
+        Program folded = folder.fold(program);
+        DeadCodeEliminator eliminator = new DeadCodeEliminator();
+        CodeGenerator before = new CodeGenerator("Before", "compiledProgram", folder.getExpTypes());
+        before.generateClass(folded);
+        CodeGenerator after = new CodeGenerator("After", "compiledProgram", folder.getExpTypes());
+        after.generateClass(eliminator.eliminate(folded));
+        Map<String, Integer> removed = eliminator.bytesRemoved(before.getMethodSizes(), after.getMethodSizes());
+        assertEquals(1, removed.size());
+        assertTrue(removed.get("f(I)I") > 0);
+    }
+}
@@ -0,0 +1,209 @@
+package com.github.wangdong20.kotlinscriptcompiler.test;
+
+import com.github.wangdong20.kotlinscriptcompiler.codegen.CodeGenerator;
+import com.github.wangdong20.kotlinscriptcompiler.optimizer.ConstantFolder;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Parser;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.AdditiveExp;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.BiLogicalExp;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.BooleanExp;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.Exp;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.IntExp;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.AssignStmt;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.IfStmt;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.Stmt;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.WhileStmt;
+import com.github.wangdong20.kotlinscriptcompiler.token.TokenBuffer;
+import com.github.wangdong20.kotlinscriptcompiler.token.Tokenizer;
+import com.github.wangdong20.kotlinscriptcompiler.typechecker.IllTypedException;
+import com.github.wangdong20.kotlinscriptcompiler.typechecker.Typechecker;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.MethodTooLargeException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.Callable;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The Parser, Typechecker and CodeGenerator on programs nested far deeper than a thread stack
+ * could hold with one frame per level. Everything runs on a thread with a small stack.
+ */
+public class DeepNestingTest {
+    private static final int DEPTH = 100000;
+    private static final long STACK_SIZE = 256 * 1024;
+
+    private static <A> A onSmallStack(final Callable<A> body) throws Throwable {
+        final Object[] result = new Object[1];
+        final Throwable[] failure = new Throwable[1];
+        final Thread thread = new Thread(null, () -> {
+            try {
+                result[0] = body.call();
+            } catch (Throwable t) {
+                failure[0] = t;
+            }
+        }, "small stack", STACK_SIZE);
+        thread.start();
+        thread.join();
+        if(failure[0] != null) {
+            throw failure[0];
+        }
+        @SuppressWarnings("unchecked")
+        final A a = (A) result[0];
+        return a;
+    }
+
+    private static Program parse(final String source) throws Throwable {
+        return onSmallStack(() -> new Parser(TokenBuffer.tokenize(new Tokenizer(source))).parseToplevelProgram());
+    }
+
+    private static void typecheck(final Program program) throws Throwable {
+        onSmallStack(() -> {
+            Typechecker.typecheckProgram(program);
+            return null;
+        });
+    }
+
+    // Levels alternate between while and if else, the innermost block counts.
+    private static String nestedSource(final int depth) {
+        final StringBuilder source = new StringBuilder("var n = 0\n");
+        for(int i = 0; i < depth; i++) {
+            source.append(i % 2 == 0 ? "while(n < 1) {\n" : "if(n < 1) {\n");
+        }
+        source.append("n += 1\n");
+        for(int i = depth - 1; i >= 0; i--) {
+            source.append(i % 2 == 0 ? "}\n" : "} else {\nn -= 1\n}\n");
+        }
+        source.append("print(n)\n");
+        return source.toString();
+    }
+
+    private static String chain(final String first, final String op, final String next, final int length) {
+        final StringBuilder source = new StringBuilder(first);
+        for(int i = 0; i < length; i++) {
+            source.append(op).append(next);
+        }
+        return source.toString();
+    }
+
+    private static int depthOf(Stmt stmt) {
+        int depth = 0;
+        while(stmt instanceof WhileStmt || stmt instanceof IfStmt) {
+            depth++;
+            if(stmt instanceof WhileStmt) {
+                stmt = ((WhileStmt) stmt).getBlockStmt().getStmtList().get(0);
+            } else {
+                assertEquals(1, ((IfStmt) stmt).getFalseBranch().getStmtList().size());
+                stmt = ((IfStmt) stmt).getTrueBranch().getStmtList().get(0);
+            }
+        }
+        return depth;
+    }
+
+    private static String run(final byte[] classBytes, final String className) throws Exception {
+        final ClassLoader loader = new ClassLoader(DeepNestingTest.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                if(name.equals(className)) {
+                    return defineClass(name, classBytes, 0, classBytes.length);
+                }
+                throw new ClassNotFoundException(name);
+            }
+        };
+        final PrintStream out = System.out;
+        final ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true));
+        try {
+            loader.loadClass(className).getMethod("compiledProgram").invoke(null);
+        } finally {
+            System.setOut(out);
+        }
+        return captured.toString();
+    }
+
+    @Test
+    public void longAdditiveChain() throws Throwable {
+        Program program = parse("var x = " + chain("1", " + ", "1", DEPTH) + "\nprint(x)\n");
+        Exp exp = ((AssignStmt) program.getStmtList().get(0)).getExpression();
+        int length = 0;
+        while(exp instanceof AdditiveExp) {
+            length++;
+            exp = ((AdditiveExp) exp).getLeft();
+        }
+        assertEquals(DEPTH, length);
+        typecheck(program);
+    }
+
+    @Test
+    public void longLogicalChain() throws Throwable {
+        Program program = parse("var b = " + chain("true", " && ", "!(1 < 2)", DEPTH) + "\nprint(b)\n");
+        Exp exp = ((AssignStmt) program.getStmtList().get(0)).getExpression();
+        int length = 0;
+        while(exp instanceof BiLogicalExp) {
+            length++;
+            exp = ((BiLogicalExp) exp).getLeft();
+        }
+        assertEquals(DEPTH, length);
+        typecheck(program);
+    }
+
+    @Test
+    public void foldLongChains() throws Throwable {
+        Program program = parse("var x = " + chain("1", " + ", "1", DEPTH) + "\nvar b = " + chain("true", " && ", "!(1 < 2)", DEPTH) +
+                "\n" + nestedSource(DEPTH));
+        Program folded = onSmallStack(() -> new ConstantFolder().fold(program));
+        assertEquals(new IntExp(DEPTH + 1), ((AssignStmt) folded.getStmtList().get(0)).getExpression());
+        assertEquals(new BooleanExp(false), ((AssignStmt) folded.getStmtList().get(1)).getExpression());
+        assertEquals(DEPTH, depthOf(folded.getStmtList().get(3)));
+    }
+
+    @Test
+    public void typeErrorAtTheBottomOfAChain() throws Throwable {
+        Program program = parse("var x = \"a\" * 2" + chain("", " + ", "1", DEPTH) + "\n");
+        IllTypedException e = assertThrows(IllTypedException.class, () -> typecheck(program));
+        assertEquals("Only Int * Int and Int / Int accept!", e.getMessage());
+    }
+
+    @Test
+    public void deeplyNestedBlocks() throws Throwable {
+        Program program = parse(nestedSource(DEPTH));
+        assertEquals(3, program.getStmtList().size());
+        assertEquals(DEPTH, depthOf(program.getStmtList().get(1)));
+        typecheck(program);
+    }
+
+    @Test
+    public void breakDeepInsideIfs() throws Throwable {
+        StringBuilder source = new StringBuilder("var n = 0\nwhile(n < 1) {\n");
+        for(int i = 0; i < DEPTH; i++) {
+            source.append("if(n == 0) {\n");
+        }
+        source.append("break\n");
+        for(int i = 0; i < DEPTH; i++) {
+            source.append("}\n");
+        }
+        source.append("}\n");
+        typecheck(parse(source.toString()));
+        assertThrows(IllTypedException.class, () -> typecheck(parse(source.toString().replace("while(n < 1) {\n", "if(n < 1) {\n"))));
+    }
+
+    // A method can not be longer than 64KB, so code that runs is nested a few thousand deep.
+    @Test
+    public void deepCodeRuns() throws Throwable {
+        final int depth = 2000;
+        String source = "fun count(n: Int): Int {\nreturn " + chain("n", " + ", "1", 10000) + "\n}\n" +
+                nestedSource(depth) + "\nprint(count(1))\n";
+        Program program = parse(source);
+        typecheck(program);
+        byte[] classBytes = onSmallStack(() -> new CodeGenerator("Deep", "compiledProgram").generateClass(program));
+        assertEquals("110001", run(classBytes, "Deep"));
+    }
+
+    @Test
+    public void deepCodeOnlyHitsTheMethodSizeLimit() throws Throwable {
+        Program program = parse(nestedSource(DEPTH));
+        assertThrows(MethodTooLargeException.class,
+                () -> onSmallStack(() -> new CodeGenerator("Deeper", "compiledProgram").generateClass(program)));
+    }
+}
@@ -0,0 +1,85 @@
+package com.github.wangdong20.kotlinscriptcompiler.test;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.FlatProgram;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Parser;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.token.TokenBuffer;
+import com.github.wangdong20.kotlinscriptcompiler.token.Tokenizer;
+import com.github.wangdong20.kotlinscriptcompiler.typechecker.Typechecker;
+
+/**
+ * Heap kept by a parsed Program and by its FlatProgram on a script of many small functions, and
+ * the time to typecheck each. Checking getProgram decodes every statement on the way, the time to
+ * decode the whole program alone is given too. Both ways are checked once before they are timed,
+ * so neither runs with the JIT colder. Not a unit test, run it by hand with a fixed heap:
+ * java -Xms2g -Xmx2g -cp target/classes:target/test-classes ...FlatProgramBenchmark [functions]
+ */
+public class FlatProgramBenchmark {
+    private static final String BLOCK = "fun sum%d(a : Array<Int>, n : Int): Int {\n" +
+            "    var total = 0\n" +
+            "    for(i in 0..n step 2) {\n" +
+            "        total += a[i] * %d - (i / 2) %% 7\n" +
+            "    }\n" +
+            "    if(total > 100 && n != 3) {\n" +
+            "        println(\"sum is ${total + 1}\")\n" +
+            "    }\n" +
+            "    return total\n" +
+            "}\n";
+
+    private static long used() {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static double typecheck(Program program) throws Exception {
+        double best = Double.MAX_VALUE;
+        for(int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            Typechecker.typecheckProgram(program);
+            best = Math.min(best, (System.nanoTime() - start) / 1e6);
+        }
+        return best;
+    }
+
+    private static double decode(FlatProgram flat) {
+        double best = Double.MAX_VALUE;
+        for(int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            flat.toProgram();
+            best = Math.min(best, (System.nanoTime() - start) / 1e6);
+        }
+        return best;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int functions = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < functions; i++) {
+            builder.append(String.format(BLOCK, i, i));
+        }
+        TokenBuffer tokens = TokenBuffer.tokenize(new Tokenizer(builder.toString()));
+        builder = null;
+
+        long base = used();
+        Program program = new Parser(tokens).parseToplevelProgram();
+        long programBytes = used() - base;
+        FlatProgram flat = FlatProgram.encode(program);
+        program = null;
+        long flatBytes = used() - base;
+
+        program = flat.toProgram();
+        Typechecker.typecheckProgram(program);
+        Typechecker.typecheckProgram(flat.getProgram());
+        double parsedTime = typecheck(program);
+        double flatTime = typecheck(flat.getProgram());
+        double decodeTime = decode(flat);
+
+        System.out.printf("%d functions, %d tokens, %d ints of nodes%n", functions, tokens.size(), flat.getNodesSize());
+        System.out.printf("Program      %8.1f MB  typecheck %8.1f ms%n", programBytes / 1e6, parsedTime);
+        System.out.printf("FlatProgram  %8.1f MB  typecheck %8.1f ms, decoding alone %.1f ms%n", flatBytes / 1e6, flatTime, decodeTime);
+        System.out.printf("heap %.1f times smaller%n", (double) programBytes / flatBytes);
+    }
+}
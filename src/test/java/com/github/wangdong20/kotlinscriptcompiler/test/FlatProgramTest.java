@@ -0,0 +1,128 @@
+package com.github.wangdong20.kotlinscriptcompiler.test;
+
+import com.github.wangdong20.kotlinscriptcompiler.codegen.CodeGenerator;
+import com.github.wangdong20.kotlinscriptcompiler.codegen.CodeGeneratorException;
+import com.github.wangdong20.kotlinscriptcompiler.parser.FlatProgram;
+import com.github.wangdong20.kotlinscriptcompiler.parser.ParseException;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Parser;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.AssignStmt;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.FunctionDeclareStmt;
+import com.github.wangdong20.kotlinscriptcompiler.token.TokenBuffer;
+import com.github.wangdong20.kotlinscriptcompiler.token.Tokenizer;
+import com.github.wangdong20.kotlinscriptcompiler.token.TokenizerException;
+import com.github.wangdong20.kotlinscriptcompiler.typechecker.IllTypedException;
+import com.github.wangdong20.kotlinscriptcompiler.typechecker.Typechecker;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlatProgramTest {
+
+    private static final String SOURCE = "fun sum(a : Array<Int>, n : Int): Int {\n" +
+            "    var total = 0\n" +
+            "    for(i in 0..n - 1 step 2) {\n" +
+            "        total += a[i] * 3 - (i / 2) % 7\n" +
+            "    }\n" +
+            "    for(x in a) {\n" +
+            "        if(x < 0) {\n" +
+            "            continue\n" +
+            "        }\n" +
+            "        total++\n" +
+            "    }\n" +
+            "    return total\n" +
+            "}\n" +
+            "fun hello() {\n" +
+            "    print(\"hello \")\n" +
+            "}\n" +
+            "var numbers = arrayOf(1, -2, 30)\n" +
+            "val squares = Array(5, { i -> i * i })\n" +
+            "var total: Int = sum(numbers, 3); total -= 1\n" +
+            "var flag = total >= 29 && !(1 != 1) || false\n" +
+            "numbers[0] = sum(numbers, total)\n" +
+            "--numbers[1]\n" +
+            "hello()\n" +
+            "while(total > 0) {\n" +
+            "    total /= 2\n" +
+            "    if(total == 3) {\n" +
+            "        break\n" +
+            "    }\n" +
+            "}\n" +
+            "if(flag) {\n" +
+            "    println(\"sum is ${total + 1} and ${squares[2]}\")\n" +
+            "} else {\n" +
+            "    println(\"done\")\n" +
+            "}\n";
+
+    // Not supported by the CodeGenerator
+    private static final String MORE = "var list = mutableListOf(\"a\", \"b\")\n" +
+            "val more = MutableList(3, { i -> \"$i\" })\n" +
+            "val add: (Int, Int) -> Int = { a: Int, b: Int -> a + b }\n" +
+            "val one = { -> 1 }\n" +
+            "var late: Boolean\n";
+
+    private static Program parse(final String source) throws TokenizerException, ParseException {
+        return new Parser(TokenBuffer.tokenize(new Tokenizer(source))).parseToplevelProgram();
+    }
+
+    @Test
+    public void decodesTheSameProgram() throws TokenizerException, ParseException {
+        Program program = parse(SOURCE + MORE);
+        FlatProgram flat = FlatProgram.encode(program);
+        assertEquals(program.getStmtList().size(), flat.getStmtCount());
+        assertEquals(program, flat.toProgram());
+        assertEquals(program, flat.getProgram());
+        assertEquals(program.toString(), flat.getProgram().toString());
+    }
+
+    @Test
+    public void decodedVariablesAreShared() throws TokenizerException, ParseException {
+        Program program = parse(SOURCE);
+        FlatProgram flat = FlatProgram.encode(program);
+        AssignStmt first = (AssignStmt) ((FunctionDeclareStmt) flat.getStmt(0)).getBlockStmt().getStmtList().get(0);
+        AssignStmt parsed = (AssignStmt) ((FunctionDeclareStmt) program.getStmtList().get(0)).getBlockStmt().getStmtList().get(0);
+        assertSame(parsed.getVariable(), first.getVariable());
+        assertNotSame(parsed, first);
+    }
+
+    @Test
+    public void compilesLikeTheParsedProgram() throws TokenizerException, ParseException, IllTypedException, CodeGeneratorException {
+        Program program = parse(SOURCE);
+        Program flat = FlatProgram.encode(program).getProgram();
+        Typechecker.typecheckProgram(program);
+        Typechecker.typecheckProgram(flat);
+        assertArrayEquals(new CodeGenerator("Flat", "compiledProgram").generateClass(program),
+                new CodeGenerator("Flat", "compiledProgram").generateClass(flat));
+    }
+
+    @Test
+    // A String array element on the left of + is only known to be a String from the Typechecker's types.
+    public void compilesWithTypesLikeTheParsedProgram() throws TokenizerException, ParseException, IllTypedException, CodeGeneratorException {
+        String source = SOURCE + "val words = arrayOf(\"x\", \"y\")\nprintln(words[0] + 1)\n";
+        Program program = parse(source);
+        byte[] parsed = new CodeGenerator("Flat", "compiledProgram", Typechecker.typecheckProgram(program)).generateClass(program);
+        Program decoded = FlatProgram.encode(program).toProgram();
+        assertArrayEquals(parsed,
+                new CodeGenerator("Flat", "compiledProgram", Typechecker.typecheckProgram(decoded)).generateClass(decoded));
+    }
+
+    @Test
+    // Calls resolved on the nodes of getProgram are lost when it decodes them again.
+    public void overloadsOnlyCompileFromToProgram() throws TokenizerException, ParseException, IllTypedException, CodeGeneratorException {
+        String source = "fun twice(x: Int): Int {\n    return x * 2\n}\n" +
+                "fun twice(s: String): Int {\n    return 2\n}\n" +
+                "var n = twice(3)\n";
+        FlatProgram encoded = FlatProgram.encode(parse(source));
+        Program decoded = encoded.toProgram();
+        new CodeGenerator("Flat", "compiledProgram", Typechecker.typecheckProgram(decoded)).generateClass(decoded);
+        Program flat = encoded.getProgram();
+        CodeGenerator generator = new CodeGenerator("Flat", "compiledProgram", Typechecker.typecheckProgram(flat));
+        assertThrows(CodeGeneratorException.class, () -> generator.generateClass(flat));
+    }
+
+    @Test
+    public void typeErrorsFromFlatProgram() throws TokenizerException, ParseException {
+        Program flat = FlatProgram.encode(parse(SOURCE + "var bad = \"x\" * 2\n")).getProgram();
+        assertThrows(IllTypedException.class, () -> Typechecker.typecheckProgram(flat));
+    }
+}
@@ -0,0 +1,123 @@
+package com.github.wangdong20.kotlinscriptcompiler.test;
+
+import com.github.wangdong20.kotlinscriptcompiler.token.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IncrementalLexerTest {
+
+    private static final String SOURCE = "fun sum(a : Array<Int>): Int {\n" +
+            "    var total = 0 // running total\n" +
+            "    for(x in a) {\n" +
+            "        total += x\n" +
+            "    }\n" +
+            "    return total\n" +
+            "}\n" +
+            "/* numbers\n   to add */\n" +
+            "val numbers = arrayOf(1, -2, 30)\n" +
+            "if(sum(numbers) >= 29 && !(1 != 1)) {\n" +
+            "    println(\"sum is ${sum(numbers)} of $numbers\")\n" +
+            "}\n";
+
+    private static void assertSameAsFullScan(final IncrementalLexer lexer) throws TokenizerException {
+        TokenBuffer expected = TokenBuffer.tokenize(new Tokenizer(lexer.getText()));
+        TokenBuffer received = lexer.getTokens();
+        assertEquals(expected.size(), received.size());
+        for(int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), received.get(i), "token " + i);
+            assertEquals(expected.getOffset(i), received.getOffset(i), "offset of token " + i);
+            assertEquals(expected.getLength(i), received.getLength(i), "length of token " + i);
+            assertEquals(expected.getLine(i), received.getLine(i), "line of token " + i);
+        }
+    }
+
+    @Test
+    public void editsMatchFullScan() throws TokenizerException {
+        IncrementalLexer lexer = new IncrementalLexer(SOURCE);
+        lexer.edit(SOURCE.indexOf("total"), 5, "sum2");           // rename
+        assertSameAsFullScan(lexer);
+        lexer.edit(0, 0, "\n\n");                                  // shifts every line
+        assertSameAsFullScan(lexer);
+        lexer.edit(lexer.getText().indexOf(">="), 1, "");         // ">=" to "="
+        assertSameAsFullScan(lexer);
+        lexer.edit(lexer.getText().indexOf("-2"), 1, "");         // "-2" to "2"
+        assertSameAsFullScan(lexer);
+        lexer.edit(lexer.getText().length(), 0, "var b = 1");     // append
+        assertSameAsFullScan(lexer);
+        lexer.edit(0, lexer.getText().length(), "");              // clear
+        assertEquals(0, lexer.getTokens().size());
+    }
+
+    @Test
+    public void randomEditsMatchFullScan() throws TokenizerException {
+        String[] pieces = {"a", "x1", "9", " ", "\n", "+", "-", ">", "=", "(", ")", "{", "}", "if", "var", "\"s\"", "//", "/* */"};
+        Random random = new Random(7);
+        IncrementalLexer lexer = new IncrementalLexer(SOURCE);
+        for(int i = 0; i < 2000; i++) {
+            String text = lexer.getText();
+            int offset = random.nextInt(text.length() + 1);
+            int removed = random.nextInt(Math.min(3, text.length() - offset) + 1);
+            String inserted = random.nextBoolean() ? pieces[random.nextInt(pieces.length)] : "";
+            try {
+                lexer.edit(offset, removed, inserted);
+            } catch (TokenizerException e) {
+                // Undo, the lexer scans everything again.
+                lexer.edit(offset, inserted.length(), text.substring(offset, offset + removed));
+            }
+            assertSameAsFullScan(lexer);
+        }
+    }
+
+    @Test
+    public void editInLargeInputScansFewTokens() throws TokenizerException {
+        StringBuilder source = new StringBuilder();
+        for(int i = 0; i < 200; i++) {
+            source.append(SOURCE);
+        }
+        IncrementalLexer lexer = new IncrementalLexer(source.toString());
+        int offset = source.length() / 2;
+        offset = source.indexOf("total += x", offset);
+        lexer.edit(offset + "total += ".length(), 1, "42");
+        assertTrue(lexer.getRelexedCount() <= 3, "relexed " + lexer.getRelexedCount());
+        assertTrue(lexer.getChangedTo() - lexer.getChangedFrom() <= 3);
+        assertEquals(new VariableToken("total"), lexer.getTokens().get(lexer.getChangedFrom() - 2));
+        assertSameAsFullScan(lexer);
+    }
+
+    @Test
+    public void commentsAndStringsScanToTheirEnd() throws TokenizerException {
+        IncrementalLexer lexer = new IncrementalLexer(SOURCE);
+        int size = lexer.getTokens().size();
+        // Comments out everything up to the existing "*/".
+        lexer.edit(SOURCE.indexOf("var total"), 0, "/*");
+        assertSameAsFullScan(lexer);
+        assertTrue(lexer.getTokens().size() < size - 20);
+        lexer.edit(lexer.getText().indexOf("/*"), 2, "");
+        assertSameAsFullScan(lexer);
+
+        lexer.edit(0, 0, "val s = \"x\" + y + \"z\"\n");
+        assertSameAsFullScan(lexer);
+        lexer.edit("val s = \"x".length(), "\" + y + \"".length(), "");
+        assertSameAsFullScan(lexer);
+        assertEquals(new StringToken("xz"), lexer.getTokens().get(3));
+        lexer.edit("val s = \"x".length(), 0, "\" + y + \"");
+        assertSameAsFullScan(lexer);
+        assertEquals(new StringToken("z"), lexer.getTokens().get(7));
+    }
+
+    @Test
+    public void recoversAfterError() throws TokenizerException {
+        IncrementalLexer lexer = new IncrementalLexer(SOURCE);
+        int offset = SOURCE.indexOf("println(\"") + "println(".length();
+        assertEquals("Has more input!", assertThrows(TokenizerException.class,
+                () -> lexer.edit(offset, 1, "")).getMessage());
+        assertNull(lexer.getTokens());
+        lexer.edit(offset, 0, "\"");
+        assertEquals(SOURCE, lexer.getText());
+        assertSameAsFullScan(lexer);
+        assertThrows(IndexOutOfBoundsException.class, () -> lexer.edit(SOURCE.length(), 1, ""));
+    }
+}
@@ -0,0 +1,107 @@
+package com.github.wangdong20.kotlinscriptcompiler.test;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.IncrementalParser;
+import com.github.wangdong20.kotlinscriptcompiler.parser.ParseException;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Parser;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.AssignStmt;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.FunctionDeclareStmt;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.Stmt;
+import com.github.wangdong20.kotlinscriptcompiler.token.TokenBuffer;
+import com.github.wangdong20.kotlinscriptcompiler.token.Tokenizer;
+import com.github.wangdong20.kotlinscriptcompiler.token.TokenizerException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IncrementalParserTest {
+
+    private static final String SOURCE = "fun sum(a : Array<Int>): Int {\n" +
+            "    var total = 0\n" +
+            "    for(x in a) {\n" +
+            "        total += x\n" +
+            "    }\n" +
+            "    return total\n" +
+            "}\n" +
+            "val numbers = arrayOf(1, -2, 30)\n" +
+            "var total = sum(numbers); total += 1\n" +
+            "if(total >= 29 && !(1 != 1)) {\n" +
+            "    println(\"sum is ${total} of $numbers\")\n" +
+            "} else {\n" +
+            "    total = 0\n" +
+            "}\n";
+
+    private static void assertSameAsFullParse(final IncrementalParser parser) throws TokenizerException, ParseException {
+        Program expected = new Parser(TokenBuffer.tokenize(new Tokenizer(parser.getText()))).parseToplevelProgram();
+        assertEquals(expected, parser.getProgram());
+    }
+
+    @Test
+    public void editsMatchFullParse() throws TokenizerException, ParseException {
+        IncrementalParser parser = new IncrementalParser(SOURCE);
+        assertSameAsFullParse(parser);
+        parser.edit(SOURCE.indexOf("total += 1"), 0, "total++; ");      // in the middle of a line
+        assertSameAsFullParse(parser);
+        parser.edit(0, 0, "\n\nval first = 1\n");                       // before everything
+        assertSameAsFullParse(parser);
+        parser.edit(parser.getText().indexOf("} else {"), "} else {\n    total = 0\n}".length(), "}");
+        assertSameAsFullParse(parser);
+        parser.edit(parser.getText().length(), 0, "println(total)");    // no line break at the end
+        assertSameAsFullParse(parser);
+        parser.edit(parser.getText().length(), 0, "\n");
+        assertSameAsFullParse(parser);
+    }
+
+    @Test
+    public void editInLargeProgramReparsesOneStatement() throws TokenizerException, ParseException {
+        StringBuilder source = new StringBuilder();
+        for(int i = 0; i < 100; i++) {
+            source.append(SOURCE.replace("sum", "sum" + i));
+        }
+        IncrementalParser parser = new IncrementalParser(source.toString());
+        List<Stmt> before = parser.getProgram().getStmtList();
+        int offset = source.indexOf("total += x", source.length() / 2);
+        parser.edit(offset + "total += ".length(), 1, "x * 2");
+        assertEquals(1, parser.getReparsedCount());
+        List<Stmt> after = parser.getProgram().getStmtList();
+        assertEquals(before.size(), after.size());
+        int changed = 0;
+        for(int i = 0; i < before.size(); i++) {
+            if(before.get(i) != after.get(i)) {
+                changed++;
+                assertTrue(after.get(i) instanceof FunctionDeclareStmt);
+            }
+        }
+        assertEquals(1, changed);
+        assertSameAsFullParse(parser);
+    }
+
+    @Test
+    public void newStatementsShareVariables() throws TokenizerException, ParseException {
+        IncrementalParser parser = new IncrementalParser("var a = 1\nvar b = a\n");
+        parser.edit(0, 0, "var b = a\n");
+        List<Stmt> stmtList = parser.getProgram().getStmtList();
+        assertEquals(3, stmtList.size());
+        assertEquals(stmtList.get(0), stmtList.get(2));
+        assertNotSame(stmtList.get(0), stmtList.get(2));
+        assertTrue(parser.getReparsedCount() < 3);
+        // New statements get the VariableExps of the old ones.
+        assertSame(((AssignStmt) stmtList.get(0)).getVariable(), ((AssignStmt) stmtList.get(2)).getVariable());
+    }
+
+    @Test
+    public void errorKeepsLastProgram() throws TokenizerException, ParseException {
+        IncrementalParser parser = new IncrementalParser(SOURCE);
+        Program program = parser.getProgram();
+        int offset = SOURCE.indexOf("val numbers = ") + "val numbers = ".length();
+        assertThrows(ParseException.class, () -> parser.edit(offset, 0, "1 "));
+        assertSame(program, parser.getProgram());
+        assertThrows(TokenizerException.class, () -> parser.edit(offset, 0, "\""));
+        assertSame(program, parser.getProgram());
+        parser.edit(offset, 3, "");
+        assertEquals(SOURCE, parser.getText());
+        assertSameAsFullParse(parser);
+    }
+}
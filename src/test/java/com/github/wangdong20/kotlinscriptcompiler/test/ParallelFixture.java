@@ -0,0 +1,36 @@
+package com.github.wangdong20.kotlinscriptcompiler.test;
+
+import org.junit.jupiter.api.function.Executable;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * What the tests of the parallel stages share: a pool, long sources made of numbered copies of a
+ * block, and the check that a parallel stage fails just like the serial one.
+ */
+final class ParallelFixture {
+
+    // Its workers are daemon threads, so it needs no shutdown.
+    static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    private ParallelFixture() {
+    }
+
+    // copies blocks, with every %d replaced by the number of the copy.
+    static String repeat(final String block, final int copies) {
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < copies; i++) {
+            builder.append(block.replace("%d", String.valueOf(i)));
+        }
+        return builder.toString();
+    }
+
+    // Asserts that both throw type with the same message, and returns the message.
+    static String assertSameError(final Class<? extends Throwable> type, final Executable serial, final Executable parallel) {
+        String expected = assertThrows(type, serial).getMessage();
+        assertEquals(expected, assertThrows(type, parallel).getMessage());
+        return expected;
+    }
+}
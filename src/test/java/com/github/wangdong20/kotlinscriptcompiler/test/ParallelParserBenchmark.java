@@ -0,0 +1,61 @@
+package com.github.wangdong20.kotlinscriptcompiler.test;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.ParallelParser;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Parser;
+import com.github.wangdong20.kotlinscriptcompiler.token.TokenBuffer;
+import com.github.wangdong20.kotlinscriptcompiler.token.Tokenizer;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Speedup of ParallelParser over the serial Parser on a script of many small functions, for pools
+ * of 1, 2, 4, ... threads up to the number of cores. Not a unit test, run it by hand:
+ * java -cp target/classes:target/test-classes ...ParallelParserBenchmark [functions]
+ */
+public class ParallelParserBenchmark {
+    private static final int ROUNDS = 5;
+    private static final String BLOCK = "fun sum%d(a : Array<Int>, n : Int): Int {\n" +
+            "    var total = 0\n" +
+            "    for(i in 0..n step 2) {\n" +
+            "        total += a[i] * %d - (i / 2) %% 7\n" +
+            "    }\n" +
+            "    if(total > 100 && n != 3) {\n" +
+            "        println(\"sum is ${total + 1}\")\n" +
+            "    }\n" +
+            "    return total\n" +
+            "}\n";
+
+    private interface Run {
+        int statements() throws Exception;
+    }
+
+    private static double best(Run run) throws Exception {
+        double best = Double.MAX_VALUE;
+        for(int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            run.statements();
+            best = Math.min(best, (System.nanoTime() - start) / 1e6);
+        }
+        return best;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int functions = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < functions; i++) {
+            builder.append(String.format(BLOCK, i, i));
+        }
+        TokenBuffer tokens = TokenBuffer.tokenize(new Tokenizer(builder.toString()));
+
+        double serial = best(() -> new Parser(tokens).parseToplevelProgram().getStmtList().size());
+        System.out.printf("cores %d, %d functions, %d tokens%n", Runtime.getRuntime().availableProcessors(), functions, tokens.size());
+        System.out.printf("serial        %8.1f ms%n", serial);
+        for(int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            int chunkSize = Math.max(16 * 1024, tokens.size() / (threads * 4));
+            double parallel = best(() -> new ParallelParser(tokens, pool, chunkSize).parseToplevelProgram().getStmtList().size());
+            System.out.printf("%2d threads    %8.1f ms  speedup %.2f%n", threads, parallel, serial / parallel);
+            pool.shutdown();
+        }
+    }
+}
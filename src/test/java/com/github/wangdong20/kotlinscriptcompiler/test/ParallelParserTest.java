@@ -0,0 +1,94 @@
+package com.github.wangdong20.kotlinscriptcompiler.test;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.ParallelParser;
+import com.github.wangdong20.kotlinscriptcompiler.parser.ParseException;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Parser;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.AssignStmt;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.FunctionDeclareStmt;
+import com.github.wangdong20.kotlinscriptcompiler.token.*;
+import org.junit.jupiter.api.Test;
+
+import static com.github.wangdong20.kotlinscriptcompiler.test.ParallelFixture.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelParserTest {
+
+    private static final String BLOCK = "fun sum%d(a : Array<Int>): Int {\n" +
+            "    var total = 0\n" +
+            "    for(x in a) {\n" +
+            "        total += x\n" +
+            "    }\n" +
+            "    return total\n" +
+            "}\n" +
+            "val a%d = arrayOf(1, -2, 30)\n" +
+            "var n%d = sum%d(a%d); n%d += 1\n" +
+            "if(n%d > 3 && !(n%d == 4)) {\n" +
+            "    println(\"n is $n%d\")\n" +
+            "} else {\n" +
+            "    println(\"small ${n%d + 1}\")\n" +
+            "}\n\n" +
+            "while(n%d < 40) {\n" +
+            "    n%d++\n" +
+            "}\n";
+
+    private static String source(final int blocks) {
+        return repeat(BLOCK, blocks);
+    }
+
+    private static TokenBuffer tokens(final String source) throws TokenizerException {
+        return TokenBuffer.tokenize(new Tokenizer(source));
+    }
+
+    @Test
+    public void sameProgramForEveryChunkSize() throws TokenizerException, ParseException {
+        TokenBuffer tokens = tokens(source(40));
+        Program expected = new Parser(tokens).parseToplevelProgram();
+        for(int chunkSize = 1; chunkSize < 400; chunkSize += 13) {
+            assertEquals(expected, new ParallelParser(tokens, POOL, chunkSize).parseToplevelProgram(), "chunk size " + chunkSize);
+        }
+    }
+
+    @Test
+    public void sameVariables() throws TokenizerException, ParseException {
+        TokenBuffer tokens = tokens(source(100));
+        Program program = new ParallelParser(tokens, POOL, 50).parseToplevelProgram();
+        // Every sum function declares "total" in a different part, but they share one VariableExp.
+        AssignStmt first = (AssignStmt) ((FunctionDeclareStmt) program.getStmtList().get(0)).getBlockStmt().getStmtList().get(0);
+        for(int i = 0; i < program.getStmtList().size(); i++) {
+            if(program.getStmtList().get(i) instanceof FunctionDeclareStmt) {
+                FunctionDeclareStmt function = (FunctionDeclareStmt) program.getStmtList().get(i);
+                assertSame(first.getVariable(), ((AssignStmt) function.getBlockStmt().getStmtList().get(0)).getVariable());
+                assertEquals(tokens.getSymbolTable().intern(function.getFuncName().getName()).getId(), function.getFuncName().getId());
+            }
+        }
+    }
+
+    @Test
+    public void sameIdsWithoutSymbolTable() throws TokenizerException, ParseException {
+        // Tokens made by hand are not interned yet, and strings are not split yet.
+        Token[] tokens = new Token[] {KeywordToken.TK_VAR, new VariableToken("a"), BinopToken.TK_EQUAL, new StringToken("$c and $b"),
+                SymbolToken.TK_LINE_BREAK, KeywordToken.TK_VAR, new VariableToken("b"), BinopToken.TK_EQUAL, new VariableToken("a"),
+                SymbolToken.TK_LINE_BREAK, KeywordToken.TK_VAR, new VariableToken("c"), BinopToken.TK_EQUAL, new IntToken(1)};
+        Parser serial = new Parser(tokens);
+        Program expected = serial.parseToplevelProgram();
+        ParallelParser parallel = new ParallelParser(new ArrayTokenStream(tokens), POOL, 1);
+        assertEquals(expected, parallel.parseToplevelProgram());
+        for(String name : new String[] {"a", "b", "c"}) {
+            assertEquals(serial.getSymbolTable().intern(name).getId(), parallel.getSymbolTable().intern(name).getId());
+        }
+    }
+
+    @Test
+    public void sameErrors() throws TokenizerException {
+        String[] broken = {"val broken = 1 2\n", "fun f(a : Int) {\n}}\n", "var s = \"${}\"\n", "println(n0 n1)\n"};
+        for(String error : broken) {
+            TokenBuffer tokens = tokens(source(20) + error + source(5));
+            for(int chunkSize = 1; chunkSize < 400; chunkSize += 37) {
+                final int size = chunkSize;
+                assertSameError(ParseException.class, () -> new Parser(tokens).parseToplevelProgram(),
+                        () -> new ParallelParser(tokens, POOL, size).parseToplevelProgram());
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.wangdong20.kotlinscriptcompiler.test;
+
+import com.github.wangdong20.kotlinscriptcompiler.token.ParallelTokenizer;
+import com.github.wangdong20.kotlinscriptcompiler.token.SymbolTable;
+import com.github.wangdong20.kotlinscriptcompiler.token.Tokenizer;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Speedup of ParallelTokenizer over the serial Tokenizer for pools of 1, 2, 4, ... threads up to
+ * the number of cores. Not a unit test, run it by hand:
+ * java -cp target/classes:target/test-classes ...ParallelTokenizerBenchmark [MB]
+ */
+public class ParallelTokenizerBenchmark {
+    private static final int ROUNDS = 5;
+    private static final String BLOCK = "fun sum%d(a : Array<Int>, n : Int): Int {\n" +
+            "    var total = 0 // running total\n" +
+            "    /* every\n       other */\n" +
+            "    for(i in 0..n step 2) {\n" +
+            "        total += a[i] * %d - (i / 2) %% 7\n" +
+            "    }\n" +
+            "    return total\n" +
+            "}\n" +
+            "println(\"sum is ${sum%d(arrayOf(1, 2, 3), 3)}\")\n";
+
+    private interface Run {
+        int tokens() throws Exception;
+    }
+
+    private static double best(Run run) throws Exception {
+        double best = Double.MAX_VALUE;
+        for(int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            run.tokens();
+            best = Math.min(best, (System.nanoTime() - start) / 1e6);
+        }
+        return best;
+    }
+
+    public static void main(String[] args) throws Exception {
+        long chars = (args.length > 0 ? Long.parseLong(args[0]) : 32) << 20;
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; builder.length() < chars; i++) {
+            builder.append(String.format(BLOCK, i, i, i));
+        }
+        char[] input = builder.toString().toCharArray();
+
+        double serial = best(() -> new Tokenizer(input).tokenize().size());
+        System.out.printf("cores %d, input %d MB%n", Runtime.getRuntime().availableProcessors(), chars >> 20);
+        System.out.printf("serial        %8.1f ms%n", serial);
+        for(int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            int chunkSize = Math.max(64 * 1024, input.length / (threads * 4));
+            double parallel = best(() -> new ParallelTokenizer(input, new SymbolTable(), pool, chunkSize).tokenize().size());
+            System.out.printf("%2d threads    %8.1f ms  speedup %.2f%n", threads, parallel, serial / parallel);
+            pool.shutdown();
+        }
+    }
+}
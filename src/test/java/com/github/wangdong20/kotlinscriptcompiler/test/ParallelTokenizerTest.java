@@ -0,0 +1,92 @@
+package com.github.wangdong20.kotlinscriptcompiler.test;
+
+import com.github.wangdong20.kotlinscriptcompiler.token.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.github.wangdong20.kotlinscriptcompiler.test.ParallelFixture.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelTokenizerTest {
+
+    // Block comments and string literals which span lines, so some cuts fall inside them.
+    private static final String BLOCK = "fun sum%d(a : Array<Int>): Int {\n" +
+            "    var total = 0 // running total\n" +
+            "    /* add\n       every\n       element */\n" +
+            "    for(x in a) {\n" +
+            "        total += x\n" +
+            "    }\n" +
+            "    return total\n" +
+            "}\n" +
+            "val text%d = \"first line\nsecond line $total\"\n" +
+            "println(\"sum is ${sum%d(arrayOf(1, -2, 30))}\")\n";
+
+    private static String source(final int blocks) {
+        return repeat(BLOCK, blocks);
+    }
+
+    private static List<Token> parallel(final String source, final int chunkSize) throws TokenizerException {
+        return new ParallelTokenizer(source.toCharArray(), new SymbolTable(), POOL, chunkSize).tokenize();
+    }
+
+    @Test
+    public void sameTokensForEveryChunkSize() throws TokenizerException {
+        String source = source(50);
+        List<Token> expected = new Tokenizer(source).tokenize();
+        for(int chunkSize = 1; chunkSize < 300; chunkSize += 7) {
+            assertEquals(expected, parallel(source, chunkSize), "chunk size " + chunkSize);
+        }
+    }
+
+    @Test
+    public void sameIdentifierIds() throws TokenizerException {
+        String source = source(200);
+        List<Token> expected = new Tokenizer(source).tokenize();
+        ParallelTokenizer tokenizer = new ParallelTokenizer(source.toCharArray(), new SymbolTable(), POOL, 100);
+        List<Token> received = tokenizer.tokenize();
+        assertEquals(expected.size(), received.size());
+        for(int i = 0; i < expected.size(); i++) {
+            if(expected.get(i) instanceof VariableToken) {
+                int id = ((VariableToken) expected.get(i)).getId();
+                assertSame(tokenizer.getSymbolTable().get(id), received.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void sameErrors() {
+        String unterminated = source(20) + "val broken = \"no end\n" + source(5);
+        String badCharacter = source(20) + "val broken = 1 # 2\n" + source(5);
+        for(String source : new String[] {unterminated, badCharacter}) {
+            assertSameError(TokenizerException.class, () -> new Tokenizer(source).tokenize(), () -> parallel(source, 64));
+        }
+    }
+
+    @Test
+    public void commentOverManyChunks() throws TokenizerException {
+        StringBuilder comment = new StringBuilder("var a = 1\n/*\n");
+        for(int i = 0; i < 100; i++) {
+            comment.append("var x").append(i).append(" = \"\n");
+        }
+        comment.append("*/\nvar b = a\n");
+        String source = comment.toString();
+        assertEquals(new Tokenizer(source).tokenize(), parallel(source, 16));
+    }
+
+    @Test
+    public void cutsInsideString() throws TokenizerException {
+        // Every line of the string looks like a statement, and every chunk starts on one of them.
+        StringBuilder text = new StringBuilder("var a = 1\nval s = \"\n");
+        for(int i = 0; i < 100; i++) {
+            text.append("var x").append(i).append(" = a // $a\n");
+        }
+        text.append("\"\nvar b = a\n");
+        String source = text.toString();
+        List<Token> expected = new Tokenizer(source).tokenize();
+        List<Token> received = parallel(source, 16);
+        assertEquals(expected, received);
+        assertTrue(received.get(8) instanceof StringToken);
+        assertSame(received.get(1), received.get(received.size() - 2));
+    }
+}
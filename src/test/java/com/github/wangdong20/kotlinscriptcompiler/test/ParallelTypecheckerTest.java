@@ -0,0 +1,77 @@
+package com.github.wangdong20.kotlinscriptcompiler.test;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.ParseException;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Parser;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.Exp;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.Type;
+import com.github.wangdong20.kotlinscriptcompiler.token.TokenBuffer;
+import com.github.wangdong20.kotlinscriptcompiler.token.Tokenizer;
+import com.github.wangdong20.kotlinscriptcompiler.token.TokenizerException;
+import com.github.wangdong20.kotlinscriptcompiler.typechecker.IllTypedException;
+import com.github.wangdong20.kotlinscriptcompiler.typechecker.ParallelTypechecker;
+import com.github.wangdong20.kotlinscriptcompiler.typechecker.Typechecker;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static com.github.wangdong20.kotlinscriptcompiler.test.ParallelFixture.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelTypecheckerTest {
+
+    private static final String BLOCK = "val a%d = arrayOf(1, -2, 30)\n" +
+            "fun sum%d(a : Array<Int>): Int {\n" +
+            "    var total = a%d[0]\n" +
+            "    for(x in a) {\n" +
+            "        total += x\n" +
+            "    }\n" +
+            "    val s = \"sum $total\" + total\n" +
+            "    return total + sum%d(a)\n" +
+            "}\n" +
+            "var n%d = sum%d(a%d)\n" +
+            "if(n%d > 3 && !(n%d == 4)) {\n" +
+            "    println(\"n is $n%d\")\n" +
+            "}\n";
+
+    private static String source(final int blocks) {
+        return repeat(BLOCK, blocks);
+    }
+
+    private static Program parse(final String source) throws TokenizerException, ParseException {
+        return new Parser(TokenBuffer.tokenize(new Tokenizer(source))).parseToplevelProgram();
+    }
+
+    // The error of both typecheckers, which have to agree on it.
+    private static String error(final Program program) {
+        return assertSameError(IllTypedException.class, () -> Typechecker.typecheckProgram(program),
+                () -> new ParallelTypechecker(POOL).typecheck(program));
+    }
+
+    @Test
+    public void sameTypes() throws TokenizerException, ParseException, IllTypedException {
+        Program program = parse(source(100));
+        Map<Exp, Type> expected = Typechecker.typecheckProgram(program);
+        assertEquals(expected, new ParallelTypechecker(POOL).typecheck(program));
+    }
+
+    @Test
+    public void firstErrorInSourceOrder() throws TokenizerException, ParseException {
+        String body = "    return total + sum%d(a)\n";
+        String source = source(80)
+                .replace(body.replace("%d", "30"), "    return s\n")
+                .replace("var n45 = sum45(a45)\n", "var n45 = sum45(a45) + \"\"\n")
+                .replace(body.replace("%d", "60"), "    return true\n");
+        Program program = parse(source);
+        assertEquals("return type should be the same as return type in function declaration.", error(program));
+
+        program = parse(source.replace("    return s\n", body.replace("%d", "30")));
+        assertEquals("Only Int + Int, Int - Int, String + Int, String + String accept!", error(program));
+    }
+
+    @Test
+    public void bodiesOnlySeeEarlierVariables() throws TokenizerException, ParseException {
+        Program program = parse("fun early(): Int {\n    return late\n}\nvar late = 1\n");
+        assertEquals("Not in scope late", error(program));
+    }
+}
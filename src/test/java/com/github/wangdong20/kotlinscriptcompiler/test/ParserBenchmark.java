@@ -0,0 +1,37 @@
+package com.github.wangdong20.kotlinscriptcompiler.test;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.Parser;
+import com.github.wangdong20.kotlinscriptcompiler.token.TokenBuffer;
+import com.github.wangdong20.kotlinscriptcompiler.token.Tokenizer;
+
+/**
+ * Parse throughput on expression-heavy code, tokenized once up front so only the parser is
+ * timed. Not a unit test, run it by hand:
+ * java -cp target/classes:target/test-classes ...ParserBenchmark [lines] [rounds]
+ */
+public class ParserBenchmark {
+    private static final String BLOCK = "var a%d = b + c * 3 - d / 2 + (e - 1) * f %% 4\n" +
+            "val p%d = a%d + 1 > b * 2 && c - d <= e || !g\n" +
+            "x%d += (a + b) * (c - d) / (e + %d) - f\n" +
+            "if(a%d * 2 >= b + c && d != e) {\n" +
+            "    total = total + a%d - b * c\n" +
+            "}\n" +
+            "val s%d = a + b * c - d + e * f - g + h * i - j + k * l - m + n * o - p > q && r < s || t != u && v == w\n";
+
+    public static void main(String[] args) throws Exception {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 60000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; i * 7 < lines; i++) {
+            builder.append(String.format(BLOCK, i, i, i, i, i, i, i, i));
+        }
+        TokenBuffer tokens = TokenBuffer.tokenize(new Tokenizer(builder.toString()));
+
+        for(int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            new Parser(tokens).parseToplevelProgram();
+            long nanos = System.nanoTime() - start;
+            System.out.printf("round %2d  %6.1f ms  %6.0f tokens/ms%n", round, nanos / 1e6, tokens.size() / (nanos / 1e6));
+        }
+    }
+}
@@ -1013,7 +1013,7 @@ class ParserTest {
         LinkedHashMap<Integer, Exp> map = new LinkedHashMap();
         map.put(5, new AdditiveExp(new VariableExp("a"), new VariableExp("b"), AdditiveOp.EXP_PLUS));
         map.put(12, new VariableExp("beer"));
-        map.put(32, new AdditiveExp(new VariableExp("a"), new VariableExp("beer"), AdditiveOp.EXP_PLUS));
+        map.put(31, new AdditiveExp(new VariableExp("a"), new VariableExp("beer"), AdditiveOp.EXP_PLUS));
         assertParses(new StringExp("a is , b is , c is $ c, sum is ", map),
                 new StringToken("a is ${a + b}, b is $beer, c is $ c, sum is ${a + beer}"));
     }
@@ -1036,4 +1036,107 @@ class ParserTest {
                 new IntToken(1),
                 BinopToken.TK_PLUS);
     }
-}
\ No newline at end of file
+
+    @Test
+    // 1 * (2 + 3
+    public void errorInRightOperandIsReported() {
+        ParseException e = assertThrows(ParseException.class, () -> new Parser(new Token[] {
+                new IntToken(1),
+                BinopToken.TK_MULTIPLY,
+                BracketsToken.TK_LPAREN,
+                new IntToken(2),
+                BinopToken.TK_PLUS,
+                new IntToken(3)}).parseToplevelExp());
+        assertEquals("Position out of bounds: 6", e.getMessage());
+    }
+
+    @Test
+    // a && b || c
+    public void logicalChainKeepsEveryOperand() throws ParseException {
+        assertParses(new BiLogicalExp(new BiLogicalExp(new VariableExp("a"), new VariableExp("b"), BiLogicalOp.OP_AND),
+                        new VariableExp("c"), BiLogicalOp.OP_OR),
+                new VariableToken("a"),
+                BinopToken.TK_AND,
+                new VariableToken("b"),
+                BinopToken.TK_OR,
+                new VariableToken("c"));
+    }
+
+    @Test
+    // a || b && c
+    public void andBindsTighterThanOr() throws ParseException {
+        assertParses(new BiLogicalExp(new VariableExp("a"),
+                        new BiLogicalExp(new VariableExp("b"), new VariableExp("c"), BiLogicalOp.OP_AND), BiLogicalOp.OP_OR),
+                new VariableToken("a"),
+                BinopToken.TK_OR,
+                new VariableToken("b"),
+                BinopToken.TK_AND,
+                new VariableToken("c"));
+    }
+
+    @Test
+    // a && b || c && d
+    public void orOfTwoAnds() throws ParseException {
+        assertParses(new BiLogicalExp(new BiLogicalExp(new VariableExp("a"), new VariableExp("b"), BiLogicalOp.OP_AND),
+                        new BiLogicalExp(new VariableExp("c"), new VariableExp("d"), BiLogicalOp.OP_AND), BiLogicalOp.OP_OR),
+                new VariableToken("a"),
+                BinopToken.TK_AND,
+                new VariableToken("b"),
+                BinopToken.TK_OR,
+                new VariableToken("c"),
+                BinopToken.TK_AND,
+                new VariableToken("d"));
+    }
+
+    @Test
+    // !(!(... !(1 + 1 + ... + 1) ...)), too deep for a recursive descent parser
+    public void deepExpressionParses() throws ParseException {
+        final int depth = 100000;
+        List<Token> tokens = new ArrayList<>();
+        for(int i = 0; i < depth; i++) {
+            tokens.add(UnopToken.TK_NOT);
+            tokens.add(BracketsToken.TK_LPAREN);
+        }
+        for(int i = 0; i < depth; i++) {
+            tokens.add(new IntToken(1));
+            tokens.add(BinopToken.TK_PLUS);
+        }
+        tokens.add(new IntToken(1));
+        for(int i = 0; i < depth; i++) {
+            tokens.add(BracketsToken.TK_RPAREN);
+        }
+        Exp exp = new Parser(tokens.toArray(new Token[0])).parseToplevelExp();
+        for(int i = 0; i < depth; i++) {
+            assertTrue(exp instanceof NotExp);
+            exp = ((NotExp) exp).getValue();
+        }
+        for(int i = 0; i < depth; i++) {
+            assertTrue(exp instanceof AdditiveExp);
+            assertEquals(new IntExp(1), ((AdditiveExp) exp).getRight());
+            exp = ((AdditiveExp) exp).getLeft();
+        }
+        assertEquals(new IntExp(1), exp);
+    }
+
+    @Test
+    // "$a$b costs $5 ${a * 2}$"
+    public void stringTemplateSegments() throws ParseException, TokenizerException {
+        Token[] tokens = new Tokenizer("\"$a$b costs $5 ${a * 2}$\"").tokenize().toArray(new Token[0]);
+        StringExp exp = (StringExp) new Parser(tokens).parseToplevelExp();
+        assertArrayEquals(new String[] {"", "", " costs $5 ", "$"}, exp.getSegments());
+        assertArrayEquals(new Exp[] {new VariableExp("a"), new VariableExp("b"),
+                new MultiplicativeExp(new VariableExp("a"), new IntExp(2), MultiplicativeOp.OP_MULTIPLY)}, exp.getExps());
+        // A StringToken not made by the tokenizer is split by the parser.
+        assertEquals(exp, new Parser(new Token[] {new StringToken("$a$b costs $5 ${a * 2}$")}).parseToplevelExp());
+    }
+
+    @Test
+    public void invalidStringTemplates() {
+        assertEquals("Invalid string interpolation! Expect }", assertThrows(ParseException.class,
+                () -> new Parser(new Token[] {new StringToken("a is ${a")}).parseToplevelExp()).getMessage());
+        assertEquals("Empty string interpolation!", assertThrows(ParseException.class,
+                () -> new Parser(new Token[] {new StringToken("a is ${}")}).parseToplevelExp()).getMessage());
+        assertThrows(ParseException.class,
+                () -> new Parser(new Token[] {new StringToken("a is ${a b}")}).parseToplevelExp());
+    }
+}
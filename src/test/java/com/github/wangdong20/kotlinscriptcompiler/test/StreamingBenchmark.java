@@ -0,0 +1,142 @@
+package com.github.wangdong20.kotlinscriptcompiler.test;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.Parser;
+import com.github.wangdong20.kotlinscriptcompiler.token.LazyTokenStream;
+import com.github.wangdong20.kotlinscriptcompiler.token.Token;
+import com.github.wangdong20.kotlinscriptcompiler.token.TokenStream;
+import com.github.wangdong20.kotlinscriptcompiler.token.TokenSource;
+import com.github.wangdong20.kotlinscriptcompiler.token.Tokenizer;
+import com.github.wangdong20.kotlinscriptcompiler.token.Utf8Tokenizer;
+
+import java.io.BufferedWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Compares the whole-file path (String, token list, token array) with the streaming path
+ * (FileChannel, LazyTokenStream) and the mapped path (FileChannel.map, Utf8Tokenizer) on
+ * generated scripts. Not a unit test, run it by hand:
+ * java -cp target/classes:target/test-classes ...StreamingBenchmark 1 100 1024
+ * Sizes are in MB. Inputs too large for the heap are reported as out of memory. The program
+ * tree itself grows with the input, so the streamed parse only runs up to PARSE_LIMIT_MB.
+ */
+public class StreamingBenchmark {
+    private static final long PARSE_LIMIT_MB = 100;
+    private static final String BLOCK = "var total%d = 0\n" +
+            "for(k in 0..%d) {\n" +
+            "    total%d += k * 3 - 1 // accumulate\n" +
+            "}\n" +
+            "println(\"total is $total%d\")\n";
+
+    private static Path generate(final long bytes) throws Exception {
+        Path file = Files.createTempFile("streaming", ".ks");
+        long written = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for(int i = 0; written < bytes; i++) {
+                String block = String.format(BLOCK, i, i % 100, i, i);
+                writer.write(block);
+                written += block.length();
+            }
+        }
+        return file;
+    }
+
+    private static void resetPeaks() {
+        System.gc();
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if(pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long peakHeapMb() {
+        long peak = 0;
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if(pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak >> 20;
+    }
+
+    private static void report(String mode, long sizeMb, long firstTokenNanos, long start, int count) {
+        long end = System.nanoTime();
+        System.out.printf("%-16s %6d MB  first token %8.2f ms  total %9.1f ms  peak heap %6d MB  count %d%n",
+                mode, sizeMb, (firstTokenNanos - start) / 1e6, (end - start) / 1e6, peakHeapMb(), count);
+    }
+
+    private static void wholeFile(Path file, long sizeMb) throws Exception {
+        resetPeaks();
+        long start = System.nanoTime();
+        try {
+            String input = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            List<Token> tokenList = new Tokenizer(input).tokenize();
+            long firstToken = System.nanoTime();
+            Token[] tokens = tokenList.toArray(new Token[0]);
+            report("whole file", sizeMb, firstToken, start, tokens.length);
+        } catch (OutOfMemoryError e) {
+            System.out.printf("%-16s %6d MB  out of memory%n", "whole file", sizeMb);
+        }
+    }
+
+    private static TokenSource open(FileChannel channel, boolean mapped) throws Exception {
+        return mapped ? new Utf8Tokenizer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()))
+                : new Tokenizer(channel);
+    }
+
+    private static void streamedParse(Path file, long sizeMb, boolean mapped) throws Exception {
+        resetPeaks();
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            TokenStream stream = new LazyTokenStream(open(channel, mapped));
+            stream.get(0);
+            long firstToken = System.nanoTime();
+            int statements = new Parser(stream).parseToplevelProgram().getStmtList().size();
+            report(mapped ? "mapped parse" : "streamed parse", sizeMb, firstToken, start, statements);
+        }
+    }
+
+    // Tokens only, so the cost of the front end is visible without the program tree.
+    private static void streamedTokens(Path file, long sizeMb, boolean mapped) throws Exception {
+        resetPeaks();
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            TokenStream stream = new LazyTokenStream(open(channel, mapped));
+            stream.get(0);
+            long firstToken = System.nanoTime();
+            int position = 0;
+            while(stream.get(position) != null) {
+                stream.release(position);
+                position++;
+            }
+            report(mapped ? "mapped tokens" : "streamed tokens", sizeMb, firstToken, start, position);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] sizes = args.length > 0 ? args : new String[] {"1", "100", "1024"};
+        for(String size : sizes) {
+            long sizeMb = Long.parseLong(size);
+            Path file = generate(sizeMb << 20);
+            try {
+                wholeFile(file, sizeMb);
+                if(sizeMb <= PARSE_LIMIT_MB) {
+                    streamedParse(file, sizeMb, false);
+                    streamedParse(file, sizeMb, true);
+                }
+                streamedTokens(file, sizeMb, false);
+                streamedTokens(file, sizeMb, true);
+            } finally {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.wangdong20.kotlinscriptcompiler.test;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.ParseException;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Parser;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.AdditiveExp;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.StringExp;
+import com.github.wangdong20.kotlinscriptcompiler.parser.expressions.VariableExp;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.AssignStmt;
+import com.github.wangdong20.kotlinscriptcompiler.parser.statements.PrintlnStmt;
+import com.github.wangdong20.kotlinscriptcompiler.token.*;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SymbolTableTest {
+
+    @Test
+    public void sameNameSameToken() {
+        SymbolTable symbols = new SymbolTable();
+        VariableToken a = symbols.intern("alpha");
+        VariableToken b = symbols.intern("beta");
+        assertSame(a, symbols.intern("alpha"));
+        assertSame(b, symbols.intern("xbetax".toCharArray(), 1, 4));
+        assertEquals(0, a.getId());
+        assertEquals(1, b.getId());
+        assertEquals(2, symbols.size());
+        assertSame(b, symbols.get(1));
+    }
+
+    @Test
+    public void idsStayDenseWhenTableGrows() {
+        SymbolTable symbols = new SymbolTable();
+        for(int i = 0; i < 1000; i++) {
+            assertEquals(i, symbols.intern("v" + i).getId());
+        }
+        for(int i = 0; i < 1000; i++) {
+            assertEquals(i, symbols.intern(("v" + i).toCharArray(), 0, ("v" + i).length()).getId());
+        }
+        assertEquals(1000, symbols.size());
+    }
+
+    @Test
+    public void ownsOnlyItsTokens() {
+        SymbolTable symbols = new SymbolTable();
+        VariableToken x = symbols.intern("x");
+        assertTrue(symbols.owns(x));
+        assertFalse(symbols.owns(new VariableToken("x")));
+        assertFalse(new SymbolTable().owns(x));
+    }
+
+    @Test
+    public void tokenizerInternsIdentifiers() throws TokenizerException {
+        Tokenizer tokenizer = new Tokenizer("a = a + b\nb = a");
+        Token[] tokens = tokenizer.tokenize().toArray(new Token[0]);
+        assertSame(tokens[0], tokens[2]);
+        assertSame(tokens[0], tokens[8]);
+        assertSame(tokens[4], tokens[6]);
+        assertEquals(2, tokenizer.getSymbolTable().size());
+    }
+
+    @Test
+    public void parserSharesVariableExp() throws TokenizerException, ParseException {
+        Tokenizer tokenizer = new Tokenizer("var count = 1\ncount = count + 1\nprintln(\"count is $count\")\n");
+        Parser parser = new Parser(new LazyTokenStream(tokenizer));
+        Program program = parser.parseToplevelProgram();
+
+        VariableExp declared = (VariableExp) ((AssignStmt) program.getStmtList().get(0)).getVariable();
+        AssignStmt assign = (AssignStmt) program.getStmtList().get(1);
+        StringExp printed = (StringExp) ((PrintlnStmt) program.getStmtList().get(2)).getValue();
+        assertSame(declared, assign.getVariable());
+        assertSame(declared, ((AdditiveExp) assign.getExpression()).getLeft());
+        assertSame(declared, printed.getInterpolationExp().values().iterator().next());
+        assertEquals(tokenizer.getSymbolTable().intern("count").getId(), declared.getId());
+    }
+
+    @Test
+    public void tokensWithoutIdsAreInterned() throws ParseException {
+        Parser parser = new Parser(new Token[] {new VariableToken("x"), BinopToken.TK_PLUS, new VariableToken("x")});
+        AdditiveExp exp = (AdditiveExp) parser.parseToplevelExp();
+        assertSame(exp.getLeft(), exp.getRight());
+        assertEquals(0, ((VariableExp) exp.getLeft()).getId());
+    }
+}
@@ -0,0 +1,56 @@
+package com.github.wangdong20.kotlinscriptcompiler.test;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.Parser;
+import com.github.wangdong20.kotlinscriptcompiler.token.Token;
+import com.github.wangdong20.kotlinscriptcompiler.token.TokenBuffer;
+import com.github.wangdong20.kotlinscriptcompiler.token.Tokenizer;
+
+/**
+ * Retained heap per token of a Token[] (as the parser used to get it) and of a TokenBuffer, and
+ * the time to parse from each. Not a unit test, run it by hand:
+ * java -cp target/classes:target/test-classes ...TokenBufferBenchmark [MB]
+ */
+public class TokenBufferBenchmark {
+    private static final String BLOCK = "fun sum%d(a : Array<Int>, n : Int): Int {\n" +
+            "    var total = 0\n" +
+            "    for(i in 0..n step 2) {\n" +
+            "        total += a[i] * %d - (i / 2) %% 7\n" +
+            "    }\n" +
+            "    return total\n" +
+            "}\n" +
+            "val label%d = \"sum of \" + \"%d\"\n" +
+            "println(sum%d(numbers, 3))\n";
+
+    private static long usedHeap() {
+        for(int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+
+    public static void main(String[] args) throws Exception {
+        long chars = (args.length > 0 ? Long.parseLong(args[0]) : 8) << 20;
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; builder.length() < chars; i++) {
+            builder.append(String.format(BLOCK, i, i, i, i % 100, i));
+        }
+        String source = builder.toString();
+
+        long before = usedHeap();
+        Token[] array = new Tokenizer(source).tokenize().toArray(new Token[0]);
+        long arrayBytes = usedHeap() - before;
+        System.out.printf("Token[]      %d tokens  %6.1f bytes/token%n", array.length, (double) arrayBytes / array.length);
+        long start = System.nanoTime();
+        new Parser(array).parseToplevelProgram();
+        System.out.printf("             parse %.0f ms%n", (System.nanoTime() - start) / 1e6);
+        array = null;
+
+        before = usedHeap();
+        TokenBuffer buffer = TokenBuffer.tokenize(new Tokenizer(source));
+        long bufferBytes = usedHeap() - before;
+        System.out.printf("TokenBuffer  %d tokens  %6.1f bytes/token%n", buffer.size(), (double) bufferBytes / buffer.size());
+        start = System.nanoTime();
+        new Parser(buffer).parseToplevelProgram();
+        System.out.printf("             parse %.0f ms%n", (System.nanoTime() - start) / 1e6);
+    }
+}
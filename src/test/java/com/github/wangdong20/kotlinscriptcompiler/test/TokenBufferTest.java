@@ -0,0 +1,85 @@
+package com.github.wangdong20.kotlinscriptcompiler.test;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.ParseException;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Parser;
+import com.github.wangdong20.kotlinscriptcompiler.token.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBufferTest {
+
+    private static final String SOURCE = "var total = 10 // ten\n" +
+            "/* two\n   lines */ total += 10\n" +
+            "println(\"a\nb\" + total)\n" +
+            "val größe = 10\n";
+
+    @Test
+    public void sameTokensAsTokenizer() throws TokenizerException {
+        TokenBuffer buffer = TokenBuffer.tokenize(new Tokenizer(SOURCE));
+        Token[] expected = new Tokenizer(SOURCE).tokenize().toArray(new Token[0]);
+        assertEquals(expected.length, buffer.size());
+        for(int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], buffer.get(i));
+        }
+        assertNull(buffer.get(expected.length));
+    }
+
+    @Test
+    public void positionsAndLines() throws TokenizerException {
+        TokenBuffer buffer = TokenBuffer.tokenize(new Tokenizer(SOURCE));
+        // total on line 1, += on line 3 after the block comment, println on line 4, the string
+        // spans lines 4 and 5, so val is on line 6
+        assertEquals(new VariableToken("total"), buffer.get(1));
+        assertEquals(4, buffer.getOffset(1));
+        assertEquals(5, buffer.getLength(1));
+        assertEquals(1, buffer.getLine(1));
+        assertEquals(BinopToken.TK_PLUS_EQUAL, buffer.get(6));
+        assertEquals(3, buffer.getLine(6));
+        assertEquals(SOURCE.indexOf("+="), buffer.getOffset(6));
+        assertEquals(KeywordToken.TK_PRINTLN, buffer.get(9));
+        assertEquals(4, buffer.getLine(9));
+        assertEquals(new StringToken("a\nb"), buffer.get(11));
+        assertEquals(5, buffer.getLength(11));
+        assertEquals(KeywordToken.TK_VAL, buffer.get(16));
+        assertEquals(6, buffer.getLine(16));
+    }
+
+    @Test
+    public void bytePositionsFromUtf8() throws TokenizerException {
+        TokenBuffer buffer = TokenBuffer.tokenize(new Utf8Tokenizer(ByteBuffer.wrap(SOURCE.getBytes(StandardCharsets.UTF_8))));
+        assertEquals(new VariableToken("größe"), buffer.get(17));
+        assertEquals(7, buffer.getLength(17));
+        assertEquals(6, buffer.getLine(17));
+        assertEquals(SOURCE.getBytes(StandardCharsets.UTF_8).length - "größe = 10\n".getBytes(StandardCharsets.UTF_8).length,
+                buffer.getOffset(17));
+    }
+
+    @Test
+    public void repeatedValuesShareKind() throws TokenizerException {
+        TokenBuffer buffer = TokenBuffer.tokenize(new Tokenizer("a = 10\nb = 10\na = \"s\" + \"s\"\n"));
+        assertEquals(buffer.getKind(0), buffer.getKind(8));
+        assertEquals(buffer.getKind(2), buffer.getKind(6));
+        assertEquals(buffer.getKind(10), buffer.getKind(12));
+        assertSame(buffer.get(2), buffer.get(6));
+        assertSame(buffer.get(10), buffer.get(12));
+        assertTrue(buffer.getKind(1) < TokenBuffer.FIXED_KINDS);
+        assertTrue(buffer.getKind(2) >= TokenBuffer.FIXED_KINDS);
+        assertSame(buffer.get(1), buffer.getToken(buffer.getKind(1)));
+    }
+
+    @Test
+    public void parseErrorsHaveLines() throws TokenizerException {
+        String source = "var a = 1\nvar b = 2\nif (a > b {\n}\n";
+        String fromBuffer = assertThrows(ParseException.class,
+                () -> new Parser(TokenBuffer.tokenize(new Tokenizer(source))).parseToplevelProgram()).getMessage();
+        assertTrue(fromBuffer.endsWith(" at line 3"), fromBuffer);
+        String streamed = assertThrows(ParseException.class,
+                () -> new Parser(new LazyTokenStream(new Tokenizer(new StringReader(source)))).parseToplevelProgram()).getMessage();
+        assertEquals(fromBuffer, streamed);
+    }
+}
@@ -0,0 +1,133 @@
+package com.github.wangdong20.kotlinscriptcompiler.test;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.ParseException;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Parser;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.token.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenStreamTest {
+
+    private static final String SOURCE = "fun sum(a : Array<Int>): Int {\n" +
+            "    var total = 0 // running total\n" +
+            "    for(x in a) {\n" +
+            "        total += x\n" +
+            "    }\n" +
+            "    return total\n" +
+            "}\n" +
+            "/* numbers\n   to add */\n" +
+            "val numbers = arrayOf(1, -2, 30)\n" +
+            "var f: (Int) -> Int = { x: Int -> x * 2 }\n" +
+            "if(sum(numbers) >= 29 && !(1 != 1)) {\n" +
+            "    println(\"sum is ${sum(numbers)} for $numbers\")\n" +
+            "}\n" +
+            "for(i in 0..10 step 2) {\n" +
+            "    i++\n" +
+            "}\n";
+
+    // Hands out one character per read, so every token crosses a refill of the tokenizer window.
+    private static class TrickleReader extends Reader {
+        private final String text;
+        private int pos;
+
+        private TrickleReader(final String text) {
+            this.text = text;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if(pos >= text.length()) {
+                return -1;
+            }
+            buffer[offset] = text.charAt(pos++);
+            return 1;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static List<Token> drain(final Tokenizer tokenizer) throws TokenizerException {
+        List<Token> tokens = new ArrayList<>();
+        LazyTokenStream stream = new LazyTokenStream(tokenizer);
+        Token token;
+        for(int i = 0; (token = stream.get(i)) != null; i++) {
+            tokens.add(token);
+            stream.release(i);
+        }
+        return tokens;
+    }
+
+    @Test
+    public void readerMatchesString() throws TokenizerException {
+        List<Token> expected = new Tokenizer(SOURCE).tokenize();
+        assertEquals(expected, drain(new Tokenizer(new StringReader(SOURCE))));
+        assertEquals(expected, drain(new Tokenizer(new TrickleReader(SOURCE))));
+        assertEquals(expected, drain(new Tokenizer(CharBuffer.wrap(SOURCE))));
+    }
+
+    @Test
+    public void tokenLongerThanBuffer() throws TokenizerException {
+        StringBuilder builder = new StringBuilder("var s = \"");
+        for(int i = 0; i < 20000; i++) {
+            builder.append((char) ('a' + i % 26));
+        }
+        builder.append("\"\n");
+        String source = builder.toString();
+        assertEquals(new Tokenizer(source).tokenize(), new Tokenizer(new TrickleReader(source)).tokenize());
+    }
+
+    @Test
+    public void fileChannelMatchesString() throws IOException, TokenizerException, ParseException {
+        Path file = Files.createTempFile("stream", ".ks");
+        try {
+            Files.write(file, SOURCE.getBytes(StandardCharsets.UTF_8));
+            Program expected = new Parser(new Tokenizer(SOURCE).tokenize().toArray(new Token[0])).parseToplevelProgram();
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                Program received = new Parser(new LazyTokenStream(new Tokenizer(channel))).parseToplevelProgram();
+                assertEquals(expected, received);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void releasedTokensCannotBeRead() throws TokenizerException {
+        StringBuilder source = new StringBuilder();
+        for(int i = 0; i < 20; i++) {
+            source.append(SOURCE);
+        }
+        LazyTokenStream stream = new LazyTokenStream(new Tokenizer(new TrickleReader(source.toString())));
+        for(int i = 0; i < 200; i++) {
+            stream.get(i);
+        }
+        stream.release(100);
+        for(int i = 200; stream.get(i) != null; i++) {
+            stream.release(i);
+        }
+        assertThrows(IllegalStateException.class, () -> stream.get(0));
+    }
+
+    @Test
+    public void tokenizerErrorReachesParser() {
+        Parser parser = new Parser(new LazyTokenStream(new Tokenizer(new StringReader("var a = 1\nvar b = \"open\n"))));
+        ParseException e = assertThrows(ParseException.class, parser::parseToplevelProgram);
+        assertTrue(e.getCause() instanceof TokenizerException);
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.wangdong20.kotlinscriptcompiler.test;
+
+import com.github.wangdong20.kotlinscriptcompiler.token.Tokenizer;
+import com.github.wangdong20.kotlinscriptcompiler.token.TokenizerException;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Guards the scanner against allocating per character. Keywords, types, brackets and operators
+ * should not allocate at all, identifiers and strings only their token and String.
+ */
+class TokenizerAllocationTest {
+    private static final int REPEAT = 2000;
+
+    private static final String PUNCTUATION = "if ( ) { } [ ] + - * / % == != >= <= > < = ! && || += -= *= /= " +
+            "++ -- -> .. . : ; , $ true false while for fun var val in step return print println " +
+            "arrayOf mutableListOf Int String Boolean Unit Array MutableList Any\n";
+
+    private static final String PROGRAM = "fun fibonacci(n : Int): Int {\n" +
+            "    var first = 0; var second = 1\n" +
+            "    for(index in 0..n) {\n" +
+            "        val next = first + second * 1234567\n" +
+            "        first = second; second = next\n" +
+            "    }\n" +
+            "    return first\n" +
+            "}\n" +
+            "println(\"the fibonacci number of ten is ${fibonacci(10)}\")\n";
+
+    private static String repeat(final String text) {
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < REPEAT; i++) {
+            builder.append(text);
+        }
+        return builder.toString();
+    }
+
+    private static int scan(final char[] input) throws TokenizerException {
+        Tokenizer tokenizer = new Tokenizer(input);
+        int count = 0;
+        while(tokenizer.nextToken() != null) {
+            count++;
+        }
+        return count;
+    }
+
+    private static double bytesPerToken(final String text) throws TokenizerException {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        char[] input = repeat(text).toCharArray();
+        for(int i = 0; i < 20; i++) {   // let the JIT settle first
+            scan(input);
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        int count = scan(input);
+        long after = threads.getThreadAllocatedBytes(threadId);
+        return (double) (after - before) / count;
+    }
+
+    @Test
+    public void fixedTokensDoNotAllocate() throws TokenizerException {
+        double perToken = bytesPerToken(PUNCTUATION);
+        assertTrue(perToken < 1, "Allocated " + perToken + " bytes per token");
+    }
+
+    @Test
+    public void programAllocatesOnlyTokens() throws TokenizerException {
+        // An identifier costs its VariableToken and String, which is well below this bound.
+        double perToken = bytesPerToken(PROGRAM);
+        assertTrue(perToken < 40, "Allocated " + perToken + " bytes per token");
+    }
+}
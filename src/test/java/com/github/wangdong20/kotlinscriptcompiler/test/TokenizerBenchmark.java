@@ -0,0 +1,47 @@
+package com.github.wangdong20.kotlinscriptcompiler.test;
+
+import com.github.wangdong20.kotlinscriptcompiler.token.Tokenizer;
+
+/**
+ * Tokens per second of the Tokenizer on a generated script held in memory. Not a unit test, run it by hand:
+ * java -cp target/classes:target/test-classes ...TokenizerBenchmark [MB]
+ */
+public class TokenizerBenchmark {
+    private static final String BLOCK = "fun sum%d(a : Array<Int>, n : Int): Int {\n" +
+            "    var total = 0 // running total\n" +
+            "    for(i in 0..n step 2) {\n" +
+            "        if(a[i] >= 10 && a[i] != 42 || !(i == 3)) {\n" +
+            "            total += a[i] * %d - (i / 2) %% 7\n" +
+            "        } else {\n" +
+            "            total -= 1; i++\n" +
+            "        }\n" +
+            "    }\n" +
+            "    /* done */\n" +
+            "    return total\n" +
+            "}\n" +
+            "var f%d: (Int) -> Int = { x: Int -> x * -%d }\n" +
+            "println(\"sum is ${sum%d(arrayOf(1, 2, 3), 3)}\")\n";
+
+    public static void main(String[] args) throws Exception {
+        long bytes = (args.length > 0 ? Long.parseLong(args[0]) : 8) << 20;
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; builder.length() < bytes; i++) {
+            builder.append(String.format(BLOCK, i, i, i, i, i));
+        }
+        char[] input = builder.toString().toCharArray();
+
+        double best = 0;
+        for(int round = 0; round < 10; round++) {
+            long start = System.nanoTime();
+            Tokenizer tokenizer = new Tokenizer(input);
+            long count = 0;
+            while(tokenizer.nextToken() != null) {
+                count++;
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            best = Math.max(best, count / seconds);
+            System.out.printf("round %d: %d tokens in %.1f ms%n", round, count, seconds * 1e3);
+        }
+        System.out.printf("best: %.1f million tokens/sec%n", best / 1e6);
+    }
+}
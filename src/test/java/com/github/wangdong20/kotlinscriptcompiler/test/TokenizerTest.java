@@ -125,6 +125,11 @@ public class TokenizerTest {
                 BracketsToken.TK_RCURLY);
     }
 
+    public static void testConsecutiveComments() throws TokenizerException {
+        testTokenizes("/* first */ /* second */ x // third\n// fourth\ny", new VariableToken("x"),
+                SymbolToken.TK_LINE_BREAK, SymbolToken.TK_LINE_BREAK, new VariableToken("y"));
+    }
+
     public static void testMultipleLineComment() throws TokenizerException {
         testTokenizes("/** For loop \n Mutiple line comment\n*/\nfor(i in a) {print(i)}", SymbolToken.TK_LINE_BREAK, KeywordToken.TK_FOR, BracketsToken.TK_LPAREN,
                 new VariableToken("i"), KeywordToken.TK_IN, new VariableToken("a"),
@@ -169,6 +174,7 @@ public class TokenizerTest {
         testForLoopToken();
         testSingleLineComment();
         testMultipleLineComment();
+        testConsecutiveComments();
         testOperator();
     }
 
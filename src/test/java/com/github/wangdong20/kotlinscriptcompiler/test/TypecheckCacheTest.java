@@ -0,0 +1,127 @@
+package com.github.wangdong20.kotlinscriptcompiler.test;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.ParseException;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Parser;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.token.TokenBuffer;
+import com.github.wangdong20.kotlinscriptcompiler.token.Tokenizer;
+import com.github.wangdong20.kotlinscriptcompiler.token.TokenizerException;
+import com.github.wangdong20.kotlinscriptcompiler.typechecker.IllTypedException;
+import com.github.wangdong20.kotlinscriptcompiler.typechecker.ParallelTypechecker;
+import com.github.wangdong20.kotlinscriptcompiler.typechecker.TypecheckCache;
+import com.github.wangdong20.kotlinscriptcompiler.typechecker.Typechecker;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TypecheckCacheTest {
+
+    private static final String SOURCE = "val limit = 10\n" +
+            "fun square(x: Int): Int {\n" +
+            "    return x * x\n" +
+            "}\n" +
+            "fun below(x: Int): Boolean {\n" +
+            "    return square(x) < limit\n" +
+            "}\n" +
+            "fun greet(name: String): String {\n" +
+            "    return \"hello \" + name\n" +
+            "}\n" +
+            "println(below(3))\n";
+
+    @TempDir
+    File directory;
+
+    private static Program parse(final String source) throws TokenizerException, ParseException {
+        return new Parser(TokenBuffer.tokenize(new Tokenizer(source))).parseToplevelProgram();
+    }
+
+    // Checks source with the cache in the file, saves it and gives {hits, misses}.
+    private long[] typecheck(final String source) throws IOException, TokenizerException, ParseException, IllTypedException {
+        final TypecheckCache cache = new TypecheckCache(new File(directory, "typecheck.cache"));
+        Typechecker.typecheckProgram(parse(source), cache);
+        cache.save();
+        return new long[] { cache.getHits(), cache.getMisses() };
+    }
+
+    @Test
+    public void unchangedBodiesAreSkipped() throws IOException, TokenizerException, ParseException, IllTypedException {
+        assertArrayEquals(new long[] { 0, 3 }, typecheck(SOURCE));
+        assertArrayEquals(new long[] { 3, 0 }, typecheck(SOURCE));
+    }
+
+    @Test
+    public void changedBodyIsChecked() throws IOException, TokenizerException, ParseException, IllTypedException {
+        typecheck(SOURCE);
+        assertArrayEquals(new long[] { 2, 1 }, typecheck(SOURCE.replace("\"hello \"", "\"hi \"")));
+    }
+
+    @Test
+    public void changedCalleeIsChecked() throws IOException, TokenizerException, ParseException, IllTypedException {
+        typecheck(SOURCE);
+        // below calls square, which returns a String now.
+        String source = SOURCE.replace("fun square(x: Int): Int {\n    return x * x\n}", "fun square(x: Int): String {\n    return \"\" + x\n}");
+        IllTypedException exception = assertThrows(IllTypedException.class, () -> typecheck(source));
+        assertEquals("Only Int can compare with Int!", exception.getMessage());
+    }
+
+    @Test
+    public void changedGlobalIsChecked() throws IOException, TokenizerException, ParseException, IllTypedException {
+        typecheck(SOURCE);
+        // Still an Int, so nothing is checked again.
+        assertArrayEquals(new long[] { 3, 0 }, typecheck(SOURCE.replace("val limit = 10", "val limit = 10 + 1")));
+        assertArrayEquals(new long[] { 2, 1 }, typecheck(SOURCE.replace("val limit = 10", "var limit = 10")));
+        String source = SOURCE.replace("val limit = 10", "val limit = \"10\"");
+        assertThrows(IllTypedException.class, () -> typecheck(source));
+    }
+
+    @Test
+    public void unusedEntriesAreDropped() throws IOException, TokenizerException, ParseException, IllTypedException {
+        typecheck(SOURCE);
+        typecheck(SOURCE.replace("\"hello \"", "\"hi \""));
+        // The header and the three functions as they are now, the old greet is gone.
+        assertEquals(4, Files.readAllLines(new File(directory, "typecheck.cache").toPath()).size());
+        assertArrayEquals(new long[] { 2, 1 }, typecheck(SOURCE));
+    }
+
+    @Test
+    public void otherFormatIsNotRead() throws IOException, TokenizerException, ParseException, IllTypedException {
+        typecheck(SOURCE);
+        Path path = new File(directory, "typecheck.cache").toPath();
+        List<String> lines = Files.readAllLines(path);
+        lines.set(0, "dwks typecheck cache 0");
+        Files.write(path, lines);
+        assertArrayEquals(new long[] { 0, 3 }, typecheck(SOURCE));
+        assertArrayEquals(new long[] { 3, 0 }, typecheck(SOURCE));
+    }
+
+    @Test
+    public void failingBodyIsNeverCached() throws IOException, TokenizerException, ParseException {
+        String source = SOURCE.replace("return \"hello \" + name", "return 1");
+        for(int i = 0; i < 2; i++) {
+            IllTypedException exception = assertThrows(IllTypedException.class, () -> typecheck(source));
+            assertEquals("return type should be the same as return type in function declaration.", exception.getMessage());
+        }
+    }
+
+    @Test
+    public void parallelUsesTheSameCache() throws IOException, TokenizerException, ParseException, IllTypedException {
+        typecheck(SOURCE);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            TypecheckCache cache = new TypecheckCache(new File(directory, "typecheck.cache"));
+            Program program = parse(SOURCE);
+            new ParallelTypechecker(pool, cache).typecheck(program);
+            assertEquals(3, cache.getHits());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.github.wangdong20.kotlinscriptcompiler.test;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.Parser;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.token.TokenBuffer;
+import com.github.wangdong20.kotlinscriptcompiler.token.Tokenizer;
+import com.github.wangdong20.kotlinscriptcompiler.typechecker.Typechecker;
+
+/**
+ * Typecheck time of a function declaring more and more locals, each read by the next one and
+ * half of them inside a block. The time per local should stay flat as the count grows. Not a
+ * unit test, run it by hand:
+ * java -cp target/classes:target/test-classes ...TypecheckerBenchmark [rounds]
+ */
+public class TypecheckerBenchmark {
+    private static final int[] LOCALS = {10000, 20000, 50000, 100000};
+
+    private static Program program(final int locals) throws Exception {
+        StringBuilder builder = new StringBuilder("fun locals(a: Int): Int {\nvar v0 = a\n");
+        for(int i = 1; i < locals; i++) {
+            if(i % 2 == 0) {
+                builder.append("var v").append(i).append(" = v").append(i - 1).append(" + 1\n");
+            } else {
+                builder.append("if(v").append(i - 1).append(" > 0) {\nval w").append(i).append(" = v").append(i - 1).append(" * 2\n}\n");
+                builder.append("var v").append(i).append(" = v").append(i - 1).append("\n");
+            }
+        }
+        builder.append("return v").append(locals - 1).append("\n}\n");
+        return new Parser(TokenBuffer.tokenize(new Tokenizer(builder.toString()))).parseToplevelProgram();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        Program warmUp = program(LOCALS[LOCALS.length - 1]);
+        for(int round = 0; round < rounds; round++) {
+            Typechecker.typecheckProgram(warmUp);
+        }
+        for(int locals : LOCALS) {
+            Program program = program(locals);
+            long best = Long.MAX_VALUE;
+            for(int round = 0; round < rounds; round++) {
+                long start = System.nanoTime();
+                Typechecker.typecheckProgram(program);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.printf("%6d locals  %7.1f ms  %5.0f ns/local%n", locals, best / 1e6, (double) best / locals);
+        }
+    }
+}
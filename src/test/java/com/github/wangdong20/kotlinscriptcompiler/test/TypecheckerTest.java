@@ -6,16 +6,22 @@ import com.github.wangdong20.kotlinscriptcompiler.parser.statements.*;
 import com.github.wangdong20.kotlinscriptcompiler.parser.type.BasicType;
 import com.github.wangdong20.kotlinscriptcompiler.parser.type.Type;
 import com.github.wangdong20.kotlinscriptcompiler.parser.type.TypeArray;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.TypeMutableList;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.TypeHighOrderFunction;
+import com.github.wangdong20.kotlinscriptcompiler.parser.type.Types;
 import com.github.wangdong20.kotlinscriptcompiler.typechecker.IllTypedException;
 import com.github.wangdong20.kotlinscriptcompiler.typechecker.Pair;
 import com.github.wangdong20.kotlinscriptcompiler.typechecker.Typechecker;
 import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class TypecheckerTest {
@@ -1006,4 +1012,83 @@ public class TypecheckerTest {
         assertTypecheckProgram(program);
     }
 
+    @Test
+    // fun same(a : Array<Int>): Array<Int> {
+    //      return a
+    // }
+    public void functionReturnsArray() throws IllTypedException {
+        LinkedHashMap<Exp, Type> parameters = new LinkedHashMap<>();
+        parameters.put(new VariableExp("a"), new TypeArray(BasicType.TYPE_INT));
+        List<Stmt> stmtsInBlock = new ArrayList<>();
+        stmtsInBlock.add(new ReturnStmt(new VariableExp("a")));
+        List<Stmt> stmts = new ArrayList<>();
+        stmts.add(new FunctionDeclareStmt(new VariableExp("same"), new TypeArray(BasicType.TYPE_INT), parameters,
+                new BlockStmt(stmtsInBlock)));
+        assertTypecheckProgram(new Program(stmts));
+    }
+
+    @Test
+    // var s = "a" + 1
+    // print(s + 2)
+    public void expTypes() throws IllTypedException {
+        VariableExp s = new VariableExp("s");
+        AdditiveExp init = new AdditiveExp(new StringExp("a", null), new IntExp(1), AdditiveOp.EXP_PLUS);
+        List<Stmt> stmtList = new ArrayList<>();
+        stmtList.add(new AssignStmt(init, s, null, false, true));
+        AdditiveExp printed = new AdditiveExp(s, new IntExp(2), AdditiveOp.EXP_PLUS);
+        stmtList.add(new PrintStmt(printed));
+        Map<Exp, Type> expTypes = Typechecker.typecheckProgram(new Program(stmtList));
+        assertSame(BasicType.TYPE_STRING, expTypes.get(init));
+        assertSame(BasicType.TYPE_STRING, expTypes.get(printed));
+        assertSame(BasicType.TYPE_INT, expTypes.get(init.getRight()));
+        assertEquals(null, expTypes.get(s));
+    }
+
+    @Test
+    // fun twice(a: Int): Int { return a * 2 }
+    // fun twice(a: Array<Int>): Array<Int> { return a }
+    // var x = twice(arrayOf(1))
+    // var y = twice(twice(1))
+    public void callsResolvedToOverload() throws IllTypedException {
+        LinkedHashMap<Exp, Type> intParameter = new LinkedHashMap<>();
+        intParameter.put(new VariableExp("a"), BasicType.TYPE_INT);
+        FunctionDeclareStmt onInt = new FunctionDeclareStmt(new VariableExp("twice"), BasicType.TYPE_INT, intParameter,
+                new BlockStmt(Arrays.<Stmt>asList(new ReturnStmt(new MultiplicativeExp(new VariableExp("a"), new IntExp(2), MultiplicativeOp.OP_MULTIPLY)))));
+        LinkedHashMap<Exp, Type> arrayParameter = new LinkedHashMap<>();
+        arrayParameter.put(new VariableExp("a"), new TypeArray(BasicType.TYPE_INT));
+        FunctionDeclareStmt onArray = new FunctionDeclareStmt(new VariableExp("twice"), new TypeArray(BasicType.TYPE_INT), arrayParameter,
+                new BlockStmt(Arrays.<Stmt>asList(new ReturnStmt(new VariableExp("a")))));
+        FunctionInstanceExp arrayCall = new FunctionInstanceExp(new VariableExp("twice"),
+                Arrays.<Exp>asList(new ArrayOfExp(Arrays.<Exp>asList(new IntExp(1)))));
+        FunctionInstanceExp innerCall = new FunctionInstanceExp(new VariableExp("twice"), Arrays.<Exp>asList(new IntExp(1)));
+        FunctionInstanceExp outerCall = new FunctionInstanceExp(new VariableExp("twice"), Arrays.<Exp>asList(innerCall));
+        List<Stmt> stmtList = new ArrayList<>();
+        stmtList.add(onInt);
+        stmtList.add(onArray);
+        stmtList.add(new AssignStmt(arrayCall, new VariableExp("x"), null, false, true));
+        stmtList.add(new AssignStmt(outerCall, new VariableExp("y"), null, false, true));
+        Map<Exp, Type> expTypes = Typechecker.typecheckProgram(new Program(stmtList));
+        assertSame(onArray, arrayCall.getFunction());
+        assertSame(onInt, innerCall.getFunction());
+        assertSame(onInt, outerCall.getFunction());
+        assertSame(Types.arrayOf(BasicType.TYPE_INT), expTypes.get(arrayCall));
+
+        stmtList.add(new FunctionDeclareStmt(new VariableExp("twice"), BasicType.TYPE_INT, intParameter, new BlockStmt(new ArrayList<>())));
+        assertTypecheckProgramExpectedException(new Program(stmtList));
+    }
+
+    @Test
+    public void canonicalTypes() {
+        assertSame(Types.arrayOf(BasicType.TYPE_INT), Types.canonical(new TypeArray(BasicType.TYPE_INT)));
+        TypeHighOrderFunction function = Types.functionOf(Arrays.asList(BasicType.TYPE_INT, new TypeArray(BasicType.TYPE_STRING)),
+                Types.mutableListOf(BasicType.TYPE_ANY));
+        assertSame(function, Types.functionOf(Arrays.asList(BasicType.TYPE_INT, Types.arrayOf(BasicType.TYPE_STRING)),
+                Types.mutableListOf(BasicType.TYPE_ANY)));
+        assertSame(function, Types.canonical(new TypeHighOrderFunction(function.getParameterList(), function.getReturnType())));
+        assertSame(Types.arrayOf(BasicType.TYPE_STRING), function.getParameterList().get(1));
+        assertSame(BasicType.TYPE_UNIT, Types.canonical(BasicType.TYPE_UNIT));
+        assertSame(Types.arrayOf(null), Types.canonical(new TypeArray(null)));
+        assertSame(Types.mutableListOf(null), Types.canonical(new TypeMutableList(null)));
+    }
+
 }
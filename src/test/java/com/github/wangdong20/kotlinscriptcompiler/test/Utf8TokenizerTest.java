@@ -0,0 +1,122 @@
+package com.github.wangdong20.kotlinscriptcompiler.test;
+
+import com.github.wangdong20.kotlinscriptcompiler.parser.ParseException;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Parser;
+import com.github.wangdong20.kotlinscriptcompiler.parser.Program;
+import com.github.wangdong20.kotlinscriptcompiler.token.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Utf8TokenizerTest {
+
+    private static final String SOURCE = "fun sum(a : Array<Int>): Int {\n" +
+            "    var total = 0 // running total, ½ done\n" +
+            "    for(x in a) {\n" +
+            "        total += x\n" +
+            "    }\n" +
+            "    return total\n" +
+            "}\n" +
+            "/* numbers\n   to add → */\n" +
+            "val numbers = arrayOf(1, -2, 30, -2147483648)\n" +
+            "var größe: (Int) -> Int = { x: Int -> x * 2 }\n" +
+            "if(sum(numbers) >= 29 && !(1 != 1)) {\n" +
+            "    println(\"sum is ${sum(numbers)} für $numbers 😀\")\n" +
+            "}\n" +
+            "for(i in 0..10 step 2) {\n" +
+            "    i++\n" +
+            "}\n";
+
+    private static ByteBuffer utf8(final String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer direct(final byte[] bytes) {
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes);
+        direct.flip();
+        return direct;
+    }
+
+    private static String error(final ByteBuffer input) {
+        return assertThrows(TokenizerException.class, () -> new Utf8Tokenizer(input).tokenize()).getMessage();
+    }
+
+    @Test
+    public void bytesMatchChars() throws TokenizerException {
+        assertEquals(new Tokenizer(SOURCE).tokenize(), new Utf8Tokenizer(utf8(SOURCE)).tokenize());
+    }
+
+    @Test
+    public void directBufferMatchesChars() throws TokenizerException {
+        // Large enough that tokens, including multi-byte characters, cross refills of the window.
+        StringBuilder source = new StringBuilder();
+        for(int i = 0; i < 1000; i++) {
+            source.append(SOURCE);
+        }
+        ByteBuffer input = direct(source.toString().getBytes(StandardCharsets.UTF_8));
+        assertEquals(new Tokenizer(source.toString()).tokenize(), new Utf8Tokenizer(input).tokenize());
+        assertEquals("Malformed UTF-8 input at byte 4", error(direct(new byte[] {'v', 'a', 'r', ' ', (byte) 0xC3})));
+    }
+
+    @Test
+    public void nonAsciiIdentifiersAreInterned() throws TokenizerException {
+        Utf8Tokenizer tokenizer = new Utf8Tokenizer(utf8("größe = größe + ab٣"));
+        Token first = tokenizer.nextToken();
+        tokenizer.nextToken();
+        assertSame(first, tokenizer.nextToken());
+        assertEquals(new VariableToken("größe"), first);
+        tokenizer.nextToken();
+        assertEquals(new VariableToken("ab٣"), tokenizer.nextToken());
+        assertNull(tokenizer.nextToken());
+    }
+
+    @Test
+    public void sameErrorsAsChars() {
+        assertEquals("Has more input!", error(utf8("a # b")));
+        assertEquals("Has more input!", error(utf8("\"open")));
+        assertEquals("Has more input!", error(utf8("a -->b")));
+        assertEquals("Integer out of range!", error(utf8("2147483648")));
+        assertEquals("Has more input!", error(utf8("x😀")));
+    }
+
+    @Test
+    public void malformedInputIsReported() {
+        assertEquals("Malformed UTF-8 input at byte 4", error(ByteBuffer.wrap(new byte[] {'v', 'a', 'r', ' ', (byte) 0xC3})));
+        assertEquals("Malformed UTF-8 input at byte 1", error(ByteBuffer.wrap(new byte[] {'"', (byte) 0xFF, '"'})));
+        assertEquals("Malformed UTF-8 input at byte 2", error(ByteBuffer.wrap(new byte[] {'/', '/', (byte) 0xC0, (byte) 0x80})));
+    }
+
+    @Test
+    public void scansFromPositionToLimit() throws TokenizerException {
+        ByteBuffer input = utf8("}} var a = 1 {{");
+        input.position(3);
+        input.limit(12);
+        assertEquals(new Tokenizer("var a = 1").tokenize(), new Utf8Tokenizer(input).tokenize());
+        assertEquals(3, input.position());
+    }
+
+    @Test
+    public void parsesMappedFile() throws IOException, TokenizerException, ParseException {
+        Path file = Files.createTempFile("utf8", ".ks");
+        try {
+            Files.write(file, SOURCE.getBytes(StandardCharsets.UTF_8));
+            Program expected = new Parser(new Tokenizer(SOURCE).tokenize().toArray(new Token[0])).parseToplevelProgram();
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                Program received = new Parser(new LazyTokenStream(new Utf8Tokenizer(mapped))).parseToplevelProgram();
+                assertEquals(expected, received);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+}